@@ -1787,4 +1787,28 @@ public interface Context extends Container {
      *         otherwise {@code false}
      */
     public boolean getCreateUploadTargets();
+
+
+    /**
+     * Configure how many distinct Cookie headers each request processor will
+     * cache in parsed form for requests to this web application. Browsers
+     * usually send an identical Cookie header with every request on a
+     * connection so caching avoids parsing the same header repeatedly. A
+     * processor's cache is shared by all the web applications it serves and
+     * holds as many headers as the largest of their sizes.
+     *
+     * @param cookieParseCacheSize The number of headers to cache. Zero
+     *          disables the cache.
+     */
+    public void setCookieParseCacheSize(int cookieParseCacheSize);
+
+
+    /**
+     * How many distinct Cookie headers will each request processor cache in
+     * parsed form for requests to this web application?
+     *
+     * @return The number of headers to cache. Zero means the cache is
+     *         disabled.
+     */
+    public int getCookieParseCacheSize();
 }
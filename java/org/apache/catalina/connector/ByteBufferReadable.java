@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Tomcat specific extension implemented by the
+ * {@link javax.servlet.ServletInputStream} returned for a request. It gives
+ * applications direct, read-only access to request body bytes that the
+ * connector has already read, without copying them into an application
+ * provided array. Transfer encodings such as chunked have already been
+ * removed from the bytes that are returned.
+ * <p>
+ * Typical use:
+ * <pre>
+ * ByteBufferReadable in = (ByteBufferReadable) request.getInputStream();
+ * ByteBuffer buffer;
+ * while ((buffer = in.acquireBuffer()) != null) {
+ *     try {
+ *         channel.write(buffer);
+ *     } finally {
+ *         in.releaseBuffer(buffer);
+ *     }
+ * }
+ * </pre>
+ */
+public interface ByteBufferReadable {
+
+    /**
+     * Obtain a read-only view of the next bytes of the request body. If no
+     * bytes are buffered, this blocks in the same way as
+     * {@link java.io.InputStream#read(byte[])} until at least some are
+     * available.
+     * <p>
+     * The view refers to the connector's buffer and is only valid until it
+     * is passed to {@link #releaseBuffer(ByteBuffer)}. No other read may be
+     * made from the stream until then.
+     *
+     * @return A view of the buffered body bytes starting at position zero or
+     *         <code>null</code> if the end of the body has been reached
+     *
+     * @throws IOException if an I/O error occurs while reading the body
+     * @throws IllegalStateException if a previously acquired view has not been
+     *         released
+     */
+    public ByteBuffer acquireBuffer() throws IOException;
+
+
+    /**
+     * Release a view obtained from {@link #acquireBuffer()}. The position of
+     * the view marks how many bytes were consumed. Any bytes after it will be
+     * returned by the next read from the stream.
+     *
+     * @param buffer The view to release
+     *
+     * @throws IllegalArgumentException if the buffer is not the view that is
+     *         currently acquired
+     */
+    public void releaseBuffer(ByteBuffer buffer);
+}
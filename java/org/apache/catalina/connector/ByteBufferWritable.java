@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Tomcat specific extension implemented by the
+ * {@link javax.servlet.ServletOutputStream} returned for a response. It lets
+ * applications write direct or mapped ByteBuffers and regions of files without
+ * first copying them into a byte array. With the NIO HTTP connector, when the
+ * response is not compressed, the data is passed through the transfer encoding
+ * unchanged and written to the socket straight from the ByteBuffer. Other
+ * connectors copy the data as required.
+ * <p>
+ * Typical use:
+ * <pre>
+ * ByteBufferWritable out = (ByteBufferWritable) response.getOutputStream();
+ * out.transferFrom(fileChannel, 0, fileChannel.size());
+ * </pre>
+ */
+public interface ByteBufferWritable {
+
+    /**
+     * Write the remaining bytes of the given buffer to the response. Small
+     * buffers may be copied into the response buffer as for any other write.
+     *
+     * @param buffer The bytes to write. On return its position will be equal
+     *               to its limit.
+     *
+     * @throws IOException if an I/O error occurs while writing
+     */
+    public void write(ByteBuffer buffer) throws IOException;
+
+
+    /**
+     * Write a region of a file to the response. The position of the channel
+     * is not changed.
+     *
+     * @param channel  The file to read from
+     * @param position The position in the file of the first byte to write
+     * @param count    The number of bytes to write
+     *
+     * @throws IOException if an I/O error occurs while reading the file or
+     *         writing the response, including the file ending before the
+     *         region does
+     */
+    public void transferFrom(FileChannel channel, long position, long count)
+            throws IOException;
+}
@@ -230,6 +230,12 @@ public class Connector extends LifecycleMBeanBase  {
     protected Mapper mapper = new Mapper();
 
 
+    /**
+     * Cache of mapping results, <code>null</code> if disabled.
+     */
+    protected volatile MappingCache mappingCache = null;
+
+
     /**
      * Mapper listener.
      */
@@ -248,6 +254,12 @@ public class Connector extends LifecycleMBeanBase  {
     protected boolean useBodyEncodingForURI = false;
 
 
+    /**
+     * Should request parameters only be decoded when they are first read?
+     */
+    protected boolean lazyParameterDecoding = false;
+
+
     protected static HashMap<String,String> replacements =
             new HashMap<String,String>();
     static {
@@ -408,6 +420,98 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * Return the cache of mapping results or <code>null</code> if mapping
+     * results are not cached.
+     */
+    public MappingCache getMappingCache() {
+        return mappingCache;
+    }
+
+
+    /**
+     * Return the maximum number of mapping results that are cached, zero if
+     * they are not.
+     */
+    public int getMappingCacheSize() {
+        MappingCache mappingCache = this.mappingCache;
+        return mappingCache == null ? 0 : mappingCache.getSize();
+    }
+
+
+    /**
+     * Set the maximum number of results of mapping a host name and URI to a
+     * context and wrapper that are cached. Zero, the default, disables the
+     * cache.
+     *
+     * @param mappingCacheSize The new size, rounded up to a power of two
+     */
+    public void setMappingCacheSize(int mappingCacheSize) {
+        if (mappingCacheSize > 0) {
+            mappingCache = new MappingCache(mappingCacheSize);
+        } else {
+            mappingCache = null;
+        }
+    }
+
+
+    public long getMappingCacheHitCount() {
+        MappingCache mappingCache = this.mappingCache;
+        return mappingCache == null ? 0 : mappingCache.getHitCount();
+    }
+
+
+    public long getMappingCacheMissCount() {
+        MappingCache mappingCache = this.mappingCache;
+        return mappingCache == null ? 0 : mappingCache.getMissCount();
+    }
+
+
+    /**
+     * Return the fraction of look ups that were found in the mapping cache.
+     */
+    public double getMappingCacheHitRatio() {
+        MappingCache mappingCache = this.mappingCache;
+        if (mappingCache == null) {
+            return 0;
+        }
+        long hits = mappingCache.getHitCount();
+        long total = hits + mappingCache.getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+
+    public long getMappingCacheEvictionCount() {
+        MappingCache mappingCache = this.mappingCache;
+        return mappingCache == null ? 0 : mappingCache.getEvictionCount();
+    }
+
+
+    public long getMappingCacheInvalidationCount() {
+        MappingCache mappingCache = this.mappingCache;
+        return mappingCache == null ? 0 : mappingCache.getInvalidationCount();
+    }
+
+
+    /**
+     * Is the mapper using its radix trie indexes to map requests?
+     */
+    public boolean getMapperIndexed() {
+        return mapper.isIndexed();
+    }
+
+
+    /**
+     * Set if the mapper should use radix trie indexes of the hosts, contexts
+     * and wrappers to map requests rather than binary searches.
+     *
+     * @param mapperIndexed The new value for the flag
+     */
+    public void setMapperIndexed(boolean mapperIndexed) {
+        mapper.setIndexed(mapperIndexed);
+    }
+
+
     /**
      * Return the maximum number of headers that are allowed by the container. A
      * value of less than 0 means no limit.
@@ -818,6 +922,33 @@ public class Connector extends LifecycleMBeanBase  {
 
     }
 
+
+    /**
+     * Return <code>true</code> if request parameters are only URL and
+     * character decoded when the application first reads them.
+     */
+    public boolean getLazyParameterDecoding() {
+
+        return (this.lazyParameterDecoding);
+
+    }
+
+
+    /**
+     * Set if request parameters should only be URL and character decoded when
+     * the application first reads them. Parsing then records the position of
+     * each parameter rather than creating a String for every name and value.
+     *
+     * @param lazyParameterDecoding The new value for the flag.
+     */
+    public void setLazyParameterDecoding(boolean lazyParameterDecoding) {
+
+        this.lazyParameterDecoding = lazyParameterDecoding;
+        setProperty
+        ("lazyParameterDecoding", String.valueOf(lazyParameterDecoding));
+
+    }
+
     /**
      * Indicates whether the generation of an X-Powered-By response header for
      * servlet-generated responses is enabled or disabled for this Connector.
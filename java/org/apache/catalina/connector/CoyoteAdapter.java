@@ -419,9 +419,11 @@ public class CoyoteAdapter implements Adapter {
             req.setNote(ADAPTER_NOTES, request);
             res.setNote(ADAPTER_NOTES, response);
 
-            // Set query string encoding
+            // Set query string encoding and parameter decoding
             req.getParameters().setQueryStringEncoding
                 (connector.getURIEncoding());
+            req.getParameters().setLazyDecoding
+                (connector.getLazyParameterDecoding());
 
         }
 
@@ -575,9 +577,11 @@ public class CoyoteAdapter implements Adapter {
             req.setNote(ADAPTER_NOTES, request);
             res.setNote(ADAPTER_NOTES, response);
 
-            // Set query string encoding
+            // Set query string encoding and parameter decoding
             req.getParameters().setQueryStringEncoding
                 (connector.getURIEncoding());
+            req.getParameters().setLazyDecoding
+                (connector.getLazyParameterDecoding());
         }
 
         try {
@@ -760,11 +764,28 @@ public class CoyoteAdapter implements Adapter {
         String version = null;
         Context versionContext = null;
         boolean mapRequired = true;
+        MappingCache mappingCache = connector.getMappingCache();
 
         while (mapRequired) {
-            // This will map the the latest version by default
-            connector.getMapper().map(serverName, decodedURI, version,
-                                      request.getMappingData());
+            if (mappingCache != null && version == null &&
+                    !serverName.isNull()) {
+                // The cache only holds the mapping to the latest version
+                if (!mappingCache.get(serverName, decodedURI,
+                        request.getMappingData())) {
+                    int generation = mappingCache.getGeneration();
+                    connector.getMapper().map(serverName, decodedURI, null,
+                            request.getMappingData());
+                    Object context = request.getMappingData().context;
+                    if (context != null && !((Context) context).getPaused()) {
+                        mappingCache.put(generation, serverName, decodedURI,
+                                request.getMappingData());
+                    }
+                }
+            } else {
+                // This will map the the latest version by default
+                connector.getMapper().map(serverName, decodedURI, version,
+                        request.getMappingData());
+            }
             request.setContext((Context) request.getMappingData().context);
             request.setWrapper((Wrapper) request.getMappingData().wrapper);
 
@@ -800,6 +821,8 @@ public class CoyoteAdapter implements Adapter {
             }
 
             // Look for session ID in cookies and SSL session
+            req.getCookies().setCacheSize(
+                    request.getContext().getCookieParseCacheSize());
             parseSessionCookiesId(req, request);
             parseSessionSslId(request);
 
@@ -17,6 +17,7 @@
 package org.apache.catalina.connector;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -32,7 +33,7 @@ import org.apache.catalina.security.SecurityUtil;
  * @author Jean-Francois Arcand
  */
 public class CoyoteInputStream
-    extends ServletInputStream {
+    extends ServletInputStream implements ByteBufferReadable {
 
 
     // ----------------------------------------------------- Instance Variables
@@ -202,6 +203,42 @@ public class CoyoteInputStream
     }
 
 
+    @Override
+    public ByteBuffer acquireBuffer() throws IOException {
+
+        if (SecurityUtil.isPackageProtectionEnabled()){
+            try{
+                ByteBuffer result =
+                    AccessController.doPrivileged(
+                        new PrivilegedExceptionAction<ByteBuffer>(){
+
+                            @Override
+                            public ByteBuffer run() throws IOException{
+                                return ib.acquireBuffer();
+                            }
+
+                });
+                return result;
+            } catch(PrivilegedActionException pae){
+                Exception e = pae.getException();
+                if (e instanceof IOException){
+                    throw (IOException)e;
+                } else {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+        } else {
+            return ib.acquireBuffer();
+        }
+    }
+
+
+    @Override
+    public void releaseBuffer(ByteBuffer buffer) {
+        ib.releaseBuffer(buffer);
+    }
+
+
     @Override
     public int readLine(byte[] b, int off, int len) throws IOException {
         return super.readLine(b, off, len);
@@ -17,6 +17,8 @@
 package org.apache.catalina.connector;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import javax.servlet.ServletOutputStream;
 
@@ -27,7 +29,7 @@ import javax.servlet.ServletOutputStream;
  * @author Remy Maucherat
  */
 public class CoyoteOutputStream
-    extends ServletOutputStream {
+    extends ServletOutputStream implements ByteBufferWritable {
 
 
     // ----------------------------------------------------- Instance Variables
@@ -109,5 +111,21 @@ public class CoyoteOutputStream
     }
 
 
-}
+    // --------------------------------------------- ByteBufferWritable Methods
+
+
+    @Override
+    public void write(ByteBuffer buffer)
+        throws IOException {
+        ob.write(buffer);
+    }
+
 
+    @Override
+    public void transferFrom(FileChannel channel, long position, long count)
+        throws IOException {
+        ob.write(channel, position, count);
+    }
+
+
+}
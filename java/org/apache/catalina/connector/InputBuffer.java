@@ -18,6 +18,7 @@ package org.apache.catalina.connector;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -134,6 +135,12 @@ public class InputBuffer extends Reader
     private int size = -1;
 
 
+    /**
+     * View of bb handed out by acquireBuffer() and not yet released.
+     */
+    private ByteBuffer acquiredBuffer = null;
+
+
     // ----------------------------------------------------------- Constructors
 
 
@@ -213,6 +220,7 @@ public class InputBuffer extends Reader
         }
         markPos = -1;
         bb.recycle();
+        acquiredBuffer = null;
         closed = false;
 
         if (conv != null) {
@@ -282,6 +290,8 @@ public class InputBuffer extends Reader
         if (coyoteRequest == null) {
             return -1;
         }
+        // The next read may overwrite the bytes the view refers to
+        checkNotAcquired();
 
         if(state == INITIAL_STATE) {
             state = BYTE_STATE;
@@ -300,6 +310,7 @@ public class InputBuffer extends Reader
         if (closed) {
             throw new IOException(sm.getString("inputBuffer.streamClosed"));
         }
+        checkNotAcquired();
 
         return bb.substract();
     }
@@ -311,11 +322,68 @@ public class InputBuffer extends Reader
         if (closed) {
             throw new IOException(sm.getString("inputBuffer.streamClosed"));
         }
+        checkNotAcquired();
 
         return bb.substract(b, off, len);
     }
 
 
+    /**
+     * Obtain a read-only view of the buffered request body bytes without
+     * copying them.
+     *
+     * @return The view or <code>null</code> at the end of the body
+     *
+     * @throws IOException An underlying IOException occurred
+     *
+     * @see ByteBufferReadable#acquireBuffer()
+     */
+    public ByteBuffer acquireBuffer()
+        throws IOException {
+
+        if (closed) {
+            throw new IOException(sm.getString("inputBuffer.streamClosed"));
+        }
+        checkNotAcquired();
+
+        if (bb.getLength() == 0) {
+            if (realReadBytes(bb.getBytes(), 0, 0) < 0) {
+                return null;
+            }
+        }
+
+        acquiredBuffer = ByteBuffer.wrap(bb.getBytes(), bb.getStart(),
+                bb.getLength()).slice().asReadOnlyBuffer();
+        return acquiredBuffer;
+    }
+
+
+    /**
+     * Release a view obtained from {@link #acquireBuffer()}, consuming the
+     * bytes before its position.
+     *
+     * @param buffer The view to release
+     *
+     * @see ByteBufferReadable#releaseBuffer(ByteBuffer)
+     */
+    public void releaseBuffer(ByteBuffer buffer) {
+        if (buffer == null || buffer != acquiredBuffer) {
+            throw new IllegalArgumentException(
+                    sm.getString("inputBuffer.notAcquired"));
+        }
+        bb.setOffset(bb.getStart() + buffer.position());
+        acquiredBuffer = null;
+    }
+
+
+    private void checkNotAcquired() {
+        if (acquiredBuffer != null) {
+            throw new IllegalStateException(
+                    sm.getString("inputBuffer.acquired"));
+        }
+    }
+
+
     // ------------------------------------------------- Chars Handling Methods
 
 
@@ -118,6 +118,7 @@ public class MapperListener extends LifecycleMBeanBase
                 registerHost(host);
             }
         }
+        invalidateMappingCache();
     }
 
 
@@ -171,6 +172,7 @@ public class MapperListener extends LifecycleMBeanBase
             removeListeners(child);
             // No need to unregister - life-cycle listener will handle this when
             // the child stops
+            return;
         } else if (Host.ADD_ALIAS_EVENT.equals(event.getType())) {
             // Handle dynamically adding host aliases
             mapper.addHostAlias(((Host) event.getSource()).getName(),
@@ -252,7 +254,10 @@ public class MapperListener extends LifecycleMBeanBase
 
             mapper.clearWelcomeFiles(hostName, contextPath,
                     context.getWebappVersion());
+        } else {
+            return;
         }
+        invalidateMappingCache();
     }
 
 
@@ -495,6 +500,7 @@ public class MapperListener extends LifecycleMBeanBase
             } else if (obj instanceof Host) {
                 registerHost((Host) obj);
             }
+            invalidateMappingCache();
         } else if (event.getType().equals(Lifecycle.BEFORE_STOP_EVENT)) {
             Object obj = event.getSource();
             if (obj instanceof Wrapper) {
@@ -504,6 +510,19 @@ public class MapperListener extends LifecycleMBeanBase
             } else if (obj instanceof Host) {
                 unregisterHost((Host) obj);
             }
+            invalidateMappingCache();
+        }
+    }
+
+
+    /**
+     * Invalidate the connector's cache of mapping results, if it has one,
+     * after the mapper has been changed.
+     */
+    private void invalidateMappingCache() {
+        MappingCache mappingCache = connector.getMappingCache();
+        if (mappingCache != null) {
+            mappingCache.invalidate();
         }
     }
 
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.mapper.MappingData;
+
+/**
+ * Bounded cache of the results of mapping a host name and decoded URI, used
+ * by the {@link CoyoteAdapter} to skip the {@link
+ * org.apache.tomcat.util.http.mapper.Mapper} for the URIs that are requested
+ * most often.
+ * <p>
+ * The cache is a two way set associative table. A look up hashes and
+ * compares the characters of the request so a hit does not allocate. When
+ * both entries of a set are in use the one that has not been used since it
+ * was last considered for replacement is evicted.
+ * <p>
+ * Every entry records the generation of the cache it was created in. The
+ * {@link MapperListener} calls {@link #invalidate()} whenever it changes the
+ * mapper, which starts a new generation and so invalidates every entry at
+ * once, including any created by requests that were mapped concurrently with
+ * the change.
+ */
+public class MappingCache {
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+
+    private volatile int generation = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+
+    /**
+     * Create a cache.
+     *
+     * @param size The maximum number of entries, rounded up to a power of two
+     */
+    public MappingCache(int size) {
+        int capacity = 2;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        entries = new AtomicReferenceArray<Entry>(capacity);
+        mask = capacity - 2;
+    }
+
+
+    public int getSize() {
+        return entries.length();
+    }
+
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+
+    /**
+     * The generation to pass to {@link #put} for a mapping that starts now.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+
+    /**
+     * Look up the mapping of a request and, if it is in the cache, copy it to
+     * the mapping data.
+     *
+     * @param host        The host name
+     * @param uri         The decoded and normalized URI
+     * @param mappingData The recycled mapping data for the request
+     *
+     * @return <code>true</code> if the mapping was found
+     */
+    public boolean get(MessageBytes host, MessageBytes uri,
+            MappingData mappingData) {
+        host.toChars();
+        uri.toChars();
+        CharChunk hostCC = host.getCharChunk();
+        CharChunk uriCC = uri.getCharChunk();
+        int hash = hash(hostCC, uriCC);
+        int set = hash & mask;
+        int generation = this.generation;
+        for (int i = set; i < set + 2; i++) {
+            Entry entry = entries.get(i);
+            if (entry != null && entry.hash == hash &&
+                    entry.generation == generation &&
+                    hostCC.equals(entry.host) && uriCC.equals(entry.uri)) {
+                entry.referenced = true;
+                entry.copyTo(mappingData);
+                hitCount.incrementAndGet();
+                return true;
+            }
+        }
+        missCount.incrementAndGet();
+        return false;
+    }
+
+
+    /**
+     * Add the mapping of a request to the cache. Mappings without a wrapper,
+     * that redirect or that depend on the static resources of the context are
+     * not added.
+     *
+     * @param generation  The generation of the cache when mapping started
+     * @param host        The host name
+     * @param uri         The decoded and normalized URI
+     * @param mappingData The result of mapping the request
+     */
+    public void put(int generation, MessageBytes host, MessageBytes uri,
+            MappingData mappingData) {
+        if (mappingData.wrapper == null ||
+                !mappingData.redirectPath.isNull() ||
+                mappingData.resourceDependent ||
+                generation != this.generation) {
+            return;
+        }
+        host.toChars();
+        uri.toChars();
+        CharChunk hostCC = host.getCharChunk();
+        CharChunk uriCC = uri.getCharChunk();
+        int hash = hash(hostCC, uriCC);
+        Entry entry = new Entry(hostCC.toString(), uriCC.toString(), hash,
+                generation, mappingData);
+
+        int set = hash & mask;
+        int index = -1;
+        for (int i = set; i < set + 2; i++) {
+            Entry current = entries.get(i);
+            if (current == null || current.generation != generation) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            // Give entries that have been used a second chance
+            Entry first = entries.get(set);
+            if (first.referenced) {
+                first.referenced = false;
+                index = set + 1;
+            } else {
+                index = set;
+            }
+            evictionCount.incrementAndGet();
+        }
+        entries.set(index, entry);
+        if (generation != this.generation) {
+            // Invalidated concurrently. Do not keep the old objects alive.
+            entries.compareAndSet(index, entry, null);
+        }
+    }
+
+
+    /**
+     * Invalidate all the entries, as the mappings have changed.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        invalidationCount.incrementAndGet();
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+
+
+    private static int hash(CharChunk host, CharChunk uri) {
+        int hash = hash(host.getBuffer(), host.getStart(), host.getEnd(), 0);
+        hash = hash(uri.getBuffer(), uri.getStart(), uri.getEnd(), hash);
+        // Spread the bits so that the low bits select the set
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private static int hash(char[] buf, int start, int end, int hash) {
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        return hash;
+    }
+
+
+    // --------------------------------------------------- Entry Inner Class
+
+    private static final class Entry {
+
+        final String host;
+        final String uri;
+        final int hash;
+        final int generation;
+        volatile boolean referenced = false;
+
+        private final Object mappedHost;
+        private final Object context;
+        private final int contextSlashCount;
+        private final Object[] contexts;
+        private final Object wrapper;
+        private final boolean jspWildCard;
+        private final String contextPath;
+        private final String requestPath;
+        private final String wrapperPath;
+        private final String pathInfo;
+
+        Entry(String host, String uri, int hash, int generation,
+                MappingData mappingData) {
+            this.host = host;
+            this.uri = uri;
+            this.hash = hash;
+            this.generation = generation;
+            mappedHost = mappingData.host;
+            context = mappingData.context;
+            contextSlashCount = mappingData.contextSlashCount;
+            contexts = mappingData.contexts;
+            wrapper = mappingData.wrapper;
+            jspWildCard = mappingData.jspWildCard;
+            contextPath = toString(mappingData.contextPath);
+            requestPath = toString(mappingData.requestPath);
+            wrapperPath = toString(mappingData.wrapperPath);
+            pathInfo = toString(mappingData.pathInfo);
+        }
+
+        void copyTo(MappingData mappingData) {
+            mappingData.host = mappedHost;
+            mappingData.context = context;
+            mappingData.contextSlashCount = contextSlashCount;
+            mappingData.contexts = contexts;
+            mappingData.wrapper = wrapper;
+            mappingData.jspWildCard = jspWildCard;
+            setString(mappingData.contextPath, contextPath);
+            setString(mappingData.requestPath, requestPath);
+            setString(mappingData.wrapperPath, wrapperPath);
+            setString(mappingData.pathInfo, pathInfo);
+        }
+
+        private static String toString(MessageBytes mb) {
+            return mb.isNull() ? null : mb.toString();
+        }
+
+        private static void setString(MessageBytes mb, String value) {
+            if (value != null) {
+                mb.setString(value);
+            }
+        }
+    }
+}
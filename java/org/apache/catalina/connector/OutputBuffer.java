@@ -17,8 +17,11 @@
 package org.apache.catalina.connector;
 
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -28,10 +31,12 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.Globals;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.ByteBufferOutputBuffer;
 import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.C2BConverter;
 import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.res.StringManager;
 
 
 /**
@@ -53,6 +58,14 @@ public class OutputBuffer extends Writer
         org.apache.coyote.Constants.DEFAULT_CHARACTER_ENCODING;
     public static final int DEFAULT_BUFFER_SIZE = 8*1024;
 
+    protected static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    /**
+     * Size of the buffer file regions are read into.
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 64*1024;
+
 
     // ----------------------------------------------------- Instance Variables
 
@@ -148,6 +161,12 @@ public class OutputBuffer extends Writer
     private boolean suspended = false;
 
 
+    /**
+     * Buffer used to write file regions.
+     */
+    private ByteBuffer transferBuffer = null;
+
+
     // ----------------------------------------------------------- Constructors
 
 
@@ -457,6 +476,126 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * Write the remaining bytes of a ByteBuffer. Array backed buffers are
+     * written as any other byte array. Other buffers, such as direct or mapped
+     * ones, are only copied into this buffer if they fit in the space left in
+     * it. Otherwise this buffer is flushed and the ByteBuffer is passed to the
+     * connector so that, where the connector supports it, it is written to the
+     * socket without being copied onto the heap.
+     *
+     * @param src The bytes to write
+     *
+     * @throws IOException An underlying IOException occurred
+     */
+    public void write(ByteBuffer src) throws IOException {
+
+        if (suspended || closed) {
+            return;
+        }
+
+        int len = src.remaining();
+        if (len == 0) {
+            return;
+        }
+
+        if (src.hasArray()) {
+            writeBytes(src.array(), src.arrayOffset() + src.position(), len);
+            src.position(src.limit());
+            return;
+        }
+
+        int end = bb.getEnd();
+        if (!doFlush && len <= bb.getLimit() - bb.getLength() &&
+                len <= bb.getBuffer().length - end) {
+            src.get(bb.getBuffer(), end, len);
+            bb.setEnd(end + len);
+            bytesWritten += len;
+            return;
+        }
+
+        if (bb.getLength() > 0) {
+            bb.flushBuffer();
+        }
+        bytesWritten += len;
+        if (coyoteResponse == null) {
+            return;
+        }
+        try {
+            coyoteResponse.doWrite(src);
+        } catch (IOException e) {
+            // See realWriteBytes()
+            throw new ClientAbortException(e);
+        }
+
+    }
+
+
+    /**
+     * Write a region of a file. Any buffered bytes are written first. The
+     * region is then read into a buffer that is retained for the life of this
+     * object and written from there. If the connector can write ByteBuffers
+     * that buffer is a direct one so that the file data is never copied onto
+     * the heap. The file is not mapped as mappings can not be released
+     * explicitly.
+     *
+     * @param channel  The file to read from
+     * @param position The position in the file of the first byte to write
+     * @param count    The number of bytes to write
+     *
+     * @throws IOException An underlying IOException occurred, including the
+     *         file ending before the region does
+     */
+    public void write(FileChannel channel, long position, long count)
+            throws IOException {
+
+        if (suspended || closed) {
+            return;
+        }
+
+        if (count <= 0) {
+            return;
+        }
+
+        if (bb.getLength() > 0) {
+            bb.flushBuffer();
+        }
+        if (coyoteResponse == null) {
+            return;
+        }
+        if (transferBuffer == null) {
+            if (coyoteResponse.getOutputBuffer() instanceof ByteBufferOutputBuffer) {
+                transferBuffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+            } else {
+                transferBuffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            }
+        }
+        while (count > 0) {
+            transferBuffer.clear();
+            if (count < transferBuffer.capacity()) {
+                transferBuffer.limit((int) count);
+            }
+            int read = channel.read(transferBuffer, position);
+            if (read < 0) {
+                throw new EOFException(sm.getString("outputBuffer.fileEnded",
+                        Long.valueOf(count)));
+            }
+            transferBuffer.flip();
+            bytesWritten += read;
+            try {
+                coyoteResponse.doWrite(transferBuffer);
+            } catch (IOException e) {
+                // See realWriteBytes()
+                throw new ClientAbortException(e);
+            }
+            position += read;
+            count -= read;
+        }
+
+    }
+
+
+
     // ------------------------------------------------- Chars Handling Methods
 
 
@@ -727,6 +727,12 @@ public class StandardContext extends ContainerBase
     protected int cacheObjectMaxSize = 512; // 512K
 
 
+    /**
+     * Max size in KB of the cache of compressed resource variants.
+     */
+    protected int cacheCompressedMaxSize = 2048; // 2 MB
+
+
     /**
      * Cache TTL in ms.
      */
@@ -954,6 +960,8 @@ public class StandardContext extends ContainerBase
 
     private boolean createUploadTargets = false;
 
+    private int cookieParseCacheSize = 0;
+
 
     // ----------------------------------------------------- Context Properties
 
@@ -969,6 +977,23 @@ public class StandardContext extends ContainerBase
     }
 
 
+    @Override
+    public void setCookieParseCacheSize(int cookieParseCacheSize) {
+        this.cookieParseCacheSize = cookieParseCacheSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The default value for this implementation is {@code 0}.
+     */
+    @Override
+    public int getCookieParseCacheSize() {
+        return cookieParseCacheSize;
+    }
+
+
     @Override
     public void incrementInProgressAsyncCount() {
         inProgressAsyncCount.incrementAndGet();
@@ -1410,6 +1435,23 @@ public class StandardContext extends ContainerBase
     }
 
 
+    /**
+     * Return the maximum size in KB of the cache of compressed resource
+     * variants.
+     */
+    public int getCacheCompressedMaxSize() {
+        return cacheCompressedMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size in KB of the cache of compressed resource variants.
+     */
+    public void setCacheCompressedMaxSize(int cacheCompressedMaxSize) {
+        this.cacheCompressedMaxSize = cacheCompressedMaxSize;
+    }
+
+
     /**
      * Return the list of resource aliases.
      */
@@ -2725,6 +2767,8 @@ public class StandardContext extends ContainerBase
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
             ((BaseDirContext) resources).setCacheObjectMaxSize(
                     getCacheObjectMaxSize());
+            ((BaseDirContext) resources).setCacheCompressedMaxSize(
+                    getCacheCompressedMaxSize());
             // Alias support
             ((BaseDirContext) resources).setAliases(getAliases());
         }
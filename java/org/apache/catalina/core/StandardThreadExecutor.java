@@ -298,6 +298,7 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         return (executor != null) ? executor.getPoolSize() : 0;
     }
 
+    @Override
     public int getQueueSize() {
         return (executor != null) ? executor.getQueue().size() : -1;
     }
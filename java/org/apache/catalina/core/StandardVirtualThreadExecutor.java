@@ -0,0 +1,169 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+
+/**
+ * An executor that runs each request on its own virtual thread when the JRE
+ * supports them (Java 21 or later). A request that blocks, for example on a
+ * call to a slow back end or on a blocking read of the request body, then
+ * does not hold a platform thread so <code>maxThreads</code> no longer limits
+ * the number of concurrent requests. On older JREs it behaves exactly like
+ * {@link StandardThreadExecutor} and all of its attributes apply.
+ * <pre>
+ * &lt;Executor name="tomcatThreadPool"
+ *     className="org.apache.catalina.core.StandardVirtualThreadExecutor"/&gt;
+ * </pre>
+ */
+public class StandardVirtualThreadExecutor extends StandardThreadExecutor {
+
+    private static final Log log =
+            LogFactory.getLog(StandardVirtualThreadExecutor.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    /**
+     * The executor used when virtual threads are supported
+     */
+    protected VirtualThreadExecutor virtualExecutor = null;
+
+    public StandardVirtualThreadExecutor() {
+        namePrefix = "tomcat-virt-";
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        if (JreCompat.getInstance().isVirtualThreadSupported()) {
+            virtualExecutor = new VirtualThreadExecutor(namePrefix);
+            setState(LifecycleState.STARTING);
+        } else {
+            log.warn(sm.getString("standardVirtualThreadExecutor.notSupported",
+                    getName()));
+            super.startInternal();
+        }
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        if (virtualExecutor != null) {
+            setState(LifecycleState.STOPPING);
+            virtualExecutor.shutdown();
+            virtualExecutor = null;
+        } else {
+            super.stopInternal();
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            virtualExecutor.execute(command);
+        } else {
+            super.execute(command, timeout, unit);
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            virtualExecutor.execute(command);
+        } else {
+            super.execute(command);
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if requests are running on virtual threads,
+     *         <code>false</code> if a pool of platform threads is used
+     */
+    public boolean isVirtualThreads() {
+        return virtualExecutor != null;
+    }
+
+
+    // Statistics from the thread pool
+    @Override
+    public int getActiveCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getActiveCount();
+        }
+        return super.getActiveCount();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getCompletedTaskCount();
+        }
+        return super.getCompletedTaskCount();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getLargestActiveCount();
+        }
+        return super.getLargestPoolSize();
+    }
+
+    @Override
+    public int getPoolSize() {
+        // There is one virtual thread per running task
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getActiveCount();
+        }
+        return super.getPoolSize();
+    }
+
+    @Override
+    public int getQueueSize() {
+        if (virtualExecutor != null) {
+            return 0;
+        }
+        return super.getQueueSize();
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (virtualExecutor != null) {
+            return false;
+        }
+        return super.resizePool(corePoolSize, maximumPoolSize);
+    }
+}
@@ -36,6 +36,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.WorkStealingExecutor;
 
 /**
  * <p>
@@ -222,6 +223,10 @@ public class ThreadLocalLeakPreventionListener implements LifecycleListener,
                     StandardThreadExecutor stdThreadExecutor =
                         (StandardThreadExecutor) executor;
                     stdThreadExecutor.contextStopping();
+                } else if (executor instanceof WorkStealingThreadExecutor) {
+                    ((WorkStealingThreadExecutor) executor).contextStopping();
+                } else if (executor instanceof WorkStealingExecutor) {
+                    ((WorkStealingExecutor) executor).contextStopping();
                 }
 
             }
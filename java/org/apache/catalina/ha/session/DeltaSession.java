@@ -311,6 +311,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
     @Override
     public void setPrimarySession(boolean primarySession) {
         this.isPrimarySession = primarySession;
+        expirationChanged();
     }
 
 
@@ -345,6 +346,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     public void setMaxInactiveInterval(int interval, boolean addDeltaRequest) {
         super.maxInactiveInterval = interval;
+        expirationChanged();
         if (addDeltaRequest) {
             lockInternal();
             try {
@@ -426,6 +428,21 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A backup session is kept until it has been idle for twice as long as
+     * allowed, to match {@link #isValid()}.
+     */
+    @Override
+    public long getExpirationTimeInternal() {
+        long expirationTime = super.getExpirationTimeInternal();
+        if (expirationTime < 0 || isPrimarySession()) {
+            return expirationTime;
+        }
+        return expirationTime + maxInactiveInterval * 1000L;
+    }
+
     /**
      * Return the <code>isValid</code> flag for this session.
      */
@@ -33,8 +33,12 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.security.AccessController;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import javax.naming.InitialContext;
@@ -75,6 +79,8 @@ import org.apache.naming.resources.CacheEntry;
 import org.apache.naming.resources.ProxyDirContext;
 import org.apache.naming.resources.Resource;
 import org.apache.naming.resources.ResourceAttributes;
+import org.apache.tomcat.util.http.ResponseUtil;
+import org.apache.tomcat.util.http.parser.AcceptEncoding;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
@@ -265,6 +271,32 @@ public class DefaultServlet extends HttpServlet {
      */
     protected boolean showServerInfo = true;
 
+    /**
+     * Pre-compressed siblings of resources that may be served, in order of
+     * preference, e.g. <code>app.js.br</code> and <code>app.js.gz</code> for
+     * <code>app.js</code>.
+     */
+    protected CompressionFormat[] compressionFormats =
+        new CompressionFormat[0];
+
+    /**
+     * Should resources without a pre-compressed sibling be compressed once
+     * and served from the resources' cache of compressed variants?
+     */
+    protected boolean compressedCache = false;
+
+    /**
+     * Minimum size in bytes of resources that are compressed for the cache
+     * of compressed variants.
+     */
+    protected int compressedCacheMinSize = 2048;
+
+    /**
+     * Media types of resources that are compressed for the cache of
+     * compressed variants.
+     */
+    protected Set<String> compressableMimeTypes = new HashSet<String>();
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -311,6 +343,27 @@ public class DefaultServlet extends HttpServlet {
         if (getServletConfig().getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(getServletConfig().getInitParameter("useAcceptRanges"));
 
+        compressionFormats = parseCompressionFormats(
+                getServletConfig().getInitParameter("precompressed"));
+
+        compressedCache = Boolean.parseBoolean(getServletConfig().getInitParameter("compressedCache"));
+
+        if (getServletConfig().getInitParameter("compressedCacheMinSize") != null)
+            compressedCacheMinSize =
+                Integer.parseInt(getServletConfig().getInitParameter("compressedCacheMinSize"));
+
+        String mimeTypes = getServletConfig().getInitParameter("compressableMimeType");
+        if (mimeTypes == null) {
+            mimeTypes = "text/html,text/xml,text/plain,text/css,text/javascript," +
+                    "application/javascript,application/json,application/xml," +
+                    "image/svg+xml";
+        }
+        StringTokenizer mimeTypeTokens = new StringTokenizer(mimeTypes, ",");
+        while (mimeTypeTokens.hasMoreTokens()) {
+            compressableMimeTypes.add(mimeTypeTokens.nextToken().trim()
+                    .toLowerCase(Locale.ENGLISH));
+        }
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -346,6 +399,39 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    /**
+     * Parse the value of the <code>precompressed</code> init parameter. This
+     * is either <code>true</code>, which is equivalent to
+     * <code>br=.br,gzip=.gz</code>, or a comma separated list of
+     * <code>encoding=extension</code> pairs in order of preference.
+     */
+    private CompressionFormat[] parseCompressionFormats(String precompressed)
+            throws ServletException {
+        if (precompressed == null || "false".equalsIgnoreCase(precompressed)) {
+            return new CompressionFormat[0];
+        }
+        if ("true".equalsIgnoreCase(precompressed)) {
+            return new CompressionFormat[] {
+                    new CompressionFormat(".br", "br"),
+                    new CompressionFormat(".gz", "gzip") };
+        }
+        List<CompressionFormat> formats = new ArrayList<CompressionFormat>();
+        StringTokenizer tokens = new StringTokenizer(precompressed, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            int equals = token.indexOf('=');
+            if (equals < 1 || equals == token.length() - 1) {
+                throw new ServletException(sm.getString(
+                        "defaultServlet.invalidPrecompressed", token));
+            }
+            formats.add(new CompressionFormat(
+                    token.substring(equals + 1).trim(),
+                    token.substring(0, equals).trim().toLowerCase(Locale.ENGLISH)));
+        }
+        return formats.toArray(new CompressionFormat[formats.size()]);
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -854,25 +940,39 @@ public class DefaultServlet extends HttpServlet {
             return;
         }
 
+        boolean included = (request.getAttribute(
+                RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
+
+        // Find content type.
+        String contentType = cacheEntry.attributes.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(cacheEntry.name);
+            cacheEntry.attributes.setMimeType(contentType);
+        }
+
+        // Serve a compressed variant of the resource if the client accepts
+        // one. The If headers, ETag, length and ranges are then those of the
+        // variant but the content type remains that of the resource.
+        boolean usingCompressedVariant = false;
+        if (cacheEntry.context == null && !included && !isError) {
+            CacheEntry variant = getCompressedVariant(request, response, path,
+                    cacheEntry, contentType);
+            if (variant != null) {
+                cacheEntry = variant;
+                usingCompressedVariant = true;
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
             // Checking If headers
-            boolean included = (request.getAttribute(
-                    RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
             if (!included && !isError &&
                     !checkIfHeaders(request, response, cacheEntry.attributes)) {
                 return;
             }
         }
 
-        // Find content type.
-        String contentType = cacheEntry.attributes.getMimeType();
-        if (contentType == null) {
-            contentType = getServletContext().getMimeType(cacheEntry.name);
-            cacheEntry.attributes.setMimeType(contentType);
-        }
-
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -926,11 +1026,12 @@ public class DefaultServlet extends HttpServlet {
                 ostream = response.getOutputStream();
             } catch (IllegalStateException e) {
                 // If it fails, we try to get a Writer instead if we're
-                // trying to serve a text file
-                if ( (contentType == null)
+                // trying to serve a text file. Compressed content can't be
+                // written as characters.
+                if (!usingCompressedVariant && ((contentType == null)
                         || (contentType.startsWith("text"))
                         || (contentType.endsWith("xml"))
-                        || (contentType.contains("/javascript")) ) {
+                        || (contentType.contains("/javascript"))) ) {
                     writer = response.getWriter();
                     // Cannot reliably serve partial content with a Writer
                     ranges = FULL;
@@ -1854,6 +1955,119 @@ public class DefaultServlet extends HttpServlet {
 
     // -------------------------------------------------------- protected Methods
 
+    /**
+     * Select the compressed variant of a resource to serve in its place. The
+     * candidates are the pre-compressed siblings of the resource and, if the
+     * compressed cache is enabled, a cached gzip copy of the resource. The
+     * variant with the highest quality in the Accept-Encoding header is
+     * selected, the first configured pre-compressed format winning any tie.
+     * If a variant is available the response varies on Accept-Encoding
+     * whether or not one is selected.
+     *
+     * @param request     The servlet request we are processing
+     * @param response    The servlet response we are creating
+     * @param path        The path of the requested resource
+     * @param cacheEntry  The cache entry of the requested resource
+     * @param contentType The content type of the requested resource
+     * @return the cache entry of the variant to serve or <code>null</code> to
+     *         serve the resource itself
+     * @throws IOException if the Accept-Encoding header cannot be read
+     */
+    protected CacheEntry getCompressedVariant(HttpServletRequest request,
+            HttpServletResponse response, String path, CacheEntry cacheEntry,
+            String contentType) throws IOException {
+
+        if (compressionFormats.length == 0 && !compressedCache) {
+            return null;
+        }
+        for (CompressionFormat format : compressionFormats) {
+            if (path.endsWith(format.extension)) {
+                // Already a compressed resource
+                return null;
+            }
+        }
+
+        boolean varies = false;
+        boolean gzipAvailable = false;
+        List<AcceptEncoding> acceptEncodings = null;
+        CacheEntry bestEntry = null;
+        String bestEncoding = null;
+        double bestQuality = 0;
+
+        for (CompressionFormat format : compressionFormats) {
+            CacheEntry sibling = resources.lookupCache(path + format.extension);
+            if (!sibling.exists || sibling.context != null) {
+                continue;
+            }
+            varies = true;
+            if ("gzip".equals(format.encoding)) {
+                gzipAvailable = true;
+            }
+            if (acceptEncodings == null) {
+                acceptEncodings = parseAcceptEncoding(request);
+            }
+            double quality =
+                AcceptEncoding.getQuality(acceptEncodings, format.encoding);
+            if (quality > bestQuality) {
+                bestEntry = sibling;
+                bestEncoding = format.encoding;
+                bestQuality = quality;
+            }
+        }
+
+        if (compressedCache && !gzipAvailable
+                && isCompressable(cacheEntry, contentType)) {
+            varies = true;
+            if (acceptEncodings == null) {
+                acceptEncodings = parseAcceptEncoding(request);
+            }
+            if (AcceptEncoding.getQuality(acceptEncodings, "gzip") > bestQuality) {
+                CacheEntry variant = resources.lookupCompressedCache(cacheEntry);
+                if (variant != null) {
+                    bestEntry = variant;
+                    bestEncoding = "gzip";
+                }
+            }
+        }
+
+        if (varies) {
+            ResponseUtil.addVaryFieldName(response, "accept-encoding");
+        }
+        if (bestEntry != null) {
+            response.setHeader("Content-Encoding", bestEncoding);
+        }
+        return bestEntry;
+    }
+
+
+    private static List<AcceptEncoding> parseAcceptEncoding(
+            HttpServletRequest request) throws IOException {
+        List<AcceptEncoding> result = new ArrayList<AcceptEncoding>();
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            result.addAll(AcceptEncoding.parse(
+                    new StringReader(headers.nextElement())));
+        }
+        return result;
+    }
+
+
+    /**
+     * Should a resource be compressed for the cache of compressed variants?
+     */
+    private boolean isCompressable(CacheEntry cacheEntry, String contentType) {
+        if (contentType == null ||
+                cacheEntry.attributes.getContentLength() < compressedCacheMinSize) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mimeType = (semicolon == -1) ? contentType :
+            contentType.substring(0, semicolon);
+        return compressableMimeTypes.contains(
+                mimeType.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+
     /**
      * Check if sendfile can be used.
      * @param request The Servlet request
@@ -2379,6 +2593,18 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    protected static class CompressionFormat {
+
+        public final String extension;
+        public final String encoding;
+
+        public CompressionFormat(String extension, String encoding) {
+            this.extension = extension;
+            this.encoding = encoding;
+        }
+    }
+
+
     /**
      * This is secure in the sense that any attempt to use an external entity
      * will trigger an exception.
@@ -0,0 +1,944 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * Concrete implementation of the <b>Store</b> interface that appends saved
+ * Sessions to a log held in a small number of memory-mapped segment files in
+ * a configured directory. An in-memory index maps each session identifier to
+ * the latest record for that session so saving, loading and removing a
+ * Session does not create, open or delete any files. Removing a Session
+ * appends a record marking its removal.
+ * <p>
+ * Records are written to the mapped segments, so they reach the operating
+ * system as soon as a Session is saved. They are forced to the disk as a
+ * batch once per run of the background process and when the Store is
+ * stopped rather than once per Session. The background process also
+ * compacts the log, copying the records that are still in use out of the
+ * oldest segment and deleting it, while the proportion of the segments that
+ * are no longer appended to occupied by records that have been replaced or
+ * removed is greater than {@link #getCompactionThreshold()}.
+ * <p>
+ * The log is read when the Store is started to rebuild the index. Records
+ * left incomplete by a crash are ignored. Sessions that are saved are still
+ * subject to being expired based on inactivity.
+ */
+public class LogStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    /**
+     * The prefix and extension of the segment file names.
+     */
+    private static final String FILE_PREFIX = "sessions-";
+    private static final String FILE_EXT = ".log";
+
+    /*
+     * Record layout:
+     *   byte  type
+     *   int   length of the whole record
+     *   int   CRC32 of the remainder of the record
+     *   long  time the session was last accessed
+     *   int   maximum inactive interval of the session
+     *   short length of the session identifier
+     *   bytes session identifier in UTF-8
+     *   bytes serialized session (saved records only)
+     */
+    private static final byte TYPE_SAVE = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final int CRC_OFFSET = 5;
+    private static final int HEADER_LENGTH = 23;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The pathname of the directory in which Sessions are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    private String directory = ".";
+
+
+    /**
+     * A File representing the directory in which Sessions are stored.
+     */
+    private File directoryFile = null;
+
+
+    /**
+     * The size in bytes of each segment file.
+     */
+    private int segmentSize = 16 * 1024 * 1024;
+
+
+    /**
+     * The proportion of the log occupied by replaced and removed records
+     * above which the log is compacted.
+     */
+    private double compactionThreshold = 0.5;
+
+
+    /**
+     * The segments of the log, oldest first. Records are appended to the last
+     * segment.
+     */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+
+    /**
+     * The location of the latest record of each stored Session.
+     */
+    private final Map<String,Entry> index = new HashMap<String,Entry>();
+
+
+    /**
+     * Files of compacted segments that could not be deleted.
+     */
+    private final List<File> pendingDeletes = new ArrayList<File>();
+
+
+    /**
+     * The descriptive information about this implementation.
+     */
+    private static final String info = "LogStore/1.0";
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "logStore";
+
+    /**
+     * Name to register for the background thread.
+     */
+    private static final String threadName = "LogStore";
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store. Takes effect when the Store is
+     * next started.
+     *
+     * @param path The new directory path
+     */
+    public void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        this.directoryFile = null;
+        support.firePropertyChange("directory", oldDirectory, this.directory);
+    }
+
+
+    /**
+     * @return the size in bytes of each segment of the log
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Set the size of each segment of the log. A Session larger than a
+     * segment is written to a segment of its own.
+     *
+     * @param segmentSize The size in bytes
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < HEADER_LENGTH) {
+            throw new IllegalArgumentException(sm.getString(
+                    "logStore.invalidSegmentSize", Integer.valueOf(segmentSize)));
+        }
+        int oldSegmentSize = this.segmentSize;
+        this.segmentSize = segmentSize;
+        support.firePropertyChange("segmentSize", Integer.valueOf(oldSegmentSize),
+                Integer.valueOf(this.segmentSize));
+    }
+
+
+    /**
+     * @return the proportion of the log occupied by replaced and removed
+     *         records above which the log is compacted
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Set the proportion of the log occupied by replaced and removed records
+     * above which the log is compacted.
+     *
+     * @param compactionThreshold A value between 0 and 1
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        double oldCompactionThreshold = this.compactionThreshold;
+        this.compactionThreshold = compactionThreshold;
+        support.firePropertyChange("compactionThreshold",
+                Double.valueOf(oldCompactionThreshold),
+                Double.valueOf(this.compactionThreshold));
+    }
+
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+
+    /**
+     * @return The thread name for this Store.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * @return the number of segment files in the log
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    /**
+     * @return the total size in bytes of the records in the log
+     */
+    public synchronized long getLogSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.top;
+        }
+        return size;
+    }
+
+
+    /**
+     * @return the total size in bytes of the records in the log that have
+     *         been replaced or removed
+     */
+    public synchronized long getGarbageSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.top - segment.live;
+        }
+        return size;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized int getSize() throws IOException {
+        return index.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        checkOpen();
+        index.clear();
+        int number = segments.get(segments.size() - 1).number + 1;
+        for (Segment segment : segments) {
+            delete(segment);
+        }
+        segments.clear();
+        segments.add(createSegment(number, segmentSize));
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    @Override
+    public synchronized String[] keys() throws IOException {
+        return index.keySet().toArray(new String[index.size()]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The index records when each Session was last accessed so only the
+     * Sessions that have expired are returned.
+     */
+    @Override
+    public synchronized String[] expiredKeys() throws IOException {
+        long timeNow = System.currentTimeMillis();
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String,Entry> entry : index.entrySet()) {
+            Entry e = entry.getValue();
+            if (e.maxInactiveInterval > 0 &&
+                    timeNow - e.accessedTime >= e.maxInactiveInterval * 1000L) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        byte[] record;
+        synchronized (this) {
+            Entry entry = index.get(id);
+            if (entry == null) {
+                return null;
+            }
+            record = new byte[entry.length];
+            ByteBuffer buffer = entry.segment.buffer.duplicate();
+            buffer.position(entry.offset);
+            buffer.get(record);
+        }
+
+        Context context = (Context) getManager().getContainer();
+        Log containerLog = context.getLogger();
+
+        if (containerLog.isDebugEnabled()) {
+            containerLog.debug(sm.getString(getStoreName()+".loading", id,
+                    getDirectory()));
+        }
+
+        int dataOffset = HEADER_LENGTH +
+                (ByteBuffer.wrap(record).getShort(HEADER_LENGTH - 2) & 0xFFFF);
+        ByteArrayInputStream bais = new ByteArrayInputStream(record,
+                dataOffset, record.length - dataOffset);
+        ObjectInputStream ois = null;
+        Loader loader = null;
+        ClassLoader classLoader = null;
+        ClassLoader oldThreadContextCL = Thread.currentThread().getContextClassLoader();
+        try {
+            loader = context.getLoader();
+            if (loader != null) {
+                classLoader = loader.getClassLoader();
+            }
+            if (classLoader != null) {
+                Thread.currentThread().setContextClassLoader(classLoader);
+            }
+            ois = getObjectInputStream(bais);
+
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            if (ois != null) {
+                // Close the input stream
+                try {
+                    ois.close();
+                } catch (IOException f) {
+                    // Ignore
+                }
+            }
+            Thread.currentThread().setContextClassLoader(oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void remove(String id) throws IOException {
+        synchronized (this) {
+            if (!index.containsKey(id)) {
+                return;
+            }
+        }
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            manager.getContainer().getLogger().debug(sm.getString(getStoreName()+".removing",
+                             id, getDirectory()));
+        }
+        append(id, record(TYPE_REMOVE, id, 0, 0, null), 0, 0);
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        String id = session.getIdInternal();
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            manager.getContainer().getLogger().debug(sm.getString(getStoreName()+".saving",
+                             id, getDirectory()));
+        }
+        // Serialize outside of the lock
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        try {
+            ((StandardSession) session).writeObjectData(oos);
+        } finally {
+            oos.close();
+        }
+        long accessedTime = session.getThisAccessedTimeInternal();
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        append(id, record(TYPE_SAVE, id, accessedTime, maxInactiveInterval,
+                baos.toByteArray()), accessedTime, maxInactiveInterval);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also forces the records written since the last run to the disk and
+     * compacts the log if necessary.
+     */
+    @Override
+    public void processExpires() {
+        super.processExpires();
+
+        if (!getState().isAvailable()) {
+            return;
+        }
+        try {
+            force();
+            compact();
+        } catch (IOException e) {
+            manager.getContainer().getLogger().error(
+                    sm.getString("logStore.compactFail"), e);
+        }
+    }
+
+
+    /**
+     * Copy the records that are still in use out of the oldest segments of
+     * the log, and delete those segments, until the proportion of the
+     * earlier segments occupied by replaced and removed records is no greater
+     * than {@link #getCompactionThreshold()}. The segment to which records
+     * are currently appended is never compacted.
+     *
+     * @return the number of segments that were deleted
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public synchronized int compact() throws IOException {
+        checkOpen();
+        retryDeletes();
+        int compacted = 0;
+        while (segments.size() > 1 && needsCompaction()) {
+            Segment oldest = segments.get(0);
+            ByteBuffer buffer = oldest.buffer.duplicate();
+            int pos = 0;
+            while (pos < oldest.top) {
+                buffer.limit(oldest.top);
+                buffer.position(pos);
+                int length = buffer.getInt(pos + 1);
+                if (buffer.get(pos) == TYPE_SAVE) {
+                    String id = readId(buffer, pos);
+                    Entry entry = index.get(id);
+                    if (entry != null && entry.segment == oldest &&
+                            entry.offset == pos) {
+                        // Still in use. The record does not depend on its
+                        // position so it is copied as it is.
+                        byte[] record = new byte[length];
+                        buffer.get(record);
+                        write(id, record, entry.accessedTime,
+                                entry.maxInactiveInterval);
+                    }
+                }
+                pos += length;
+            }
+            // The copies must be on the disk before the original has gone
+            force();
+            // Records of removals in the oldest segment can only refer to
+            // records in the same segment so they are no longer needed
+            segments.remove(0);
+            delete(oldest);
+            compacted++;
+        }
+        if (compacted > 0) {
+            if (manager.getContainer().getLogger().isDebugEnabled()) {
+                manager.getContainer().getLogger().debug(sm.getString(
+                        "logStore.compacted", Integer.valueOf(compacted),
+                        Integer.valueOf(segments.size())));
+            }
+        }
+        return compacted;
+    }
+
+
+    // --------------------------------------------------------- Protected Methods
+
+    /**
+     * Open the log and read it to rebuild the index.
+     *
+     * @exception LifecycleException if the log cannot be opened
+     */
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        try {
+            open();
+        } catch (IOException e) {
+            close();
+            throw new LifecycleException(sm.getString("logStore.openFail",
+                    getDirectory()), e);
+        }
+        super.startInternal();
+    }
+
+
+    /**
+     * Force the log to the disk and close it.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        force();
+        close();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * Return a File object representing the pathname to our
+     * session persistence directory. The directory will be
+     * created if it does not already exist.
+     */
+    private File directory() throws IOException {
+        if (this.directoryFile != null) {
+            return this.directoryFile;
+        }
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Context context = (Context) manager.getContainer();
+            ServletContext servletContext = context.getServletContext();
+            File work = (File) servletContext.getAttribute(ServletContext.TEMPDIR);
+            file = new File(work, this.directory);
+        }
+        if (!file.exists() || !file.isDirectory()) {
+            if (!file.delete() && file.exists()) {
+                throw new IOException(sm.getString("fileStore.deleteFailed", file));
+            }
+            if (!file.mkdirs() && !file.isDirectory()) {
+                throw new IOException(sm.getString("fileStore.createFailed", file));
+            }
+        }
+        this.directoryFile = file;
+        return file;
+    }
+
+
+    private void open() throws IOException {
+        File dir = directory();
+        String[] files = dir.list();
+        List<Integer> numbers = new ArrayList<Integer>();
+        if (files != null) {
+            for (String name : files) {
+                if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_EXT)) {
+                    try {
+                        numbers.add(Integer.valueOf(name.substring(
+                                FILE_PREFIX.length(),
+                                name.length() - FILE_EXT.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+        Integer[] sorted = numbers.toArray(new Integer[numbers.size()]);
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            int number = sorted[i].intValue();
+            File file = segmentFile(number);
+            if (file.length() == 0 && i < sorted.length - 1) {
+                // Emptied after compaction but could not be deleted
+                if (!file.delete()) {
+                    pendingDeletes.add(file);
+                }
+                continue;
+            }
+            Segment segment = openSegment(number);
+            segments.add(segment);
+            replay(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(1, segmentSize));
+        }
+    }
+
+
+    /*
+     * Apply the records of a segment to the index, stopping at the first
+     * record that is incomplete.
+     */
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int pos = 0;
+        while (pos + HEADER_LENGTH <= segment.capacity) {
+            byte type = buffer.get(pos);
+            if (type != TYPE_SAVE && type != TYPE_REMOVE) {
+                break;
+            }
+            int length = buffer.getInt(pos + 1);
+            if (length < HEADER_LENGTH || length > segment.capacity - pos) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.position(pos);
+            buffer.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record, CRC_OFFSET + 4, length - CRC_OFFSET - 4);
+            if ((int) crc.getValue() != buffer.getInt(pos + CRC_OFFSET)) {
+                break;
+            }
+            String id = readId(buffer, pos);
+            release(index.get(id));
+            if (type == TYPE_SAVE) {
+                index.put(id, new Entry(segment, pos, length,
+                        buffer.getLong(pos + 9), buffer.getInt(pos + 17)));
+                segment.live += length;
+            } else {
+                index.remove(id);
+            }
+            pos += length;
+        }
+        if (pos < segment.capacity && buffer.get(pos) != 0) {
+            manager.getContainer().getLogger().warn(sm.getString(
+                    "logStore.truncated", segment.file.getAbsolutePath(),
+                    Integer.valueOf(pos)));
+            // Clear the rest of the segment so that no records that followed
+            // the incomplete one can be read after new records are appended
+            buffer.position(pos);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) 0);
+            }
+            segment.dirty = true;
+        }
+        segment.top = pos;
+    }
+
+
+    private synchronized void append(String id, byte[] record,
+            long accessedTime, int maxInactiveInterval) throws IOException {
+        checkOpen();
+        write(id, record, accessedTime, maxInactiveInterval);
+    }
+
+
+    /*
+     * Must be called while holding the lock.
+     */
+    private void write(String id, byte[] record, long accessedTime,
+            int maxInactiveInterval) throws IOException {
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.top + record.length > segment.capacity) {
+            segment = createSegment(segment.number + 1,
+                    Math.max(segmentSize, record.length));
+            segments.add(segment);
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(segment.top);
+        buffer.put(record);
+        segment.dirty = true;
+
+        release(index.get(id));
+        if (record[0] == TYPE_SAVE) {
+            index.put(id, new Entry(segment, segment.top, record.length,
+                    accessedTime, maxInactiveInterval));
+            segment.live += record.length;
+        } else {
+            index.remove(id);
+        }
+        segment.top += record.length;
+    }
+
+
+    private static void release(Entry entry) {
+        if (entry != null) {
+            entry.segment.live -= entry.length;
+        }
+    }
+
+
+    /*
+     * Only the garbage in the segments that are no longer appended to can be
+     * removed by compaction.
+     */
+    private boolean needsCompaction() {
+        long size = 0;
+        long garbage = 0;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Segment segment = segments.get(i);
+            size += segment.top;
+            garbage += segment.top - segment.live;
+        }
+        return garbage > 0 && garbage > compactionThreshold * size;
+    }
+
+
+    private void checkOpen() throws IOException {
+        if (segments.isEmpty()) {
+            throw new IOException(sm.getString("logStore.notOpen"));
+        }
+    }
+
+
+    private synchronized void force() {
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+    }
+
+
+    private void close() {
+        for (Segment segment : segments) {
+            JreCompat.getInstance().cleanDirectBuffer(segment.buffer);
+        }
+        segments.clear();
+        retryDeletes();
+        index.clear();
+        directoryFile = null;
+    }
+
+
+    private File segmentFile(int number) throws IOException {
+        return new File(directory(), FILE_PREFIX + number + FILE_EXT);
+    }
+
+
+    private Segment createSegment(int number, int capacity) throws IOException {
+        File file = segmentFile(number);
+        return new Segment(number, file, map(file, capacity));
+    }
+
+
+    private Segment openSegment(int number) throws IOException {
+        File file = segmentFile(number);
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(sm.getString("logStore.invalidSegment",
+                    file.getAbsolutePath()));
+        }
+        return new Segment(number, file,
+                map(file, length == 0 ? segmentSize : (int) length));
+    }
+
+
+    private static MappedByteBuffer map(File file, int capacity)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping remains valid once the file has been closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    capacity);
+        } finally {
+            raf.close();
+        }
+    }
+
+
+    /*
+     * Release the mapping of a segment and delete its file. The segment must
+     * not be used afterwards. A file that cannot be deleted is emptied, so
+     * that it is skipped when the log is next opened, and deleting it is
+     * retried later.
+     */
+    private void delete(Segment segment) {
+        JreCompat.getInstance().cleanDirectBuffer(segment.buffer);
+        File file = segment.file;
+        if (file.delete() || !file.exists()) {
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(0);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // Deleting the file will be retried
+        }
+        pendingDeletes.add(file);
+        manager.getContainer().getLogger().warn(sm.getString(
+                "logStore.deleteFail", file.getAbsolutePath()));
+    }
+
+
+    private void retryDeletes() {
+        Iterator<File> iter = pendingDeletes.iterator();
+        while (iter.hasNext()) {
+            File file = iter.next();
+            if (file.delete() || !file.exists()) {
+                iter.remove();
+            }
+        }
+    }
+
+
+    private static byte[] record(byte type, String id, long accessedTime,
+            int maxInactiveInterval, byte[] data) {
+        byte[] idBytes = id.getBytes(B2CConverter.UTF_8);
+        int length = HEADER_LENGTH + idBytes.length +
+                (data == null ? 0 : data.length);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(type);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putLong(accessedTime);
+        buffer.putInt(maxInactiveInterval);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        if (data != null) {
+            buffer.put(data);
+        }
+        byte[] record = buffer.array();
+        CRC32 crc = new CRC32();
+        crc.update(record, CRC_OFFSET + 4, length - CRC_OFFSET - 4);
+        buffer.putInt(CRC_OFFSET, (int) crc.getValue());
+        return record;
+    }
+
+
+    private static String readId(ByteBuffer buffer, int pos) {
+        int idLength = buffer.getShort(pos + HEADER_LENGTH - 2) & 0xFFFF;
+        byte[] idBytes = new byte[idLength];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(duplicate.capacity());
+        duplicate.position(pos + HEADER_LENGTH);
+        duplicate.get(idBytes);
+        return new String(idBytes, B2CConverter.UTF_8);
+    }
+
+
+    // -------------------------------------------------------- Inner Classes
+
+    private static final class Segment {
+
+        final int number;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        int top = 0;
+        long live = 0;
+        boolean dirty = false;
+
+        Segment(int number, File file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+    }
+
+
+    private static final class Entry {
+
+        final Segment segment;
+        final int offset;
+        final int length;
+        final long accessedTime;
+        final int maxInactiveInterval;
+
+        Entry(Segment segment, int offset, int length, long accessedTime,
+                int maxInactiveInterval) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.accessedTime = accessedTime;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -52,6 +53,7 @@ import org.apache.catalina.util.SessionIdGeneratorBase;
 import org.apache.catalina.util.StandardSessionIdGenerator;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.collections.TimeoutWheel;
 import org.apache.tomcat.util.res.StringManager;
 
 
@@ -179,6 +181,31 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
      */
     protected Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
 
+
+    /**
+     * The sessions of this Manager indexed by the time at which they expire,
+     * so that {@link #processExpires()} only has to check the sessions that
+     * are due. Sessions whose expiration time may have changed are queued in
+     * {@link #expirationUpdates} and the index is only updated, while
+     * holding its lock, when sessions are expired. As the expiration time of
+     * a session only moves later when it is accessed, a session that is due
+     * according to the index is always checked before it is expired.
+     */
+    private final TimeoutWheel<StandardSession> expirationIndex =
+        new TimeoutWheel<StandardSession>(1000, 1024, System.currentTimeMillis());
+
+    private final ConcurrentLinkedQueue<StandardSession> expirationUpdates =
+        new ConcurrentLinkedQueue<StandardSession>();
+
+    private final List<TimeoutWheel.Entry<StandardSession>> dueSessions =
+        new ArrayList<TimeoutWheel.Entry<StandardSession>>();
+
+    /**
+     * Has this Manager held any sessions that are not {@link StandardSession}s
+     * and so are not in the expiration index?
+     */
+    private volatile boolean unindexedSessions = false;
+
     // Number of sessions created by this manager
     protected long sessionCounter=0;
 
@@ -652,16 +679,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
@@ -670,6 +691,80 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     }
 
 
+    /**
+     * Check the sessions that the expiration index reports as due and
+     * invalidate the ones that have expired. Sessions that are not
+     * {@link StandardSession}s are all checked.
+     *
+     * @param timeNow The current time
+     *
+     * @return the number of sessions that were found to be invalid
+     */
+    protected int expireSessions(long timeNow) {
+        int expireHere = 0;
+        if (unindexedSessions) {
+            Session sessions[] = findSessions();
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] != null &&
+                        !(sessions[i] instanceof StandardSession) &&
+                        !sessions[i].isValid()) {
+                    expireHere++;
+                }
+            }
+        }
+        synchronized (expirationIndex) {
+            StandardSession session;
+            while ((session = expirationUpdates.poll()) != null) {
+                session.expirationUpdatePending = false;
+                updateExpirationIndex(session);
+            }
+            expirationIndex.expire(timeNow, dueSessions);
+            try {
+                for (TimeoutWheel.Entry<StandardSession> entry : dueSessions) {
+                    session = entry.getItem();
+                    if (!session.isValid()) {
+                        expireHere++;
+                    } else {
+                        // Accessed since it was indexed, or still in use
+                        updateExpirationIndex(session);
+                    }
+                }
+            } finally {
+                dueSessions.clear();
+            }
+        }
+        return expireHere;
+    }
+
+
+    /**
+     * Queue an update of the entry of the session in the expiration index.
+     *
+     * @param session The session whose expiration time may have changed
+     */
+    void expirationChanged(StandardSession session) {
+        if (!session.expirationUpdatePending) {
+            session.expirationUpdatePending = true;
+            expirationUpdates.offer(session);
+        }
+    }
+
+
+    /*
+     * Must be called while holding the lock on the expiration index.
+     */
+    private void updateExpirationIndex(StandardSession session) {
+        String id = session.getIdInternal();
+        long expirationTime = session.getExpirationTimeInternal();
+        if (id == null || expirationTime < 0 || !session.isValidInternal() ||
+                sessions.get(id) != session) {
+            expirationIndex.cancel(session.expirationEntry);
+        } else {
+            expirationIndex.schedule(session.expirationEntry, expirationTime);
+        }
+    }
+
+
     @Override
     protected void initInternal() throws LifecycleException {
         super.initInternal();
@@ -734,6 +829,11 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     @Override
     public void add(Session session) {
         sessions.put(session.getIdInternal(), session);
+        if (session instanceof StandardSession) {
+            expirationChanged((StandardSession) session);
+        } else {
+            unindexedSessions = true;
+        }
         int size = getActiveSessions();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -834,6 +934,9 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
         }
+        if (session instanceof StandardSession) {
+            expirationChanged((StandardSession) session);
+        }
     }
 
 
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * Slab allocator for blocks of memory outside of the Java heap. Memory is
+ * obtained from the operating system in slabs of direct {@link ByteBuffer}s
+ * and every slab is divided into blocks of a single size class, the sizes of
+ * which are powers of two. Freed blocks are kept for re-use by the same size
+ * class. A slab is returned to the operating system once none of its blocks
+ * are allocated, except that each size class keeps one such slab to avoid
+ * repeatedly releasing and allocating a slab as a single block comes and
+ * goes.
+ * <p>
+ * A block is identified by a handle that encodes the slab and the offset of
+ * the block within it. Allocating and freeing blocks is thread safe. Reading
+ * and writing the contents of a block is thread safe as long as only the
+ * owner of the block accesses it.
+ */
+final class OffHeapArena {
+
+    static final int MIN_BLOCK_SIZE = 64;
+
+    private final int slabSize;
+    private final long maxSize;
+
+    /*
+     * Indexed by the slab part of the handles. The entries of released slabs
+     * are null until they are re-used.
+     */
+    private final List<Slab> slabs = new ArrayList<Slab>();
+    private final SizeClass[] sizeClasses;
+
+    private boolean cleared = false;
+    private long capacity = 0;
+    private long used = 0;
+    private int blockCount = 0;
+
+
+    /**
+     * @param slabSize The size of each slab in bytes, which is also the
+     *                 largest block that can be allocated
+     * @param maxSize  The maximum total size of the slabs in bytes, or
+     *                 <code>-1</code> for no limit other than the limit the
+     *                 JVM places on direct memory
+     */
+    OffHeapArena(int slabSize, long maxSize) {
+        if (slabSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        this.slabSize = slabSize;
+        this.maxSize = maxSize;
+        int count = 1;
+        while ((MIN_BLOCK_SIZE << (count - 1)) < slabSize) {
+            count++;
+        }
+        sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(
+                    Math.min(MIN_BLOCK_SIZE << i, slabSize));
+        }
+    }
+
+
+    /**
+     * Allocate a block.
+     *
+     * @param length The number of bytes the block must hold
+     *
+     * @return the handle of the block or <code>-1</code> if the block is
+     *         larger than a slab, the arena has been cleared or no more
+     *         memory is available for the arena
+     */
+    synchronized long allocate(int length) {
+        if (length > slabSize || cleared) {
+            return -1;
+        }
+        int index = 0;
+        while (sizeClasses[index].blockSize < length) {
+            index++;
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        Slab slab;
+        if (sizeClass.available.isEmpty()) {
+            slab = newSlab(index);
+            if (slab == null) {
+                return -1;
+            }
+            sizeClass.available.add(slab);
+        } else {
+            slab = sizeClass.available.get(sizeClass.available.size() - 1);
+        }
+        int offset;
+        if (slab.freeCount > 0) {
+            offset = slab.free[--slab.freeCount];
+        } else {
+            offset = slab.top;
+            slab.top += sizeClass.blockSize;
+        }
+        if (slab.freeCount == 0 && slab.top + sizeClass.blockSize > slabSize) {
+            // Full
+            sizeClass.available.remove(sizeClass.available.size() - 1);
+        }
+        if (sizeClass.spare == slab) {
+            sizeClass.spare = null;
+        }
+        slab.blockCount++;
+        used += sizeClass.blockSize;
+        blockCount++;
+        return ((long) slab.index << 32) | offset;
+    }
+
+
+    /**
+     * Return a block to the arena.
+     *
+     * @param handle The handle of the block
+     */
+    synchronized void free(long handle) {
+        if (cleared) {
+            // Cleared while the block was allocated
+            return;
+        }
+        Slab slab = slab(handle);
+        SizeClass sizeClass = sizeClasses[slab.sizeClass];
+        used -= sizeClass.blockSize;
+        blockCount--;
+        if (--slab.blockCount == 0 && sizeClass.spare != null) {
+            release(slab);
+            return;
+        }
+        boolean full = slab.freeCount == 0 &&
+                slab.top + sizeClass.blockSize > slabSize;
+        if (slab.freeCount == slab.free.length) {
+            slab.free = Arrays.copyOf(slab.free,
+                    Math.max(16, slab.freeCount * 2));
+        }
+        slab.free[slab.freeCount++] = (int) handle;
+        if (full) {
+            sizeClass.available.add(slab);
+        }
+        if (slab.blockCount == 0) {
+            sizeClass.spare = slab;
+        }
+    }
+
+
+    /**
+     * Copy bytes into a block.
+     */
+    void write(long handle, byte[] b, int off, int len) {
+        ByteBuffer buffer = buffer(handle);
+        buffer.put(b, off, len);
+    }
+
+
+    /**
+     * Copy bytes out of a block.
+     */
+    void read(long handle, byte[] b, int off, int len) {
+        ByteBuffer buffer = buffer(handle);
+        buffer.get(b, off, len);
+    }
+
+
+    /**
+     * Release all the slabs. Any blocks that are still allocated are lost
+     * and no more blocks can be allocated.
+     */
+    synchronized void clear() {
+        cleared = true;
+        for (Slab slab : slabs) {
+            // A slab with blocks could still be being read so leave it to
+            // the garbage collector
+            if (slab != null && slab.blockCount == 0) {
+                JreCompat.getInstance().cleanDirectBuffer(slab.buffer);
+            }
+        }
+        slabs.clear();
+        for (SizeClass sizeClass : sizeClasses) {
+            sizeClass.available.clear();
+            sizeClass.spare = null;
+        }
+        capacity = 0;
+        used = 0;
+        blockCount = 0;
+    }
+
+
+    /**
+     * @return the total size of the slabs in bytes
+     */
+    synchronized long getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * @return the total size of the allocated blocks in bytes
+     */
+    synchronized long getUsed() {
+        return used;
+    }
+
+
+    /**
+     * @return the number of allocated blocks
+     */
+    synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+
+    /*
+     * Must be called while holding the lock.
+     */
+    private Slab newSlab(int sizeClass) {
+        if (maxSize >= 0 && capacity + slabSize > maxSize) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(slabSize);
+        } catch (OutOfMemoryError e) {
+            // The JVM limit on direct memory (-XX:MaxDirectMemorySize) has
+            // been reached. That is not fatal here as the attributes simply
+            // stay on the heap.
+            return null;
+        }
+        int index = slabs.indexOf(null);
+        if (index == -1) {
+            index = slabs.size();
+            slabs.add(null);
+        }
+        Slab slab = new Slab(index, sizeClass, buffer);
+        slabs.set(index, slab);
+        capacity += slabSize;
+        return slab;
+    }
+
+
+    /*
+     * Must be called while holding the lock.
+     */
+    private void release(Slab slab) {
+        sizeClasses[slab.sizeClass].available.remove(slab);
+        slabs.set(slab.index, null);
+        capacity -= slabSize;
+        JreCompat.getInstance().cleanDirectBuffer(slab.buffer);
+    }
+
+
+    private ByteBuffer buffer(long handle) {
+        Slab slab;
+        synchronized (this) {
+            if (cleared) {
+                throw new IllegalStateException();
+            }
+            slab = slab(handle);
+        }
+        // The slab's own position is never used so it can be shared
+        ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position((int) handle);
+        return buffer;
+    }
+
+
+    private Slab slab(long handle) {
+        return slabs.get((int) (handle >>> 32));
+    }
+
+
+    private static final class Slab {
+
+        final int index;
+        final int sizeClass;
+        final ByteBuffer buffer;
+        int top = 0;
+        int[] free = new int[0];
+        int freeCount = 0;
+        int blockCount = 0;
+
+        Slab(int index, int sizeClass, ByteBuffer buffer) {
+            this.index = index;
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+        }
+    }
+
+
+    private static final class SizeClass {
+
+        final int blockSize;
+        /*
+         * Slabs with free blocks. Blocks are allocated from the last one.
+         */
+        final List<Slab> available = new ArrayList<Slab>();
+        /*
+         * A slab with no allocated blocks that is kept rather than released.
+         */
+        Slab spare = null;
+
+        SizeClass(int blockSize) {
+            this.blockSize = blockSize;
+        }
+    }
+}
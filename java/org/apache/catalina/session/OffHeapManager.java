@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.Iterator;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Extension of the {@link StandardManager} that moves the attributes of
+ * sessions that have been idle for longer than {@link #getMinIdleOffHeap()}
+ * out of the Java heap. The serialized attributes are held in slabs of
+ * direct memory and are restored transparently when the session is next
+ * used. This reduces the size of the old generation, and so the length of
+ * full garbage collections, when there are large numbers of mostly idle
+ * sessions.
+ * <p>
+ * Sessions with attributes that cannot be serialized, or that implement
+ * {@link javax.servlet.http.HttpSessionActivationListener}, are always kept
+ * on the heap.
+ */
+public class OffHeapManager extends StandardManager {
+
+    private static final Log log = LogFactory.getLog(OffHeapManager.class);
+
+    // ---------------------------------------------------- Instance Variables
+
+    /**
+     * The descriptive information about this implementation.
+     */
+    private static final String info = "OffHeapManager/1.0";
+
+
+    /**
+     * The descriptive name of this Manager implementation (for logging).
+     */
+    private static final String name = "OffHeapManager";
+
+
+    /**
+     * Minimum time in seconds that a session must have been idle before its
+     * attributes are moved off the heap, or -1 if they are never moved.
+     */
+    protected int minIdleOffHeap = 60;
+
+
+    /**
+     * Size in bytes of the slabs of direct memory.
+     */
+    protected int slabSize = 4 * 1024 * 1024;
+
+
+    /**
+     * Maximum total size in bytes of the slabs of direct memory, or -1 for
+     * no limit other than the limit the JVM places on direct memory. Once
+     * either limit is reached further sessions are kept on the heap.
+     */
+    protected long maxOffHeapSize = -1;
+
+
+    private volatile OffHeapArena arena = null;
+
+
+    // ------------------------------------------------------------- Properties
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+
+    public int getMinIdleOffHeap() {
+        return minIdleOffHeap;
+    }
+
+
+    public void setMinIdleOffHeap(int minIdleOffHeap) {
+        int oldMinIdleOffHeap = this.minIdleOffHeap;
+        this.minIdleOffHeap = minIdleOffHeap;
+        support.firePropertyChange("minIdleOffHeap",
+                Integer.valueOf(oldMinIdleOffHeap),
+                Integer.valueOf(this.minIdleOffHeap));
+    }
+
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+
+    /**
+     * Set the size of the slabs of direct memory. Takes effect when the
+     * manager is next started.
+     *
+     * @param slabSize The size in bytes, between 64 bytes and 1GB
+     */
+    public void setSlabSize(int slabSize) {
+        if (slabSize < OffHeapArena.MIN_BLOCK_SIZE || slabSize > 1 << 30) {
+            throw new IllegalArgumentException(sm.getString(
+                    "offHeapManager.invalidSlabSize", Integer.valueOf(slabSize)));
+        }
+        this.slabSize = slabSize;
+    }
+
+
+    public long getMaxOffHeapSize() {
+        return maxOffHeapSize;
+    }
+
+
+    /**
+     * Set the maximum total size of the slabs of direct memory. Takes effect
+     * when the manager is next started.
+     *
+     * @param maxOffHeapSize The size in bytes, or -1 for no limit
+     */
+    public void setMaxOffHeapSize(long maxOffHeapSize) {
+        this.maxOffHeapSize = maxOffHeapSize;
+    }
+
+
+    /**
+     * @return the number of sessions whose attributes are off the heap
+     */
+    public int getOffHeapSessions() {
+        OffHeapArena arena = this.arena;
+        return arena == null ? 0 : arena.getBlockCount();
+    }
+
+
+    /**
+     * @return the number of bytes of direct memory used by the attributes of
+     *         sessions
+     */
+    public long getOffHeapUsed() {
+        OffHeapArena arena = this.arena;
+        return arena == null ? 0 : arena.getUsed();
+    }
+
+
+    /**
+     * @return the number of bytes of direct memory allocated by this manager
+     */
+    public long getOffHeapCapacity() {
+        OffHeapArena arena = this.arena;
+        return arena == null ? 0 : arena.getCapacity();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also moves the attributes of idle sessions off the heap.
+     */
+    @Override
+    public void processExpires() {
+        super.processExpires();
+        processOffHeapMoves();
+    }
+
+
+    /**
+     * Move the attributes of the sessions that have been idle for at least
+     * {@link #getMinIdleOffHeap()} seconds off the heap.
+     */
+    public void processOffHeapMoves() {
+        OffHeapArena arena = this.arena;
+        if (minIdleOffHeap < 0 || arena == null) {
+            return;
+        }
+        long timeNow = System.currentTimeMillis();
+        long idleBefore = timeNow - minIdleOffHeap * 1000L;
+        int moved = 0;
+        // Iterate over the map directly to avoid copying a large number of
+        // sessions into an array
+        Iterator<Session> iter = sessions.values().iterator();
+        while (iter.hasNext()) {
+            Session session = iter.next();
+            if (!(session instanceof OffHeapSession)) {
+                continue;
+            }
+            OffHeapSession offHeapSession = (OffHeapSession) session;
+            if (offHeapSession.getThisAccessedTimeInternal() <= idleBefore &&
+                    offHeapSession.isValidInternal() &&
+                    !offHeapSession.isOffHeap() &&
+                    offHeapSession.moveOffHeap(arena)) {
+                moved++;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("offHeapManager.moved",
+                    Integer.valueOf(moved), getName(),
+                    Long.valueOf(System.currentTimeMillis() - timeNow)));
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+    @Override
+    protected StandardSession getNewSession() {
+        return new OffHeapSession(this);
+    }
+
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        arena = new OffHeapArena(slabSize, maxOffHeapSize);
+        super.startInternal();
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        // The sessions have been saved and expired so all the blocks have
+        // been freed
+        arena.clear();
+        arena = null;
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Proxy;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpSessionActivationListener;
+
+import org.apache.catalina.Loader;
+import org.apache.catalina.Manager;
+
+/**
+ * Session whose attributes can be moved out of the Java heap, in serialized
+ * form, while the session is idle. The attributes are deserialized again the
+ * first time they are used, whether by the application through
+ * {@link #getAttribute(String)} and the other attribute methods or by the
+ * container, for example to notify listeners when the session expires.
+ * <p>
+ * Like swapping a session out to a {@link org.apache.catalina.Store},
+ * moving the attributes off the heap replaces the attribute values with
+ * copies when they are next used. If the attributes cannot be read back,
+ * the session is invalidated rather than continuing without them.
+ * <p>
+ * The requests using each session are counted whether or not
+ * <code>org.apache.catalina.session.StandardSession.ACTIVITY_CHECK</code>
+ * is set, so that the attributes of a session are never moved while a
+ * request is using it.
+ */
+public class OffHeapSession extends StandardSession {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * The number of requests currently using this session.
+     */
+    private final transient AtomicInteger inUseCount = new AtomicInteger();
+
+
+    public OffHeapSession(Manager manager) {
+        super(manager);
+        attributes = new Attributes();
+    }
+
+
+    /**
+     * @return <code>true</code> if the attributes of this session are
+     *         currently held off the heap
+     */
+    public boolean isOffHeap() {
+        return ((Attributes) attributes).isOffHeap();
+    }
+
+
+    @Override
+    public void access() {
+        inUseCount.incrementAndGet();
+        super.access();
+    }
+
+
+    @Override
+    public void endAccess() {
+        // Never go below zero, should endAccess() be called without access()
+        int count;
+        do {
+            count = inUseCount.get();
+        } while (count > 0 && !inUseCount.compareAndSet(count, count - 1));
+        super.endAccess();
+    }
+
+
+    /**
+     * Serialize the attributes of this session into a block of the given
+     * arena and release them from the heap. Sessions that are in use, that
+     * have no attributes or that have attributes that cannot be serialized or
+     * that need to be notified of passivation are left as they are.
+     *
+     * @param arena The arena in which to store the attributes
+     *
+     * @return <code>true</code> if the attributes were moved
+     */
+    protected boolean moveOffHeap(OffHeapArena arena) {
+        if (inUseCount.get() > 0) {
+            return false;
+        }
+        return ((Attributes) attributes).moveOffHeap(arena);
+    }
+
+
+    /*
+     * Create the stream from which the attributes are read. The data was
+     * written by this session so the attribute filters of the manager do not
+     * need to be applied.
+     */
+    private ObjectInputStream getObjectInputStream(ByteArrayInputStream bais)
+            throws IOException {
+        ClassLoader classLoader = null;
+        Loader loader = manager.getContainer().getLoader();
+        if (loader != null) {
+            classLoader = loader.getClassLoader();
+        }
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+        return new AttributeInputStream(bais, classLoader);
+    }
+
+
+    // ---------------------------------------------- Attributes Inner Class
+
+    /**
+     * The attribute map of the session. When the attributes are off the heap
+     * only the location of their serialized form is held and any use of the
+     * map deserializes them first. All access is synchronized on the session
+     * so that the attributes cannot be changed while they are being moved and
+     * so that a session that cannot be restored can be expired from within
+     * the map.
+     */
+    private final class Attributes extends AbstractMap<String,Object>
+            implements ConcurrentMap<String,Object> {
+
+        private ConcurrentMap<String,Object> map =
+            new ConcurrentHashMap<String,Object>();
+
+        private OffHeapArena arena = null;
+        private long block = -1;
+        private int length = 0;
+        private int size = 0;
+
+
+        boolean isOffHeap() {
+            synchronized (OffHeapSession.this) {
+                return map == null;
+            }
+        }
+
+
+        boolean moveOffHeap(OffHeapArena arena) {
+            synchronized (OffHeapSession.this) {
+                // Check again now that the attributes cannot be read. A
+                // request that starts after this waits for the move to
+                // complete and then reads the attributes back.
+                if (inUseCount.get() > 0) {
+                    return false;
+                }
+                return moveOffHeapInternal(arena);
+            }
+        }
+
+
+        private boolean moveOffHeapInternal(OffHeapArena arena) {
+            if (map == null || map.isEmpty()) {
+                return false;
+            }
+            byte[] bytes;
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new AttributeOutputStream(baos);
+                oos.writeInt(map.size());
+                for (Map.Entry<String,Object> entry : map.entrySet()) {
+                    String name = entry.getKey();
+                    Object value = entry.getValue();
+                    if (value instanceof HttpSessionActivationListener ||
+                            !isAttributeDistributable(name, value)) {
+                        return false;
+                    }
+                    oos.writeObject(name);
+                    oos.writeObject(value);
+                }
+                oos.close();
+                bytes = baos.toByteArray();
+            } catch (IOException e) {
+                // Not serializable. Keep the attributes on the heap.
+                if (manager.getContainer().getLogger().isDebugEnabled()) {
+                    manager.getContainer().getLogger().debug(sm.getString(
+                            "offHeapSession.moveFail", getIdInternal()), e);
+                }
+                return false;
+            }
+            long block = arena.allocate(bytes.length);
+            if (block == -1) {
+                return false;
+            }
+            arena.write(block, bytes, 0, bytes.length);
+            this.arena = arena;
+            this.block = block;
+            this.length = bytes.length;
+            this.size = map.size();
+            map = null;
+            return true;
+        }
+
+
+        /*
+         * Must be called while holding the lock of the session.
+         */
+        private ConcurrentMap<String,Object> map() {
+            if (map == null) {
+                ConcurrentMap<String,Object> loaded =
+                    new ConcurrentHashMap<String,Object>();
+                boolean failed = false;
+                byte[] bytes = new byte[length];
+                try {
+                    arena.read(block, bytes, 0, length);
+                    ObjectInputStream ois =
+                        getObjectInputStream(new ByteArrayInputStream(bytes));
+                    try {
+                        int n = ois.readInt();
+                        for (int i = 0; i < n; i++) {
+                            String name = (String) ois.readObject();
+                            Object value = ois.readObject();
+                            if (value != null) {
+                                loaded.put(name, value);
+                            }
+                        }
+                    } finally {
+                        ois.close();
+                    }
+                } catch (Exception e) {
+                    manager.getContainer().getLogger().error(sm.getString(
+                            "offHeapSession.loadFail", getIdInternal()), e);
+                    failed = true;
+                } finally {
+                    release();
+                }
+                if (failed) {
+                    // Continuing with some or none of the attributes could
+                    // mislead the application so end the session instead.
+                    // Expiring it uses the (now empty) map so set that first.
+                    map = new ConcurrentHashMap<String,Object>();
+                    if (!expiring && isValidInternal()) {
+                        expire();
+                    }
+                } else {
+                    map = loaded;
+                }
+            }
+            return map;
+        }
+
+
+        private void release() {
+            arena.free(block);
+            arena = null;
+            block = -1;
+            length = 0;
+            size = 0;
+        }
+
+
+        // ------------------------------------------------------ Map methods
+
+        @Override
+        public int size() {
+            synchronized (OffHeapSession.this) {
+                if (map == null) {
+                    return size;
+                }
+                return map.size();
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            synchronized (OffHeapSession.this) {
+                return size() == 0;
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            synchronized (OffHeapSession.this) {
+                return map().containsKey(key);
+            }
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            synchronized (OffHeapSession.this) {
+                return map().containsValue(value);
+            }
+        }
+
+        @Override
+        public Object get(Object key) {
+            synchronized (OffHeapSession.this) {
+                return map().get(key);
+            }
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            synchronized (OffHeapSession.this) {
+                return map().put(key, value);
+            }
+        }
+
+        @Override
+        public Object remove(Object key) {
+            synchronized (OffHeapSession.this) {
+                return map().remove(key);
+            }
+        }
+
+        @Override
+        public void putAll(Map<? extends String,? extends Object> m) {
+            synchronized (OffHeapSession.this) {
+                map().putAll(m);
+            }
+        }
+
+        @Override
+        public void clear() {
+            synchronized (OffHeapSession.this) {
+                if (map == null) {
+                    release();
+                    map = new ConcurrentHashMap<String,Object>();
+                } else {
+                    map.clear();
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The views returned by this map and the following two methods
+         * reflect the attributes as they are when the method is called and
+         * are not affected by the attributes later moving off the heap.
+         */
+        @Override
+        public Set<String> keySet() {
+            synchronized (OffHeapSession.this) {
+                return map().keySet();
+            }
+        }
+
+        @Override
+        public Collection<Object> values() {
+            synchronized (OffHeapSession.this) {
+                return map().values();
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<String,Object>> entrySet() {
+            synchronized (OffHeapSession.this) {
+                return map().entrySet();
+            }
+        }
+
+        @Override
+        public Object putIfAbsent(String key, Object value) {
+            synchronized (OffHeapSession.this) {
+                return map().putIfAbsent(key, value);
+            }
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            synchronized (OffHeapSession.this) {
+                return map().remove(key, value);
+            }
+        }
+
+        @Override
+        public boolean replace(String key, Object oldValue,
+                Object newValue) {
+            synchronized (OffHeapSession.this) {
+                return map().replace(key, oldValue, newValue);
+            }
+        }
+
+        @Override
+        public Object replace(String key, Object value) {
+            synchronized (OffHeapSession.this) {
+                return map().replace(key, value);
+            }
+        }
+    }
+
+
+    // -------------------------------------- Attribute Stream Inner Classes
+
+    /*
+     * The classes of the attributes cannot change while they are off the
+     * heap, as reloading the web application restarts the manager, so only
+     * the name of each class is written rather than its full description.
+     * This makes the serialized attributes of a typical session much
+     * smaller.
+     */
+
+    private static final class AttributeOutputStream extends ObjectOutputStream {
+
+        AttributeOutputStream(ByteArrayOutputStream baos) throws IOException {
+            super(baos);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc)
+                throws IOException {
+            Class<?> clazz = desc.forClass();
+            if (clazz == null || clazz.isPrimitive()) {
+                writeBoolean(false);
+                super.writeClassDescriptor(desc);
+            } else {
+                writeBoolean(true);
+                writeUTF(desc.getName());
+            }
+        }
+    }
+
+
+    private static final class AttributeInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        AttributeInputStream(ByteArrayInputStream bais, ClassLoader classLoader)
+                throws IOException {
+            super(bais);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException,
+                ClassNotFoundException {
+            if (!readBoolean()) {
+                return super.readClassDescriptor();
+            }
+            return ObjectStreamClass.lookupAny(
+                    Class.forName(readUTF(), false, classLoader));
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            Class<?> clazz = desc.forClass();
+            if (clazz != null) {
+                return clazz;
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces)
+                throws IOException, ClassNotFoundException {
+            Class<?>[] classes = new Class<?>[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                classes[i] = Class.forName(interfaces[i], false, classLoader);
+            }
+            try {
+                return Proxy.getProxyClass(classLoader, classes);
+            } catch (IllegalArgumentException e) {
+                throw new ClassNotFoundException(null, e);
+            }
+        }
+    }
+}
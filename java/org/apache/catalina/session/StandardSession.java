@@ -58,6 +58,7 @@ import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.TimeoutWheel;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
 
@@ -291,6 +292,20 @@ public class StandardSession implements HttpSession, Session, Serializable {
     protected transient AtomicInteger accessCount = null;
 
 
+    /**
+     * The entry for this session in the expiration index of the manager.
+     */
+    protected final transient TimeoutWheel.Entry<StandardSession> expirationEntry =
+        new TimeoutWheel.Entry<StandardSession>(this);
+
+
+    /**
+     * Is this session waiting for the manager to update its entry in the
+     * expiration index?
+     */
+    protected transient volatile boolean expirationUpdatePending = false;
+
+
     // ----------------------------------------------------- Session Properties
 
 
@@ -500,6 +515,24 @@ public class StandardSession implements HttpSession, Session, Serializable {
         return (this.lastAccessedTime);
     }
 
+    /**
+     * Return the time at which this session will time out if there are no
+     * further requests for it, or <code>-1</code> if it never times out. The
+     * manager uses this to index its sessions by expiration time.
+     */
+    public long getExpirationTimeInternal() {
+        if (maxInactiveInterval <= 0) {
+            return -1;
+        }
+        long accessedTime;
+        if (LAST_ACCESS_AT_START) {
+            accessedTime = lastAccessedTime;
+        } else {
+            accessedTime = thisAccessedTime;
+        }
+        return accessedTime + maxInactiveInterval * 1000L;
+    }
+
     /**
      * Return the Manager within which this Session is valid.
      */
@@ -543,6 +576,7 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        expirationChanged();
     }
 
 
@@ -708,6 +742,8 @@ public class StandardSession implements HttpSession, Session, Serializable {
             accessCount.decrementAndGet();
         }
 
+        expirationChanged();
+
     }
 
 
@@ -1553,6 +1589,17 @@ public class StandardSession implements HttpSession, Session, Serializable {
         return this.isValid;
     }
 
+
+    /**
+     * Notify the manager that the time at which this session expires may
+     * have changed.
+     */
+    protected void expirationChanged() {
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).expirationChanged(this);
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -755,4 +755,9 @@ public class FailedContext extends LifecycleMBeanBase implements Context {
     public void setCreateUploadTargets(boolean createUploadTargets) { /* NO-OP */}
     @Override
     public boolean getCreateUploadTargets() { return false; }
+
+    @Override
+    public void setCookieParseCacheSize(int cookieParseCacheSize) { /* NO-OP */ }
+    @Override
+    public int getCookieParseCacheSize() { return 0; }
 }
\ No newline at end of file
@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -34,6 +33,7 @@ import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.servlet31.WebConnection;
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.RecyclingPool;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler;
@@ -142,6 +142,31 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
         this.processorCache = processorCache;
     }
 
+    /**
+     * @return the number of times a cached Processor was re-used
+     */
+    public long getProcessorCacheHitCount() {
+        RecycledProcessors<?,?> cache = getRecycledProcessors();
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * @return the number of times the cache was empty and a new Processor
+     *         had to be created
+     */
+    public long getProcessorCacheMissCount() {
+        RecycledProcessors<?,?> cache = getRecycledProcessors();
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    private RecycledProcessors<?,?> getRecycledProcessors() {
+        Handler handler = getHandler();
+        if (handler instanceof AbstractConnectionHandler) {
+            return ((AbstractConnectionHandler<?,?>) handler).recycledProcessors;
+        }
+        return null;
+    }
+
 
     /**
      * When client certificate information is presented in a form other than
@@ -839,11 +864,9 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
     protected static class RecycledProcessors<P extends Processor<S>, S>
-            extends ConcurrentLinkedQueue<Processor<S>> {
+            extends RecyclingPool<Processor<S>> {
 
-        private static final long serialVersionUID = 1L;
-        private transient AbstractConnectionHandler<S,P> handler;
-        protected AtomicInteger size = new AtomicInteger(0);
+        private final AbstractConnectionHandler<S,P> handler;
 
         public RecycledProcessors(AbstractConnectionHandler<S,P> handler) {
             this.handler = handler;
@@ -851,38 +874,15 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
 
         @Override
         public boolean offer(Processor<S> processor) {
-            int cacheSize = handler.getProtocol().getProcessorCache();
-            boolean offer = cacheSize == -1 ? true : size.get() < cacheSize;
-            //avoid over growing our cache or add after we have stopped
-            boolean result = false;
-            if (offer) {
-                result = super.offer(processor);
-                if (result) {
-                    size.incrementAndGet();
-                }
-            }
+            setLimit(handler.getProtocol().getProcessorCache());
+            boolean result = super.offer(processor);
             if (!result) handler.unregister(processor);
             return result;
         }
 
         @Override
-        public Processor<S> poll() {
-            Processor<S> result = super.poll();
-            if (result != null) {
-                size.decrementAndGet();
-            }
-            return result;
-        }
-
-        @Override
-        public void clear() {
-            Processor<S> next = poll();
-            while (next != null) {
-                handler.unregister(next);
-                next = poll();
-            }
-            super.clear();
-            size.set(0);
+        protected void discard(Processor<S> processor) {
+            handler.unregister(processor);
         }
     }
 }
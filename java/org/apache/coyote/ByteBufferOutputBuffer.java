@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Optional extension of {@link OutputBuffer} for buffers that can write the
+ * contents of a {@link ByteBuffer} without first copying it into a byte array.
+ * Output buffers that do not implement it are passed the data as
+ * {@link org.apache.tomcat.util.buf.ByteChunk}s by
+ * {@link Response#doWrite(ByteBuffer)}.
+ */
+public interface ByteBufferOutputBuffer extends OutputBuffer {
+
+    /**
+     * Write the remaining bytes of the given buffer. The caller owns the
+     * buffer. On return its position will have been advanced past the bytes
+     * that were written.
+     *
+     * @param buffer data to write
+     * @param response used to allow buffers that can be shared by multiple
+     *          responses.
+     * @return The number of bytes written or -1 if no more bytes may be
+     *         written for the current response
+     * @throws IOException
+     */
+    public int doWrite(ByteBuffer buffer, Response response)
+        throws IOException;
+}
@@ -31,6 +31,8 @@ public class RequestGroupInfo {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private long deadSocketWriteCount = 0;
+    private long deadHeaderCacheHitCount = 0;
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -45,6 +47,8 @@ public class RequestGroupInfo {
             deadErrorCount += rp.getErrorCount();
             deadBytesReceived += rp.getBytesReceived();
             deadBytesSent += rp.getBytesSent();
+            deadSocketWriteCount += rp.getSocketWriteCount();
+            deadHeaderCacheHitCount += rp.getHeaderCacheHitCount();
 
             processors.remove( rp );
         }
@@ -153,9 +157,45 @@ public class RequestGroupInfo {
         }
     }
 
+    public synchronized long getSocketWriteCount() {
+        long count=deadSocketWriteCount;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            count += rp.getSocketWriteCount();
+        }
+        return count;
+    }
+
+    public synchronized void setSocketWriteCount(long socketWriteCount) {
+        deadSocketWriteCount = socketWriteCount;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            rp.setSocketWriteCount( socketWriteCount );
+        }
+    }
+
+    public synchronized long getHeaderCacheHitCount() {
+        long count=deadHeaderCacheHitCount;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            count += rp.getHeaderCacheHitCount();
+        }
+        return count;
+    }
+
+    public synchronized void setHeaderCacheHitCount(long headerCacheHitCount) {
+        deadHeaderCacheHitCount = headerCacheHitCount;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            rp.setHeaderCacheHitCount( headerCacheHitCount );
+        }
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
+        this.setSocketWriteCount(0);
+        this.setHeaderCacheHitCount(0);
         this.setRequestCount(0);
         this.setProcessingTime(0);
         this.setMaxTime(0);
@@ -137,6 +137,10 @@ public class RequestInfo  {
     // Collected at the end of each request.
     private long bytesSent;
     private long bytesReceived;
+    // Network write calls, divide by requestCount to get the average
+    private long socketWriteCount;
+    // Responses sent with the cached header block of the previous response
+    private long headerCacheHitCount;
 
     // Total time = divide by requestCount to get average.
     private long processingTime;
@@ -159,6 +163,10 @@ public class RequestInfo  {
     void updateCounters() {
         bytesReceived+=req.getBytesRead();
         bytesSent+=req.getResponse().getContentWritten();
+        socketWriteCount+=req.getResponse().getSocketWriteCount();
+        if (req.getResponse().isHeaderCacheHit()) {
+            headerCacheHitCount++;
+        }
 
         requestCount++;
         if( req.getResponse().getStatus() >=400 )
@@ -190,6 +198,22 @@ public class RequestInfo  {
         this.bytesSent = bytesSent;
     }
 
+    public long getSocketWriteCount() {
+        return socketWriteCount;
+    }
+
+    public void setSocketWriteCount(long socketWriteCount) {
+        this.socketWriteCount = socketWriteCount;
+    }
+
+    public long getHeaderCacheHitCount() {
+        return headerCacheHitCount;
+    }
+
+    public void setHeaderCacheHitCount(long headerCacheHitCount) {
+        this.headerCacheHitCount = headerCacheHitCount;
+    }
+
     public long getBytesReceived() {
         return bytesReceived;
     }
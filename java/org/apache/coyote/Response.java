@@ -18,6 +18,7 @@ package org.apache.coyote;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,6 +46,12 @@ public final class Response {
      */
     private static final Locale DEFAULT_LOCALE = Locale.getDefault();
 
+    /**
+     * Size of the buffer used to copy ByteBuffers for output buffers that can
+     * only write byte arrays.
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 8 * 1024;
+
 
     // ----------------------------------------------------- Instance Variables
 
@@ -102,6 +109,15 @@ public final class Response {
     // General informations
     private long contentWritten = 0;
     private long commitTime = -1;
+    private long socketWriteCount = 0;
+    private boolean headerCacheHit = false;
+
+    /**
+     * Used to write ByteBuffers to output buffers that can only write byte
+     * arrays.
+     */
+    private final ByteChunk transferChunk = new ByteChunk();
+    private byte[] transferBytes = null;
 
     /**
      * Has the charset been explicitly set.
@@ -580,6 +596,39 @@ public final class Response {
     }
 
 
+    /**
+     * Write the remaining bytes of a ByteBuffer. If the output buffer supports
+     * it, the ByteBuffer is passed down without being copied. Otherwise its
+     * contents are written as byte chunks, which only requires a copy if the
+     * ByteBuffer is not backed by an array.
+     */
+    public void doWrite(ByteBuffer buffer) throws IOException {
+        int len = buffer.remaining();
+        if (outputBuffer instanceof ByteBufferOutputBuffer) {
+            ((ByteBufferOutputBuffer) outputBuffer).doWrite(buffer, this);
+        } else {
+            if (buffer.hasArray()) {
+                transferChunk.setBytes(buffer.array(),
+                        buffer.arrayOffset() + buffer.position(), len);
+                outputBuffer.doWrite(transferChunk, this);
+                buffer.position(buffer.limit());
+            } else {
+                if (transferBytes == null) {
+                    transferBytes = new byte[TRANSFER_BUFFER_SIZE];
+                }
+                while (buffer.hasRemaining()) {
+                    int thisTime = Math.min(buffer.remaining(), transferBytes.length);
+                    buffer.get(transferBytes, 0, thisTime);
+                    transferChunk.setBytes(transferBytes, 0, thisTime);
+                    outputBuffer.doWrite(transferChunk, this);
+                }
+            }
+        }
+        contentWritten += len;
+    }
+
+
+
     // --------------------
 
     public void recycle() {
@@ -600,6 +649,8 @@ public final class Response {
 
         // update counters
         contentWritten=0;
+        socketWriteCount=0;
+        headerCacheHit=false;
     }
 
     /**
@@ -613,6 +664,45 @@ public final class Response {
         return contentWritten;
     }
 
+    /**
+     * Record write calls made on the network connection for this response.
+     *
+     * @param count The number of additional write calls
+     */
+    public void addSocketWriteCount(long count) {
+        socketWriteCount += count;
+    }
+
+    /**
+     * Write calls made on the network connection for this response. Only
+     * tracked by connectors that support it.
+     *
+     * @return The number of write calls made for this response
+     */
+    public long getSocketWriteCount() {
+        return socketWriteCount;
+    }
+
+    /**
+     * Record that the connector sent this response's header block from its
+     * cache rather than serializing the headers again.
+     *
+     * @param headerCacheHit {@code true} if the cached header block was used
+     */
+    public void setHeaderCacheHit(boolean headerCacheHit) {
+        this.headerCacheHit = headerCacheHit;
+    }
+
+    /**
+     * Was the header block of this response sent from the connector's cache?
+     * Only tracked by connectors that cache response headers.
+     *
+     * @return {@code true} if the cached header block was used
+     */
+    public boolean isHeaderCacheHit() {
+        return headerCacheHit;
+    }
+
     /**
      * Bytes written to socket - i.e. after compression, chunking, etc.
      *
@@ -18,6 +18,10 @@ package org.apache.coyote.http11;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -34,6 +38,7 @@ import org.apache.coyote.RequestInfo;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.GzipCompressionPool;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
@@ -41,6 +46,7 @@ import org.apache.coyote.http11.filters.SavedRequestInputFilter;
 import org.apache.coyote.http11.filters.VoidInputFilter;
 import org.apache.coyote.http11.filters.VoidOutputFilter;
 import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -48,6 +54,7 @@ import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.ResponseUtil;
+import org.apache.tomcat.util.http.parser.AcceptEncoding;
 import org.apache.tomcat.util.http.parser.HttpParser;
 import org.apache.tomcat.util.log.UserDataHelper;
 import org.apache.tomcat.util.net.AbstractEndpoint;
@@ -240,6 +247,19 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     protected String[] compressableMimeTypes = { "text/html", "text/xml", "text/plain" };
 
 
+    /**
+     * The content-codings that may be applied to compressible responses, in
+     * order of preference. If <code>null</code> only gzip is used.
+     */
+    protected ContentEncoding[] contentEncodings = null;
+
+
+    /**
+     * The output filters for {@link #contentEncodings}.
+     */
+    private OutputFilter[] contentEncodingFilters = null;
+
+
     /**
      * Allow a customized the server header for the tin-foil hat folks.
      */
@@ -263,6 +283,12 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     protected HttpUpgradeHandler httpUpgradeHandler = null;
 
 
+    /**
+     * The HTTP/2 configuration if connections may switch to HTTP/2.
+     */
+    protected Http2Protocol http2Protocol = null;
+
+
     private boolean allowHostHeaderMismatch = true;
 
 
@@ -328,6 +354,31 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Set the pool of Deflaters and buffers used to compress responses.
+     */
+    public void setCompressionPool(GzipCompressionPool compressionPool) {
+        ((GzipOutputFilter) getOutputBuffer().getFilters()[Constants.GZIP_FILTER])
+                .setCompressionPool(compressionPool);
+    }
+
+
+    /**
+     * Set the content-codings that may be applied to compressible responses,
+     * in order of preference. An output filter is created for each of them so
+     * this must only be called once.
+     */
+    public void setContentEncodings(ContentEncoding[] contentEncodings) {
+        OutputFilter[] filters = new OutputFilter[contentEncodings.length];
+        for (int i = 0; i < contentEncodings.length; i++) {
+            filters[i] = contentEncodings[i].createOutputFilter();
+            getOutputBuffer().addFilter(filters[i]);
+        }
+        this.contentEncodings = contentEncodings;
+        this.contentEncodingFilters = filters;
+    }
+
+
     /**
      * Set no compression user agent pattern. Regular expression as supported
      * by {@link Pattern}.
@@ -596,6 +647,33 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Should the serialized response header block be reused by the next
+     * response on the same connection if the headers are identical?
+     */
+    public void setCacheResponseHeaders(boolean cacheResponseHeaders) {
+        getOutputBuffer().setCacheHeaderBlock(cacheResponseHeaders);
+    }
+
+    public boolean getCacheResponseHeaders() {
+        return getOutputBuffer().getCacheHeaderBlock();
+    }
+
+
+    /**
+     * Enable HTTP/2 for cleartext connections, either with prior knowledge or
+     * by upgrading from HTTP/1.1.
+     */
+    public void setHttp2Protocol(Http2Protocol http2Protocol) {
+        this.http2Protocol = http2Protocol;
+    }
+
+
+    private boolean isHttp2Enabled() {
+        return http2Protocol != null && !endpoint.isSSLEnabled();
+    }
+
+
     /**
      * Check if the resource could be compressed, if the client supports it.
      */
@@ -605,8 +683,7 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
         MessageBytes contentEncodingMB = response.getMimeHeaders().getValue("Content-Encoding");
 
         if ((contentEncodingMB != null) &&
-                (contentEncodingMB.indexOf("gzip") != -1 ||
-                        contentEncodingMB.indexOf("br") != -1)) {
+                !contentEncodingMB.equalsIgnoreCase("identity")) {
             return false;
         }
 
@@ -633,21 +710,57 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     /**
      * Check if compression should be used for this resource. Already checked
      * that the resource could be compressed if the client supports it.
+     *
+     * @return the index of the content-coding to use, the one the client
+     *         accepts with the highest quality, or -1 if the response should
+     *         not be compressed
      */
-    private boolean useCompression() {
-
-        // Check if browser support gzip encoding
-        MessageBytes acceptEncodingMB =
-            request.getMimeHeaders().getValue("accept-encoding");
+    private int useCompression() {
 
-        if ((acceptEncodingMB == null)
-            || (acceptEncodingMB.indexOf("gzip") == -1)) {
-            return false;
+        // Check which of the content-codings the browser supports
+        Enumeration<String> acceptEncodingValues =
+            request.getMimeHeaders().values("accept-encoding");
+        if (!acceptEncodingValues.hasMoreElements()) {
+            return -1;
+        }
+        List<AcceptEncoding> acceptEncodings = new ArrayList<AcceptEncoding>();
+        try {
+            while (acceptEncodingValues.hasMoreElements()) {
+                acceptEncodings.addAll(AcceptEncoding.parse(
+                        new StringReader(acceptEncodingValues.nextElement())));
+            }
+        } catch (IOException e) {
+            // Not possible with a StringReader
+            return -1;
+        }
+
+        int encoding = -1;
+        double quality = 0;
+        int count = (contentEncodings == null) ? 1 : contentEncodings.length;
+        for (int i = 0; i < count; i++) {
+            String name = (contentEncodings == null) ?
+                    "gzip" : contentEncodings[i].getName();
+            double q = AcceptEncoding.getQuality(acceptEncodings, name);
+            // Ties go to the coding configured first
+            if (q > quality) {
+                encoding = i;
+                quality = q;
+            }
+        }
+        if (encoding == -1) {
+            return -1;
+        }
+        for (AcceptEncoding acceptEncoding : acceptEncodings) {
+            if ("identity".equals(acceptEncoding.getEncoding()) &&
+                    acceptEncoding.getQuality() > quality) {
+                // The client prefers the response not to be compressed
+                return -1;
+            }
         }
 
         // If force mode, always compress (test purposes only)
         if (compressionLevel == 2) {
-            return true;
+            return encoding;
         }
 
         // Check for incompatible Browser
@@ -658,12 +771,12 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
                 String userAgentValue = userAgentValueMB.toString();
 
                 if (noCompressionUserAgents.matcher(userAgentValue).matches()) {
-                    return false;
+                    return -1;
                 }
             }
         }
 
-        return true;
+        return encoding;
     }
 
 
@@ -1105,6 +1218,19 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
                 getAdapter().log(request, response, 0);
             }
 
+            if (!getErrorState().isError() && isHttp2Enabled() &&
+                    Http2Protocol.isPriorKnowledge(request)) {
+                // The client is using HTTP/2 with prior knowledge. The request
+                // line and the empty header block were the start of the
+                // connection preface.
+                httpUpgradeHandler = http2Protocol.createPriorKnowledgeHandler(
+                        adapter, endpoint.getExecutor(), request,
+                        getInputBuffer().buf, getInputBuffer().pos,
+                        getInputBuffer().lastValid - getInputBuffer().pos);
+                getOutputBuffer().finished = true;
+                break;
+            }
+
             if (!getErrorState().isError()) {
                 // Setting up filters, and parse some request headers
                 rp.setStage(org.apache.coyote.Constants.STAGE_PREPARE);
@@ -1123,6 +1249,32 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
                 }
             }
 
+            if (!getErrorState().isError() && isHttp2Enabled() &&
+                    Http2Protocol.isUpgradeRequest(request)) {
+                HttpUpgradeHandler handler = http2Protocol.createUpgradeHandler(
+                        adapter, endpoint.getExecutor(), request,
+                        getInputBuffer().buf, getInputBuffer().pos,
+                        getInputBuffer().lastValid - getInputBuffer().pos);
+                // Fall back to HTTP/1.1 if the settings are not valid
+                if (handler != null) {
+                    try {
+                        response.setStatus(
+                                HttpServletResponse.SC_SWITCHING_PROTOCOLS);
+                        response.setHeader("Connection", "Upgrade");
+                        response.setHeader("Upgrade", "h2c");
+                        response.sendHeaders();
+                        action(ActionCode.CLIENT_FLUSH, null);
+                    } catch (Throwable t) {
+                        ExceptionUtils.handleThrowable(t);
+                        setErrorState(ErrorState.CLOSE_NOW, t);
+                        break;
+                    }
+                    getOutputBuffer().finished = true;
+                    httpUpgradeHandler = handler;
+                    break;
+                }
+            }
+
             if (maxKeepAliveRequests == 1) {
                 keepAlive = false;
             } else if (maxKeepAliveRequests > 0 &&
@@ -1620,14 +1772,14 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
 
         // Check for compression
         boolean isCompressible = false;
-        boolean useCompression = false;
+        int contentEncoding = -1;
         if (entityBody && (compressionLevel > 0) && !sendingWithSendfile) {
             isCompressible = isCompressible();
             if (isCompressible) {
-                useCompression = useCompression();
+                contentEncoding = useCompression();
             }
             // Change content-length to -1 to force chunking
-            if (useCompression) {
+            if (contentEncoding != -1) {
                 response.setContentLength(-1);
             }
         }
@@ -1668,9 +1820,15 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             }
         }
 
-        if (useCompression) {
-            getOutputBuffer().addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
-            headers.setValue("Content-Encoding").setString("gzip");
+        if (contentEncoding != -1) {
+            if (contentEncodings == null) {
+                getOutputBuffer().addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
+                headers.setValue("Content-Encoding").setString("gzip");
+            } else {
+                getOutputBuffer().addActiveFilter(contentEncodingFilters[contentEncoding]);
+                headers.setValue("Content-Encoding").setString(
+                        contentEncodings[contentEncoding].getName());
+            }
         }
         // If it might be compressed, set the Vary header
         if (isCompressible) {
@@ -1697,8 +1855,10 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
         checkExpectationAndResponseStatus();
 
         // If we know that the request is bad this early, add the
-        // Connection: close header.
-        keepAlive = keepAlive && !statusDropsConnection(statusCode);
+        // Connection: close header. Do the same if the endpoint is shedding
+        // load so clients move to other servers.
+        keepAlive = keepAlive && !statusDropsConnection(statusCode) &&
+                !endpoint.isShedding();
         if (!keepAlive) {
             // Avoid adding the close header twice
             if (!connectionClosePresent) {
@@ -1709,23 +1869,18 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             headers.addValue(Constants.CONNECTION).setString(Constants.KEEPALIVE);
         }
 
-        // Build the response header
-        getOutputBuffer().sendStatus();
-
         // Add server header
+        boolean defaultServer = false;
         if (server != null) {
             // Always overrides anything the app might set
             headers.setValue("Server").setString(server);
         } else if (headers.getValue("Server") == null) {
             // If app didn't set the header, use the default
-            getOutputBuffer().write(Constants.SERVER_BYTES);
+            defaultServer = true;
         }
 
-        int size = headers.size();
-        for (int i = 0; i < size; i++) {
-            getOutputBuffer().sendHeader(headers.getName(i), headers.getValue(i));
-        }
-        getOutputBuffer().endHeaders();
+        // Build the response header
+        getOutputBuffer().sendHeaders(headers, defaultServer);
 
     }
 
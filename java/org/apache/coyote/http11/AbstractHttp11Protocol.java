@@ -25,6 +25,12 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.http11.filters.BrotliContentEncoding;
+import org.apache.coyote.http11.filters.DeflateContentEncoding;
+import org.apache.coyote.http11.filters.GzipCompressionPool;
+import org.apache.coyote.http11.filters.GzipContentEncoding;
+import org.apache.coyote.http11.filters.ZstdContentEncoding;
+import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.res.StringManager;
 
 public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
@@ -36,12 +42,79 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         StringManager.getManager(Constants.Package);
 
 
+    /**
+     * Sent to new connections that are rejected because the endpoint is
+     * overloaded.
+     */
+    private static final byte[] OVERLOAD_RESPONSE = ByteChunk.convertToBytes(
+            "HTTP/1.1 503 Service Unavailable" + Constants.CRLF +
+            "Connection: close" + Constants.CRLF +
+            "Content-Length: 0" + Constants.CRLF + Constants.CRLF);
+
+
     @Override
     protected String getProtocolName() {
         return "Http";
     }
 
 
+    @Override
+    public void init() throws Exception {
+        endpoint.setOverloadResponse(OVERLOAD_RESPONSE);
+        super.init();
+        compressionPool.setName(endpoint.getName());
+        int maxThreads = endpoint.getMaxThreadsWithExecutor();
+        if (maxThreads > 0) {
+            compressionPool.setLimit(maxThreads +
+                    compressionPool.getParallelThreads());
+        }
+        contentEncodingsArray = createContentEncodings();
+    }
+
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        compressionPool.destroy();
+        if (contentEncodingsArray != null) {
+            for (ContentEncoding contentEncoding : contentEncodingsArray) {
+                contentEncoding.destroy();
+            }
+            contentEncodingsArray = null;
+        }
+    }
+
+
+    private ContentEncoding[] createContentEncodings() {
+        List<ContentEncoding> result = new ArrayList<ContentEncoding>();
+        for (String name : contentEncodings.split(",")) {
+            name = name.trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            if ("gzip".equalsIgnoreCase(name)) {
+                result.add(new GzipContentEncoding(compressionPool));
+            } else if ("deflate".equalsIgnoreCase(name)) {
+                result.add(new DeflateContentEncoding(compressionPool));
+            } else if ("br".equalsIgnoreCase(name)) {
+                result.add(new BrotliContentEncoding(compressionPool));
+            } else if ("zstd".equalsIgnoreCase(name)) {
+                result.add(new ZstdContentEncoding(compressionPool));
+            } else {
+                try {
+                    Class<?> clazz = Class.forName(name);
+                    result.add((ContentEncoding) clazz.newInstance());
+                } catch (Exception e) {
+                    throw new IllegalArgumentException(sm.getString(
+                            "http11protocol.contentEncoding.invalid",
+                            name), e);
+                }
+            }
+        }
+        return result.toArray(new ContentEncoding[result.size()]);
+    }
+
+
     // ------------------------------------------------ HTTP specific properties
     // ------------------------------------------ managed in the ProtocolHandler
 
@@ -86,6 +159,31 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    private boolean cacheResponseHeaders = false;
+    /**
+     * Will processors retain the serialized header block of a response so that
+     * it can be reused by the next response on the same connection if that
+     * response has identical status and headers?
+     *
+     * @return {@code true} if header blocks are cached, otherwise
+     *         {@code false}
+     */
+    public boolean getCacheResponseHeaders() {
+        return cacheResponseHeaders;
+    }
+    /**
+     * Will processors retain the serialized header block of a response so that
+     * it can be reused by the next response on the same connection if that
+     * response has identical status and headers?
+     *
+     * @param cacheResponseHeaders {@code true} to cache header blocks,
+     *                             otherwise {@code false}
+     */
+    public void setCacheResponseHeaders(boolean cacheResponseHeaders) {
+        this.cacheResponseHeaders = cacheResponseHeaders;
+    }
+
+
     private boolean rejectIllegalHeaderName = false;
     /**
      * If an HTTP request is received that contains an illegal header name (i.e.
@@ -203,6 +301,85 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    /**
+     * Deflaters, buffers and settings shared by the gzip filters of all the
+     * processors of this protocol handler. The Deflaters in use at any one
+     * time are bounded by the number of threads so that is the size of the
+     * pool.
+     */
+    private final GzipCompressionPool compressionPool =
+            new GzipCompressionPool(-1);
+    public GzipCompressionPool getCompressionPool() { return compressionPool; }
+
+
+    /**
+     * The content-codings that may be applied to compressible responses, in
+     * order of preference when a client accepts several of them with the
+     * same quality. Each is the name of a built in coding, <code>gzip</code>,
+     * <code>deflate</code>, <code>br</code> or <code>zstd</code>, or the class
+     * name of a {@link ContentEncoding}.
+     */
+    private String contentEncodings = "gzip";
+    public String getContentEncodings() { return contentEncodings; }
+    public void setContentEncodings(String contentEncodings) {
+        this.contentEncodings = contentEncodings;
+    }
+
+    private ContentEncoding[] contentEncodingsArray = null;
+    public ContentEncoding[] getContentEncodingsArray() {
+        return contentEncodingsArray;
+    }
+
+
+    /**
+     * Compression level from 1 (fastest) to 9 (smallest) or -1 for the zlib
+     * default.
+     */
+    public int getCompressionLevel() {
+        return compressionPool.getCompressionLevel();
+    }
+    public void setCompressionLevel(int compressionLevel) {
+        compressionPool.setCompressionLevel(compressionLevel);
+    }
+
+
+    /**
+     * Lower the compression level as the system load average approaches and
+     * then exceeds the number of processors.
+     */
+    public boolean getAdaptiveCompression() {
+        return compressionPool.isAdaptive();
+    }
+    public void setAdaptiveCompression(boolean adaptiveCompression) {
+        compressionPool.setAdaptive(adaptiveCompression);
+    }
+
+
+    /**
+     * Number of bytes after which the rest of a response is compressed in
+     * blocks on the parallel compression threads. -1 disables parallel
+     * compression.
+     */
+    public int getParallelCompressionThreshold() {
+        return compressionPool.getParallelThreshold();
+    }
+    public void setParallelCompressionThreshold(int threshold) {
+        compressionPool.setParallelThreshold(threshold);
+    }
+
+
+    /**
+     * Number of threads used for parallel compression. The default is the
+     * number of available processors.
+     */
+    public int getParallelCompressionThreads() {
+        return compressionPool.getParallelThreads();
+    }
+    public void setParallelCompressionThreads(int threads) {
+        compressionPool.setParallelThreads(threads);
+    }
+
+
     /**
      * Regular expression that defines the User agents which should be
      * restricted to HTTP/1.0 support.
@@ -371,5 +548,10 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         processor.setServer(getServer());
         processor.setMaxCookieCount(getMaxCookieCount());
         processor.setAllowHostHeaderMismatch(getAllowHostHeaderMismatch());
+        processor.setCacheResponseHeaders(getCacheResponseHeaders());
+        processor.setCompressionPool(getCompressionPool());
+        if (getContentEncodingsArray() != null) {
+            processor.setContentEncodings(getContentEncodingsArray());
+        }
     }
 }
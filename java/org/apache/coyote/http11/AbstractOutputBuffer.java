@@ -17,22 +17,27 @@
 package org.apache.coyote.http11;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.ByteBufferOutputBuffer;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
-import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SocketWrapper;
 import org.apache.tomcat.util.res.StringManager;
 
-public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
+public abstract class AbstractOutputBuffer<S> implements ByteBufferOutputBuffer{
 
     // ----------------------------------------------------- Instance Variables
 
@@ -95,6 +100,24 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
      */
     protected long byteCount = 0;
 
+    /**
+     * Used to pass the contents of ByteBuffers that are not backed by an
+     * array to filters that only accept byte chunks.
+     */
+    private final ByteChunk copyChunk = new ByteChunk();
+    private byte[] copyBuffer = null;
+
+    /**
+     * Should the serialized header block be retained so that it can be reused
+     * by the next response if that response has identical headers?
+     */
+    protected boolean cacheHeaderBlock = false;
+
+    /**
+     * The header block of the previous response, if cached.
+     */
+    private HeaderBlock headerBlock;
+
     // -------------------------------------------------------------- Variables
 
 
@@ -110,9 +133,45 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
     private static final org.apache.juli.logging.Log log
         = org.apache.juli.logging.LogFactory.getLog(AbstractOutputBuffer.class);
 
+    /**
+     * Encoded status lines (including the trailing CRLF) indexed by status
+     * code. Each entry is for the message last used with that status code.
+     */
+    private static final StatusLine[] statusLines = new StatusLine[600];
+
+    /**
+     * Encoded "name: " prefixes for commonly used response header names.
+     */
+    private static final Map<String,byte[]> headerNamePrefixes =
+            new HashMap<String,byte[]>();
+
+    static {
+        String[] names = new String[] { "Accept-Ranges", "Cache-Control",
+                "Connection", "Content-Disposition", "Content-Encoding",
+                "Content-Language", "Content-Length", "Content-Range",
+                "Content-Type", "Date", "ETag", "Expires", "Keep-Alive",
+                "Last-Modified", "Location", "Pragma", "Server", "Set-Cookie",
+                "Transfer-Encoding", "Vary", "WWW-Authenticate" };
+        for (String name : names) {
+            headerNamePrefixes.put(name, ByteChunk.convertToBytes(name + ": "));
+        }
+    }
+
     // ------------------------------------------------------------- Properties
 
 
+    public boolean getCacheHeaderBlock() {
+        return cacheHeaderBlock;
+    }
+
+    public void setCacheHeaderBlock(boolean cacheHeaderBlock) {
+        this.cacheHeaderBlock = cacheHeaderBlock;
+        if (!cacheHeaderBlock) {
+            headerBlock = null;
+        }
+    }
+
+
     /**
      * Add an output filter to the filter library.
      */
@@ -194,6 +253,65 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
     }
 
 
+    /**
+     * Write the contents of a ByteBuffer. If the socket output buffer and all
+     * the active filters can write ByteBuffers, it is passed down the filter
+     * chain unchanged. Otherwise, for example when the response is compressed,
+     * it is written as byte chunks.
+     *
+     * @param buffer the data to write
+     * @return number of bytes written
+     * @throws IOException an underlying I/O error occurred
+     */
+    @Override
+    public int doWrite(ByteBuffer buffer, Response res) throws IOException {
+
+        if (!committed) {
+            // As above. The filters are only known once this is done.
+            response.action(ActionCode.COMMIT, null);
+        }
+
+        if (isByteBufferChain()) {
+            if (lastActiveFilter == -1)
+                return ((ByteBufferOutputBuffer) outputStreamOutputBuffer).doWrite(buffer, res);
+            else
+                return ((ByteBufferOutputBuffer) activeFilters[lastActiveFilter]).doWrite(buffer, res);
+        }
+
+        int len = buffer.remaining();
+        if (buffer.hasArray()) {
+            copyChunk.setBytes(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), len);
+            doWrite(copyChunk, res);
+            buffer.position(buffer.limit());
+        } else {
+            if (copyBuffer == null) {
+                copyBuffer = new byte[8 * 1024];
+            }
+            while (buffer.hasRemaining()) {
+                int thisTime = Math.min(buffer.remaining(), copyBuffer.length);
+                buffer.get(copyBuffer, 0, thisTime);
+                copyChunk.setBytes(copyBuffer, 0, thisTime);
+                doWrite(copyChunk, res);
+            }
+        }
+        return len;
+    }
+
+
+    private boolean isByteBufferChain() {
+        if (!(outputStreamOutputBuffer instanceof ByteBufferOutputBuffer)) {
+            return false;
+        }
+        for (int i = 0; i <= lastActiveFilter; i++) {
+            if (!(activeFilters[i] instanceof ByteBufferOutputBuffer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     @Override
     public long getBytesWritten() {
         if (lastActiveFilter == -1) {
@@ -224,15 +342,15 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
 
         }
 
-        // go through the filters and if there is gzip filter
+        // go through the filters and if there is a compression filter
         // invoke it to flush
         for (int i = 0; i <= lastActiveFilter; i++) {
-            if (activeFilters[i] instanceof GzipOutputFilter) {
+            if (activeFilters[i] instanceof FlushableOutputFilter) {
                 if (log.isDebugEnabled()) {
-                    log.debug("Flushing the gzip filter at position " + i +
+                    log.debug("Flushing the filter at position " + i +
                             " of the filter chain...");
                 }
-                ((GzipOutputFilter) activeFilters[i]).flush();
+                ((FlushableOutputFilter) activeFilters[i]).flush();
                 break;
             }
         }
@@ -318,17 +436,72 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
     protected abstract void commit() throws IOException;
 
 
+    /**
+     * Send the response status line, all the headers and the end of the header
+     * block. If enabled, the header block of the previous response is reused
+     * when this response has the same status and headers.
+     *
+     * @param headers       The headers to send
+     * @param defaultServer Should the default Server header be sent before
+     *                      the provided headers?
+     */
+    public void sendHeaders(MimeHeaders headers, boolean defaultServer) {
+
+        int status = response.getStatus();
+        String message = getStatusMessage(status);
+
+        HeaderBlock block = headerBlock;
+        if (block != null && block.matches(status, message,
+                response.getLocale(), defaultServer, headers)) {
+            write(block.bytes);
+            response.setHeaderCacheHit(true);
+            return;
+        }
+
+        int start = pos;
+        sendStatus();
+        if (defaultServer) {
+            write(Constants.SERVER_BYTES);
+        }
+        int size = headers.size();
+        for (int i = 0; i < size; i++) {
+            sendHeader(headers.getName(i), headers.getValue(i));
+        }
+        endHeaders();
+
+        if (cacheHeaderBlock) {
+            headerBlock = new HeaderBlock(status, message,
+                    response.getLocale(), defaultServer, headers, buf, start,
+                    pos);
+        }
+    }
+
+
     /**
      * Send the response status line.
      */
     public void sendStatus() {
 
+        int status = response.getStatus();
+        String message = getStatusMessage(status);
+
+        if (!isCustomStatusMessage() && status >= 0 &&
+                status < statusLines.length) {
+            // Standard message so the encoded status line can be used
+            StatusLine line = statusLines[status];
+            if (line == null || !line.matches(message)) {
+                line = new StatusLine(status, message);
+                statusLines[status] = line;
+            }
+            write(line.bytes);
+            return;
+        }
+
         // Write protocol name
         write(Constants.HTTP_11_BYTES);
         buf[pos++] = Constants.SP;
 
         // Write status code
-        int status = response.getStatus();
         switch (status) {
         case 200:
             write(Constants._200_BYTES);
@@ -346,17 +519,7 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
         buf[pos++] = Constants.SP;
 
         // Write message
-        String message = null;
-        if (org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER &&
-                HttpMessages.isSafeInHttpHeader(response.getMessage())) {
-            message = response.getMessage();
-        }
-        if (message == null) {
-            write(HttpMessages.getInstance(
-                    response.getLocale()).getMessage(status));
-        } else {
-            write(message);
-        }
+        write(message);
 
         // End the response status line
         if (org.apache.coyote.Constants.IS_SECURITY_ENABLED){
@@ -378,6 +541,22 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
     }
 
 
+    private boolean isCustomStatusMessage() {
+        return org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER &&
+                response.getMessage() != null &&
+                HttpMessages.isSafeInHttpHeader(response.getMessage());
+    }
+
+
+    private String getStatusMessage(int status) {
+        if (isCustomStatusMessage()) {
+            return response.getMessage();
+        }
+        return HttpMessages.getInstance(
+                response.getLocale()).getMessage(status);
+    }
+
+
     /**
      * Send a header.
      *
@@ -386,9 +565,17 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
      */
     public void sendHeader(MessageBytes name, MessageBytes value) {
 
-        write(name);
-        buf[pos++] = Constants.COLON;
-        buf[pos++] = Constants.SP;
+        byte[] prefix = null;
+        if (name.getType() == MessageBytes.T_STR) {
+            prefix = headerNamePrefixes.get(name.getString());
+        }
+        if (prefix == null) {
+            write(name);
+            buf[pos++] = Constants.COLON;
+            buf[pos++] = Constants.SP;
+        } else {
+            write(prefix);
+        }
         write(value);
         buf[pos++] = Constants.CR;
         buf[pos++] = Constants.LF;
@@ -549,4 +736,107 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
         }
     }
 
+
+
+    /**
+     * Encode a String the same way as {@link #write(String)}.
+     */
+    private static byte[] encode(String s) {
+        int len = s.length();
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (((c <= 31) && (c != 9)) || c == 127 || c > 255) {
+                c = ' ';
+            }
+            result[i] = (byte) c;
+        }
+        return result;
+    }
+
+
+    private static final class StatusLine {
+
+        private final String message;
+        private final byte[] bytes;
+
+        private StatusLine(int status, String message) {
+            this.message = message;
+            StringBuilder sb = new StringBuilder(Constants.HTTP_11);
+            sb.append(' ');
+            sb.append(status);
+            sb.append(' ');
+            if (message != null) {
+                sb.append(message);
+            }
+            byte[] line = encode(sb.toString());
+            bytes = new byte[line.length + 2];
+            System.arraycopy(line, 0, bytes, 0, line.length);
+            bytes[line.length] = Constants.CR;
+            bytes[line.length + 1] = Constants.LF;
+        }
+
+        private boolean matches(String message) {
+            if (this.message == null) {
+                return message == null;
+            }
+            return this.message.equals(message);
+        }
+    }
+
+
+    /**
+     * A serialized header block together with the values it was created from.
+     */
+    private static final class HeaderBlock {
+
+        private final int status;
+        private final String message;
+        private final Locale locale;
+        private final boolean defaultServer;
+        private final String[] names;
+        private final String[] values;
+        private final byte[] bytes;
+
+        private HeaderBlock(int status, String message, Locale locale,
+                boolean defaultServer, MimeHeaders headers, byte[] buf,
+                int start, int end) {
+            this.status = status;
+            this.message = message;
+            this.locale = locale;
+            this.defaultServer = defaultServer;
+            int size = headers.size();
+            names = new String[size];
+            values = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = headers.getName(i).toString();
+                values[i] = headers.getValue(i).toString();
+            }
+            bytes = new byte[end - start];
+            System.arraycopy(buf, start, bytes, 0, bytes.length);
+        }
+
+        private boolean matches(int status, String message, Locale locale,
+                boolean defaultServer, MimeHeaders headers) {
+            if (this.status != status || this.defaultServer != defaultServer ||
+                    headers.size() != names.length) {
+                return false;
+            }
+            if (this.message == null ? message != null :
+                    !this.message.equals(message)) {
+                return false;
+            }
+            if (this.locale == null ? locale != null :
+                    !this.locale.equals(locale)) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!headers.getName(i).equals(names[i]) ||
+                        !headers.getValue(i).equals(values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
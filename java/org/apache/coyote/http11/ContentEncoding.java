@@ -0,0 +1,58 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.coyote.http11;
+
+/**
+ * A content-coding that the HTTP/1.1 connector may apply to compressible
+ * responses. The codings a connector offers are configured with the
+ * <code>contentEncodings</code> attribute of the protocol handler, either by
+ * the name of a built in coding (<code>gzip</code>, <code>deflate</code>,
+ * <code>br</code> or <code>zstd</code>) or by the name of a class that
+ * implements this interface and has a public no argument constructor.
+ * <p>
+ * One instance is shared by all the processors of a protocol handler so
+ * implementations must be thread safe. Each processor creates its own filter
+ * for every coding and reuses it for the responses that it processes.
+ */
+public interface ContentEncoding {
+
+
+    /**
+     * @return The content-coding, in lower case, that is matched against the
+     *         Accept-Encoding request header and sent in the Content-Encoding
+     *         response header
+     */
+    public String getName();
+
+
+    /**
+     * Create a filter that applies this coding to the response body. Filters
+     * that buffer data should implement {@link FlushableOutputFilter} so that
+     * data flushed by the application is sent to the client.
+     */
+    public OutputFilter createOutputFilter();
+
+
+    /**
+     * Release any resources, such as pooled encoder state, held by this
+     * coding. Called when the protocol handler is destroyed.
+     */
+    public void destroy();
+
+
+}
@@ -247,7 +247,7 @@ public class Http11AprProtocol extends AbstractHttp11Protocol<Long> {
             if (addToPoller && proto.endpoint.isRunning()) {
                 ((AprEndpoint)proto.endpoint).getPoller().add(
                         socket.getSocket().longValue(),
-                        proto.endpoint.getKeepAliveTimeout(), true, false);
+                        proto.endpoint.getCurrentKeepAliveTimeout(), true, false);
             }
         }
 
@@ -320,6 +320,11 @@ public class Http11AprProtocol extends AbstractHttp11Protocol<Long> {
             processor.setServer(proto.getServer());
             processor.setClientCertProvider(proto.getClientCertProvider());
             processor.setMaxCookieCount(proto.getMaxCookieCount());
+            processor.setCacheResponseHeaders(proto.getCacheResponseHeaders());
+            processor.setCompressionPool(proto.getCompressionPool());
+            if (proto.getContentEncodingsArray() != null) {
+                processor.setContentEncodings(proto.getContentEncodingsArray());
+            }
             register(processor);
             return processor;
         }
@@ -81,6 +81,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 
         outputBuffer = new InternalNioOutputBuffer(response, maxHttpHeaderSize);
         response.setOutputBuffer(outputBuffer);
+        inputBuffer.setDeferredOutput(outputBuffer);
 
         initializeFilters(maxTrailerSize, allowedTrailerHeaders, maxExtensionSize, maxSwallowSize);
     }
@@ -105,9 +106,147 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
     protected NioEndpoint.SendfileData sendfileData = null;
 
 
+    /**
+     * Maximum number of responses to pipelined requests that may be written
+     * to the socket together. Values of 1 or less disable batching.
+     */
+    protected int maxPipelineBatchSize = 1;
+
+    public void setMaxPipelineBatchSize(int maxPipelineBatchSize) {
+        this.maxPipelineBatchSize = maxPipelineBatchSize;
+    }
+
+
+    /**
+     * Maximum time, in milliseconds, the first response of a batch may be
+     * held back while further pipelined requests are processed.
+     */
+    protected long maxPipelineBatchLatency = 10;
+
+    public void setMaxPipelineBatchLatency(long maxPipelineBatchLatency) {
+        this.maxPipelineBatchLatency = maxPipelineBatchLatency;
+    }
+
+
+    /**
+     * Number of responses currently held in the socket write buffer and the
+     * time the first of them was completed.
+     */
+    private int pipelineBatchCount = 0;
+    private long pipelineBatchStart = 0;
+
+
     // --------------------------------------------------------- Public Methods
 
 
+    /**
+     * Process pipelined HTTP requests using the specified input and output
+     * streams. Responses held back for batching are always written before the
+     * socket is handed back to the endpoint.
+     *
+     * @throws IOException error during an I/O operation
+     */
+    @Override
+    public SocketState process(SocketWrapper<NioChannel> socketWrapper)
+            throws IOException {
+        SocketState state;
+        try {
+            state = super.process(socketWrapper);
+        } catch (IOException e) {
+            pipelineBatchCount = 0;
+            throw e;
+        } finally {
+            // Asynchronous and Comet requests end outside of this method
+            outputBuffer.setDeferFlush(false);
+        }
+        if (pipelineBatchCount > 0 || outputBuffer.hasDataToWrite()) {
+            flushPipelineBatch();
+            if (getErrorState().isError()) {
+                state = SocketState.CLOSED;
+            }
+        }
+        return state;
+    }
+
+
+    /**
+     * Completes the current request. If the header of a further pipelined
+     * request is already in the input buffer, the response is left in the
+     * socket write buffer so that the responses to several requests can be
+     * written with a single socket write. The adapter ends the response
+     * before this is called so the flush is deferred from the start of every
+     * request and this method makes the final decision.
+     */
+    @Override
+    public void endRequest() {
+        boolean batch = maxPipelineBatchSize > 1 && keepAlive &&
+                !getErrorState().isError() && !isAsync() && !comet &&
+                sendfileData == null && !isUpgrade();
+        outputBuffer.setDeferFlush(batch);
+        try {
+            super.endRequest();
+        } finally {
+            outputBuffer.setDeferFlush(false);
+        }
+        if (!batch || !getErrorState().isIoAllowed()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (pipelineBatchCount == 0) {
+            pipelineBatchStart = now;
+        }
+        pipelineBatchCount++;
+        if (pipelineBatchCount >= maxPipelineBatchSize ||
+                now - pipelineBatchStart >= maxPipelineBatchLatency ||
+                !inputBuffer.hasPipelinedRequest()) {
+            flushPipelineBatch();
+        }
+    }
+
+
+    /**
+     * Responses held back for batching are written before the next request is
+     * processed if the first of them has been held for
+     * maxPipelineBatchLatency or if the body of the next request is not yet
+     * in the input buffer. In the latter case the client may be waiting for
+     * the responses before it sends the body, and reading the body may take
+     * an unknown time.
+     */
+    @Override
+    protected void prepareRequest() {
+        super.prepareRequest();
+        if (pipelineBatchCount > 0 && (!isRequestBuffered() ||
+                System.currentTimeMillis() - pipelineBatchStart >=
+                        maxPipelineBatchLatency)) {
+            flushPipelineBatch();
+        }
+    }
+
+
+    private boolean isRequestBuffered() {
+        if (request.getMimeHeaders().getValue("transfer-encoding") != null) {
+            // Chunked. Treat as not buffered rather than parse the chunks.
+            return false;
+        }
+        long contentLength = request.getContentLengthLong();
+        return contentLength <= 0 ||
+                inputBuffer.getBufferedLength() >= contentLength;
+    }
+
+
+    private void flushPipelineBatch() {
+        pipelineBatchCount = 0;
+        if (!getErrorState().isIoAllowed()) {
+            return;
+        }
+        try {
+            outputBuffer.flushDeferred();
+        } catch (IOException e) {
+            setErrorState(ErrorState.CLOSE_NOW, e);
+        }
+    }
+
+
     /**
      * Process pipelined HTTP requests using the specified input and output
      * streams.
@@ -229,7 +368,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
             if (socketWrapper.getLastAccess() > -1 || keptAlive) {
                 // Haven't read the request line and have previously processed a
                 // request. Must be keep-alive. Make sure poller uses keepAlive.
-                socketWrapper.setTimeout(endpoint.getKeepAliveTimeout());
+                socketWrapper.setTimeout(endpoint.getCurrentKeepAliveTimeout());
             }
         } else {
             if (endpoint.isPaused()) {
@@ -320,6 +459,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
     public void recycleInternal() {
         socketWrapper = null;
         sendfileData = null;
+        pipelineBatchCount = 0;
     }
 
 
@@ -553,6 +693,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
     @Override
     protected void prepareRequestInternal() {
         sendfileData = null;
+        outputBuffer.setDeferFlush(maxPipelineBatchSize > 1);
     }
 
     @Override
@@ -24,6 +24,7 @@ import org.apache.coyote.AbstractProtocol;
 import org.apache.coyote.Processor;
 import org.apache.coyote.http11.upgrade.NioProcessor;
 import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.net.AbstractEndpoint;
@@ -96,6 +97,14 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)endpoint).getSelectorTimeout();
     }
 
+    public void setReusePort(boolean reusePort) {
+        ((NioEndpoint)endpoint).setReusePort(reusePort);
+    }
+
+    public boolean getReusePort() {
+        return ((NioEndpoint)endpoint).getReusePort();
+    }
+
     public void setAcceptorThreadPriority(int threadPriority) {
         ((NioEndpoint)endpoint).setAcceptorThreadPriority(threadPriority);
     }
@@ -121,11 +130,44 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         ((NioEndpoint)endpoint).setUseSendfile(useSendfile);
     }
 
+    /**
+     * Maximum number of responses to pipelined requests that are written to
+     * the socket together. The default of 1 writes each response as soon as
+     * it is complete.
+     */
+    private int maxPipelineBatchSize = 1;
+    public int getMaxPipelineBatchSize() { return maxPipelineBatchSize; }
+    public void setMaxPipelineBatchSize(int maxPipelineBatchSize) {
+        this.maxPipelineBatchSize = maxPipelineBatchSize;
+    }
+
+    /**
+     * Maximum time, in milliseconds, the first response of a batch may be
+     * held back while further pipelined requests are processed.
+     */
+    private long maxPipelineBatchLatency = 10;
+    public long getMaxPipelineBatchLatency() { return maxPipelineBatchLatency; }
+    public void setMaxPipelineBatchLatency(long maxPipelineBatchLatency) {
+        this.maxPipelineBatchLatency = maxPipelineBatchLatency;
+    }
+
     // -------------------- Tcp setup --------------------
     public void setOomParachute(int oomParachute) {
         ((NioEndpoint)endpoint).setOomParachute(oomParachute);
     }
 
+    /**
+     * Sub-classes that support HTTP/2 return the configuration used for
+     * connections that switch to HTTP/2.
+     *
+     * @return the HTTP/2 configuration or <code>null</code> if HTTP/2 is not
+     *         supported
+     */
+    protected Http2Protocol getHttp2Protocol() {
+        return null;
+    }
+
+
     // ----------------------------------------------------- JMX related methods
 
     @Override
@@ -223,7 +265,10 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
                 // The only time this method is called with addToPoller == true
                 // is when the socket is in keep-alive so set the appropriate
                 // timeout.
-                socket.setTimeout(getProtocol().getKeepAliveTimeout());
+                socket.setTimeout(proto.getEndpoint().getCurrentKeepAliveTimeout());
+                // Nothing is in flight between keep-alive requests so hand
+                // any pooled buffers back until the next request arrives
+                socket.getSocket().releaseBuffers();
                 socket.getSocket().getPoller().add(socket.getSocket());
             }
         }
@@ -284,6 +329,14 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
             processor.setMaxSavePostSize(proto.getMaxSavePostSize());
             processor.setServer(proto.getServer());
             processor.setMaxCookieCount(proto.getMaxCookieCount());
+            processor.setCacheResponseHeaders(proto.getCacheResponseHeaders());
+            processor.setCompressionPool(proto.getCompressionPool());
+            if (proto.getContentEncodingsArray() != null) {
+                processor.setContentEncodings(proto.getContentEncodingsArray());
+            }
+            processor.setHttp2Protocol(proto.getHttp2Protocol());
+            processor.setMaxPipelineBatchSize(proto.getMaxPipelineBatchSize());
+            processor.setMaxPipelineBatchLatency(proto.getMaxPipelineBatchLatency());
             register(processor);
             return processor;
         }
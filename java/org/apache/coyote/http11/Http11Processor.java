@@ -122,6 +122,12 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
 
     @Override
     protected boolean disableKeepAlive() {
+        // Each keep-alive connection holds a thread so don't wait for further
+        // requests if the endpoint is overloaded
+        if (endpoint.isOverloaded()) {
+            return true;
+        }
+
         int threadRatio = -1;
         // These may return zero or negative values
         // Only calculate a thread ratio when both are >0 to ensure we get a
@@ -185,6 +185,11 @@ public class Http11Protocol extends AbstractHttp11JsseProtocol<Socket> {
             processor.setDisableKeepAlivePercentage(
                     proto.getDisableKeepAlivePercentage());
             processor.setMaxCookieCount(proto.getMaxCookieCount());
+            processor.setCacheResponseHeaders(proto.getCacheResponseHeaders());
+            processor.setCompressionPool(proto.getCompressionPool());
+            if (proto.getContentEncodingsArray() != null) {
+                processor.setContentEncodings(proto.getContentEncodingsArray());
+            }
             register(processor);
             return processor;
         }
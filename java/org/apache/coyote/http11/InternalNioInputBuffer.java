@@ -18,6 +18,7 @@ package org.apache.coyote.http11;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Selector;
 import java.nio.charset.Charset;
 
@@ -25,6 +26,7 @@ import org.apache.coyote.InputBuffer;
 import org.apache.coyote.Request;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.buf.SwarScanner;
 import org.apache.tomcat.util.http.parser.HttpParser;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.NioChannel;
@@ -148,6 +150,14 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
     private NioSelectorPool pool;
 
 
+    /**
+     * Output buffer that may be holding back responses to pipelined requests.
+     * Those responses are written before any blocking read so that a client
+     * waiting for them cannot stall the read.
+     */
+    private InternalNioOutputBuffer deferredOutput;
+
+
     /**
      * Maximum allowed size of the HTTP request line plus headers plus any
      * leading blank lines.
@@ -159,6 +169,11 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
      */
     private int socketReadBufferSize;
 
+    /**
+     * View of {@link #buf} used to scan header values a word at a time.
+     */
+    private ByteBuffer bufView;
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -180,6 +195,42 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
     }
 
 
+    void setDeferredOutput(InternalNioOutputBuffer deferredOutput) {
+        this.deferredOutput = deferredOutput;
+    }
+
+
+    /**
+     * Is the complete header of a further pipelined request already in the
+     * buffer? Must be called after {@link #endRequest()} and before
+     * {@link #nextRequest()}. Only the end of the header is looked for, so a
+     * request that is not well formed is still reported.
+     *
+     * @return <code>true</code> if the next request can be parsed without
+     *         reading from the socket
+     */
+    boolean hasPipelinedRequest() {
+        for (int i = pos; i < lastValid - 3; i++) {
+            if (buf[i] == Constants.CR && buf[i + 1] == Constants.LF &&
+                    buf[i + 2] == Constants.CR && buf[i + 3] == Constants.LF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * @return the number of bytes in the buffer that have not yet been read.
+     *         After the request header has been parsed this is the part of
+     *         the request body, and of any further pipelined requests, that
+     *         has been received.
+     */
+    int getBufferedLength() {
+        return lastValid - pos;
+    }
+
+
     /**
      * End processing of current HTTP request.
      * Note: All bytes of the current request should have been already
@@ -408,6 +459,7 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
             byte[] tmp = new byte[newsize];
             System.arraycopy(buf,0,tmp,0,buf.length);
             buf = tmp;
+            bufView = SwarScanner.wrap(buf);
         }
     }
 
@@ -424,6 +476,9 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
         int nRead = 0;
         socket.getBufHandler().getReadBuffer().clear();
         if ( block ) {
+            if (deferredOutput != null) {
+                deferredOutput.flushDeferred();
+            }
             Selector selector = null;
             try {
                 selector = pool.get();
@@ -613,6 +668,13 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
                         pos++;
                     } else {
                         headerParsePos = HeaderParsePosition.HEADER_VALUE;
+                        if (headerData.realPos == headerData.start) {
+                            // Nothing copied yet so the value can start here
+                            // rather than being shifted down byte by byte
+                            headerData.start = pos;
+                            headerData.realPos = pos;
+                            headerData.lastSignificantChar = pos;
+                        }
                         break;
                     }
                 }
@@ -623,6 +685,24 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
                 boolean eol = false;
                 while (!eol) {
 
+                    if (headerData.realPos == pos && pos < lastValid) {
+                        // The value is in place so there is nothing to copy.
+                        // Jump straight to the end of the line.
+                        int end = SwarScanner.indexOfCrOrLf(bufView, pos, lastValid);
+                        if (end > pos) {
+                            int last = end - 1;
+                            while (last >= pos &&
+                                    (buf[last] == Constants.SP || buf[last] == Constants.HT)) {
+                                last--;
+                            }
+                            if (last >= pos) {
+                                headerData.lastSignificantChar = last + 1;
+                            }
+                            pos = end;
+                            headerData.realPos = end;
+                        }
+                    }
+
                     // Read new bytes if needed
                     if (pos >= lastValid) {
                         if (!fill(true,false)) {//parse header
@@ -777,6 +857,7 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
         int bufLength = headerBufferSize + socketReadBufferSize;
         if (buf == null || buf.length < bufLength) {
             buf = new byte[bufLength];
+            bufView = SwarScanner.wrap(buf);
         }
 
         pool = ((NioEndpoint)endpoint).getSelectorPool();
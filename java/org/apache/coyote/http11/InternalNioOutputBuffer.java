@@ -21,9 +21,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.coyote.ActionCode;
-import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.ByteBufferOutputBuffer;
 import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.http.HttpMessages;
@@ -77,6 +78,26 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
      */
     private NioSelectorPool pool;
 
+    /**
+     * Holds the socket write buffer and the application data for gathering
+     * writes.
+     */
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[2];
+
+    /**
+     * Guards writes to the socket. A lock is used rather than synchronizing so
+     * that a virtual thread blocked in a write does not pin its carrier
+     * thread.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * When set, the end of the current response leaves the data in the socket
+     * write buffer so that it can be sent along with the responses to further
+     * pipelined requests.
+     */
+    private boolean deferFlush = false;
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -104,6 +125,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     @Override
     public void recycle() {
         super.recycle();
+        deferFlush = false;
         if (socket != null) {
             socket.getBufHandler().getWriteBuffer().clear();
             socket = null;
@@ -119,7 +141,40 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     @Override
     public void endRequest() throws IOException {
         super.endRequest();
-        flushBuffer();
+        if (!deferFlush) {
+            flushBuffer();
+        }
+    }
+
+
+    /**
+     * Should {@link #endRequest()} leave the response in the socket write
+     * buffer rather than writing it to the socket?
+     */
+    void setDeferFlush(boolean deferFlush) {
+        this.deferFlush = deferFlush;
+    }
+
+
+    /**
+     * @return <code>true</code> if there is response data in the socket write
+     *         buffer that has not yet been written to the socket
+     */
+    boolean hasDataToWrite() {
+        return socket != null &&
+                socket.getBufHandler().getWriteBuffer().position() > 0;
+    }
+
+
+    /**
+     * Write any responses held back by a deferred flush to the socket.
+     *
+     * @throws IOException an underlying I/O error occurred
+     */
+    void flushDeferred() throws IOException {
+        if (hasDataToWrite()) {
+            flushBuffer();
+        }
     }
 
     // ------------------------------------------------ HTTP/1.1 Output Methods
@@ -147,30 +202,71 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
      * @throws IOException
      * TODO Fix non blocking write properly
      */
-    private synchronized int writeToSocket(ByteBuffer bytebuffer, boolean block, boolean flip) throws IOException {
-        if ( flip ) bytebuffer.flip();
-
-        int written = 0;
-        NioEndpoint.KeyAttachment att = (NioEndpoint.KeyAttachment)socket.getAttachment();
-        if ( att == null ) throw new IOException("Key must be cancelled");
-        long writeTimeout = att.getWriteTimeout();
-        Selector selector = null;
+    private int writeToSocket(ByteBuffer bytebuffer, boolean block, boolean flip) throws IOException {
+        writeLock.lock();
         try {
-            selector = pool.get();
-        } catch ( IOException x ) {
-            //ignore
+            if ( flip ) bytebuffer.flip();
+
+            int written = 0;
+            NioEndpoint.KeyAttachment att = (NioEndpoint.KeyAttachment)socket.getAttachment();
+            if ( att == null ) throw new IOException("Key must be cancelled");
+            long writeTimeout = att.getWriteTimeout();
+            long socketWrites = socket.getSocketWriteCount();
+            Selector selector = null;
+            try {
+                selector = pool.get();
+            } catch ( IOException x ) {
+                //ignore
+            }
+            try {
+                written = pool.write(bytebuffer, socket, selector, writeTimeout, block);
+                //make sure we are flushed
+                do {
+                    if (socket.flush(true,selector,writeTimeout)) break;
+                }while ( true );
+            }finally {
+                if ( selector != null ) pool.put(selector);
+                response.addSocketWriteCount(socket.getSocketWriteCount() - socketWrites);
+            }
+            if ( block ) bytebuffer.clear(); //only clear
+            return written;
+        } finally {
+            writeLock.unlock();
         }
+    }
+
+
+    /**
+     * Blocking gathering write of the given buffers.
+     */
+    private long writeToSocket(ByteBuffer[] bytebuffers) throws IOException {
+        writeLock.lock();
         try {
-            written = pool.write(bytebuffer, socket, selector, writeTimeout, block);
-            //make sure we are flushed
-            do {
-                if (socket.flush(true,selector,writeTimeout)) break;
-            }while ( true );
-        }finally {
-            if ( selector != null ) pool.put(selector);
+            long written = 0;
+            NioEndpoint.KeyAttachment att = (NioEndpoint.KeyAttachment)socket.getAttachment();
+            if ( att == null ) throw new IOException("Key must be cancelled");
+            long writeTimeout = att.getWriteTimeout();
+            long socketWrites = socket.getSocketWriteCount();
+            Selector selector = null;
+            try {
+                selector = pool.get();
+            } catch ( IOException x ) {
+                //ignore
+            }
+            try {
+                written = pool.write(bytebuffers, socket, selector, writeTimeout, true);
+                //make sure we are flushed
+                do {
+                    if (socket.flush(true,selector,writeTimeout)) break;
+                }while ( true );
+            }finally {
+                if ( selector != null ) pool.put(selector);
+                response.addSocketWriteCount(socket.getSocketWriteCount() - socketWrites);
+            }
+            return written;
+        } finally {
+            writeLock.unlock();
         }
-        if ( block ) bytebuffer.clear(); //only clear
-        return written;
     }
 
 
@@ -205,23 +301,76 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
 
     }
 
-    private synchronized void addToBB(byte[] buf, int offset, int length) throws IOException {
-        while (length > 0) {
-            int thisTime = length;
-            if (socket.getBufHandler().getWriteBuffer().position() ==
-                    socket.getBufHandler().getWriteBuffer().capacity()
-                    || socket.getBufHandler().getWriteBuffer().remaining()==0) {
-                flushBuffer();
+    private void addToBB(byte[] buf, int offset, int length) throws IOException {
+        writeLock.lock();
+        try {
+            ByteBuffer writeBuffer = socket.getBufHandler().getWriteBuffer();
+            if (length > 0 && length >= writeBuffer.remaining()) {
+                // The data would fill the buffer so rather than copying it, send
+                // it along with anything already buffered (typically the response
+                // header) in a single gathering write
+                writeBuffer.flip();
+                gatherBuffers[0] = writeBuffer;
+                gatherBuffers[1] = ByteBuffer.wrap(buf, offset, length);
+                try {
+                    writeToSocket(gatherBuffers);
+                } finally {
+                    gatherBuffers[0] = null;
+                    gatherBuffers[1] = null;
+                    writeBuffer.clear();
+                }
+                length = 0;
             }
-            if (thisTime > socket.getBufHandler().getWriteBuffer().remaining()) {
-                thisTime = socket.getBufHandler().getWriteBuffer().remaining();
+            while (length > 0) {
+                int thisTime = length;
+                if (socket.getBufHandler().getWriteBuffer().position() ==
+                        socket.getBufHandler().getWriteBuffer().capacity()
+                        || socket.getBufHandler().getWriteBuffer().remaining()==0) {
+                    flushBuffer();
+                }
+                if (thisTime > socket.getBufHandler().getWriteBuffer().remaining()) {
+                    thisTime = socket.getBufHandler().getWriteBuffer().remaining();
+                }
+                socket.getBufHandler().getWriteBuffer().put(buf, offset, thisTime);
+                length = length - thisTime;
+                offset = offset + thisTime;
             }
-            socket.getBufHandler().getWriteBuffer().put(buf, offset, thisTime);
-            length = length - thisTime;
-            offset = offset + thisTime;
+            NioEndpoint.KeyAttachment ka = (NioEndpoint.KeyAttachment)socket.getAttachment();
+            if ( ka!= null ) ka.access();//prevent timeouts for just doing client writes
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    /**
+     * As {@link #addToBB(byte[], int, int)} but for data in a ByteBuffer,
+     * typically a direct or mapped one, so that it reaches the socket without
+     * being copied onto the heap.
+     */
+    private void addToBB(ByteBuffer src) throws IOException {
+        writeLock.lock();
+        try {
+            ByteBuffer writeBuffer = socket.getBufHandler().getWriteBuffer();
+            if (src.remaining() >= writeBuffer.remaining()) {
+                writeBuffer.flip();
+                gatherBuffers[0] = writeBuffer;
+                gatherBuffers[1] = src;
+                try {
+                    writeToSocket(gatherBuffers);
+                } finally {
+                    gatherBuffers[0] = null;
+                    gatherBuffers[1] = null;
+                    writeBuffer.clear();
+                }
+            } else {
+                writeBuffer.put(src);
+            }
+            NioEndpoint.KeyAttachment ka = (NioEndpoint.KeyAttachment)socket.getAttachment();
+            if ( ka!= null ) ka.access();//prevent timeouts for just doing client writes
+        } finally {
+            writeLock.unlock();
         }
-        NioEndpoint.KeyAttachment ka = (NioEndpoint.KeyAttachment)socket.getAttachment();
-        if ( ka!= null ) ka.access();//prevent timeouts for just doing client writes
     }
 
 
@@ -252,7 +401,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
      * This class is an output buffer which will write data to an output
      * stream.
      */
-    protected class SocketOutputBuffer implements OutputBuffer {
+    protected class SocketOutputBuffer implements ByteBufferOutputBuffer {
 
         /**
          * Write chunk.
@@ -273,6 +422,23 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
             }
         }
 
+        /**
+         * Write the contents of a ByteBuffer.
+         */
+        @Override
+        public int doWrite(ByteBuffer src, Response res) throws IOException {
+            try {
+                int len = src.remaining();
+                addToBB(src);
+                byteCount += len;
+                return len;
+            } catch (IOException ioe) {
+                response.action(ActionCode.CLOSE_NOW, ioe);
+                // Re-throw
+                throw ioe;
+            }
+        }
+
         @Override
         public long getBytesWritten() {
             return byteCount;
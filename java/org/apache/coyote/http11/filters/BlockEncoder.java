@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.util.Arrays;
+
+/**
+ * Base class for the pure Java encoders used by
+ * {@link BlockEncoderOutputFilter}. Input is added to the
+ * {@link MatchFinder} and encoded a block at a time into {@link #output},
+ * which the filter empties after each call. Encoders are pooled by their
+ * {@link BlockEncoderContentEncoding} and {@link #start(int)} is called before
+ * each use.
+ */
+abstract class BlockEncoder {
+
+    final MatchFinder matchFinder = new MatchFinder();
+
+    /**
+     * Encoded data that has not yet been passed to the next buffer.
+     */
+    byte[] output = new byte[MatchFinder.BLOCK_SIZE + 1024];
+    int outputLength;
+
+
+    /**
+     * Start a new stream, writing any header it has to {@link #output}.
+     *
+     * @param level Compression level from 1 to 9 or -1 for the default
+     */
+    void start(int level) {
+        matchFinder.reset(level);
+        outputLength = 0;
+    }
+
+
+    /**
+     * @return the number of bytes that were added, less than
+     *         <code>len</code> if the block is full and must be encoded
+     */
+    int append(byte[] b, int off, int len) {
+        return matchFinder.append(b, off, len);
+    }
+
+
+    boolean isBlockFull() {
+        return matchFinder.isBlockFull();
+    }
+
+
+    /**
+     * Encode the data added since the last block.
+     *
+     * @param last Is this the end of the stream? If so the encoded data is
+     *             completed.
+     */
+    abstract void encodeBlock(boolean last);
+
+
+    /**
+     * Complete the encoded data, which must end with a block, so that it can
+     * be decoded without the rest of the stream.
+     */
+    void flush() {
+        // NOOP by default: blocks end on a byte boundary
+    }
+
+
+    void ensureCapacity(int extra) {
+        if (outputLength + extra > output.length) {
+            output = Arrays.copyOf(output,
+                    Math.max(outputLength + extra, output.length * 2));
+        }
+    }
+
+
+    // ------------------------------------------------------- Prefix codes
+
+    /**
+     * Calculate the lengths of a prefix code for the given symbol counts.
+     * If the lengths of an optimal code would exceed the limit, small counts
+     * are raised until they do not.
+     *
+     * @param counts    Symbol counts
+     * @param size      Number of symbols in the alphabet
+     * @param maxLength Maximum code length
+     * @param lengths   Receives the code lengths, zero for unused symbols
+     *
+     * @return the number of symbols that are used
+     */
+    static int buildCodeLengths(int[] counts, int size, int maxLength,
+            int[] lengths) {
+        Arrays.fill(lengths, 0, size, 0);
+        int used = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] > 0) {
+                used++;
+            }
+        }
+        if (used == 0) {
+            return 0;
+        }
+        if (used == 1) {
+            for (int i = 0; i < size; i++) {
+                if (counts[i] > 0) {
+                    lengths[i] = 1;
+                }
+            }
+            return 1;
+        }
+
+        long[] leaves = new long[used];
+        int[] weights = new int[2 * used];
+        int[] parents = new int[2 * used];
+        for (int minCount = 1; ; minCount *= 2) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (counts[i] > 0) {
+                    leaves[n++] = ((long) Math.max(counts[i], minCount) << 32) | i;
+                }
+            }
+            Arrays.sort(leaves);
+            for (int i = 0; i < used; i++) {
+                weights[i] = (int) (leaves[i] >>> 32);
+            }
+            // Leaves and the internal nodes are each created in order of
+            // weight so the two lightest nodes are at the head of one or the
+            // other
+            int leaf = 0;
+            int node = used;
+            int nodeCount = used;
+            while (nodeCount < 2 * used - 1) {
+                int a = (leaf < used && (node == nodeCount ||
+                        weights[leaf] <= weights[node])) ? leaf++ : node++;
+                int b = (leaf < used && (node == nodeCount ||
+                        weights[leaf] <= weights[node])) ? leaf++ : node++;
+                weights[nodeCount] = weights[a] + weights[b];
+                parents[a] = nodeCount;
+                parents[b] = nodeCount;
+                nodeCount++;
+            }
+            // Reuse the weights as the depths of the nodes. Parents always
+            // follow their children.
+            weights[nodeCount - 1] = 0;
+            int max = 0;
+            for (int i = nodeCount - 2; i >= 0; i--) {
+                weights[i] = weights[parents[i]] + 1;
+                if (i < used && weights[i] > max) {
+                    max = weights[i];
+                }
+            }
+            if (max <= maxLength) {
+                for (int i = 0; i < used; i++) {
+                    lengths[(int) leaves[i]] = weights[i];
+                }
+                return used;
+            }
+        }
+    }
+
+
+    /**
+     * Assign canonical codes, as used by Deflate and Brotli, for the given
+     * code lengths. Shorter codes have smaller values and codes of the same
+     * length are in symbol order. The codes are bit reversed so that they
+     * can be written least significant bit first.
+     */
+    static void buildReversedCodes(int[] lengths, int size, int[] codes) {
+        int[] count = new int[16];
+        for (int i = 0; i < size; i++) {
+            count[lengths[i]]++;
+        }
+        count[0] = 0;
+        int[] next = new int[16];
+        int code = 0;
+        for (int bits = 1; bits < 16; bits++) {
+            code = (code + count[bits - 1]) << 1;
+            next[bits] = code;
+        }
+        for (int i = 0; i < size; i++) {
+            int length = lengths[i];
+            if (length > 0) {
+                codes[i] = Integer.reverse(next[length]++) >>> (32 - length);
+            } else {
+                codes[i] = 0;
+            }
+        }
+    }
+}
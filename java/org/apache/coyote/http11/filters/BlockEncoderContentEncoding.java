@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import org.apache.coyote.http11.ContentEncoding;
+import org.apache.coyote.http11.OutputFilter;
+import org.apache.tomcat.util.collections.RecyclingPool;
+
+/**
+ * Base class for the content-codings implemented by the pure Java
+ * {@link BlockEncoder}s. The encoders, which hold a few hundred KB of tables
+ * and buffers, are pooled. The compression level, and so how hard the
+ * encoders search for copies, is taken from the protocol handler's
+ * {@link GzipCompressionPool} so that it adapts to the system load in the same
+ * way as gzip.
+ */
+public abstract class BlockEncoderContentEncoding implements ContentEncoding {
+
+    private final GzipCompressionPool compressionPool;
+    private final RecyclingPool<BlockEncoder> encoders;
+
+
+    protected BlockEncoderContentEncoding(GzipCompressionPool compressionPool) {
+        this.compressionPool = compressionPool;
+        this.encoders = new RecyclingPool<BlockEncoder>(compressionPool.getLimit());
+    }
+
+
+    @Override
+    public OutputFilter createOutputFilter() {
+        return new BlockEncoderOutputFilter(this);
+    }
+
+
+    @Override
+    public void destroy() {
+        encoders.clear();
+    }
+
+
+    abstract BlockEncoder createEncoder();
+
+
+    BlockEncoder getEncoder() {
+        BlockEncoder encoder = encoders.poll();
+        if (encoder == null) {
+            encoder = createEncoder();
+        }
+        encoder.start(compressionPool.getCurrentLevel());
+        return encoder;
+    }
+
+
+    void returnEncoder(BlockEncoder encoder) {
+        encoders.offer(encoder);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.FlushableOutputFilter;
+import org.apache.coyote.http11.OutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Output filter for the content-codings of a
+ * {@link BlockEncoderContentEncoding}. An encoder is taken from the pool when
+ * the first data is written and returned when the response ends.
+ */
+public class BlockEncoderOutputFilter implements FlushableOutputFilter {
+
+    private static final org.apache.juli.logging.Log log =
+        org.apache.juli.logging.LogFactory.getLog(BlockEncoderOutputFilter.class);
+
+
+    private final BlockEncoderContentEncoding contentEncoding;
+
+    /**
+     * Next buffer in the pipeline.
+     */
+    protected OutputBuffer buffer;
+
+    /**
+     * Encoder for the current response, <code>null</code> if encoding has not
+     * started.
+     */
+    private BlockEncoder encoder = null;
+
+    private final ByteChunk outputChunk = new ByteChunk();
+
+
+    public BlockEncoderOutputFilter(BlockEncoderContentEncoding contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+
+    // --------------------------------------------------- OutputBuffer Methods
+
+    @Override
+    public int doWrite(ByteChunk chunk, Response res) throws IOException {
+        if (encoder == null) {
+            start();
+        }
+        byte[] b = chunk.getBytes();
+        int off = chunk.getStart();
+        int len = chunk.getLength();
+        while (len > 0) {
+            int n = encoder.append(b, off, len);
+            off += n;
+            len -= n;
+            if (encoder.isBlockFull()) {
+                encoder.encodeBlock(false);
+                writeOutput();
+            }
+        }
+        return chunk.getLength();
+    }
+
+
+    @Override
+    public long getBytesWritten() {
+        return buffer.getBytesWritten();
+    }
+
+
+    // --------------------------------------------------- OutputFilter Methods
+
+    @Override
+    public void flush() throws IOException {
+        if (encoder == null) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing the " + contentEncoding.getName() + " encoder");
+        }
+        encoder.encodeBlock(false);
+        encoder.flush();
+        writeOutput();
+    }
+
+
+    @Override
+    public void setResponse(Response response) {
+        // NOOP: No need for parameters from response in this filter
+    }
+
+
+    @Override
+    public void setBuffer(OutputBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    @Override
+    public long end() throws IOException {
+        if (encoder == null) {
+            start();
+        }
+        try {
+            encoder.encodeBlock(true);
+            writeOutput();
+        } finally {
+            release();
+        }
+        return ((OutputFilter) buffer).end();
+    }
+
+
+    @Override
+    public void recycle() {
+        release();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private void start() {
+        encoder = contentEncoding.getEncoder();
+    }
+
+
+    private void writeOutput() throws IOException {
+        if (encoder.outputLength > 0) {
+            outputChunk.setBytes(encoder.output, 0, encoder.outputLength);
+            encoder.outputLength = 0;
+            buffer.doWrite(outputChunk, null);
+        }
+    }
+
+
+    private void release() {
+        if (encoder != null) {
+            contentEncoding.returnEncoder(encoder);
+            encoder = null;
+        }
+    }
+}
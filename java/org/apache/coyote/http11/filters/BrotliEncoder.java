@@ -0,0 +1,461 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+/**
+ * Writes the Brotli format of RFC 7932. Each block is written as a meta-block
+ * with a single block type and prefix code per category, built from the
+ * block's own statistics, and with the copies found by the
+ * {@link MatchFinder}. This is much simpler, and so faster, than the
+ * reference encoder at the cost of some compression: context modelling and
+ * the static dictionary are not used. A flush writes an empty metadata
+ * meta-block to pad the stream to a byte boundary.
+ */
+final class BrotliEncoder extends BlockEncoder {
+
+    private static final int LITERAL_ALPHABET = 256;
+    private static final int COMMAND_ALPHABET = 704;
+    // 16 short codes and 48 distance buckets with no postfix or direct codes
+    private static final int DISTANCE_ALPHABET = 64;
+
+    private static final int[] INSERT_BASE = { 0, 1, 2, 3, 4, 5, 6, 8, 10,
+            14, 18, 26, 34, 50, 66, 98, 130, 194, 322, 578, 1090, 2114, 6210,
+            22594 };
+    private static final int[] INSERT_EXTRA = { 0, 0, 0, 0, 0, 0, 1, 1, 2, 2,
+            3, 3, 4, 4, 5, 5, 6, 7, 8, 9, 10, 12, 14, 24 };
+    private static final int[] COPY_BASE = { 2, 3, 4, 5, 6, 7, 8, 9, 10, 12,
+            14, 18, 22, 30, 38, 54, 70, 102, 134, 198, 326, 582, 1094, 2118 };
+    private static final int[] COPY_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 2,
+            2, 3, 3, 4, 4, 5, 5, 6, 7, 8, 9, 10, 24 };
+
+    /**
+     * First command symbol for each combination of insert length code / 8
+     * and copy length code / 8 when the distance is given explicitly.
+     */
+    private static final int[][] COMMAND_OFFSET = {
+            { 128, 192, 384 }, { 256, 320, 512 }, { 448, 576, 640 } };
+
+    /**
+     * Order in which the code lengths of the code length alphabet are stored.
+     */
+    private static final int[] CODE_LENGTH_ORDER = { 1, 2, 3, 4, 0, 5, 17, 6,
+            16, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+    // Static prefix code used to store the code lengths of the code length
+    // alphabet, already in the order the bits are written
+    private static final int[] CODE_LENGTH_LENGTH_CODES = { 0, 7, 3, 2, 1, 15 };
+    private static final int[] CODE_LENGTH_LENGTH_BITS = { 2, 4, 3, 2, 2, 4 };
+
+    private static final int REPEAT_PREVIOUS = 16;
+    private static final int REPEAT_ZERO = 17;
+
+
+    // Pending bits, least significant first
+    private long bits;
+    private int bitCount;
+
+    private final int[] literalCounts = new int[LITERAL_ALPHABET];
+    private final int[] commandCounts = new int[COMMAND_ALPHABET];
+    private final int[] distanceCounts = new int[DISTANCE_ALPHABET];
+    private final int[] literalLengths = new int[LITERAL_ALPHABET];
+    private final int[] commandLengths = new int[COMMAND_ALPHABET];
+    private final int[] distanceLengths = new int[DISTANCE_ALPHABET];
+    private final int[] literalCodes = new int[LITERAL_ALPHABET];
+    private final int[] commandCodes = new int[COMMAND_ALPHABET];
+    private final int[] distanceCodes = new int[DISTANCE_ALPHABET];
+
+    // Per command symbols
+    private final int[] commandSymbols = new int[MatchFinder.BLOCK_SIZE / MatchFinder.MIN_MATCH + 1];
+    private final int[] distanceSymbols = new int[MatchFinder.BLOCK_SIZE / MatchFinder.MIN_MATCH + 1];
+
+    // Code length alphabet encoding of a prefix code
+    private final int[] lengthSymbols = new int[COMMAND_ALPHABET];
+    private final int[] lengthExtra = new int[COMMAND_ALPHABET];
+    private final int[] lengthCounts = new int[18];
+    private final int[] lengthLengths = new int[18];
+    private final int[] lengthCodes = new int[18];
+
+
+    @Override
+    void start(int level) {
+        super.start(level);
+        bits = 0;
+        bitCount = 0;
+        // WBITS of 16, the smallest window that does not need extra bits
+        writeBits(1, 0);
+    }
+
+
+    @Override
+    void encodeBlock(boolean last) {
+        MatchFinder matchFinder = this.matchFinder;
+        int length = matchFinder.getBlockLength();
+        if (length > 0) {
+            matchFinder.parse();
+            int savedLength = outputLength;
+            long savedBits = bits;
+            int savedBitCount = bitCount;
+            writeCompressedMetaBlock(length);
+            if (outputLength - savedLength > length + 4) {
+                outputLength = savedLength;
+                bits = savedBits;
+                bitCount = savedBitCount;
+                writeUncompressedMetaBlock(length);
+            }
+            matchFinder.nextBlock();
+        }
+        if (last) {
+            // ISLAST and ISLASTEMPTY
+            writeBits(2, 3);
+            alignToByte();
+        }
+    }
+
+
+    @Override
+    void flush() {
+        // An empty metadata meta-block: ISLAST = 0, MNIBBLES = 0, reserved
+        // bit and MSKIPBYTES = 0
+        writeBits(6, 6);
+        alignToByte();
+    }
+
+
+    // -------------------------------------------------------- Meta-blocks
+
+    private void writeMetaBlockHeader(int length, boolean uncompressed) {
+        writeBits(1, 0);
+        int nibbles = 4;
+        if (length - 1 >= 1 << 20) {
+            nibbles = 6;
+        } else if (length - 1 >= 1 << 16) {
+            nibbles = 5;
+        }
+        writeBits(2, nibbles - 4);
+        writeBits(nibbles * 4, length - 1);
+        writeBits(1, uncompressed ? 1 : 0);
+    }
+
+
+    private void writeUncompressedMetaBlock(int length) {
+        writeMetaBlockHeader(length, true);
+        alignToByte();
+        ensureCapacity(length);
+        System.arraycopy(matchFinder.buffer, matchFinder.blockStart, output,
+                outputLength, length);
+        outputLength += length;
+    }
+
+
+    private void writeCompressedMetaBlock(int length) {
+        MatchFinder matchFinder = this.matchFinder;
+        byte[] data = matchFinder.buffer;
+        int commandCount = matchFinder.commandCount;
+        int trailing = matchFinder.trailingLiterals;
+
+        // Symbols and their counts
+        java.util.Arrays.fill(literalCounts, 0);
+        java.util.Arrays.fill(commandCounts, 0);
+        java.util.Arrays.fill(distanceCounts, 0);
+        int pos = matchFinder.blockStart;
+        for (int i = 0; i < commandCount; i++) {
+            int insert = matchFinder.literalLengths[i];
+            for (int j = 0; j < insert; j++) {
+                literalCounts[data[pos + j] & 0xFF]++;
+            }
+            pos += insert + matchFinder.copyLengths[i];
+            int command = commandSymbol(insertCode(insert),
+                    copyCode(matchFinder.copyLengths[i]));
+            commandSymbols[i] = command;
+            commandCounts[command]++;
+            int distance = distanceSymbol(matchFinder.distances[i]);
+            distanceSymbols[i] = distance;
+            distanceCounts[distance]++;
+        }
+        for (int j = 0; j < trailing; j++) {
+            literalCounts[data[pos + j] & 0xFF]++;
+        }
+        int lastCommand = 0;
+        if (trailing > 0) {
+            // Literals at the end of the meta-block are inserted by a command
+            // whose copy is never made
+            lastCommand = commandSymbol(insertCode(trailing), 0);
+            commandCounts[lastCommand]++;
+        }
+
+        writeMetaBlockHeader(length, false);
+        // NBLTYPESL, NBLTYPESI and NBLTYPESD are all 1, NPOSTFIX and NDIRECT
+        // are 0, the literal context mode is 0 and NTREESL and NTREESD are 1
+        writeBits(3, 0);
+        writeBits(6, 0);
+        writeBits(2, 0);
+        writeBits(2, 0);
+
+        writePrefixCode(literalCounts, LITERAL_ALPHABET, 8, literalLengths,
+                literalCodes);
+        writePrefixCode(commandCounts, COMMAND_ALPHABET, 10, commandLengths,
+                commandCodes);
+        writePrefixCode(distanceCounts, DISTANCE_ALPHABET, 6, distanceLengths,
+                distanceCodes);
+
+        pos = matchFinder.blockStart;
+        for (int i = 0; i < commandCount; i++) {
+            int insert = matchFinder.literalLengths[i];
+            int copy = matchFinder.copyLengths[i];
+            writeCommand(commandSymbols[i], insert, copy);
+            writeLiterals(data, pos, insert);
+            pos += insert + copy;
+            int distance = distanceSymbols[i];
+            writeBits(distanceLengths[distance], distanceCodes[distance]);
+            if (distance >= 16) {
+                int nbits = 1 + ((distance - 16) >> 1);
+                int offset = (2 + ((distance - 16) & 1)) << nbits;
+                writeBits(nbits, matchFinder.distances[i] + 3 - offset);
+            }
+        }
+        if (trailing > 0) {
+            writeCommand(lastCommand, trailing, 2);
+            writeLiterals(data, pos, trailing);
+        }
+    }
+
+
+    private void writeCommand(int symbol, int insert, int copy) {
+        writeBits(commandLengths[symbol], commandCodes[symbol]);
+        int insertCode = insertCode(insert);
+        writeBits(INSERT_EXTRA[insertCode], insert - INSERT_BASE[insertCode]);
+        int copyCode = copyCode(copy);
+        writeBits(COPY_EXTRA[copyCode], copy - COPY_BASE[copyCode]);
+    }
+
+
+    private void writeLiterals(byte[] data, int pos, int length) {
+        int end = pos + length;
+        for (int i = pos; i < end; i++) {
+            int literal = data[i] & 0xFF;
+            writeBits(literalLengths[literal], literalCodes[literal]);
+        }
+    }
+
+
+    private static int insertCode(int insert) {
+        if (insert < 6) {
+            return insert;
+        }
+        int code = 6;
+        while (code < 23 && INSERT_BASE[code + 1] <= insert) {
+            code++;
+        }
+        return code;
+    }
+
+
+    private static int copyCode(int copy) {
+        if (copy < 10) {
+            return copy - 2;
+        }
+        int code = 8;
+        while (code < 23 && COPY_BASE[code + 1] <= copy) {
+            code++;
+        }
+        return code;
+    }
+
+
+    private static int commandSymbol(int insertCode, int copyCode) {
+        return COMMAND_OFFSET[insertCode >> 3][copyCode >> 3] +
+                ((insertCode & 7) << 3) + (copyCode & 7);
+    }
+
+
+    /**
+     * The distance code for a distance that is given explicitly. Code 16 and
+     * up cover buckets of distances + 3 from 4 with 1 extra bit onwards.
+     */
+    private static int distanceSymbol(int distance) {
+        int value = distance + 3;
+        int bucket = 31 - Integer.numberOfLeadingZeros(value) - 1;
+        int prefix = (value >> bucket) & 1;
+        return 16 + 2 * (bucket - 1) + prefix;
+    }
+
+
+    // ------------------------------------------------------- Prefix codes
+
+    private void writePrefixCode(int[] counts, int size, int alphabetBits,
+            int[] lengths, int[] codes) {
+        int used = buildCodeLengths(counts, size, 15, lengths);
+        if (used <= 4) {
+            writeSimplePrefixCode(used, size, alphabetBits, lengths);
+        } else {
+            writeComplexPrefixCode(size, lengths);
+        }
+        buildReversedCodes(lengths, size, codes);
+    }
+
+
+    private void writeSimplePrefixCode(int used, int size, int alphabetBits,
+            int[] lengths) {
+        // Symbols in the order the decoder assigns the code lengths
+        int[] symbols = new int[4];
+        int n = 0;
+        for (int length = 1; length <= 3; length++) {
+            for (int i = 0; i < size; i++) {
+                if (lengths[i] == length) {
+                    symbols[n++] = i;
+                }
+            }
+        }
+        if (used <= 1) {
+            // One symbol, or none if the category is not used, has a zero
+            // length code
+            if (used == 1) {
+                lengths[symbols[0]] = 0;
+            }
+            used = 1;
+        }
+        writeBits(2, 1);
+        writeBits(2, used - 1);
+        for (int i = 0; i < used; i++) {
+            writeBits(alphabetBits, symbols[i]);
+        }
+        if (used == 4) {
+            writeBits(1, lengths[symbols[0]] == 1 ? 1 : 0);
+        }
+    }
+
+
+    private void writeComplexPrefixCode(int size, int[] lengths) {
+        // Run length encode the code lengths up to the last one used.
+        // Consecutive repeat codes of the same kind would combine so each run
+        // of repeats is broken up with an explicit length.
+        int last = size - 1;
+        while (lengths[last] == 0) {
+            last--;
+        }
+        int n = 0;
+        int i = 0;
+        while (i <= last) {
+            int length = lengths[i];
+            int run = 1;
+            while (i + run <= last && lengths[i + run] == length) {
+                run++;
+            }
+            i += run;
+            int repeatCode;
+            int maxRepeat;
+            if (length == 0) {
+                repeatCode = REPEAT_ZERO;
+                maxRepeat = 10;
+            } else {
+                lengthSymbols[n] = length;
+                lengthExtra[n++] = 0;
+                run--;
+                repeatCode = REPEAT_PREVIOUS;
+                maxRepeat = 6;
+            }
+            while (run > 0) {
+                if (run >= 3) {
+                    int repeat = Math.min(run, maxRepeat);
+                    lengthSymbols[n] = repeatCode;
+                    lengthExtra[n++] = repeat - 3;
+                    run -= repeat;
+                    if (run == 0) {
+                        break;
+                    }
+                }
+                lengthSymbols[n] = length;
+                lengthExtra[n++] = 0;
+                run--;
+            }
+        }
+
+        java.util.Arrays.fill(lengthCounts, 0);
+        for (int j = 0; j < n; j++) {
+            lengthCounts[lengthSymbols[j]]++;
+        }
+        int used = buildCodeLengths(lengthCounts, 18, 5, lengthLengths);
+
+        int stored = CODE_LENGTH_ORDER.length;
+        if (used > 1) {
+            while (lengthLengths[CODE_LENGTH_ORDER[stored - 1]] == 0) {
+                stored--;
+            }
+        }
+        int skip = 0;
+        if (lengthLengths[CODE_LENGTH_ORDER[0]] == 0 &&
+                lengthLengths[CODE_LENGTH_ORDER[1]] == 0) {
+            skip = 2;
+            if (lengthLengths[CODE_LENGTH_ORDER[2]] == 0) {
+                skip = 3;
+            }
+        }
+        writeBits(2, skip);
+        for (int j = skip; j < stored; j++) {
+            int length = lengthLengths[CODE_LENGTH_ORDER[j]];
+            writeBits(CODE_LENGTH_LENGTH_BITS[length],
+                    CODE_LENGTH_LENGTH_CODES[length]);
+        }
+        if (used == 1) {
+            // A single code length symbol is coded with zero bits
+            java.util.Arrays.fill(lengthLengths, 0);
+        }
+        buildReversedCodes(lengthLengths, 18, lengthCodes);
+
+        for (int j = 0; j < n; j++) {
+            int symbol = lengthSymbols[j];
+            writeBits(lengthLengths[symbol], lengthCodes[symbol]);
+            if (symbol == REPEAT_PREVIOUS) {
+                writeBits(2, lengthExtra[j]);
+            } else if (symbol == REPEAT_ZERO) {
+                writeBits(3, lengthExtra[j]);
+            }
+        }
+    }
+
+
+    // --------------------------------------------------------------- Bits
+
+    private void writeBits(int count, long value) {
+        bits |= value << bitCount;
+        bitCount += count;
+        if (bitCount >= 32) {
+            ensureCapacity(4);
+            byte[] output = this.output;
+            int length = outputLength;
+            output[length] = (byte) bits;
+            output[length + 1] = (byte) (bits >>> 8);
+            output[length + 2] = (byte) (bits >>> 16);
+            output[length + 3] = (byte) (bits >>> 24);
+            outputLength = length + 4;
+            bits >>>= 32;
+            bitCount -= 32;
+        }
+    }
+
+
+    private void alignToByte() {
+        ensureCapacity(4);
+        while (bitCount > 0) {
+            output[outputLength++] = (byte) bits;
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+        bits = 0;
+        bitCount = 0;
+    }
+}
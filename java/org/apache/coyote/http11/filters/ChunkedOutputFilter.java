@@ -18,7 +18,9 @@
 package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import org.apache.coyote.ByteBufferOutputBuffer;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.OutputFilter;
@@ -30,7 +32,7 @@ import org.apache.tomcat.util.buf.HexUtils;
  *
  * @author Remy Maucherat
  */
-public class ChunkedOutputFilter implements OutputFilter {
+public class ChunkedOutputFilter implements OutputFilter, ByteBufferOutputBuffer {
 
 
     // -------------------------------------------------------------- Constants
@@ -105,9 +107,53 @@ public class ChunkedOutputFilter implements OutputFilter {
             return 0;
         }
 
+        writeChunkHeader(result, res);
+
+        buffer.doWrite(chunk, res);
+
+        chunkHeader.setBytes(chunkLength, 8, 2);
+        buffer.doWrite(chunkHeader, res);
+
+        return result;
+
+    }
+
+
+    /**
+     * Write some bytes. Only the chunk header and trailing CRLF are added;
+     * the data is passed on to the next buffer, which must be able to write
+     * ByteBuffers, without being copied.
+     *
+     * @return number of bytes written by the filter
+     */
+    @Override
+    public int doWrite(ByteBuffer chunk, Response res)
+        throws IOException {
+
+        int result = chunk.remaining();
+
+        if (result <= 0) {
+            return 0;
+        }
+
+        writeChunkHeader(result, res);
+
+        ((ByteBufferOutputBuffer) buffer).doWrite(chunk, res);
+
+        chunkHeader.setBytes(chunkLength, 8, 2);
+        buffer.doWrite(chunkHeader, res);
+
+        return result;
+
+    }
+
+
+    private void writeChunkHeader(int length, Response res)
+        throws IOException {
+
         // Calculate chunk header
         int pos = 7;
-        int current = result;
+        int current = length;
         while (current > 0) {
             int digit = current % 16;
             current = current / 16;
@@ -116,13 +162,6 @@ public class ChunkedOutputFilter implements OutputFilter {
         chunkHeader.setBytes(chunkLength, pos + 1, 9 - pos);
         buffer.doWrite(chunkHeader, res);
 
-        buffer.doWrite(chunk, res);
-
-        chunkHeader.setBytes(chunkLength, 8, 2);
-        buffer.doWrite(chunkHeader, res);
-
-        return result;
-
     }
 
 
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.FlushableOutputFilter;
+import org.apache.coyote.http11.OutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * Output filter for the <code>deflate</code> content-coding, i.e. the zlib
+ * format of RFC 1950. The zlib header and trailer are written by the filter
+ * so that the raw Deflaters of a {@link GzipCompressionPool} can be used.
+ * Flushing requires Java 7. On older JREs a flush is ignored and the data is
+ * sent as it is compressed.
+ */
+public class DeflateOutputFilter implements FlushableOutputFilter {
+
+    private static final org.apache.juli.logging.Log log =
+        org.apache.juli.logging.LogFactory.getLog(DeflateOutputFilter.class);
+
+
+    private final GzipCompressionPool compressionPool;
+
+    /**
+     * Next buffer in the pipeline.
+     */
+    protected OutputBuffer buffer;
+
+    /**
+     * Deflater for the current response, <code>null</code> if compression has
+     * not started.
+     */
+    private Deflater deflater = null;
+
+    /**
+     * Buffer for compressed data.
+     */
+    private byte[] output = null;
+
+    private final Adler32 adler = new Adler32();
+    private final ByteChunk outputChunk = new ByteChunk();
+
+
+    public DeflateOutputFilter(GzipCompressionPool compressionPool) {
+        this.compressionPool = compressionPool;
+    }
+
+
+    // --------------------------------------------------- OutputBuffer Methods
+
+    @Override
+    public int doWrite(ByteChunk chunk, Response res) throws IOException {
+        if (deflater == null) {
+            start();
+        }
+        int len = chunk.getLength();
+        if (len > 0) {
+            adler.update(chunk.getBytes(), chunk.getStart(), len);
+            deflater.setInput(chunk.getBytes(), chunk.getStart(), len);
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(output, 0, output.length);
+                if (n > 0) {
+                    writeOutput(output, 0, n);
+                }
+            }
+        }
+        return len;
+    }
+
+
+    @Override
+    public long getBytesWritten() {
+        return buffer.getBytesWritten();
+    }
+
+
+    // --------------------------------------------------- OutputFilter Methods
+
+    @Override
+    public void flush() throws IOException {
+        if (deflater == null || !JreCompat.isJre7Available()) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing the compression stream!");
+        }
+        JreCompat jreCompat = JreCompat.getInstance();
+        int n;
+        do {
+            n = jreCompat.deflate(deflater, output, 0, output.length, true);
+            if (n > 0) {
+                writeOutput(output, 0, n);
+            }
+        } while (n == output.length);
+    }
+
+
+    @Override
+    public void setResponse(Response response) {
+        // NOOP: No need for parameters from response in this filter
+    }
+
+
+    @Override
+    public void setBuffer(OutputBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    @Override
+    public long end() throws IOException {
+        if (deflater == null) {
+            start();
+        }
+        try {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(output, 0, output.length);
+                writeOutput(output, 0, n);
+            }
+            int value = (int) adler.getValue();
+            byte[] trailer = new byte[] {
+                    (byte) (value >> 24), (byte) (value >> 16),
+                    (byte) (value >> 8), (byte) value };
+            writeOutput(trailer, 0, trailer.length);
+        } finally {
+            release();
+        }
+        return ((OutputFilter) buffer).end();
+    }
+
+
+    @Override
+    public void recycle() {
+        release();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private void start() throws IOException {
+        int level = compressionPool.getCurrentLevel();
+        deflater = compressionPool.getDeflater(level);
+        output = compressionPool.getBuffer();
+        adler.reset();
+        writeOutput(header(level), 0, 2);
+    }
+
+
+    /**
+     * The zlib header for a 32KB window. The level is only informative.
+     */
+    private static byte[] header(int level) {
+        int flevel;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            flevel = 2;
+        } else if (level <= 1) {
+            flevel = 0;
+        } else if (level < 6) {
+            flevel = 1;
+        } else {
+            flevel = 3;
+        }
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[] { (byte) cmf, (byte) flg };
+    }
+
+
+    private void writeOutput(byte[] b, int off, int len) throws IOException {
+        outputChunk.setBytes(b, off, len);
+        buffer.doWrite(outputChunk, null);
+    }
+
+
+    private void release() {
+        if (deflater != null) {
+            compressionPool.returnDeflater(deflater);
+            deflater = null;
+        }
+        if (output != null) {
+            compressionPool.returnBuffer(output);
+            output = null;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.apache.tomcat.util.collections.RecyclingPool;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+
+/**
+ * Resources shared by the {@link GzipOutputFilter}s of a protocol handler.
+ * Creating a {@link Deflater} allocates and clears several hundred KB of
+ * native memory, so rather than creating one per response they are pooled
+ * along with the buffers used to compress. This also provides:
+ * <ul>
+ * <li>the compression level, optionally lowered when the system is busy so
+ *     that compression does not starve request processing of CPU</li>
+ * <li>an executor used to compress the blocks of very large responses in
+ *     parallel</li>
+ * </ul>
+ * Pooled compression needs a sync flush which requires Java 7. On older JREs
+ * the filter uses a new {@link FlushableGZIPOutputStream} for each response
+ * as before.
+ */
+public class GzipCompressionPool {
+
+    /**
+     * Size of the output buffers used when compressing.
+     */
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Size of the blocks that are compressed in parallel.
+     */
+    static final int BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Size of the deflate window and therefore of the dictionary each block
+     * is primed with.
+     */
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final long LOAD_SAMPLE_INTERVAL = 1000;
+
+
+    private final RecyclingPool<Deflater> deflaters;
+    private final RecyclingPool<byte[]> buffers;
+    private final RecyclingPool<byte[]> blocks;
+
+    private volatile String name = "http";
+
+    private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private volatile boolean adaptive = false;
+    private volatile int parallelThreshold = -1;
+    private volatile int parallelThreads =
+            Runtime.getRuntime().availableProcessors();
+
+    private final OperatingSystemMXBean os =
+            ManagementFactory.getOperatingSystemMXBean();
+    private volatile int adaptiveLevel = Deflater.DEFAULT_COMPRESSION;
+    private volatile long nextLoadSample = 0;
+
+    private ThreadPoolExecutor executor = null;
+
+
+    /**
+     * @param limit The maximum number of Deflaters and buffers of each type to
+     *              retain, -1 for no limit
+     */
+    public GzipCompressionPool(int limit) {
+        deflaters = new RecyclingPool<Deflater>(limit) {
+            @Override
+            protected void discard(Deflater deflater) {
+                deflater.end();
+            }
+        };
+        buffers = new RecyclingPool<byte[]>(limit);
+        blocks = new RecyclingPool<byte[]>(limit);
+    }
+
+
+    /**
+     * @return <code>true</code> if the JRE supports pooled compression
+     */
+    public static boolean isSupported() {
+        return JreCompat.isJre7Available();
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * Set the name used as the prefix of the parallel compression threads.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Set the maximum number of Deflaters and buffers of each type to retain.
+     */
+    public void setLimit(int limit) {
+        deflaters.setLimit(limit);
+        buffers.setLimit(limit);
+        blocks.setLimit(limit);
+    }
+
+    public int getLimit() {
+        return deflaters.getLimit();
+    }
+
+
+    /**
+     * Set the compression level, from 1 (fastest) to 9 (smallest) or -1 for
+     * the zlib default.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION ||
+                compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    Integer.toString(compressionLevel));
+        }
+        this.compressionLevel = compressionLevel;
+        this.adaptiveLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+
+    /**
+     * If set, the compression level is lowered when the system load average
+     * approaches and then exceeds the number of available processors.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        this.adaptiveLevel = compressionLevel;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+
+    /**
+     * Responses are compressed in parallel once more than this number of
+     * bytes has been written. -1 disables parallel compression.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+
+    /**
+     * Set the number of threads used for parallel compression. This is also
+     * the maximum number of blocks of a response that are compressed at the
+     * same time.
+     */
+    public synchronized void setParallelThreads(int parallelThreads) {
+        if (parallelThreads < 1) {
+            parallelThreads = Runtime.getRuntime().availableProcessors();
+        }
+        this.parallelThreads = parallelThreads;
+        if (executor != null) {
+            if (parallelThreads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(parallelThreads);
+                executor.setCorePoolSize(parallelThreads);
+            } else {
+                executor.setCorePoolSize(parallelThreads);
+                executor.setMaximumPoolSize(parallelThreads);
+            }
+        }
+    }
+
+    public int getParallelThreads() {
+        return parallelThreads;
+    }
+
+
+    /**
+     * @return the level that will be used for the next response that is
+     *         compressed
+     */
+    public int getCurrentLevel() {
+        if (!adaptive) {
+            return compressionLevel;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextLoadSample) {
+            nextLoadSample = now + LOAD_SAMPLE_INTERVAL;
+            adaptiveLevel = levelForLoad(os.getSystemLoadAverage() /
+                    os.getAvailableProcessors());
+        }
+        return adaptiveLevel;
+    }
+
+
+    /**
+     * @param load The system load average per processor or a negative value
+     *             if it is not available
+     */
+    int levelForLoad(double load) {
+        int level = compressionLevel;
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            // The zlib default
+            level = 6;
+        }
+        // A negative load means it is not available
+        if (load < 0.5) {
+            return compressionLevel;
+        } else if (load < 1.0) {
+            return Math.min(level, 3);
+        } else {
+            return Deflater.BEST_SPEED;
+        }
+    }
+
+
+    // --------------------------------------------------------- Pool methods
+
+    Deflater getDeflater(int level) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            deflater.setLevel(level);
+        }
+        return deflater;
+    }
+
+
+    void returnDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+
+    byte[] getBuffer() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        return buffer;
+    }
+
+
+    void returnBuffer(byte[] buffer) {
+        buffers.offer(buffer);
+    }
+
+
+    byte[] getBlock() {
+        byte[] block = blocks.poll();
+        if (block == null) {
+            block = new byte[BLOCK_SIZE];
+        }
+        return block;
+    }
+
+
+    void returnBlock(byte[] block) {
+        blocks.offer(block);
+    }
+
+
+    <T> Future<T> submit(Callable<T> task) {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            if (this.executor == null) {
+                this.executor = new ThreadPoolExecutor(parallelThreads,
+                        parallelThreads, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new TaskThreadFactory(name + "-gzip-", true,
+                                Thread.NORM_PRIORITY));
+                this.executor.allowCoreThreadTimeOut(true);
+            }
+            executor = this.executor;
+        }
+        return executor.submit(task);
+    }
+
+
+    /**
+     * Stop the parallel compression threads and release the pooled
+     * Deflaters.
+     */
+    public void destroy() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+        deflaters.clear();
+        buffers.clear();
+        blocks.clear();
+    }
+}
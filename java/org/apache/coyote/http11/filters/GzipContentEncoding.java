@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import org.apache.coyote.http11.ContentEncoding;
+import org.apache.coyote.http11.OutputFilter;
+
+/**
+ * The <code>gzip</code> content-coding, applied by {@link GzipOutputFilter}s
+ * that share the protocol handler's {@link GzipCompressionPool}.
+ */
+public class GzipContentEncoding implements ContentEncoding {
+
+    private final GzipCompressionPool compressionPool;
+
+
+    public GzipContentEncoding(GzipCompressionPool compressionPool) {
+        this.compressionPool = compressionPool;
+    }
+
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+
+    @Override
+    public OutputFilter createOutputFilter() {
+        GzipOutputFilter filter = new GzipOutputFilter();
+        filter.setCompressionPool(compressionPool);
+        return filter;
+    }
+
+
+    @Override
+    public void destroy() {
+        // NOOP: The pool belongs to the protocol handler
+    }
+}
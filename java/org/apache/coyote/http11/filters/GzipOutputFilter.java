@@ -19,20 +19,34 @@ package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.FlushableOutputFilter;
 import org.apache.coyote.http11.OutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.compat.JreCompat;
 
 /**
  * Gzip output filter.
+ * <p>
+ * If a {@link GzipCompressionPool} has been set, and the JRE supports it, the
+ * gzip format is written directly using a pooled {@link Deflater}. Once a
+ * response exceeds the pool's parallel threshold the rest of it is split into
+ * blocks that are compressed by the pool's threads, each primed with the last
+ * 32KB of the block before it, and written in order. Each block ends with a
+ * sync flush so the compressed blocks can simply be concatenated.
  *
  * @author Remy Maucherat
  */
-public class GzipOutputFilter implements OutputFilter {
+public class GzipOutputFilter implements FlushableOutputFilter {
 
 
     /**
@@ -42,6 +56,13 @@ public class GzipOutputFilter implements OutputFilter {
         org.apache.juli.logging.LogFactory.getLog(GzipOutputFilter.class);
 
 
+    /**
+     * Standard gzip header with no optional fields.
+     */
+    private static final byte[] GZIP_HEADER = new byte[] {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+
     // ----------------------------------------------------- Instance Variables
 
 
@@ -63,6 +84,53 @@ public class GzipOutputFilter implements OutputFilter {
     protected OutputStream fakeOutputStream = new FakeOutputStream();
 
 
+    /**
+     * Source of Deflaters and buffers. If <code>null</code> a new compression
+     * stream is used for each response.
+     */
+    protected GzipCompressionPool compressionPool = null;
+
+
+    /**
+     * Is the pool being used for the current response?
+     */
+    private boolean pooled = false;
+
+
+    /**
+     * Compression level for the current response.
+     */
+    private int level;
+
+
+    /**
+     * Deflater used for the current response until it switches to parallel
+     * compression.
+     */
+    private Deflater deflater = null;
+
+
+    /**
+     * Buffer for compressed data.
+     */
+    private byte[] output = null;
+
+
+    private final CRC32 crc = new CRC32();
+    private long inputLength = 0;
+    private final ByteChunk outputChunk = new ByteChunk();
+
+
+    // Parallel compression
+    private boolean parallel = false;
+    private byte[] block = null;
+    private int blockLength = 0;
+    private byte[] previousBlock = null;
+    private int previousBlockLength = 0;
+    private final ArrayDeque<Future<CompressedBlock>> pendingBlocks =
+            new ArrayDeque<Future<CompressedBlock>>();
+
+
     // --------------------------------------------------- OutputBuffer Methods
 
 
@@ -74,13 +142,15 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteChunk chunk, Response res)
         throws IOException {
-        if (compressionStream == null) {
-            if (JreCompat.isJre7Available()) {
-                compressionStream =
-                        JreCompat.getInstance().getFlushableGZipOutputStream(fakeOutputStream);
-            } else {
-                compressionStream = new FlushableGZIPOutputStream(fakeOutputStream);
+        if (compressionStream == null && !pooled) {
+            start();
+        }
+        if (pooled) {
+            int len = chunk.getLength();
+            if (len > 0) {
+                writePooled(chunk.getBytes(), chunk.getStart(), len);
             }
+            return len;
         }
         compressionStream.write(chunk.getBytes(), chunk.getStart(),
                                 chunk.getLength());
@@ -99,8 +169,20 @@ public class GzipOutputFilter implements OutputFilter {
     /**
      * Added to allow flushing to happen for the gzip'ed outputstream
      */
+    @Override
     public void flush() {
-        if (compressionStream != null) {
+        if (pooled) {
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("Flushing the compression stream!");
+                }
+                flushPooled(false);
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Ignored exception while flushing gzip filter", e);
+                }
+            }
+        } else if (compressionStream != null) {
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("Flushing the compression stream!");
@@ -114,6 +196,16 @@ public class GzipOutputFilter implements OutputFilter {
         }
     }
 
+
+    /**
+     * Set the pool that provides the Deflaters and buffers for compression.
+     * It is only used if {@link GzipCompressionPool#isSupported()}.
+     */
+    public void setCompressionPool(GzipCompressionPool compressionPool) {
+        this.compressionPool = compressionPool;
+    }
+
+
     /**
      * Some filters need additional parameters from the response. All the
      * necessary reading can occur in that method, as this method is called
@@ -140,16 +232,19 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public long end() throws IOException {
-        if (compressionStream == null) {
-            if (JreCompat.isJre7Available()) {
-                compressionStream =
-                        JreCompat.getInstance().getFlushableGZipOutputStream(fakeOutputStream);
-            } else {
-                compressionStream = new FlushableGZIPOutputStream(fakeOutputStream);
+        if (compressionStream == null && !pooled) {
+            start();
+        }
+        if (pooled) {
+            try {
+                flushPooled(true);
+            } finally {
+                releasePooled();
             }
+        } else {
+            compressionStream.finish();
+            compressionStream.close();
         }
-        compressionStream.finish();
-        compressionStream.close();
         return ((OutputFilter) buffer).end();
     }
 
@@ -161,6 +256,278 @@ public class GzipOutputFilter implements OutputFilter {
     public void recycle() {
         // Set compression stream to null
         compressionStream = null;
+        if (pooled) {
+            releasePooled();
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void start() throws IOException {
+        if (compressionPool != null && GzipCompressionPool.isSupported()) {
+            pooled = true;
+            level = compressionPool.getCurrentLevel();
+            deflater = compressionPool.getDeflater(level);
+            output = compressionPool.getBuffer();
+            crc.reset();
+            inputLength = 0;
+            writeOutput(GZIP_HEADER, 0, GZIP_HEADER.length);
+        } else if (JreCompat.isJre7Available()) {
+            compressionStream =
+                    JreCompat.getInstance().getFlushableGZipOutputStream(fakeOutputStream);
+        } else {
+            compressionStream = new FlushableGZIPOutputStream(fakeOutputStream);
+        }
+    }
+
+
+    private void writePooled(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        inputLength += len;
+
+        if (!parallel) {
+            int threshold = compressionPool.getParallelThreshold();
+            if (threshold < 0 || inputLength <= threshold) {
+                deflater.setInput(b, off, len);
+                while (!deflater.needsInput()) {
+                    int n = deflater.deflate(output, 0, output.length);
+                    if (n > 0) {
+                        writeOutput(output, 0, n);
+                    }
+                }
+                return;
+            }
+            // Switch to parallel compression. Everything compressed so far
+            // has to be written out, ending on a byte boundary, so the
+            // blocks can follow it.
+            syncFlush(deflater);
+            compressionPool.returnDeflater(deflater);
+            deflater = null;
+            parallel = true;
+        }
+
+        while (len > 0) {
+            if (block == null) {
+                block = compressionPool.getBlock();
+                blockLength = 0;
+            }
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == block.length) {
+                if (pendingBlocks.size() >= compressionPool.getParallelThreads()) {
+                    writeBlock(pendingBlocks.poll());
+                }
+                pendingBlocks.add(compressionPool.submit(nextBlock(false)));
+            }
+        }
+    }
+
+
+    /**
+     * Write all the data passed to the filter so far.
+     *
+     * @param finish Should the compressed data and the gzip trailer be
+     *               completed?
+     */
+    private void flushPooled(boolean finish) throws IOException {
+        if (!parallel) {
+            if (finish) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(output, 0, output.length);
+                    writeOutput(output, 0, n);
+                }
+            } else {
+                syncFlush(deflater);
+            }
+        } else {
+            while (!pendingBlocks.isEmpty()) {
+                writeBlock(pendingBlocks.poll());
+            }
+            // Compress what is left on this thread as there is nothing else
+            // to do until it is done. When finishing there is always a final
+            // block to write.
+            if (blockLength > 0 || finish) {
+                if (block == null) {
+                    block = compressionPool.getBlock();
+                    blockLength = 0;
+                }
+                writeBlock(nextBlock(finish).call());
+            }
+        }
+        if (finish) {
+            int crcValue = (int) crc.getValue();
+            int size = (int) inputLength;
+            byte[] trailer = new byte[] {
+                    (byte) crcValue, (byte) (crcValue >> 8),
+                    (byte) (crcValue >> 16), (byte) (crcValue >> 24),
+                    (byte) size, (byte) (size >> 8),
+                    (byte) (size >> 16), (byte) (size >> 24) };
+            writeOutput(trailer, 0, trailer.length);
+        }
+    }
+
+
+    private void syncFlush(Deflater deflater) throws IOException {
+        JreCompat jreCompat = JreCompat.getInstance();
+        int n;
+        do {
+            n = jreCompat.deflate(deflater, output, 0, output.length, true);
+            if (n > 0) {
+                writeOutput(output, 0, n);
+            }
+        } while (n == output.length);
+    }
+
+
+    /**
+     * Create the task to compress the current block. The block before it
+     * provides the dictionary, so it is returned to the pool when the block
+     * after it has been written.
+     */
+    private CompressedBlock nextBlock(boolean last) {
+        CompressedBlock result = new CompressedBlock(compressionPool, level,
+                block, blockLength, previousBlock, previousBlockLength, last);
+        previousBlock = block;
+        previousBlockLength = blockLength;
+        block = null;
+        blockLength = 0;
+        return result;
+    }
+
+
+    private void writeBlock(Future<CompressedBlock> future) throws IOException {
+        try {
+            writeBlock(future.get());
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+
+    private void writeBlock(CompressedBlock compressed) throws IOException {
+        if (compressed.dictionary != null) {
+            compressionPool.returnBlock(compressed.dictionary);
+        }
+        ByteChunk data = compressed.output;
+        writeOutput(data.getBytes(), data.getStart(), data.getLength());
+    }
+
+
+    private void writeOutput(byte[] b, int off, int len) throws IOException {
+        outputChunk.setBytes(b, off, len);
+        buffer.doWrite(outputChunk, null);
+    }
+
+
+    private void releasePooled() {
+        if (deflater != null) {
+            compressionPool.returnDeflater(deflater);
+            deflater = null;
+        }
+        if (output != null) {
+            compressionPool.returnBuffer(output);
+            output = null;
+        }
+        if (pendingBlocks.isEmpty()) {
+            // Blocks still in use by tasks of an incomplete response are
+            // left for the garbage collector
+            if (block != null) {
+                compressionPool.returnBlock(block);
+            }
+            if (previousBlock != null) {
+                compressionPool.returnBlock(previousBlock);
+            }
+        } else {
+            for (Future<CompressedBlock> future : pendingBlocks) {
+                future.cancel(false);
+            }
+            pendingBlocks.clear();
+        }
+        block = null;
+        blockLength = 0;
+        previousBlock = null;
+        previousBlockLength = 0;
+        parallel = false;
+        pooled = false;
+    }
+
+
+    // ------------------------------------------ CompressedBlock Inner Class
+
+
+    /**
+     * Compresses one block of a response and holds the result.
+     */
+    private static class CompressedBlock
+        implements Callable<CompressedBlock> {
+
+        private final GzipCompressionPool pool;
+        private final int level;
+        private final byte[] input;
+        private final int inputLength;
+        private final byte[] dictionary;
+        private final int dictionaryLength;
+        private final boolean last;
+        private ByteChunk output;
+
+        CompressedBlock(GzipCompressionPool pool, int level, byte[] input,
+                int inputLength, byte[] dictionary, int dictionaryLength,
+                boolean last) {
+            this.pool = pool;
+            this.level = level;
+            this.input = input;
+            this.inputLength = inputLength;
+            this.dictionary = dictionary;
+            this.dictionaryLength = dictionaryLength;
+            this.last = last;
+        }
+
+        @Override
+        public CompressedBlock call() throws IOException {
+            // Incompressible data expands very slightly
+            output = new ByteChunk(inputLength + (inputLength >> 6) + 64);
+            output.setLimit(-1);
+            Deflater deflater = pool.getDeflater(level);
+            byte[] buf = pool.getBuffer();
+            try {
+                if (dictionary != null && dictionaryLength > 0) {
+                    int len = Math.min(dictionaryLength,
+                            GzipCompressionPool.DICTIONARY_SIZE);
+                    deflater.setDictionary(dictionary, dictionaryLength - len, len);
+                }
+                deflater.setInput(input, 0, inputLength);
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buf, 0, buf.length);
+                        output.append(buf, 0, n);
+                    }
+                } else {
+                    while (!deflater.needsInput()) {
+                        int n = deflater.deflate(buf, 0, buf.length);
+                        output.append(buf, 0, n);
+                    }
+                    JreCompat jreCompat = JreCompat.getInstance();
+                    int n;
+                    do {
+                        n = jreCompat.deflate(deflater, buf, 0, buf.length, true);
+                        output.append(buf, 0, n);
+                    } while (n == buf.length);
+                }
+            } finally {
+                pool.returnBuffer(buf);
+                pool.returnDeflater(deflater);
+            }
+            return this;
+        }
     }
 
 
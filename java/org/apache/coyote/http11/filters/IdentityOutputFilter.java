@@ -18,7 +18,9 @@
 package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import org.apache.coyote.ByteBufferOutputBuffer;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.OutputFilter;
@@ -29,7 +31,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
  *
  * @author Remy Maucherat
  */
-public class IdentityOutputFilter implements OutputFilter {
+public class IdentityOutputFilter implements OutputFilter, ByteBufferOutputBuffer {
 
 
     // ----------------------------------------------------- Instance Variables
@@ -99,6 +101,51 @@ public class IdentityOutputFilter implements OutputFilter {
     }
 
 
+    /**
+     * Write some bytes. The next buffer must be able to write ByteBuffers.
+     *
+     * @return number of bytes written by the filter
+     */
+    @Override
+    public int doWrite(ByteBuffer chunk, Response res)
+        throws IOException {
+
+        ByteBufferOutputBuffer next = (ByteBufferOutputBuffer) buffer;
+        int result = -1;
+
+        if (contentLength >= 0) {
+            if (remaining > 0) {
+                result = chunk.remaining();
+                if (result > remaining) {
+                    // As above, only write the bytes remaining in the body
+                    int limit = chunk.limit();
+                    chunk.limit(chunk.position() + (int) remaining);
+                    result = (int) remaining;
+                    remaining = 0;
+                    next.doWrite(chunk, res);
+                    chunk.limit(limit);
+                    chunk.position(limit);
+                } else {
+                    remaining = remaining - result;
+                    next.doWrite(chunk, res);
+                }
+            } else {
+                // No more bytes left to be written : return -1 and skip the
+                // buffer
+                chunk.position(chunk.limit());
+                result = -1;
+            }
+        } else {
+            // If no content length was set, just write the bytes
+            result = chunk.remaining();
+            next.doWrite(chunk, res);
+        }
+
+        return result;
+
+    }
+
+
     @Override
     public long getBytesWritten() {
         return buffer.getBytesWritten();
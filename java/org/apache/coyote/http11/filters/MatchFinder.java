@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.util.Arrays;
+
+/**
+ * LZ77 parser used by the {@link BlockEncoder}s. Input is collected into
+ * blocks. Each block is parsed into commands, a run of literal bytes followed
+ * by a copy of earlier data, by searching hash chains over the block and the
+ * window of data that preceded it. The tables are large so instances are
+ * pooled along with the encoder that owns them.
+ */
+final class MatchFinder {
+
+    /**
+     * Maximum number of bytes in a block.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum distance of a copy. This is the smallest window that a Brotli
+     * stream can declare and is within the 64KB window declared for zstd.
+     */
+    static final int WINDOW_SIZE = 64 * 1024 - 16;
+
+    /**
+     * Shortest copy that is looked for.
+     */
+    static final int MIN_MATCH = 4;
+
+    private static final int HASH_BITS = 15;
+
+    /**
+     * Hash chain lengths for compression levels 1 to 9.
+     */
+    private static final int[] MAX_CHAIN =
+            { 4, 8, 16, 16, 32, 64, 128, 256, 1024 };
+
+    /**
+     * Copy lengths that are good enough to stop searching, by level.
+     */
+    private static final int[] NICE_LENGTH =
+            { 16, 32, 64, 64, 128, 128, 258, 258, 1024 };
+
+
+    /**
+     * The window followed by the current block.
+     */
+    final byte[] buffer = new byte[WINDOW_SIZE + BLOCK_SIZE];
+    private final int[] head = new int[1 << HASH_BITS];
+    private final int[] chain = new int[WINDOW_SIZE + BLOCK_SIZE];
+
+    /**
+     * Start of the current block in {@link #buffer}.
+     */
+    int blockStart;
+
+    /**
+     * End of the data in {@link #buffer}.
+     */
+    int blockEnd;
+
+    /**
+     * The next position to add to the hash chains.
+     */
+    private int nextInsert;
+    private int insertLimit;
+
+    private int maxChain;
+    private int niceLength;
+    private boolean lazy;
+    private int matchDistance;
+
+    // The commands the current block was parsed into, followed by any
+    // literals that are not followed by a copy
+    final int[] literalLengths = new int[BLOCK_SIZE / MIN_MATCH + 1];
+    final int[] copyLengths = new int[BLOCK_SIZE / MIN_MATCH + 1];
+    final int[] distances = new int[BLOCK_SIZE / MIN_MATCH + 1];
+    int commandCount;
+    int trailingLiterals;
+
+
+    /**
+     * Prepare to parse a new stream.
+     *
+     * @param level Compression level from 1 to 9 or -1 for the default
+     */
+    void reset(int level) {
+        if (level < 1 || level > 9) {
+            level = 6;
+        }
+        maxChain = MAX_CHAIN[level - 1];
+        niceLength = NICE_LENGTH[level - 1];
+        lazy = level >= 4;
+        Arrays.fill(head, -1);
+        blockStart = 0;
+        blockEnd = 0;
+        nextInsert = 0;
+        commandCount = 0;
+        trailingLiterals = 0;
+    }
+
+
+    /**
+     * Add input to the current block.
+     *
+     * @return the number of bytes that were added, less than
+     *         <code>len</code> if the block is full
+     */
+    int append(byte[] b, int off, int len) {
+        int n = Math.min(len, blockStart + BLOCK_SIZE - blockEnd);
+        System.arraycopy(b, off, buffer, blockEnd, n);
+        blockEnd += n;
+        return n;
+    }
+
+
+    int getBlockLength() {
+        return blockEnd - blockStart;
+    }
+
+
+    boolean isBlockFull() {
+        return blockEnd - blockStart == BLOCK_SIZE;
+    }
+
+
+    /**
+     * Parse the current block into commands.
+     */
+    void parse() {
+        commandCount = 0;
+        insertLimit = blockEnd - MIN_MATCH;
+        int pos = blockStart;
+        int literalStart = pos;
+        while (pos <= insertLimit) {
+            insertUpTo(pos);
+            int length = longestMatch(pos);
+            if (length == 0) {
+                pos++;
+                continue;
+            }
+            int distance = matchDistance;
+            if (lazy && length < niceLength && pos < insertLimit) {
+                // Prefer a longer copy that starts at the next byte
+                insertUpTo(pos + 1);
+                int next = longestMatch(pos + 1);
+                if (next > length) {
+                    pos++;
+                    length = next;
+                    distance = matchDistance;
+                }
+            }
+            literalLengths[commandCount] = pos - literalStart;
+            copyLengths[commandCount] = length;
+            distances[commandCount] = distance;
+            commandCount++;
+            pos += length;
+            literalStart = pos;
+        }
+        trailingLiterals = blockEnd - literalStart;
+    }
+
+
+    /**
+     * Start a new block after the current one, keeping the end of the data
+     * as the window for it.
+     */
+    void nextBlock() {
+        if (blockEnd > WINDOW_SIZE) {
+            int shift = blockEnd - WINDOW_SIZE;
+            System.arraycopy(buffer, shift, buffer, 0, WINDOW_SIZE);
+            for (int i = 0; i < head.length; i++) {
+                head[i] = Math.max(head[i] - shift, -1);
+            }
+            int end = Math.min(nextInsert, blockEnd) - shift;
+            for (int i = 0; i < end; i++) {
+                chain[i] = Math.max(chain[i + shift] - shift, -1);
+            }
+            blockEnd = WINDOW_SIZE;
+            nextInsert = Math.max(nextInsert - shift, 0);
+        }
+        blockStart = blockEnd;
+    }
+
+
+    private void insertUpTo(int pos) {
+        int limit = Math.min(pos, insertLimit);
+        while (nextInsert <= limit) {
+            int h = hash(nextInsert);
+            chain[nextInsert] = head[h];
+            head[h] = nextInsert;
+            nextInsert++;
+        }
+    }
+
+
+    private int hash(int pos) {
+        int value = (buffer[pos] & 0xFF) | (buffer[pos + 1] & 0xFF) << 8 |
+                (buffer[pos + 2] & 0xFF) << 16 | (buffer[pos + 3] & 0xFF) << 24;
+        return (value * 0x1E35A7BD) >>> (32 - HASH_BITS);
+    }
+
+
+    /**
+     * Find the longest copy for the data at the given position, which must
+     * have been added to the hash chains.
+     *
+     * @return the length of the copy, with its distance in
+     *         {@link #matchDistance}, or zero if there is none
+     */
+    private int longestMatch(int pos) {
+        byte[] buffer = this.buffer;
+        int minPos = Math.max(pos - WINDOW_SIZE, 0);
+        int maxLength = blockEnd - pos;
+        int best = 0;
+        int remaining = maxChain;
+        int candidate = chain[pos];
+        while (candidate >= minPos && remaining-- > 0) {
+            if (buffer[candidate + best] == buffer[pos + best]) {
+                int length = 0;
+                while (length < maxLength &&
+                        buffer[candidate + length] == buffer[pos + length]) {
+                    length++;
+                }
+                if (length > best) {
+                    best = length;
+                    matchDistance = pos - candidate;
+                    if (length >= niceLength || length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = chain[candidate];
+        }
+        return best >= MIN_MATCH ? best : 0;
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.util.Arrays;
+
+/**
+ * Writes the Zstandard format of RFC 8878. Each block is written as a
+ * compressed block whose sequences, the copies found by the
+ * {@link MatchFinder}, are coded with the predefined FSE distributions. The
+ * literals are Huffman coded when all of them are no greater than 128, which
+ * allows the weights of the Huffman code to be stored directly, and are
+ * otherwise stored raw. This is much simpler, and so faster, than the
+ * reference encoder at the cost of some compression. Blocks end on a byte
+ * boundary so no extra data is needed to flush.
+ */
+final class ZstdEncoder extends BlockEncoder {
+
+    private static final byte[] FRAME_HEADER = {
+            // Magic number
+            (byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD,
+            // No content size, checksum or dictionary and not single segment
+            0,
+            // 64KB window
+            6 << 3 };
+
+    private static final int BLOCK_RAW = 0;
+    private static final int BLOCK_COMPRESSED = 2;
+
+    private static final int LITERALS_RAW = 0;
+    private static final int LITERALS_RLE = 1;
+    private static final int LITERALS_COMPRESSED = 2;
+
+    /**
+     * Literals larger than this cannot be described by a Huffman code with
+     * directly stored weights.
+     */
+    private static final int MAX_DIRECT_SYMBOL = 128;
+
+    /**
+     * Fewer literals than this are stored raw.
+     */
+    private static final int MIN_HUFFMAN_LITERALS = 64;
+
+    private static final int MAX_HUFFMAN_BITS = 11;
+
+    private static final int[] LITERAL_LENGTH_BASE = { 0, 1, 2, 3, 4, 5, 6, 7,
+            8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 20, 22, 24, 28, 32, 40, 48,
+            64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+    private static final int[] LITERAL_LENGTH_BITS = { 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10,
+            11, 12, 13, 14, 15, 16 };
+    private static final int[] MATCH_LENGTH_BASE = new int[53];
+    private static final int[] MATCH_LENGTH_BITS = new int[53];
+
+    private static final FseTable LITERAL_LENGTH_TABLE = new FseTable(6,
+            new int[] { 4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1, 2, 2,
+                    2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1, -1, -1, -1, -1 });
+    private static final FseTable MATCH_LENGTH_TABLE = new FseTable(6,
+            new int[] { 1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                    1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                    1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, -1, -1 });
+    private static final FseTable OFFSET_TABLE = new FseTable(5,
+            new int[] { 1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                    1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1 });
+
+    static {
+        int[] extraBits = { 1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+                12, 13, 14, 15, 16 };
+        for (int i = 0; i < 32; i++) {
+            MATCH_LENGTH_BASE[i] = i + 3;
+        }
+        for (int i = 32; i < 53; i++) {
+            MATCH_LENGTH_BITS[i] = extraBits[i - 32];
+            MATCH_LENGTH_BASE[i] = MATCH_LENGTH_BASE[i - 1] +
+                    (1 << MATCH_LENGTH_BITS[i - 1]);
+        }
+    }
+
+
+    private final byte[] literals = new byte[MatchFinder.BLOCK_SIZE];
+    private final int[] literalCounts = new int[256];
+    private final int[] huffmanLengths = new int[256];
+    private final int[] huffmanCodes = new int[256];
+
+    // Per sequence codes
+    private final int[] literalLengthCodes =
+            new int[MatchFinder.BLOCK_SIZE / MatchFinder.MIN_MATCH + 1];
+    private final int[] matchLengthCodes =
+            new int[MatchFinder.BLOCK_SIZE / MatchFinder.MIN_MATCH + 1];
+    private final int[] offsetCodes =
+            new int[MatchFinder.BLOCK_SIZE / MatchFinder.MIN_MATCH + 1];
+
+    // Pending bits of a bit stream, least significant first
+    private long bits;
+    private int bitCount;
+
+
+    @Override
+    void start(int level) {
+        super.start(level);
+        System.arraycopy(FRAME_HEADER, 0, output, 0, FRAME_HEADER.length);
+        outputLength = FRAME_HEADER.length;
+    }
+
+
+    @Override
+    void encodeBlock(boolean last) {
+        MatchFinder matchFinder = this.matchFinder;
+        int length = matchFinder.getBlockLength();
+        if (length == 0) {
+            if (last) {
+                writeBlockHeader(true, BLOCK_RAW, 0);
+            }
+            return;
+        }
+        matchFinder.parse();
+        int headerPos = outputLength;
+        ensureCapacity(3);
+        outputLength += 3;
+        writeLiterals();
+        writeSequences();
+        int compressedLength = outputLength - headerPos - 3;
+        if (compressedLength < length) {
+            outputLength = headerPos;
+            writeBlockHeader(last, BLOCK_COMPRESSED, compressedLength);
+            outputLength += compressedLength;
+        } else {
+            outputLength = headerPos;
+            writeBlockHeader(last, BLOCK_RAW, length);
+            ensureCapacity(length);
+            System.arraycopy(matchFinder.buffer, matchFinder.blockStart,
+                    output, outputLength, length);
+            outputLength += length;
+        }
+        matchFinder.nextBlock();
+    }
+
+
+    private void writeBlockHeader(boolean last, int type, int size) {
+        ensureCapacity(3);
+        int header = (last ? 1 : 0) | type << 1 | size << 3;
+        output[outputLength++] = (byte) header;
+        output[outputLength++] = (byte) (header >> 8);
+        output[outputLength++] = (byte) (header >> 16);
+    }
+
+
+    // ----------------------------------------------------------- Literals
+
+    private void writeLiterals() {
+        MatchFinder matchFinder = this.matchFinder;
+        byte[] data = matchFinder.buffer;
+        byte[] literals = this.literals;
+        int count = 0;
+        int pos = matchFinder.blockStart;
+        for (int i = 0; i < matchFinder.commandCount; i++) {
+            int insert = matchFinder.literalLengths[i];
+            System.arraycopy(data, pos, literals, count, insert);
+            count += insert;
+            pos += insert + matchFinder.copyLengths[i];
+        }
+        System.arraycopy(data, pos, literals, count,
+                matchFinder.trailingLiterals);
+        count += matchFinder.trailingLiterals;
+
+        Arrays.fill(literalCounts, 0);
+        int maxSymbol = 0;
+        for (int i = 0; i < count; i++) {
+            int literal = literals[i] & 0xFF;
+            literalCounts[literal]++;
+            if (literal > maxSymbol) {
+                maxSymbol = literal;
+            }
+        }
+        if (count > 0 && literalCounts[literals[0] & 0xFF] == count) {
+            writeLiteralsHeader(LITERALS_RLE, count);
+            ensureCapacity(1);
+            output[outputLength++] = literals[0];
+            return;
+        }
+        if (count >= MIN_HUFFMAN_LITERALS && maxSymbol <= MAX_DIRECT_SYMBOL) {
+            int start = outputLength;
+            if (writeHuffmanLiterals(count, maxSymbol)) {
+                return;
+            }
+            outputLength = start;
+        }
+        writeLiteralsHeader(LITERALS_RAW, count);
+        ensureCapacity(count);
+        System.arraycopy(literals, 0, output, outputLength, count);
+        outputLength += count;
+    }
+
+
+    private void writeLiteralsHeader(int type, int size) {
+        ensureCapacity(3);
+        if (size < 32) {
+            output[outputLength++] = (byte) (type | size << 3);
+        } else if (size < 4096) {
+            int header = type | 1 << 2 | size << 4;
+            output[outputLength++] = (byte) header;
+            output[outputLength++] = (byte) (header >> 8);
+        } else {
+            int header = type | 3 << 2 | size << 4;
+            output[outputLength++] = (byte) header;
+            output[outputLength++] = (byte) (header >> 8);
+            output[outputLength++] = (byte) (header >> 16);
+        }
+    }
+
+
+    /**
+     * Write the literals as four Huffman coded streams.
+     *
+     * @return <code>false</code> if this would be no smaller than storing
+     *         them raw, in which case the output must be discarded
+     */
+    private boolean writeHuffmanLiterals(int count, int maxSymbol) {
+        int[] lengths = huffmanLengths;
+        buildCodeLengths(literalCounts, maxSymbol + 1, MAX_HUFFMAN_BITS,
+                lengths);
+        int maxBits = 0;
+        for (int i = 0; i <= maxSymbol; i++) {
+            maxBits = Math.max(maxBits, lengths[i]);
+        }
+
+        // The largest literal is the last symbol, whose weight is implied
+        int headerLength = count < 1024 ? 3 : (count < 16384 ? 4 : 5);
+        int start = outputLength;
+        ensureCapacity(headerLength + 1 + (maxSymbol + 1) / 2 + 6);
+        outputLength += headerLength;
+        output[outputLength++] = (byte) (127 + maxSymbol);
+        for (int i = 0; i < maxSymbol; i += 2) {
+            int high = weight(lengths[i], maxBits);
+            int low = (i + 1 < maxSymbol) ? weight(lengths[i + 1], maxBits) : 0;
+            output[outputLength++] = (byte) (high << 4 | low);
+        }
+
+        // Codes are assigned from the longest, in symbol order, upwards
+        int[] rankCount = new int[MAX_HUFFMAN_BITS + 2];
+        for (int i = 0; i <= maxSymbol; i++) {
+            rankCount[lengths[i]]++;
+        }
+        int[] rankValue = new int[MAX_HUFFMAN_BITS + 2];
+        int min = 0;
+        for (int n = maxBits; n > 0; n--) {
+            rankValue[n] = min;
+            min = (min + rankCount[n]) >> 1;
+        }
+        for (int i = 0; i <= maxSymbol; i++) {
+            if (lengths[i] > 0) {
+                huffmanCodes[i] = rankValue[lengths[i]]++;
+            }
+        }
+
+        int jumpTable = outputLength;
+        outputLength += 6;
+        int segment = (count + 3) / 4;
+        int streamStart = 0;
+        for (int stream = 0; stream < 4; stream++) {
+            int streamEnd = Math.min(streamStart + segment, count);
+            int before = outputLength;
+            ensureCapacity((streamEnd - streamStart) * MAX_HUFFMAN_BITS / 8 + 8);
+            bits = 0;
+            bitCount = 0;
+            // The decoder reads the stream backwards
+            for (int i = streamEnd - 1; i >= streamStart; i--) {
+                int literal = literals[i] & 0xFF;
+                writeBits(lengths[literal], huffmanCodes[literal]);
+            }
+            closeBitStream();
+            if (stream < 3) {
+                int size = outputLength - before;
+                output[jumpTable + stream * 2] = (byte) size;
+                output[jumpTable + stream * 2 + 1] = (byte) (size >> 8);
+            }
+            streamStart = streamEnd;
+        }
+
+        int compressedSize = outputLength - start - headerLength;
+        if (compressedSize + headerLength >= count + 3 ||
+                compressedSize >= 1 << (headerLength * 8 - 4) / 2) {
+            return false;
+        }
+        long header = LITERALS_COMPRESSED | (long) (headerLength - 2) << 2 |
+                (long) count << 4 |
+                (long) compressedSize << (4 + (headerLength * 8 - 4) / 2);
+        for (int i = 0; i < headerLength; i++) {
+            output[start + i] = (byte) (header >>> (8 * i));
+        }
+        return true;
+    }
+
+
+    private static int weight(int length, int maxBits) {
+        return length == 0 ? 0 : maxBits + 1 - length;
+    }
+
+
+    // ---------------------------------------------------------- Sequences
+
+    private void writeSequences() {
+        MatchFinder matchFinder = this.matchFinder;
+        int count = matchFinder.commandCount;
+        ensureCapacity(4);
+        if (count < 128) {
+            output[outputLength++] = (byte) count;
+        } else {
+            output[outputLength++] = (byte) ((count >> 8) + 128);
+            output[outputLength++] = (byte) count;
+        }
+        if (count == 0) {
+            return;
+        }
+        // Predefined distributions for all three codes
+        output[outputLength++] = 0;
+
+        for (int i = 0; i < count; i++) {
+            literalLengthCodes[i] = literalLengthCode(matchFinder.literalLengths[i]);
+            matchLengthCodes[i] = matchLengthCode(matchFinder.copyLengths[i]);
+            offsetCodes[i] = 31 - Integer.numberOfLeadingZeros(
+                    matchFinder.distances[i] + 3);
+        }
+
+        // Sequences are written in reverse so the decoder, which reads the
+        // bit stream backwards, decodes them in order
+        ensureCapacity(count * 16 + 16);
+        bits = 0;
+        bitCount = 0;
+        int last = count - 1;
+        int literalLengthState = LITERAL_LENGTH_TABLE.initialState(
+                literalLengthCodes[last]);
+        int matchLengthState = MATCH_LENGTH_TABLE.initialState(
+                matchLengthCodes[last]);
+        int offsetState = OFFSET_TABLE.initialState(offsetCodes[last]);
+        writeSequenceBits(last);
+        for (int i = last - 1; i >= 0; i--) {
+            offsetState = encodeSymbol(OFFSET_TABLE, offsetState,
+                    offsetCodes[i]);
+            matchLengthState = encodeSymbol(MATCH_LENGTH_TABLE,
+                    matchLengthState, matchLengthCodes[i]);
+            literalLengthState = encodeSymbol(LITERAL_LENGTH_TABLE,
+                    literalLengthState, literalLengthCodes[i]);
+            writeSequenceBits(i);
+        }
+        writeBits(MATCH_LENGTH_TABLE.tableLog, matchLengthState);
+        writeBits(OFFSET_TABLE.tableLog, offsetState);
+        writeBits(LITERAL_LENGTH_TABLE.tableLog, literalLengthState);
+        closeBitStream();
+    }
+
+
+    private void writeSequenceBits(int i) {
+        MatchFinder matchFinder = this.matchFinder;
+        int literalLengthCode = literalLengthCodes[i];
+        writeBits(LITERAL_LENGTH_BITS[literalLengthCode],
+                matchFinder.literalLengths[i] -
+                LITERAL_LENGTH_BASE[literalLengthCode]);
+        int matchLengthCode = matchLengthCodes[i];
+        writeBits(MATCH_LENGTH_BITS[matchLengthCode],
+                matchFinder.copyLengths[i] - MATCH_LENGTH_BASE[matchLengthCode]);
+        int offsetCode = offsetCodes[i];
+        // Offsets are coded as distance + 3 to avoid the repeat offset codes
+        writeBits(offsetCode, matchFinder.distances[i] + 3 - (1 << offsetCode));
+    }
+
+
+    private int encodeSymbol(FseTable table, int state, int symbol) {
+        int bitsOut = (state + table.deltaBits[symbol]) >> 16;
+        writeBits(bitsOut, state);
+        return table.states[(state >> bitsOut) + table.deltaState[symbol]];
+    }
+
+
+    private static int literalLengthCode(int length) {
+        if (length < 16) {
+            return length;
+        }
+        if (length >= 64) {
+            return 31 - Integer.numberOfLeadingZeros(length) + 19;
+        }
+        int code = 16;
+        while (LITERAL_LENGTH_BASE[code + 1] <= length) {
+            code++;
+        }
+        return code;
+    }
+
+
+    private static int matchLengthCode(int length) {
+        if (length < 35) {
+            return length - 3;
+        }
+        if (length >= 131) {
+            return 31 - Integer.numberOfLeadingZeros(length - 3) + 36;
+        }
+        int code = 32;
+        while (MATCH_LENGTH_BASE[code + 1] <= length) {
+            code++;
+        }
+        return code;
+    }
+
+
+    // --------------------------------------------------------------- Bits
+
+    private void writeBits(int count, int value) {
+        bits |= (long) (value & ((1 << count) - 1)) << bitCount;
+        bitCount += count;
+        if (bitCount >= 32) {
+            byte[] output = this.output;
+            int length = outputLength;
+            output[length] = (byte) bits;
+            output[length + 1] = (byte) (bits >>> 8);
+            output[length + 2] = (byte) (bits >>> 16);
+            output[length + 3] = (byte) (bits >>> 24);
+            outputLength = length + 4;
+            bits >>>= 32;
+            bitCount -= 32;
+        }
+    }
+
+
+    /**
+     * End a bit stream with the marker bit the decoder looks for.
+     */
+    private void closeBitStream() {
+        writeBits(1, 1);
+        while (bitCount > 0) {
+            output[outputLength++] = (byte) bits;
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+        bits = 0;
+        bitCount = 0;
+    }
+
+
+    // ----------------------------------------------------------- FseTable
+
+    /**
+     * Encoding table for one of the predefined FSE distributions.
+     */
+    private static final class FseTable {
+
+        private final int tableLog;
+        private final int[] states;
+        private final int[] deltaBits;
+        private final int[] deltaState;
+
+        FseTable(int tableLog, int[] counts) {
+            this.tableLog = tableLog;
+            int tableSize = 1 << tableLog;
+            int mask = tableSize - 1;
+            int symbolCount = counts.length;
+
+            // Spread the symbols over the table as the decoder does, with
+            // the symbols with a probability of "less than one" at the end
+            int[] symbols = new int[tableSize];
+            int highThreshold = tableSize - 1;
+            int[] cumulative = new int[symbolCount + 1];
+            for (int s = 0; s < symbolCount; s++) {
+                if (counts[s] == -1) {
+                    cumulative[s + 1] = cumulative[s] + 1;
+                    symbols[highThreshold--] = s;
+                } else {
+                    cumulative[s + 1] = cumulative[s] + counts[s];
+                }
+            }
+            int step = (tableSize >> 1) + (tableSize >> 3) + 3;
+            int position = 0;
+            for (int s = 0; s < symbolCount; s++) {
+                for (int i = 0; i < counts[s]; i++) {
+                    symbols[position] = s;
+                    do {
+                        position = (position + step) & mask;
+                    } while (position > highThreshold);
+                }
+            }
+
+            states = new int[tableSize];
+            for (int i = 0; i < tableSize; i++) {
+                states[cumulative[symbols[i]]++] = tableSize + i;
+            }
+
+            deltaBits = new int[symbolCount];
+            deltaState = new int[symbolCount];
+            int total = 0;
+            for (int s = 0; s < symbolCount; s++) {
+                int count = counts[s];
+                if (count == -1 || count == 1) {
+                    deltaBits[s] = (tableLog << 16) - tableSize;
+                    deltaState[s] = total - 1;
+                    total++;
+                } else {
+                    int maxBitsOut = tableLog -
+                            (31 - Integer.numberOfLeadingZeros(count - 1));
+                    int minStatePlus = count << maxBitsOut;
+                    deltaBits[s] = (maxBitsOut << 16) - minStatePlus;
+                    deltaState[s] = total - count;
+                    total += count;
+                }
+            }
+        }
+
+        /**
+         * @return the state after encoding the first symbol, which is the
+         *         last that the decoder decodes, without writing any bits
+         */
+        int initialState(int symbol) {
+            int bitsOut = (deltaBits[symbol] + (1 << 15)) >> 16;
+            int value = (bitsOut << 16) - deltaBits[symbol];
+            return states[(value >> bitsOut) + deltaState[symbol]];
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Used to manage the state shared by the connection (stream zero) and the
+ * individual streams: the send window and the position in the priority tree.
+ * <p>
+ * The priority tree and the send windows are guarded by the connection's
+ * flow control lock, see {@link Http2UpgradeHandler}.
+ */
+abstract class AbstractStream {
+
+    protected static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private final Integer identifier;
+
+    private AbstractStream parentStream = null;
+    private final Set<Stream> childStreams = new HashSet<Stream>();
+    private long windowSize = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+
+
+    AbstractStream(Integer identifier) {
+        this.identifier = identifier;
+    }
+
+
+    final Integer getIdentifier() {
+        return identifier;
+    }
+
+
+    final AbstractStream getParentStream() {
+        return parentStream;
+    }
+
+
+    final Set<Stream> getChildStreams() {
+        return childStreams;
+    }
+
+
+    final void addChild(Stream child) {
+        child.detachFromParent();
+        child.setParentStream(this);
+        childStreams.add(child);
+    }
+
+
+    final void detachFromParent() {
+        if (parentStream != null) {
+            parentStream.childStreams.remove(this);
+            parentStream = null;
+        }
+    }
+
+
+    final boolean isDescendant(AbstractStream stream) {
+        // Is the passed in Stream a descendant of this Stream?
+        // Start at the passed in Stream and work up
+        AbstractStream parent = stream.getParentStream();
+        while (parent != null && parent != this) {
+            parent = parent.getParentStream();
+        }
+        return parent != null;
+    }
+
+
+    final void setParentStream(AbstractStream parentStream) {
+        this.parentStream = parentStream;
+    }
+
+
+    final long getWindowSize() {
+        return windowSize;
+    }
+
+
+    final void setWindowSize(long windowSize) {
+        this.windowSize = windowSize;
+    }
+
+
+    /**
+     * Increment the window size.
+     *
+     * @param increment The amount by which the window size should be
+     *                  increased. May be negative when the initial window
+     *                  size is reduced.
+     *
+     * @throws Http2Exception If the window size would exceed the maximum
+     *                        permitted
+     */
+    final void incrementWindowSize(long increment) throws Http2Exception {
+        long newWindowSize = windowSize + increment;
+        if (newWindowSize > Constants.MAX_WINDOW_SIZE) {
+            String msg = sm.getString("abstractStream.windowSizeTooBig",
+                    getIdentifier(), Long.valueOf(increment),
+                    Long.valueOf(windowSize));
+            if (identifier.intValue() == 0) {
+                throw new ConnectionException(msg, Http2Error.FLOW_CONTROL_ERROR);
+            } else {
+                throw new StreamException(msg, Http2Error.FLOW_CONTROL_ERROR,
+                        identifier.intValue());
+            }
+        }
+        windowSize = newWindowSize;
+    }
+
+
+    final void decrementWindowSize(long decrement) {
+        windowSize -= decrement;
+    }
+
+
+    abstract int getWeight();
+}
@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+/**
+ * The settings received from the client. Updated by the thread reading from
+ * the connection and read by the threads writing responses.
+ */
+class ConnectionSettings {
+
+    private volatile long headerTableSize = Constants.DEFAULT_HEADER_TABLE_SIZE;
+    private volatile boolean enablePush = true;
+    private volatile long maxConcurrentStreams = -1;
+    private volatile int initialWindowSize = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+    private volatile int maxFrameSize = Constants.DEFAULT_MAX_FRAME_SIZE;
+    private volatile long maxHeaderListSize = -1;
+
+
+    long getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+    void setHeaderTableSize(long headerTableSize) {
+        this.headerTableSize = headerTableSize;
+    }
+
+    boolean getEnablePush() {
+        return enablePush;
+    }
+
+    void setEnablePush(boolean enablePush) {
+        this.enablePush = enablePush;
+    }
+
+    /**
+     * @return the limit set by the client or -1 for unlimited
+     */
+    long getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    void setMaxConcurrentStreams(long maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    void setInitialWindowSize(int initialWindowSize) {
+        this.initialWindowSize = initialWindowSize;
+    }
+
+    int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return the limit set by the client or -1 for unlimited
+     */
+    long getMaxHeaderListSize() {
+        return maxHeaderListSize;
+    }
+
+    void setMaxHeaderListSize(long maxHeaderListSize) {
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+}
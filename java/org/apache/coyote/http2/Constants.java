@@ -0,0 +1,57 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+public class Constants {
+
+    public static final String Package = "org.apache.coyote.http2";
+
+    // Client connection preface. When the prior knowledge form is used the
+    // HTTP/1.1 parser consumes everything up to CLIENT_PREFACE_END.
+    static final byte[] CLIENT_PREFACE = new byte[] {
+        'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0',
+        '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n' };
+    static final byte[] CLIENT_PREFACE_END = new byte[] {
+        'S', 'M', '\r', '\n', '\r', '\n' };
+
+    static final String PRIOR_KNOWLEDGE_METHOD = "PRI";
+    static final String PRIOR_KNOWLEDGE_PROTOCOL = "HTTP/2.0";
+    static final String UPGRADE_TOKEN = "h2c";
+    static final String SETTINGS_HEADER = "HTTP2-Settings";
+
+    static final int FRAME_HEADER_LENGTH = 9;
+
+    static final int FLAG_END_STREAM = 0x01;
+    static final int FLAG_ACK = 0x01;
+    static final int FLAG_END_HEADERS = 0x04;
+    static final int FLAG_PADDED = 0x08;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTING_HEADER_TABLE_SIZE = 1;
+    static final int SETTING_ENABLE_PUSH = 2;
+    static final int SETTING_MAX_CONCURRENT_STREAMS = 3;
+    static final int SETTING_INITIAL_WINDOW_SIZE = 4;
+    static final int SETTING_MAX_FRAME_SIZE = 5;
+    static final int SETTING_MAX_HEADER_LIST_SIZE = 6;
+
+    static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+    static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int MAX_FRAME_SIZE_UPPER_BOUND = (1 << 24) - 1;
+    static final long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    static final int DEFAULT_WEIGHT = 16;
+}
@@ -0,0 +1,60 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+public enum FrameType {
+
+    DATA          (0),
+    HEADERS       (1),
+    PRIORITY      (2),
+    RST_STREAM    (3),
+    SETTINGS      (4),
+    PUSH_PROMISE  (5),
+    PING          (6),
+    GOAWAY        (7),
+    WINDOW_UPDATE (8),
+    CONTINUATION  (9),
+    UNKNOWN       (-1);
+
+    private static final FrameType[] BY_ID;
+
+    static {
+        BY_ID = new FrameType[CONTINUATION.id + 1];
+        for (FrameType type : values()) {
+            if (type.id >= 0) {
+                BY_ID[type.id] = type;
+            }
+        }
+    }
+
+    private final int id;
+
+    private FrameType(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static FrameType valueOf(int id) {
+        if (id < 0 || id >= BY_ID.length) {
+            return UNKNOWN;
+        }
+        return BY_ID[id];
+    }
+}
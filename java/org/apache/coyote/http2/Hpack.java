@@ -0,0 +1,267 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The parts of RFC 7541 that are shared by {@link HpackDecoder} and
+ * {@link HpackEncoder}: the static table, integer and string representations
+ * and the size accounting for the dynamic table.
+ */
+public class Hpack {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    /**
+     * The size overhead added to the length of the name and value of each
+     * entry in the dynamic table.
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    static final HeaderField[] STATIC_TABLE = new HeaderField[] {
+        null, // Index 0 is not used
+        new HeaderField(":authority", ""),
+        new HeaderField(":method", "GET"),
+        new HeaderField(":method", "POST"),
+        new HeaderField(":path", "/"),
+        new HeaderField(":path", "/index.html"),
+        new HeaderField(":scheme", "http"),
+        new HeaderField(":scheme", "https"),
+        new HeaderField(":status", "200"),
+        new HeaderField(":status", "204"),
+        new HeaderField(":status", "206"),
+        new HeaderField(":status", "304"),
+        new HeaderField(":status", "400"),
+        new HeaderField(":status", "404"),
+        new HeaderField(":status", "500"),
+        new HeaderField("accept-charset", ""),
+        new HeaderField("accept-encoding", "gzip, deflate"),
+        new HeaderField("accept-language", ""),
+        new HeaderField("accept-ranges", ""),
+        new HeaderField("accept", ""),
+        new HeaderField("access-control-allow-origin", ""),
+        new HeaderField("age", ""),
+        new HeaderField("allow", ""),
+        new HeaderField("authorization", ""),
+        new HeaderField("cache-control", ""),
+        new HeaderField("content-disposition", ""),
+        new HeaderField("content-encoding", ""),
+        new HeaderField("content-language", ""),
+        new HeaderField("content-length", ""),
+        new HeaderField("content-location", ""),
+        new HeaderField("content-range", ""),
+        new HeaderField("content-type", ""),
+        new HeaderField("cookie", ""),
+        new HeaderField("date", ""),
+        new HeaderField("etag", ""),
+        new HeaderField("expect", ""),
+        new HeaderField("expires", ""),
+        new HeaderField("from", ""),
+        new HeaderField("host", ""),
+        new HeaderField("if-match", ""),
+        new HeaderField("if-modified-since", ""),
+        new HeaderField("if-none-match", ""),
+        new HeaderField("if-range", ""),
+        new HeaderField("if-unmodified-since", ""),
+        new HeaderField("last-modified", ""),
+        new HeaderField("link", ""),
+        new HeaderField("location", ""),
+        new HeaderField("max-forwards", ""),
+        new HeaderField("proxy-authenticate", ""),
+        new HeaderField("proxy-authorization", ""),
+        new HeaderField("range", ""),
+        new HeaderField("referer", ""),
+        new HeaderField("refresh", ""),
+        new HeaderField("retry-after", ""),
+        new HeaderField("server", ""),
+        new HeaderField("set-cookie", ""),
+        new HeaderField("strict-transport-security", ""),
+        new HeaderField("transfer-encoding", ""),
+        new HeaderField("user-agent", ""),
+        new HeaderField("vary", ""),
+        new HeaderField("via", ""),
+        new HeaderField("www-authenticate", "")
+    };
+
+    static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+
+    private static final Map<String,Integer> STATIC_NAMES =
+            new HashMap<String,Integer>();
+    private static final Map<String,Integer> STATIC_FIELDS =
+            new HashMap<String,Integer>();
+
+    static {
+        // Iterate backwards so the lowest index wins for duplicate names
+        for (int i = STATIC_TABLE_LENGTH; i > 0; i--) {
+            HeaderField field = STATIC_TABLE[i];
+            Integer index = Integer.valueOf(i);
+            STATIC_NAMES.put(field.name, index);
+            if (field.value.length() > 0) {
+                STATIC_FIELDS.put(field.key(), index);
+            }
+        }
+    }
+
+
+    private Hpack() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * @return the static table index of the given name or zero if the name
+     *         is not in the static table
+     */
+    static int getStaticNameIndex(String name) {
+        Integer index = STATIC_NAMES.get(name);
+        return index == null ? 0 : index.intValue();
+    }
+
+
+    /**
+     * @return the static table index of the given name and value or zero if
+     *         the pair is not in the static table
+     */
+    static int getStaticFieldIndex(String name, String value) {
+        Integer index = STATIC_FIELDS.get(HeaderField.key(name, value));
+        return index == null ? 0 : index.intValue();
+    }
+
+
+    /**
+     * Decode an integer with an N-bit prefix as defined by RFC 7541 section
+     * 5.1.
+     *
+     * @param src       The source data
+     * @param pos       A single element array holding the position of the
+     *                  first byte of the integer. Updated to the position of
+     *                  the first byte after the integer.
+     * @param limit     The end of the valid data
+     * @param prefix    The number of bits in the prefix
+     *
+     * @return the decoded integer
+     *
+     * @throws HpackException If the integer is truncated or too large
+     */
+    static int decodeInteger(byte[] src, int[] pos, int limit, int prefix)
+            throws HpackException {
+        int p = pos[0];
+        if (p >= limit) {
+            throw new HpackException(sm.getString("hpack.truncated"));
+        }
+        int mask = (1 << prefix) - 1;
+        int result = src[p++] & mask;
+        if (result == mask) {
+            int shift = 0;
+            int b;
+            do {
+                if (p >= limit) {
+                    throw new HpackException(sm.getString("hpack.truncated"));
+                }
+                if (shift > 21) {
+                    // Anything larger will not fit in an int
+                    throw new HpackException(
+                            sm.getString("hpack.integerTooLarge"));
+                }
+                b = src[p++] & 0xFF;
+                result += (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (result < 0) {
+                throw new HpackException(sm.getString("hpack.integerTooLarge"));
+            }
+        }
+        pos[0] = p;
+        return result;
+    }
+
+
+    /**
+     * Encode an integer with an N-bit prefix as defined by RFC 7541 section
+     * 5.1.
+     *
+     * @param target    The stream to write to
+     * @param flags     The bits of the first byte that are not part of the
+     *                  prefix
+     * @param prefix    The number of bits in the prefix
+     * @param value     The value to encode
+     */
+    static void encodeInteger(ByteArrayOutputStream target, int flags,
+            int prefix, int value) {
+        int mask = (1 << prefix) - 1;
+        if (value < mask) {
+            target.write(flags | value);
+            return;
+        }
+        target.write(flags | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            target.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target.write(value);
+    }
+
+
+    /**
+     * Write a string literal, Huffman encoding it if that is shorter.
+     *
+     * @param target    The stream to write to
+     * @param value     The string to write
+     */
+    static void encodeString(ByteArrayOutputStream target, String value) {
+        int length = value.length();
+        int huffmanLength = HPackHuffman.encodedLength(value);
+        if (huffmanLength < length) {
+            encodeInteger(target, 0x80, 7, huffmanLength);
+            HPackHuffman.encode(value, target);
+        } else {
+            encodeInteger(target, 0, 7, length);
+            for (int i = 0; i < length; i++) {
+                target.write(value.charAt(i));
+            }
+        }
+    }
+
+
+    static class HeaderField {
+
+        final String name;
+        final String value;
+        final int size;
+
+        HeaderField(String name, String value) {
+            this.name = name;
+            this.value = value;
+            this.size = name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+
+        String key() {
+            return key(name, value);
+        }
+
+        static String key(String name, String value) {
+            return name + '\n' + value;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.coyote.http2.Hpack.HeaderField;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Decodes HPACK (RFC 7541) header blocks. A decoder holds the dynamic table
+ * for one direction of one connection so header blocks must be passed to it
+ * in the order they were received and each block must be complete.
+ * <p>
+ * This class is not thread safe.
+ */
+public class HpackDecoder {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    /**
+     * Receives the decoded header fields.
+     */
+    public interface HeaderEmitter {
+        void emitHeader(String name, String value) throws HpackException;
+    }
+
+
+    /*
+     * The dynamic table as a circular buffer. The most recently added entry is
+     * at head.
+     */
+    private HeaderField[] entries = new HeaderField[16];
+    private int head = 0;
+    private int count = 0;
+    private int currentSize = 0;
+
+    /*
+     * The size limit the encoder has selected via a table size update and the
+     * upper bound for that limit which is set via SETTINGS_HEADER_TABLE_SIZE.
+     */
+    private int maxSize;
+    private int maxAllowedSize;
+
+    private final int[] pos = new int[1];
+    private final StringBuilder stringBuilder = new StringBuilder();
+
+
+    public HpackDecoder() {
+        this(Constants.DEFAULT_HEADER_TABLE_SIZE);
+    }
+
+
+    public HpackDecoder(int maxAllowedSize) {
+        this.maxSize = maxAllowedSize;
+        this.maxAllowedSize = maxAllowedSize;
+    }
+
+
+    public int getMaxAllowedSize() {
+        return maxAllowedSize;
+    }
+
+
+    /**
+     * Decode a complete header block.
+     *
+     * @param src       The buffer holding the header block
+     * @param off       The offset of the start of the header block
+     * @param len       The length of the header block
+     * @param emitter   The object that receives the decoded fields
+     *
+     * @throws HpackException If the header block is not valid. The state of
+     *                        the dynamic table is then undefined.
+     */
+    public void decode(byte[] src, int off, int len, HeaderEmitter emitter)
+            throws HpackException {
+        int limit = off + len;
+        pos[0] = off;
+        boolean fieldSeen = false;
+        while (pos[0] < limit) {
+            int b = src[pos[0]] & 0xFF;
+            if ((b & 0x80) != 0) {
+                // Indexed header field
+                int index = Hpack.decodeInteger(src, pos, limit, 7);
+                HeaderField field = getField(index);
+                emitter.emitHeader(field.name, field.value);
+                fieldSeen = true;
+            } else if ((b & 0x40) != 0) {
+                // Literal header field with incremental indexing
+                String name = readName(src, limit, 6);
+                String value = readString(src, limit);
+                emitter.emitHeader(name, value);
+                add(new HeaderField(name, value));
+                fieldSeen = true;
+            } else if ((b & 0x20) != 0) {
+                // Dynamic table size update
+                if (fieldSeen) {
+                    throw new HpackException(
+                            sm.getString("hpackdecoder.tableSizeUpdateNotAtStart"));
+                }
+                int size = Hpack.decodeInteger(src, pos, limit, 5);
+                if (size > maxAllowedSize) {
+                    throw new HpackException(sm.getString(
+                            "hpackdecoder.maxSizeExceeded",
+                            Integer.valueOf(size), Integer.valueOf(maxAllowedSize)));
+                }
+                maxSize = size;
+                evict(0);
+            } else {
+                // Literal header field without indexing (0000) or never
+                // indexed (0001). Both are handled the same way here.
+                String name = readName(src, limit, 4);
+                String value = readString(src, limit);
+                emitter.emitHeader(name, value);
+                fieldSeen = true;
+            }
+        }
+    }
+
+
+    /**
+     * Set the limit for the size of the dynamic table that has been
+     * advertised to the peer with SETTINGS_HEADER_TABLE_SIZE.
+     *
+     * @param maxAllowedSize    The new limit
+     */
+    public void setMaxAllowedSize(int maxAllowedSize) {
+        this.maxAllowedSize = maxAllowedSize;
+        if (maxSize > maxAllowedSize) {
+            maxSize = maxAllowedSize;
+            evict(0);
+        }
+    }
+
+
+    int getCurrentSize() {
+        return currentSize;
+    }
+
+
+    int getEntryCount() {
+        return count;
+    }
+
+
+    private String readName(byte[] src, int limit, int prefix)
+            throws HpackException {
+        int index = Hpack.decodeInteger(src, pos, limit, prefix);
+        if (index == 0) {
+            return readString(src, limit);
+        }
+        return getField(index).name;
+    }
+
+
+    private String readString(byte[] src, int limit) throws HpackException {
+        if (pos[0] >= limit) {
+            throw new HpackException(sm.getString("hpack.truncated"));
+        }
+        boolean huffman = (src[pos[0]] & 0x80) != 0;
+        int length = Hpack.decodeInteger(src, pos, limit, 7);
+        int start = pos[0];
+        if (length > limit - start) {
+            throw new HpackException(sm.getString("hpack.truncated"));
+        }
+        pos[0] = start + length;
+        stringBuilder.setLength(0);
+        if (huffman) {
+            HPackHuffman.decode(src, start, length, stringBuilder);
+        } else {
+            for (int i = start; i < start + length; i++) {
+                stringBuilder.append((char) (src[i] & 0xFF));
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+
+    private HeaderField getField(int index) throws HpackException {
+        if (index < 1) {
+            throw new HpackException(sm.getString(
+                    "hpackdecoder.invalidIndex", Integer.valueOf(index)));
+        }
+        if (index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_TABLE[index];
+        }
+        int dynamicIndex = index - Hpack.STATIC_TABLE_LENGTH - 1;
+        if (dynamicIndex >= count) {
+            throw new HpackException(sm.getString(
+                    "hpackdecoder.invalidIndex", Integer.valueOf(index)));
+        }
+        return entries[(head + dynamicIndex) % entries.length];
+    }
+
+
+    private void add(HeaderField field) {
+        if (field.size > maxSize) {
+            // Adding an entry larger than the table empties the table
+            evict(maxSize);
+            return;
+        }
+        evict(field.size);
+        if (count == entries.length) {
+            HeaderField[] expanded = new HeaderField[entries.length * 2];
+            for (int i = 0; i < count; i++) {
+                expanded[i] = entries[(head + i) % entries.length];
+            }
+            entries = expanded;
+            head = 0;
+        }
+        head = (head + entries.length - 1) % entries.length;
+        entries[head] = field;
+        count++;
+        currentSize += field.size;
+    }
+
+
+    /*
+     * Remove the oldest entries until there is room for an entry of the given
+     * size.
+     */
+    private void evict(int required) {
+        while (count > 0 && currentSize + required > maxSize) {
+            int oldest = (head + count - 1) % entries.length;
+            currentSize -= entries[oldest].size;
+            entries[oldest] = null;
+            count--;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.coyote.http2.Hpack.HeaderField;
+
+/**
+ * Encodes header blocks using HPACK (RFC 7541). Fields are sent as references
+ * to the static or dynamic table where possible and are otherwise added to the
+ * dynamic table so that repeated response headers, such as the content type
+ * or the server header, are reduced to a single byte on subsequent responses.
+ * Fields whose values are expected to change on every response are sent
+ * without indexing so they do not evict more useful entries.
+ * <p>
+ * This class is not thread safe. Header blocks must be encoded in the order
+ * they are written to the connection.
+ */
+public class HpackEncoder {
+
+    private static final Set<String> NOT_INDEXED = new HashSet<String>();
+
+    static {
+        NOT_INDEXED.add("content-length");
+        NOT_INDEXED.add("content-range");
+        NOT_INDEXED.add("date");
+        NOT_INDEXED.add("etag");
+        NOT_INDEXED.add("expires");
+        NOT_INDEXED.add("last-modified");
+        NOT_INDEXED.add("location");
+        NOT_INDEXED.add("set-cookie");
+    }
+
+
+    /*
+     * Newest entries are at the head. Each entry records the insertion count
+     * at the time it was added from which its current index is derived.
+     */
+    private final LinkedList<TableEntry> entries = new LinkedList<TableEntry>();
+    private final Map<String,TableEntry> fields =
+            new HashMap<String,TableEntry>();
+    private final Map<String,TableEntry> names =
+            new HashMap<String,TableEntry>();
+    private long insertCount = 0;
+    private int currentSize = 0;
+
+    private int maxSize;
+    /*
+     * The smallest size set since the last header block and the most recent
+     * size. Both have to be signalled if they differ (RFC 7541 section 4.2).
+     */
+    private int minPendingSize = -1;
+    private int pendingSize = -1;
+
+
+    public HpackEncoder() {
+        this(Constants.DEFAULT_HEADER_TABLE_SIZE);
+    }
+
+
+    public HpackEncoder(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Set the maximum size of the dynamic table as advertised by the peer
+     * with SETTINGS_HEADER_TABLE_SIZE. The change is signalled at the start
+     * of the next header block.
+     *
+     * @param size  The new maximum size
+     */
+    public void setMaxTableSize(int size) {
+        if (minPendingSize == -1 || size < minPendingSize) {
+            minPendingSize = size;
+        }
+        pendingSize = size;
+        maxSize = size;
+        evict(0);
+    }
+
+
+    /**
+     * Must be called before the first field of each header block.
+     *
+     * @param target    The stream to which the header block is written
+     */
+    public void startHeaderBlock(ByteArrayOutputStream target) {
+        if (pendingSize == -1) {
+            return;
+        }
+        if (minPendingSize < pendingSize) {
+            Hpack.encodeInteger(target, 0x20, 5, minPendingSize);
+        }
+        Hpack.encodeInteger(target, 0x20, 5, pendingSize);
+        minPendingSize = -1;
+        pendingSize = -1;
+    }
+
+
+    /**
+     * Encode a single header field.
+     *
+     * @param name      The field name which must be in lower case
+     * @param value     The field value
+     * @param target    The stream to which the field is written
+     */
+    public void encodeHeader(String name, String value,
+            ByteArrayOutputStream target) {
+        int index = Hpack.getStaticFieldIndex(name, value);
+        if (index == 0) {
+            TableEntry entry = fields.get(HeaderField.key(name, value));
+            if (entry != null) {
+                index = getIndex(entry);
+            }
+        }
+        if (index > 0) {
+            // Indexed header field
+            Hpack.encodeInteger(target, 0x80, 7, index);
+            return;
+        }
+
+        int nameIndex = Hpack.getStaticNameIndex(name);
+        if (nameIndex == 0) {
+            TableEntry entry = names.get(name);
+            if (entry != null) {
+                nameIndex = getIndex(entry);
+            }
+        }
+        HeaderField field = new HeaderField(name, value);
+        boolean indexed = !NOT_INDEXED.contains(name) && field.size <= maxSize / 2;
+        if (indexed) {
+            // Literal header field with incremental indexing
+            Hpack.encodeInteger(target, 0x40, 6, nameIndex);
+        } else {
+            // Literal header field without indexing
+            Hpack.encodeInteger(target, 0x00, 4, nameIndex);
+        }
+        if (nameIndex == 0) {
+            Hpack.encodeString(target, name);
+        }
+        Hpack.encodeString(target, value);
+        if (indexed) {
+            add(field);
+        }
+    }
+
+
+    int getCurrentSize() {
+        return currentSize;
+    }
+
+
+    private int getIndex(TableEntry entry) {
+        return Hpack.STATIC_TABLE_LENGTH + (int) (insertCount - entry.position);
+    }
+
+
+    private void add(HeaderField field) {
+        evict(field.size);
+        TableEntry entry = new TableEntry(field, insertCount++);
+        entries.addFirst(entry);
+        fields.put(field.key(), entry);
+        names.put(field.name, entry);
+        currentSize += field.size;
+    }
+
+
+    private void evict(int required) {
+        while (!entries.isEmpty() && currentSize + required > maxSize) {
+            TableEntry oldest = entries.removeLast();
+            currentSize -= oldest.field.size;
+            String key = oldest.field.key();
+            if (fields.get(key) == oldest) {
+                fields.remove(key);
+            }
+            if (names.get(oldest.field.name) == oldest) {
+                names.remove(oldest.field.name);
+            }
+        }
+    }
+
+
+    private static class TableEntry {
+
+        private final HeaderField field;
+        private final long position;
+
+        TableEntry(HeaderField field, long position) {
+            this.field = field;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.coyote.http11.Http11NioProtocol;
+
+/**
+ * An NIO HTTP/1.1 connector that also accepts cleartext HTTP/2 (h2c)
+ * connections. Clients may either start with the HTTP/2 connection preface
+ * or upgrade an HTTP/1.1 request. Connections that use TLS always use
+ * HTTP/1.1.
+ */
+public class Http2NioProtocol extends Http11NioProtocol {
+
+    private final Http2Protocol http2Protocol = new Http2Protocol();
+
+
+    @Override
+    protected Http2Protocol getHttp2Protocol() {
+        return http2Protocol;
+    }
+
+
+    // -------------------------------------------------- HTTP/2 properties
+
+    public long getMaxConcurrentStreams() {
+        return http2Protocol.getMaxConcurrentStreams();
+    }
+
+    public void setMaxConcurrentStreams(long maxConcurrentStreams) {
+        http2Protocol.setMaxConcurrentStreams(maxConcurrentStreams);
+    }
+
+    public int getInitialWindowSize() {
+        return http2Protocol.getInitialWindowSize();
+    }
+
+    public void setInitialWindowSize(int initialWindowSize) {
+        http2Protocol.setInitialWindowSize(initialWindowSize);
+    }
+
+    public int getHttp2MaxHeaderCount() {
+        return http2Protocol.getMaxHeaderCount();
+    }
+
+    public void setHttp2MaxHeaderCount(int maxHeaderCount) {
+        http2Protocol.setMaxHeaderCount(maxHeaderCount);
+    }
+
+    public int getHttp2MaxHeaderSize() {
+        return http2Protocol.getMaxHeaderSize();
+    }
+
+    public void setHttp2MaxHeaderSize(int maxHeaderSize) {
+        http2Protocol.setMaxHeaderSize(maxHeaderSize);
+    }
+
+    public long getStreamReadTimeout() {
+        return http2Protocol.getReadTimeout();
+    }
+
+    public void setStreamReadTimeout(long readTimeout) {
+        http2Protocol.setReadTimeout(readTimeout);
+    }
+
+    public long getStreamWriteTimeout() {
+        return http2Protocol.getWriteTimeout();
+    }
+
+    public void setStreamWriteTimeout(long writeTimeout) {
+        http2Protocol.setWriteTimeout(writeTimeout);
+    }
+
+
+    // ----------------------------------------------------- JMX related methods
+
+    @Override
+    protected String getNamePrefix() {
+        return ("http2-nio");
+    }
+}
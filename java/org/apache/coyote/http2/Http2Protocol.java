@@ -0,0 +1,235 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.codec.binary.Base64;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The configuration of HTTP/2 support for a connector and the entry point
+ * used by the HTTP/1.1 processor to hand a connection over to HTTP/2. Only
+ * cleartext HTTP/2 (h2c) is supported, started either with prior knowledge
+ * or with an HTTP/1.1 upgrade.
+ */
+public class Http2Protocol {
+
+    private static final Log log = LogFactory.getLog(Http2Protocol.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private long maxConcurrentStreams = 100;
+    private int initialWindowSize = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+    private int maxHeaderCount = 100;
+    private int maxHeaderSize = 8192;
+    private long readTimeout = 20000;
+    private long writeTimeout = 20000;
+
+
+    /**
+     * @return the maximum number of streams a client may have open at the
+     *         same time on a single connection
+     */
+    public long getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    public void setMaxConcurrentStreams(long maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * @return the initial flow control window, in bytes, advertised for
+     *         request bodies. This is also the size of the buffer allocated
+     *         for each stream that receives a request body.
+     */
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    public void setInitialWindowSize(int initialWindowSize) {
+        this.initialWindowSize = initialWindowSize;
+    }
+
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    public void setMaxHeaderCount(int maxHeaderCount) {
+        this.maxHeaderCount = maxHeaderCount;
+    }
+
+    /**
+     * @return the maximum total size, in bytes, of the decoded request
+     *         headers of a stream using the size calculation of RFC 7541
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * @return the time, in milliseconds, a stream will wait for request body
+     *         data before the read fails. Zero or less means no limit.
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the time, in milliseconds, a stream will wait for the client to
+     *         open the flow control window before a write fails. Zero or less
+     *         means no limit.
+     */
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+
+    /**
+     * Is the request the start of the client connection preface, i.e. is the
+     * client using HTTP/2 with prior knowledge?
+     *
+     * @param request   The request as parsed by the HTTP/1.1 processor
+     *
+     * @return <code>true</code> if the request line was
+     *         <code>PRI * HTTP/2.0</code>
+     */
+    public static boolean isPriorKnowledge(Request request) {
+        return request.method().equals(Constants.PRIOR_KNOWLEDGE_METHOD) &&
+                request.protocol().equals(Constants.PRIOR_KNOWLEDGE_PROTOCOL) &&
+                request.getMimeHeaders().size() == 0;
+    }
+
+
+    /**
+     * Is the request an HTTP/1.1 request to upgrade to h2c that may be
+     * accepted? Requests with a body are not upgraded as the body would have
+     * to be read before the connection could switch protocols.
+     *
+     * @param request   The request as prepared by the HTTP/1.1 processor
+     *
+     * @return <code>true</code> if the connection should be upgraded
+     */
+    public static boolean isUpgradeRequest(Request request) {
+        if (request.getHeader(Constants.SETTINGS_HEADER) == null ||
+                request.getContentLengthLong() > 0 ||
+                request.getHeader("transfer-encoding") != null) {
+            return false;
+        }
+        Enumeration<String> values = request.getMimeHeaders().values("upgrade");
+        while (values.hasMoreElements()) {
+            String[] tokens = values.nextElement().split(",");
+            for (String token : tokens) {
+                if (Constants.UPGRADE_TOKEN.equals(
+                        token.trim().toLowerCase(Locale.ENGLISH))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Create the handler for a connection where the client has sent the start
+     * of the connection preface.
+     *
+     * @param adapter   The adapter used to process requests
+     * @param executor  The executor used to process streams
+     * @param request   The HTTP/1.1 request holding the connection details
+     * @param leftover  The buffer holding data read after the request
+     * @param off       The offset of the data
+     * @param len       The length of the data
+     *
+     * @return The handler to which the connection should be upgraded
+     */
+    public HttpUpgradeHandler createPriorKnowledgeHandler(Adapter adapter,
+            Executor executor, Request request, byte[] leftover, int off,
+            int len) {
+        prepareConnectionInfo(request);
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(this, adapter,
+                executor, request, Constants.CLIENT_PREFACE_END);
+        handler.setLeftover(leftover, off, len);
+        return handler;
+    }
+
+
+    /**
+     * Create the handler for an h2c upgrade request. The request becomes
+     * stream 1 of the new connection.
+     *
+     * @param adapter   The adapter used to process requests
+     * @param executor  The executor used to process streams
+     * @param request   The HTTP/1.1 request to upgrade
+     * @param leftover  The buffer holding data read after the request
+     * @param off       The offset of the data
+     * @param len       The length of the data
+     *
+     * @return The handler to which the connection should be upgraded or
+     *         <code>null</code> if the HTTP2-Settings header is not valid in
+     *         which case the request should be processed using HTTP/1.1
+     */
+    public HttpUpgradeHandler createUpgradeHandler(Adapter adapter,
+            Executor executor, Request request, byte[] leftover, int off,
+            int len) {
+        String settingsHeader = request.getHeader(Constants.SETTINGS_HEADER);
+        byte[] settings = Base64.decodeBase64(settingsHeader);
+        prepareConnectionInfo(request);
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(this, adapter,
+                executor, request, Constants.CLIENT_PREFACE);
+        try {
+            handler.prepareUpgrade(request, settings);
+        } catch (ConnectionException ce) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("http2Protocol.invalidSettings",
+                        settingsHeader), ce);
+            }
+            return null;
+        }
+        handler.setLeftover(leftover, off, len);
+        return handler;
+    }
+
+
+    private static void prepareConnectionInfo(Request request) {
+        request.action(ActionCode.REQ_HOST_ADDR_ATTRIBUTE, null);
+        request.action(ActionCode.REQ_REMOTEPORT_ATTRIBUTE, null);
+        request.action(ActionCode.REQ_LOCAL_ADDR_ATTRIBUTE, null);
+        request.action(ActionCode.REQ_LOCALPORT_ATTRIBUTE, null);
+    }
+}
@@ -0,0 +1,1531 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.upgrade.AbstractServletInputStream;
+import org.apache.coyote.http11.upgrade.AbstractServletOutputStream;
+import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.coyote.http11.upgrade.servlet31.ReadListener;
+import org.apache.coyote.http11.upgrade.servlet31.WebConnection;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Represents an HTTP/2 connection. The connection is created from an HTTP/1.1
+ * connection either when the client sends the HTTP/2 connection preface
+ * (prior knowledge) or when it requests an upgrade to h2c. It then uses the
+ * HTTP upgrade support of the connector for its I/O.
+ * <p>
+ * Frames are read using non-blocking reads on the container thread that the
+ * connector dispatches when data is available. Each request is processed on
+ * its own container thread by a {@link StreamProcessor} which writes the
+ * response using blocking writes.
+ * <p>
+ * The handler is also the root of the priority tree and holds the
+ * connection level send window. Both are guarded by the handler's monitor.
+ * When the connection window is exhausted, the streams that are waiting to
+ * write are added to a backlog and, as the client opens the window, the
+ * window is allocated to them in proportion to their weights with parents
+ * served before their children.
+ */
+public class Http2UpgradeHandler extends AbstractStream
+        implements HttpUpgradeHandler, ReadListener {
+
+    private static final Log log = LogFactory.getLog(Http2UpgradeHandler.class);
+
+    private static final AtomicLong connectionIdGenerator = new AtomicLong(0);
+    private static final Integer STREAM_ID_ZERO = Integer.valueOf(0);
+
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>();
+
+    static {
+        CONNECTION_HEADERS.add("connection");
+        CONNECTION_HEADERS.add("keep-alive");
+        CONNECTION_HEADERS.add("proxy-connection");
+        CONNECTION_HEADERS.add("transfer-encoding");
+        CONNECTION_HEADERS.add("upgrade");
+    }
+
+    private final String connectionId;
+    private final Http2Protocol protocol;
+    private final Adapter adapter;
+    private final Executor executor;
+
+    private final String remoteAddr;
+    private final int remotePort;
+    private final String localAddr;
+    private final int localPort;
+    private volatile String remoteHost = null;
+    private volatile String localName = null;
+
+    private volatile WebConnection connection;
+    private volatile AbstractServletInputStream is;
+    private volatile AbstractServletOutputStream os;
+    private volatile boolean closed = false;
+
+    // Read state. Only accessed by the thread reading from the connection.
+    private final byte[] expectedPreface;
+    private int prefacePos = 0;
+    private boolean settingsReceived = false;
+    private byte[] inBuffer;
+    private int inPos = 0;
+    private int inLimit = 0;
+    private final HpackDecoder hpackDecoder;
+    private byte[] headerBlock = new byte[1024];
+    private int headerBlockLength = 0;
+    private Stream headerStream = null;
+    private boolean headerEndOfStream = false;
+    private int maxRemoteStreamId = 0;
+    private long receiveWindow = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+    private int receiveUnacknowledged = 0;
+    private Stream upgradeStream = null;
+
+    // Write state. Guarded by writeLock.
+    private final Object writeLock = new Object();
+    private final HpackEncoder hpackEncoder = new HpackEncoder();
+    private final HeaderBlockStream encodedHeaders = new HeaderBlockStream();
+    private byte[] outBuffer = new byte[Constants.FRAME_HEADER_LENGTH * 2 +
+                                        Constants.DEFAULT_MAX_FRAME_SIZE];
+
+    private final ConnectionSettings remoteSettings = new ConnectionSettings();
+    private final Map<Integer,Stream> streams =
+            new ConcurrentHashMap<Integer,Stream>();
+    private final AtomicInteger activeStreams = new AtomicInteger(0);
+
+    // Streams waiting for the connection window. Guarded by this.
+    private final Map<Stream,Long> backLog = new HashMap<Stream,Long>();
+
+
+    Http2UpgradeHandler(Http2Protocol protocol, Adapter adapter,
+            Executor executor, Request request, byte[] expectedPreface) {
+        super(STREAM_ID_ZERO);
+        this.connectionId = Long.toString(connectionIdGenerator.getAndIncrement());
+        this.protocol = protocol;
+        this.adapter = adapter;
+        this.executor = executor;
+        this.expectedPreface = expectedPreface;
+        this.remoteAddr = request.remoteAddr().toString();
+        this.remotePort = request.getRemotePort();
+        this.localAddr = request.localAddr().toString();
+        this.localPort = request.getLocalPort();
+        this.hpackDecoder = new HpackDecoder(Constants.DEFAULT_HEADER_TABLE_SIZE);
+        this.inBuffer = new byte[Constants.FRAME_HEADER_LENGTH + Constants.DEFAULT_MAX_FRAME_SIZE];
+    }
+
+
+    /**
+     * Apply the settings sent in the HTTP2-Settings header of an upgrade
+     * request and create stream 1 from the request being upgraded. Must be
+     * called before the HTTP/1.1 request is recycled.
+     *
+     * @param request   The request that is being upgraded
+     * @param settings  The decoded value of the HTTP2-Settings header
+     *
+     * @throws ConnectionException If the settings are not valid
+     */
+    void prepareUpgrade(Request request, byte[] settings)
+            throws ConnectionException {
+        if (settings.length % 6 != 0) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.settings.invalidLength", connectionId,
+                    Integer.valueOf(settings.length)), Http2Error.FRAME_SIZE_ERROR);
+        }
+        for (int i = 0; i < settings.length; i += 6) {
+            applySetting(ByteUtil.getTwoBytes(settings, i),
+                    ByteUtil.getFourBytes(settings, i + 2));
+        }
+        Stream stream = createStream(1);
+        stream.prepareFromUpgrade(request);
+        upgradeStream = stream;
+    }
+
+
+    /**
+     * Retain any data read by the HTTP/1.1 processor after the request that
+     * initiated HTTP/2 so it can be processed once the connection has been
+     * upgraded.
+     *
+     * @param src   The buffer holding the data
+     * @param off   The offset of the first unread byte
+     * @param len   The number of unread bytes
+     */
+    void setLeftover(byte[] src, int off, int len) {
+        if (len > inBuffer.length) {
+            inBuffer = new byte[len];
+        }
+        System.arraycopy(src, off, inBuffer, 0, len);
+        inLimit = len;
+    }
+
+
+    // --------------------------------------------------- HttpUpgradeHandler
+
+    @Override
+    public void init(WebConnection connection) {
+        this.connection = connection;
+        try {
+            is = connection.getInputStream();
+            os = connection.getOutputStream();
+
+            // The server connection preface
+            writeSettings();
+
+            if (upgradeStream != null) {
+                Stream stream = upgradeStream;
+                upgradeStream = null;
+                dispatch(stream);
+            }
+
+            if (inLimit > 0) {
+                processInput();
+            }
+        } catch (Http2Exception e) {
+            // Only stream 1 can fail to dispatch
+            writeRstStreamQuietly(1, e.getError());
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror", connectionId), ioe);
+            }
+            close();
+            return;
+        }
+        if (!closed) {
+            is.setReadListener(this);
+        }
+    }
+
+
+    @Override
+    public void destroy() {
+        closed = true;
+        releaseStreams();
+    }
+
+
+    // --------------------------------------------------------- ReadListener
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        try {
+            while (!closed && is.isReady()) {
+                if (inLimit == inBuffer.length) {
+                    compactInput();
+                }
+                int read = is.read(inBuffer, inLimit, inBuffer.length - inLimit);
+                if (read > 0) {
+                    inLimit += read;
+                    processInput();
+                }
+            }
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror", connectionId), ioe);
+            }
+            close();
+            throw ioe;
+        }
+    }
+
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        // NO-OP. Never called for an upgraded connection.
+    }
+
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.ioerror", connectionId), throwable);
+        }
+        close();
+    }
+
+
+    // ------------------------------------------------------- Frame reading
+
+    private void processInput() throws IOException {
+        try {
+            if (!readPreface()) {
+                return;
+            }
+            while (!closed) {
+                int available = inLimit - inPos;
+                if (available < Constants.FRAME_HEADER_LENGTH) {
+                    break;
+                }
+                int payloadSize = ByteUtil.getThreeBytes(inBuffer, inPos);
+                if (payloadSize > Constants.DEFAULT_MAX_FRAME_SIZE) {
+                    throw new ConnectionException(sm.getString(
+                            "upgradeHandler.frameTooBig", connectionId,
+                            Integer.valueOf(payloadSize)),
+                            Http2Error.FRAME_SIZE_ERROR);
+                }
+                if (available < Constants.FRAME_HEADER_LENGTH + payloadSize) {
+                    break;
+                }
+                int type = ByteUtil.getOneByte(inBuffer, inPos + 3);
+                int flags = ByteUtil.getOneByte(inBuffer, inPos + 4);
+                int streamId = ByteUtil.get31Bits(inBuffer, inPos + 5);
+                int payloadStart = inPos + Constants.FRAME_HEADER_LENGTH;
+                inPos = payloadStart + payloadSize;
+                try {
+                    processFrame(FrameType.valueOf(type), flags, streamId,
+                            payloadStart, payloadSize);
+                } catch (StreamException se) {
+                    handleStreamException(se);
+                }
+            }
+            compactInput();
+        } catch (Http2Exception e) {
+            // Stream errors have been handled so this is a connection error
+            handleConnectionException(e);
+        } catch (HpackException he) {
+            handleConnectionException(new ConnectionException(
+                    he.getMessage(), Http2Error.COMPRESSION_ERROR));
+        }
+    }
+
+
+    private boolean readPreface() throws ConnectionException {
+        while (prefacePos < expectedPreface.length) {
+            if (inPos == inLimit) {
+                compactInput();
+                return false;
+            }
+            if (inBuffer[inPos++] != expectedPreface[prefacePos++]) {
+                throw new ConnectionException(sm.getString(
+                        "upgradeHandler.invalidPreface", connectionId),
+                        Http2Error.PROTOCOL_ERROR);
+            }
+        }
+        return true;
+    }
+
+
+    private void compactInput() {
+        if (inPos == inLimit) {
+            inPos = 0;
+            inLimit = 0;
+        } else if (inPos > 0) {
+            System.arraycopy(inBuffer, inPos, inBuffer, 0, inLimit - inPos);
+            inLimit -= inPos;
+            inPos = 0;
+        }
+    }
+
+
+    private void processFrame(FrameType type, int flags, int streamId,
+            int start, int length)
+            throws IOException, Http2Exception, HpackException {
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.frame", connectionId,
+                    type, Integer.toString(flags), Integer.valueOf(streamId),
+                    Integer.valueOf(length)));
+        }
+
+        if (headerStream != null && (type != FrameType.CONTINUATION ||
+                streamId != headerStream.getIdentifier().intValue())) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.continuationExpected", connectionId, type),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+        if (!settingsReceived && type != FrameType.SETTINGS) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.settingsExpected", connectionId, type),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+
+        switch (type) {
+        case DATA:
+            requireStream(type, streamId);
+            processData(flags, streamId, start, length);
+            break;
+        case HEADERS:
+            requireStream(type, streamId);
+            processHeaders(flags, streamId, start, length);
+            break;
+        case PRIORITY:
+            requireStream(type, streamId);
+            processPriority(streamId, start, length);
+            break;
+        case RST_STREAM:
+            requireStream(type, streamId);
+            processRstStream(streamId, start, length);
+            break;
+        case SETTINGS:
+            requireConnection(type, streamId);
+            processSettings(flags, start, length);
+            break;
+        case PUSH_PROMISE:
+            // Clients must not send push promises
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.pushPromise", connectionId),
+                    Http2Error.PROTOCOL_ERROR);
+        case PING:
+            requireConnection(type, streamId);
+            processPing(flags, start, length);
+            break;
+        case GOAWAY:
+            requireConnection(type, streamId);
+            processGoAway(start, length);
+            break;
+        case WINDOW_UPDATE:
+            processWindowUpdate(streamId, start, length);
+            break;
+        case CONTINUATION:
+            processContinuation(flags, start, length);
+            break;
+        case UNKNOWN:
+            // Unknown frame types must be ignored
+            break;
+        }
+    }
+
+
+    private void requireStream(FrameType type, int streamId)
+            throws ConnectionException {
+        if (streamId == 0) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.streamRequired", connectionId, type),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+    }
+
+
+    private void requireConnection(FrameType type, int streamId)
+            throws ConnectionException {
+        if (streamId != 0) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.connectionRequired", connectionId, type,
+                    Integer.valueOf(streamId)), Http2Error.PROTOCOL_ERROR);
+        }
+    }
+
+
+    private void requireLength(FrameType type, int length, int expected)
+            throws ConnectionException {
+        if (length != expected) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.invalidLength", connectionId, type,
+                    Integer.valueOf(length)), Http2Error.FRAME_SIZE_ERROR);
+        }
+    }
+
+
+    /*
+     * Returns the length of the padding, including the pad length field, or
+     * zero if the frame is not padded.
+     */
+    private int getPadding(int flags, int start, int length)
+            throws ConnectionException {
+        if ((flags & Constants.FLAG_PADDED) == 0) {
+            return 0;
+        }
+        if (length < 1) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.invalidPadding", connectionId),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+        int padding = ByteUtil.getOneByte(inBuffer, start) + 1;
+        if (padding > length) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.invalidPadding", connectionId),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+        return padding;
+    }
+
+
+    private void processData(int flags, int streamId, int start, int length)
+            throws IOException, Http2Exception {
+        int padding = getPadding(flags, start, length);
+        int dataStart = start + (padding > 0 ? 1 : 0);
+        int dataLength = length - padding;
+
+        // The whole frame counts against the connection window. Buffered
+        // data is limited by the stream windows so the connection window is
+        // opened again straight away. That way a stream that is not reading
+        // its request body cannot block the other streams.
+        receiveWindow -= length;
+        if (receiveWindow < 0) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.windowExceeded", connectionId),
+                    Http2Error.FLOW_CONTROL_ERROR);
+        }
+        receiveUnacknowledged += length;
+        if (receiveUnacknowledged >= Constants.DEFAULT_INITIAL_WINDOW_SIZE / 2) {
+            writeWindowUpdate(0, receiveUnacknowledged);
+            receiveWindow += receiveUnacknowledged;
+            receiveUnacknowledged = 0;
+        }
+
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream == null) {
+            if (streamId > maxRemoteStreamId) {
+                throw new ConnectionException(sm.getString(
+                        "upgradeHandler.idleStream", connectionId, FrameType.DATA,
+                        Integer.valueOf(streamId)), Http2Error.PROTOCOL_ERROR);
+            }
+            // Closed or reset. Frames may still be in flight so ignore it.
+            return;
+        }
+        if (stream.isReset()) {
+            return;
+        }
+        stream.receiveData(inBuffer, dataStart, dataLength, padding,
+                (flags & Constants.FLAG_END_STREAM) != 0);
+    }
+
+
+    private void processHeaders(int flags, int streamId, int start, int length)
+            throws IOException, Http2Exception, HpackException {
+        int padding = getPadding(flags, start, length);
+        int blockStart = start + (padding > 0 ? 1 : 0);
+        int blockLength = length - padding;
+
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream == null) {
+            if ((streamId & 1) == 0 || streamId <= maxRemoteStreamId) {
+                throw new ConnectionException(sm.getString(
+                        "upgradeHandler.invalidStreamId", connectionId,
+                        Integer.valueOf(streamId)), Http2Error.PROTOCOL_ERROR);
+            }
+            maxRemoteStreamId = streamId;
+            stream = createStream(streamId);
+        } else {
+            // Trailers
+            stream.startTrailers();
+        }
+
+        StreamException priorityError = null;
+        if ((flags & Constants.FLAG_PRIORITY) != 0) {
+            if (blockLength < 5) {
+                throw new ConnectionException(sm.getString(
+                        "upgradeHandler.invalidLength", connectionId,
+                        FrameType.HEADERS, Integer.valueOf(length)),
+                        Http2Error.FRAME_SIZE_ERROR);
+            }
+            boolean exclusive = ByteUtil.isBit7Set(inBuffer[blockStart]);
+            int parentId = ByteUtil.get31Bits(inBuffer, blockStart);
+            int weight = ByteUtil.getOneByte(inBuffer, blockStart + 4) + 1;
+            try {
+                setPriority(stream, parentId, exclusive, weight);
+            } catch (StreamException se) {
+                // Report after the header block has been decoded
+                priorityError = se;
+            }
+            blockStart += 5;
+            blockLength -= 5;
+        }
+
+        headerStream = stream;
+        headerBlockLength = 0;
+        headerEndOfStream = (flags & Constants.FLAG_END_STREAM) != 0;
+        appendHeaderBlock(blockStart, blockLength);
+        if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+            headersComplete();
+        }
+        if (priorityError != null) {
+            throw priorityError;
+        }
+    }
+
+
+    private void processContinuation(int flags, int start, int length)
+            throws IOException, Http2Exception, HpackException {
+        if (headerStream == null) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.unexpectedContinuation", connectionId),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+        appendHeaderBlock(start, length);
+        if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+            headersComplete();
+        }
+    }
+
+
+    private void appendHeaderBlock(int start, int length)
+            throws ConnectionException {
+        int required = headerBlockLength + length;
+        // Allow for the compression of the header block being poor
+        if (required > protocol.getMaxHeaderSize() * 2 + Constants.DEFAULT_MAX_FRAME_SIZE) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.headerBlockTooLarge", connectionId,
+                    headerStream.getIdentifier()), Http2Error.ENHANCE_YOUR_CALM);
+        }
+        if (required > headerBlock.length) {
+            byte[] expanded = new byte[Math.max(required, headerBlock.length * 2)];
+            System.arraycopy(headerBlock, 0, expanded, 0, headerBlockLength);
+            headerBlock = expanded;
+        }
+        System.arraycopy(inBuffer, start, headerBlock, headerBlockLength, length);
+        headerBlockLength = required;
+    }
+
+
+    private void headersComplete() throws IOException, Http2Exception,
+            HpackException {
+        Stream stream = headerStream;
+        headerStream = null;
+
+        // Always decode the block so the HPACK state stays in step with the
+        // client, even if the stream is going to be rejected
+        hpackDecoder.decode(headerBlock, 0, headerBlockLength, stream);
+
+        if (stream.isReset()) {
+            return;
+        }
+        if (stream.isDispatched()) {
+            // Trailers
+            if (!headerEndOfStream) {
+                throw new StreamException(sm.getString(
+                        "upgradeHandler.trailersWithoutEndOfStream",
+                        connectionId, stream.getIdentifier()),
+                        Http2Error.PROTOCOL_ERROR, stream.getIdentifier().intValue());
+            }
+            stream.receivedEndOfStream();
+            return;
+        }
+
+        stream.validateRequestHeaders();
+        if (activeStreams.get() >= protocol.getMaxConcurrentStreams()) {
+            throw new StreamException(sm.getString(
+                    "upgradeHandler.tooManyStreams", connectionId,
+                    stream.getIdentifier()), Http2Error.REFUSED_STREAM,
+                    stream.getIdentifier().intValue());
+        }
+        if (headerEndOfStream) {
+            stream.receivedEndOfStream();
+        }
+        dispatch(stream);
+    }
+
+
+    private void processPriority(int streamId, int start, int length)
+            throws Http2Exception {
+        if (length != 5) {
+            throw new StreamException(sm.getString(
+                    "upgradeHandler.invalidLength", connectionId,
+                    FrameType.PRIORITY, Integer.valueOf(length)),
+                    Http2Error.FRAME_SIZE_ERROR, streamId);
+        }
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream == null) {
+            // Priority for idle or closed streams is not tracked
+            return;
+        }
+        boolean exclusive = ByteUtil.isBit7Set(inBuffer[start]);
+        int parentId = ByteUtil.get31Bits(inBuffer, start);
+        int weight = ByteUtil.getOneByte(inBuffer, start + 4) + 1;
+        setPriority(stream, parentId, exclusive, weight);
+    }
+
+
+    private void processRstStream(int streamId, int start, int length)
+            throws ConnectionException {
+        requireLength(FrameType.RST_STREAM, length, 4);
+        if (streamId > maxRemoteStreamId) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.idleStream", connectionId,
+                    FrameType.RST_STREAM, Integer.valueOf(streamId)),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream != null) {
+            Http2Error error = Http2Error.valueOf(
+                    (int) ByteUtil.getFourBytes(inBuffer, start));
+            stream.reset(error);
+            if (!stream.isDispatched()) {
+                removeStream(stream);
+            } else {
+                synchronized (this) {
+                    // Wake the stream if it is waiting to write
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+
+    private void processSettings(int flags, int start, int length)
+            throws IOException, ConnectionException {
+        if ((flags & Constants.FLAG_ACK) != 0) {
+            requireLength(FrameType.SETTINGS, length, 0);
+            return;
+        }
+        if (length % 6 != 0) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.invalidLength", connectionId,
+                    FrameType.SETTINGS, Integer.valueOf(length)),
+                    Http2Error.FRAME_SIZE_ERROR);
+        }
+        for (int i = start; i < start + length; i += 6) {
+            applySetting(ByteUtil.getTwoBytes(inBuffer, i),
+                    ByteUtil.getFourBytes(inBuffer, i + 2));
+        }
+        settingsReceived = true;
+        writeFrame(FrameType.SETTINGS, Constants.FLAG_ACK, 0, null, 0, 0);
+    }
+
+
+    private void applySetting(int id, long value) throws ConnectionException {
+        switch (id) {
+        case Constants.SETTING_HEADER_TABLE_SIZE: {
+            remoteSettings.setHeaderTableSize(value);
+            // Never use more memory than the default
+            int size = (int) Math.min(value, Constants.DEFAULT_HEADER_TABLE_SIZE);
+            synchronized (writeLock) {
+                hpackEncoder.setMaxTableSize(size);
+            }
+            break;
+        }
+        case Constants.SETTING_ENABLE_PUSH: {
+            if (value > 1) {
+                throw invalidSetting(id, value, Http2Error.PROTOCOL_ERROR);
+            }
+            remoteSettings.setEnablePush(value == 1);
+            break;
+        }
+        case Constants.SETTING_MAX_CONCURRENT_STREAMS: {
+            remoteSettings.setMaxConcurrentStreams(value);
+            break;
+        }
+        case Constants.SETTING_INITIAL_WINDOW_SIZE: {
+            if (value > Constants.MAX_WINDOW_SIZE) {
+                throw invalidSetting(id, value, Http2Error.FLOW_CONTROL_ERROR);
+            }
+            int oldValue = remoteSettings.getInitialWindowSize();
+            remoteSettings.setInitialWindowSize((int) value);
+            long delta = value - oldValue;
+            synchronized (this) {
+                for (Stream stream : streams.values()) {
+                    try {
+                        stream.incrementWindowSize(delta);
+                    } catch (Http2Exception e) {
+                        throw invalidSetting(id, value, Http2Error.FLOW_CONTROL_ERROR);
+                    }
+                }
+                notifyAll();
+            }
+            break;
+        }
+        case Constants.SETTING_MAX_FRAME_SIZE: {
+            if (value < Constants.DEFAULT_MAX_FRAME_SIZE ||
+                    value > Constants.MAX_FRAME_SIZE_UPPER_BOUND) {
+                throw invalidSetting(id, value, Http2Error.PROTOCOL_ERROR);
+            }
+            remoteSettings.setMaxFrameSize((int) value);
+            break;
+        }
+        case Constants.SETTING_MAX_HEADER_LIST_SIZE: {
+            remoteSettings.setMaxHeaderListSize(value);
+            break;
+        }
+        default: {
+            // Unknown settings must be ignored
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.unknownSetting",
+                        connectionId, Integer.valueOf(id), Long.valueOf(value)));
+            }
+        }
+        }
+    }
+
+
+    private ConnectionException invalidSetting(int id, long value,
+            Http2Error error) {
+        return new ConnectionException(sm.getString(
+                "upgradeHandler.invalidSetting", connectionId,
+                Integer.valueOf(id), Long.valueOf(value)), error);
+    }
+
+
+    private void processPing(int flags, int start, int length)
+            throws IOException, ConnectionException {
+        requireLength(FrameType.PING, length, 8);
+        if ((flags & Constants.FLAG_ACK) == 0) {
+            writeFrame(FrameType.PING, Constants.FLAG_ACK, 0, inBuffer, start, 8);
+        }
+    }
+
+
+    private void processGoAway(int start, int length)
+            throws ConnectionException {
+        if (length < 8) {
+            throw new ConnectionException(sm.getString(
+                    "upgradeHandler.invalidLength", connectionId,
+                    FrameType.GOAWAY, Integer.valueOf(length)),
+                    Http2Error.FRAME_SIZE_ERROR);
+        }
+        // The client will not open any more streams. Those in progress are
+        // allowed to complete and the client closes the connection.
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.goaway", connectionId,
+                    Integer.valueOf(ByteUtil.get31Bits(inBuffer, start)),
+                    Http2Error.valueOf((int) ByteUtil.getFourBytes(inBuffer, start + 4))));
+        }
+    }
+
+
+    private void processWindowUpdate(int streamId, int start, int length)
+            throws Http2Exception {
+        requireLength(FrameType.WINDOW_UPDATE, length, 4);
+        int increment = ByteUtil.get31Bits(inBuffer, start);
+        if (streamId == 0) {
+            if (increment == 0) {
+                throw new ConnectionException(sm.getString(
+                        "upgradeHandler.zeroWindowUpdate", connectionId,
+                        STREAM_ID_ZERO), Http2Error.PROTOCOL_ERROR);
+            }
+            synchronized (this) {
+                incrementWindowSize(increment);
+                if (!backLog.isEmpty()) {
+                    releaseBackLog();
+                }
+                notifyAll();
+            }
+        } else {
+            if (increment == 0) {
+                throw new StreamException(sm.getString(
+                        "upgradeHandler.zeroWindowUpdate", connectionId,
+                        Integer.valueOf(streamId)), Http2Error.PROTOCOL_ERROR,
+                        streamId);
+            }
+            Stream stream = streams.get(Integer.valueOf(streamId));
+            if (stream == null) {
+                if (streamId > maxRemoteStreamId) {
+                    throw new ConnectionException(sm.getString(
+                            "upgradeHandler.idleStream", connectionId,
+                            FrameType.WINDOW_UPDATE, Integer.valueOf(streamId)),
+                            Http2Error.PROTOCOL_ERROR);
+                }
+                return;
+            }
+            synchronized (this) {
+                stream.incrementWindowSize(increment);
+                notifyAll();
+            }
+        }
+    }
+
+
+    private void handleStreamException(StreamException se) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.streamError", connectionId,
+                    Integer.valueOf(se.getStreamId()), se.getError()), se);
+        }
+        Stream stream = streams.get(Integer.valueOf(se.getStreamId()));
+        if (stream != null) {
+            stream.reset(se.getError());
+            if (!stream.isDispatched()) {
+                removeStream(stream);
+            } else {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+        writeRstStreamQuietly(se.getStreamId(), se.getError());
+    }
+
+
+    private void handleConnectionException(Http2Exception ce) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.connectionError",
+                    connectionId, ce.getError()), ce);
+        }
+        byte[] payload = new byte[8];
+        ByteUtil.set31Bits(payload, 0, maxRemoteStreamId);
+        ByteUtil.setFourBytes(payload, 4, ce.getError().getCode());
+        try {
+            writeFrame(FrameType.GOAWAY, 0, 0, payload, 0, payload.length);
+        } catch (IOException ioe) {
+            // Closing anyway
+        }
+        close();
+    }
+
+
+    // ------------------------------------------------------ Stream handling
+
+    private Stream createStream(int streamId) {
+        Stream stream = new Stream(Integer.valueOf(streamId), this);
+        synchronized (this) {
+            addChild(stream);
+        }
+        streams.put(stream.getIdentifier(), stream);
+        return stream;
+    }
+
+
+    private void dispatch(Stream stream) throws StreamException {
+        StreamProcessor processor = new StreamProcessor(this, stream, adapter);
+        activeStreams.incrementAndGet();
+        stream.setDispatched();
+        try {
+            executor.execute(processor);
+        } catch (RejectedExecutionException ree) {
+            activeStreams.decrementAndGet();
+            throw new StreamException(sm.getString(
+                    "upgradeHandler.tooManyStreams", connectionId,
+                    stream.getIdentifier()), Http2Error.REFUSED_STREAM,
+                    stream.getIdentifier().intValue());
+        }
+    }
+
+
+    private void setPriority(Stream stream, int parentId, boolean exclusive,
+            int weight) throws StreamException {
+        if (parentId == stream.getIdentifier().intValue()) {
+            throw new StreamException(sm.getString(
+                    "upgradeHandler.selfDependency", connectionId,
+                    stream.getIdentifier()), Http2Error.PROTOCOL_ERROR,
+                    parentId);
+        }
+        synchronized (this) {
+            AbstractStream parent = parentId == 0 ? this :
+                    streams.get(Integer.valueOf(parentId));
+            if (parent == null) {
+                // Dependencies on streams that are not in the tree get the
+                // default priority
+                parent = this;
+                weight = Constants.DEFAULT_WEIGHT;
+                exclusive = false;
+            }
+            if (stream.isDescendant(parent)) {
+                // The new parent moves to the old position of the stream
+                stream.getParentStream().addChild((Stream) parent);
+            }
+            if (exclusive) {
+                // Copy as addChild() modifies the set
+                List<Stream> children =
+                        new ArrayList<Stream>(parent.getChildStreams());
+                for (Stream child : children) {
+                    if (child != stream) {
+                        stream.addChild(child);
+                    }
+                }
+            }
+            parent.addChild(stream);
+            stream.setWeight(weight);
+        }
+    }
+
+
+    /**
+     * Called by a {@link StreamProcessor} once the request has been
+     * processed.
+     */
+    void streamFinished(Stream stream) {
+        activeStreams.decrementAndGet();
+        if (!stream.isReset()) {
+            if (!stream.isOutputClosed()) {
+                // The response was not completed
+                resetStream(stream, Http2Error.INTERNAL_ERROR);
+            } else if (!stream.isInputClosed()) {
+                // The application did not read the entire request body. Tell
+                // the client to stop sending it.
+                resetStream(stream, Http2Error.NO_ERROR);
+            }
+        }
+        removeStream(stream);
+    }
+
+
+    /**
+     * Reset a stream as a result of an error on the server side.
+     */
+    void resetStream(Stream stream, Http2Error error) {
+        if (stream.isReset()) {
+            return;
+        }
+        stream.reset(error);
+        writeRstStreamQuietly(stream.getIdentifier().intValue(), error);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+
+    private void removeStream(Stream stream) {
+        if (streams.remove(stream.getIdentifier()) == null) {
+            return;
+        }
+        synchronized (this) {
+            // Children move up to the parent of the removed stream
+            AbstractStream parent = stream.getParentStream();
+            if (parent == null) {
+                parent = this;
+            }
+            List<Stream> children =
+                    new ArrayList<Stream>(stream.getChildStreams());
+            for (Stream child : children) {
+                parent.addChild(child);
+            }
+            stream.detachFromParent();
+
+            // Return any unused allocation
+            backLog.remove(stream);
+            long allocation = stream.getAllocation();
+            if (allocation > 0) {
+                stream.setAllocation(0);
+                setWindowSize(getWindowSize() + allocation);
+                if (!backLog.isEmpty()) {
+                    releaseBackLog();
+                }
+            }
+            notifyAll();
+        }
+    }
+
+
+    private void releaseStreams() {
+        for (Stream stream : streams.values()) {
+            stream.reset(Http2Error.CANCEL);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+
+    // -------------------------------------------------------- Flow control
+
+    /**
+     * Reserve space in the send windows of the stream and the connection.
+     *
+     * @param stream        The stream that wants to write data
+     * @param reservation   The number of bytes the stream wants to write
+     * @param block         Should this method block until space is
+     *                      available?
+     *
+     * @return the number of bytes reserved. This may be less than requested
+     *         and will only be zero if non-blocking
+     *
+     * @throws IOException If the stream or connection is closed or the write
+     *                     timeout expires before space is available
+     */
+    int reserveWindowSize(Stream stream, int reservation, boolean block)
+            throws IOException {
+        synchronized (this) {
+            long timeout = protocol.getWriteTimeout();
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                checkOpen(stream);
+                long streamWindow = stream.getWindowSize();
+                if (streamWindow > 0) {
+                    int wanted = (int) Math.min(reservation, streamWindow);
+                    long allocation = stream.getAllocation();
+                    int reserved = 0;
+                    if (allocation > 0) {
+                        reserved = (int) Math.min(wanted, allocation);
+                        stream.setAllocation(allocation - reserved);
+                    } else if (backLog.isEmpty() && getWindowSize() > 0) {
+                        reserved = (int) Math.min(wanted, getWindowSize());
+                        decrementWindowSize(reserved);
+                    }
+                    if (reserved > 0) {
+                        stream.decrementWindowSize(reserved);
+                        return reserved;
+                    }
+                    if (!block) {
+                        return 0;
+                    }
+                    if (!backLog.containsKey(stream)) {
+                        backLog.put(stream, Long.valueOf(wanted));
+                    }
+                    if (getWindowSize() > 0) {
+                        releaseBackLog();
+                        if (stream.getAllocation() > 0) {
+                            continue;
+                        }
+                    }
+                } else if (!block) {
+                    return 0;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (timeout > 0 && wait <= 0) {
+                    backLog.remove(stream);
+                    throw new SocketTimeoutException(sm.getString(
+                            "upgradeHandler.windowTimeout", connectionId,
+                            stream.getIdentifier()));
+                }
+                try {
+                    wait(timeout > 0 ? wait : 0);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Distribute the available connection window to the streams in the
+     * backlog. Must hold the lock on this.
+     */
+    private void releaseBackLog() {
+        long leftOver = allocate(this, getWindowSize());
+        setWindowSize(leftOver);
+    }
+
+
+    /*
+     * Allocate the window to the given stream, if it is waiting, and then to
+     * its descendants in proportion to their weights. Returns the part of the
+     * window that could not be allocated.
+     */
+    private long allocate(AbstractStream node, long available) {
+        long leftOver = available;
+        if (node instanceof Stream) {
+            Stream stream = (Stream) node;
+            Long requested = backLog.get(stream);
+            if (requested != null) {
+                long granted = Math.min(requested.longValue(), leftOver);
+                stream.setAllocation(stream.getAllocation() + granted);
+                leftOver -= granted;
+                if (granted == requested.longValue()) {
+                    backLog.remove(stream);
+                } else {
+                    backLog.put(stream, Long.valueOf(requested.longValue() - granted));
+                }
+            }
+        }
+        if (leftOver == 0) {
+            return 0;
+        }
+
+        List<Stream> recipients = new ArrayList<Stream>();
+        for (Stream child : node.getChildStreams()) {
+            if (hasDemand(child)) {
+                recipients.add(child);
+            }
+        }
+        while (leftOver > 0 && !recipients.isEmpty()) {
+            int totalWeight = 0;
+            for (Stream recipient : recipients) {
+                totalWeight += recipient.getWeight();
+            }
+            long toDistribute = leftOver;
+            Iterator<Stream> iter = recipients.iterator();
+            while (iter.hasNext() && leftOver > 0) {
+                Stream recipient = iter.next();
+                long share = Math.max(1,
+                        toDistribute * recipient.getWeight() / totalWeight);
+                share = Math.min(share, leftOver);
+                long unused = allocate(recipient, share);
+                leftOver -= share - unused;
+                if (unused > 0) {
+                    // Everything in this sub-tree has been satisfied
+                    iter.remove();
+                }
+            }
+        }
+        return leftOver;
+    }
+
+
+    private boolean hasDemand(Stream stream) {
+        if (backLog.containsKey(stream)) {
+            return true;
+        }
+        for (Stream child : stream.getChildStreams()) {
+            if (hasDemand(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void checkOpen(Stream stream) throws IOException {
+        if (closed) {
+            throw new IOException(sm.getString(
+                    "upgradeHandler.connectionClosed", connectionId));
+        }
+        if (stream.isReset()) {
+            throw new IOException(sm.getString("stream.reset",
+                    stream.getIdentifier(), stream.getResetError()));
+        }
+    }
+
+
+    // ------------------------------------------------------- Frame writing
+
+    /**
+     * Write the response headers.
+     *
+     * @param stream        The stream to write to
+     * @param response      The response
+     * @param endOfStream   Is this the end of the response?
+     *
+     * @throws IOException If the headers cannot be written
+     */
+    void writeHeaders(Stream stream, Response response, boolean endOfStream)
+            throws IOException {
+        synchronized (writeLock) {
+            checkOpen(stream);
+            int pos = appendHeaders(0, stream, response.getStatus(),
+                    response.getMimeHeaders(), endOfStream);
+            writeOut(pos);
+        }
+        if (endOfStream) {
+            stream.setOutputClosed();
+        }
+    }
+
+
+    /**
+     * Write an interim 100 response.
+     *
+     * @param stream    The stream to write to
+     *
+     * @throws IOException If the response cannot be written
+     */
+    void writeContinue(Stream stream) throws IOException {
+        synchronized (writeLock) {
+            checkOpen(stream);
+            writeOut(appendHeaders(0, stream, 100, null, false));
+        }
+    }
+
+
+    /**
+     * Write response body data, observing the flow control windows and
+     * splitting the data into frames no larger than the client allows.
+     *
+     * @param stream        The stream to write to
+     * @param response      If not <code>null</code>, the response headers
+     *                      are written first
+     * @param src           The data to write
+     * @param off           The offset of the first byte to write
+     * @param len           The number of bytes to write
+     * @param endOfStream   Is this the end of the response?
+     *
+     * @throws IOException If the data cannot be written
+     */
+    void writeBody(Stream stream, Response response, byte[] src, int off,
+            int len, boolean endOfStream) throws IOException {
+        boolean headersPending = response != null;
+        int remaining = len;
+        int pos = off;
+        do {
+            int frameSize = Math.min(remaining, remoteSettings.getMaxFrameSize());
+            int reserved = 0;
+            if (frameSize > 0) {
+                // Don't hold the headers back waiting for the window
+                reserved = reserveWindowSize(stream, frameSize, !headersPending);
+            }
+            boolean last = endOfStream && reserved == remaining;
+            synchronized (writeLock) {
+                checkOpen(stream);
+                int outPos = 0;
+                if (headersPending) {
+                    outPos = appendHeaders(outPos, stream, response.getStatus(),
+                            response.getMimeHeaders(), false);
+                    headersPending = false;
+                }
+                if (reserved > 0 || last) {
+                    outPos = appendFrame(outPos, FrameType.DATA,
+                            last ? Constants.FLAG_END_STREAM : 0,
+                            stream.getIdentifier().intValue(), src, pos, reserved);
+                }
+                writeOut(outPos);
+            }
+            pos += reserved;
+            remaining -= reserved;
+        } while (remaining > 0);
+        if (endOfStream) {
+            stream.setOutputClosed();
+        }
+    }
+
+
+    void writeWindowUpdate(Stream stream, int increment) throws IOException {
+        if (stream.isClosed()) {
+            return;
+        }
+        writeWindowUpdate(stream.getIdentifier().intValue(), increment);
+    }
+
+
+    private void writeWindowUpdate(int streamId, int increment)
+            throws IOException {
+        byte[] payload = new byte[4];
+        ByteUtil.set31Bits(payload, 0, increment);
+        writeFrame(FrameType.WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+
+    private void writeSettings() throws IOException {
+        byte[] payload = new byte[18];
+        int pos = 0;
+        pos = appendSetting(payload, pos, Constants.SETTING_MAX_CONCURRENT_STREAMS,
+                protocol.getMaxConcurrentStreams());
+        pos = appendSetting(payload, pos, Constants.SETTING_INITIAL_WINDOW_SIZE,
+                protocol.getInitialWindowSize());
+        pos = appendSetting(payload, pos, Constants.SETTING_MAX_HEADER_LIST_SIZE,
+                protocol.getMaxHeaderSize());
+        writeFrame(FrameType.SETTINGS, 0, 0, payload, 0, pos);
+    }
+
+
+    private static int appendSetting(byte[] payload, int pos, int id,
+            long value) {
+        ByteUtil.setTwoBytes(payload, pos, id);
+        ByteUtil.setFourBytes(payload, pos + 2, value);
+        return pos + 6;
+    }
+
+
+    private void writeRstStreamQuietly(int streamId, Http2Error error) {
+        byte[] payload = new byte[4];
+        ByteUtil.setFourBytes(payload, 0, error.getCode());
+        try {
+            writeFrame(FrameType.RST_STREAM, 0, streamId, payload, 0, 4);
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.rstFailed",
+                        connectionId, Integer.valueOf(streamId)), ioe);
+            }
+        }
+    }
+
+
+    private void writeFrame(FrameType type, int flags, int streamId,
+            byte[] payload, int off, int len) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException(sm.getString(
+                        "upgradeHandler.connectionClosed", connectionId));
+            }
+            writeOut(appendFrame(0, type, flags, streamId, payload, off, len));
+        }
+    }
+
+
+    /*
+     * Must hold writeLock.
+     */
+    private int appendFrame(int pos, FrameType type, int flags, int streamId,
+            byte[] payload, int off, int len) {
+        ensureOutBufferSize(pos + Constants.FRAME_HEADER_LENGTH + len);
+        ByteUtil.setThreeBytes(outBuffer, pos, len);
+        outBuffer[pos + 3] = (byte) type.getId();
+        outBuffer[pos + 4] = (byte) flags;
+        ByteUtil.set31Bits(outBuffer, pos + 5, streamId);
+        if (len > 0) {
+            System.arraycopy(payload, off, outBuffer,
+                    pos + Constants.FRAME_HEADER_LENGTH, len);
+        }
+        return pos + Constants.FRAME_HEADER_LENGTH + len;
+    }
+
+
+    /*
+     * Encode the headers and append them as a HEADERS frame followed by as
+     * many CONTINUATION frames as required. Must hold writeLock as the
+     * encoder state depends on the order the header blocks are written.
+     */
+    private int appendHeaders(int pos, Stream stream, int status,
+            MimeHeaders headers, boolean endOfStream) {
+        encodedHeaders.reset();
+        hpackEncoder.startHeaderBlock(encodedHeaders);
+        hpackEncoder.encodeHeader(":status", Integer.toString(status), encodedHeaders);
+        if (headers != null) {
+            for (int i = 0; i < headers.size(); i++) {
+                String name = headers.getName(i).toString().toLowerCase(Locale.ENGLISH);
+                if (CONNECTION_HEADERS.contains(name)) {
+                    continue;
+                }
+                hpackEncoder.encodeHeader(name, headers.getValue(i).toString(),
+                        encodedHeaders);
+            }
+        }
+
+        byte[] block = encodedHeaders.getBuffer();
+        int blockLength = encodedHeaders.size();
+        int maxFrameSize = remoteSettings.getMaxFrameSize();
+        int streamId = stream.getIdentifier().intValue();
+        int blockPos = 0;
+        boolean first = true;
+        do {
+            int frameSize = Math.min(blockLength - blockPos, maxFrameSize);
+            boolean endHeaders = blockPos + frameSize == blockLength;
+            int flags = endHeaders ? Constants.FLAG_END_HEADERS : 0;
+            if (first && endOfStream) {
+                flags |= Constants.FLAG_END_STREAM;
+            }
+            pos = appendFrame(pos, first ? FrameType.HEADERS : FrameType.CONTINUATION,
+                    flags, streamId, block, blockPos, frameSize);
+            blockPos += frameSize;
+            first = false;
+        } while (blockPos < blockLength);
+        return pos;
+    }
+
+
+    private void ensureOutBufferSize(int size) {
+        if (size > outBuffer.length) {
+            byte[] expanded = new byte[Math.max(size, outBuffer.length * 2)];
+            System.arraycopy(outBuffer, 0, expanded, 0, outBuffer.length);
+            outBuffer = expanded;
+        }
+    }
+
+
+    /*
+     * Must hold writeLock.
+     */
+    private void writeOut(int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        try {
+            os.write(outBuffer, 0, len);
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+    }
+
+
+    // ------------------------------------------------------------- Closing
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseStreams();
+        try {
+            connection.close();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.closeFailed", connectionId), e);
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------------- Getters
+
+    @Override
+    int getWeight() {
+        return 0;
+    }
+
+
+    Http2Protocol getProtocol() {
+        return protocol;
+    }
+
+
+    ConnectionSettings getRemoteSettings() {
+        return remoteSettings;
+    }
+
+
+    String getConnectionId() {
+        return connectionId;
+    }
+
+
+    String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+
+    int getRemotePort() {
+        return remotePort;
+    }
+
+
+    String getLocalAddr() {
+        return localAddr;
+    }
+
+
+    int getLocalPort() {
+        return localPort;
+    }
+
+
+    String getRemoteHost() {
+        String result = remoteHost;
+        if (result == null) {
+            result = lookup(remoteAddr);
+            remoteHost = result;
+        }
+        return result;
+    }
+
+
+    String getLocalName() {
+        String result = localName;
+        if (result == null) {
+            result = lookup(localAddr);
+            localName = result;
+        }
+        return result;
+    }
+
+
+    private static String lookup(String address) {
+        try {
+            return InetAddress.getByName(address).getHostName();
+        } catch (IOException ioe) {
+            return address;
+        }
+    }
+
+
+    /*
+     * Exposes the internal buffer to avoid copying the encoded header block.
+     */
+    private static class HeaderBlockStream extends ByteArrayOutputStream {
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * A single HTTP/2 stream. Holds the coyote request and response, the state of
+ * each direction of the stream, its position in the priority tree and the
+ * request body received so far.
+ */
+class Stream extends AbstractStream implements HeaderEmitter {
+
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>();
+
+    static {
+        CONNECTION_HEADERS.add("connection");
+        CONNECTION_HEADERS.add("keep-alive");
+        CONNECTION_HEADERS.add("proxy-connection");
+        CONNECTION_HEADERS.add("transfer-encoding");
+        CONNECTION_HEADERS.add("upgrade");
+    }
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final Http2UpgradeHandler handler;
+    private final Request coyoteRequest = new Request();
+    private final Response coyoteResponse = new Response();
+
+    // Guarded by the connection's flow control lock
+    private int weight = Constants.DEFAULT_WEIGHT;
+    private long allocation = 0;
+
+    // Only accessed by the thread reading from the connection
+    private boolean pseudoHeadersAllowed = true;
+    private boolean trailers = false;
+    private int headerCount = 0;
+    private long headerSize = 0;
+    private String headerError = null;
+
+    private volatile boolean inputClosed = false;
+    private volatile boolean outputClosed = false;
+    private volatile Http2Error resetError = null;
+    private volatile boolean dispatched = false;
+
+    // Request body state. Guarded by inputLock.
+    private final Object inputLock = new Object();
+    private ByteBuffer inBuffer = null;
+    private byte[] readBuffer = null;
+    private long receiveWindow;
+    private int unacknowledged = 0;
+
+
+    Stream(Integer identifier, Http2UpgradeHandler handler) {
+        super(identifier);
+        this.handler = handler;
+        setWindowSize(handler.getRemoteSettings().getInitialWindowSize());
+        // The client may use the default window until it has acknowledged
+        // the settings so never accept less than that
+        receiveWindow = getBufferSize();
+        coyoteRequest.setResponse(coyoteResponse);
+        coyoteRequest.protocol().setString(Constants.PRIOR_KNOWLEDGE_PROTOCOL);
+        coyoteRequest.setInputBuffer(new StreamInputBuffer());
+        coyoteRequest.setStartTime(System.currentTimeMillis());
+    }
+
+
+    Request getCoyoteRequest() {
+        return coyoteRequest;
+    }
+
+
+    Response getCoyoteResponse() {
+        return coyoteResponse;
+    }
+
+
+    @Override
+    int getWeight() {
+        return weight;
+    }
+
+
+    void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+
+    long getAllocation() {
+        return allocation;
+    }
+
+
+    void setAllocation(long allocation) {
+        this.allocation = allocation;
+    }
+
+
+    private int getBufferSize() {
+        return Math.max(handler.getProtocol().getInitialWindowSize(),
+                Constants.DEFAULT_INITIAL_WINDOW_SIZE);
+    }
+
+
+    // ------------------------------------------------------- Request headers
+
+    @Override
+    public void emitHeader(String name, String value) {
+        headerCount++;
+        headerSize += name.length() + value.length() + Hpack.ENTRY_OVERHEAD;
+        if (headerError != null || trailers) {
+            // Keep decoding so the HPACK state is maintained but otherwise
+            // ignore the remaining fields
+            return;
+        }
+        if (headerCount > handler.getProtocol().getMaxHeaderCount() ||
+                headerSize > handler.getProtocol().getMaxHeaderSize()) {
+            headerError = sm.getString("stream.header.tooLarge", getIdentifier());
+            return;
+        }
+        if (!name.toLowerCase(Locale.ENGLISH).equals(name)) {
+            headerError = sm.getString("stream.header.upperCase", getIdentifier(), name);
+            return;
+        }
+        if (CONNECTION_HEADERS.contains(name) ||
+                ("te".equals(name) && !"trailers".equals(value))) {
+            headerError = sm.getString("stream.header.connection", getIdentifier(), name);
+            return;
+        }
+
+        if (name.length() > 0 && name.charAt(0) == ':') {
+            if (!pseudoHeadersAllowed) {
+                headerError = sm.getString("stream.header.pseudoAfterRegular",
+                        getIdentifier(), name);
+                return;
+            }
+            if (":method".equals(name)) {
+                if (!setOnce(coyoteRequest.method().isNull(), name)) {
+                    return;
+                }
+                coyoteRequest.method().setString(value);
+            } else if (":scheme".equals(name)) {
+                if (!setOnce(coyoteRequest.scheme().isNull(), name)) {
+                    return;
+                }
+                coyoteRequest.scheme().setString(value);
+            } else if (":path".equals(name)) {
+                if (!setOnce(coyoteRequest.requestURI().isNull(), name)) {
+                    return;
+                }
+                if (value.length() == 0) {
+                    headerError = sm.getString("stream.header.emptyPath", getIdentifier());
+                    return;
+                }
+                int queryStart = value.indexOf('?');
+                if (queryStart == -1) {
+                    setBytes(coyoteRequest.requestURI(), value);
+                } else {
+                    setBytes(coyoteRequest.requestURI(), value.substring(0, queryStart));
+                    setBytes(coyoteRequest.queryString(), value.substring(queryStart + 1));
+                }
+            } else if (":authority".equals(name)) {
+                if (!setOnce(coyoteRequest.getMimeHeaders().getValue("host") == null, name)) {
+                    return;
+                }
+                coyoteRequest.getMimeHeaders().addValue("host").setString(value);
+            } else {
+                headerError = sm.getString("stream.header.unknownPseudo",
+                        getIdentifier(), name);
+            }
+        } else {
+            pseudoHeadersAllowed = false;
+            if ("host".equals(name) &&
+                    coyoteRequest.getMimeHeaders().getValue("host") != null) {
+                // :authority takes precedence
+                return;
+            }
+            coyoteRequest.getMimeHeaders().addValue(name).setString(value);
+        }
+    }
+
+
+    private boolean setOnce(boolean notSet, String name) {
+        if (!notSet) {
+            headerError = sm.getString("stream.header.duplicate", getIdentifier(), name);
+        }
+        return notSet;
+    }
+
+
+    private static void setBytes(org.apache.tomcat.util.buf.MessageBytes mb,
+            String value) {
+        byte[] bytes = value.getBytes(B2CConverter.ISO_8859_1);
+        mb.setBytes(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Prepare to receive a trailing header block.
+     */
+    void startTrailers() {
+        trailers = true;
+    }
+
+
+    /**
+     * Check the request headers once the complete header block has been
+     * decoded.
+     *
+     * @throws StreamException If the headers do not form a valid request
+     */
+    void validateRequestHeaders() throws StreamException {
+        if (headerError == null) {
+            if (coyoteRequest.method().isNull()) {
+                headerError = sm.getString("stream.header.missing",
+                        getIdentifier(), ":method");
+            } else if (!coyoteRequest.method().equals("CONNECT") &&
+                    (coyoteRequest.scheme().isNull() ||
+                            coyoteRequest.requestURI().isNull())) {
+                headerError = sm.getString("stream.header.missing",
+                        getIdentifier(), ":scheme/:path");
+            }
+        }
+        if (headerError != null) {
+            Http2Error error = headerSize > handler.getProtocol().getMaxHeaderSize() ||
+                    headerCount > handler.getProtocol().getMaxHeaderCount() ?
+                    Http2Error.ENHANCE_YOUR_CALM : Http2Error.PROTOCOL_ERROR;
+            throw new StreamException(headerError, error, getIdentifier().intValue());
+        }
+    }
+
+
+    /**
+     * Populate the request from the HTTP/1.1 request that was upgraded to
+     * HTTP/2. That request becomes stream 1 which is half-closed (remote)
+     * from the start.
+     */
+    void prepareFromUpgrade(Request original) {
+        coyoteRequest.method().setString(original.method().toString());
+        coyoteRequest.scheme().setString(original.scheme().toString());
+        setBytes(coyoteRequest.requestURI(), original.requestURI().toString());
+        if (!original.queryString().isNull()) {
+            setBytes(coyoteRequest.queryString(), original.queryString().toString());
+        }
+        MimeHeaders headers = original.getMimeHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.getName(i).toString().toLowerCase(Locale.ENGLISH);
+            if (CONNECTION_HEADERS.contains(name) || "te".equals(name) ||
+                    "http2-settings".equals(name)) {
+                continue;
+            }
+            coyoteRequest.getMimeHeaders().addValue(name).setString(
+                    headers.getValue(i).toString());
+        }
+        coyoteRequest.serverName().setString(original.serverName().toString());
+        coyoteRequest.setServerPort(original.getServerPort());
+        inputClosed = true;
+    }
+
+
+    // -------------------------------------------------------- Stream state
+
+    boolean isInputClosed() {
+        return inputClosed;
+    }
+
+
+    boolean isOutputClosed() {
+        return outputClosed;
+    }
+
+
+    void setOutputClosed() {
+        outputClosed = true;
+    }
+
+
+    boolean isReset() {
+        return resetError != null;
+    }
+
+
+    Http2Error getResetError() {
+        return resetError;
+    }
+
+
+    /**
+     * Mark the stream as reset, either by the client or as a result of an
+     * error, and wake any threads waiting on the stream.
+     */
+    void reset(Http2Error error) {
+        if (resetError == null) {
+            resetError = error;
+        }
+        synchronized (inputLock) {
+            inputLock.notifyAll();
+        }
+    }
+
+
+    boolean isDispatched() {
+        return dispatched;
+    }
+
+
+    void setDispatched() {
+        dispatched = true;
+    }
+
+
+    boolean isClosed() {
+        return resetError != null || (inputClosed && outputClosed);
+    }
+
+
+    // ---------------------------------------------------------- Request body
+
+    /**
+     * Called by the thread reading from the connection when a DATA frame is
+     * received.
+     *
+     * @param src           The buffer holding the payload
+     * @param off           The offset of the data
+     * @param len           The length of the data
+     * @param padding       The number of bytes of padding in the frame,
+     *                      including the pad length field
+     * @param endOfStream   Is this the last frame for the request?
+     *
+     * @throws StreamException If the client has exceeded the flow control
+     *                         window or the stream is no longer accepting
+     *                         data
+     */
+    void receiveData(byte[] src, int off, int len, int padding,
+            boolean endOfStream) throws StreamException {
+        if (inputClosed) {
+            throw new StreamException(sm.getString("stream.closed", getIdentifier()),
+                    Http2Error.STREAM_CLOSED, getIdentifier().intValue());
+        }
+        synchronized (inputLock) {
+            receiveWindow -= len + padding;
+            if (receiveWindow < 0) {
+                throw new StreamException(sm.getString("stream.windowExceeded",
+                        getIdentifier()), Http2Error.FLOW_CONTROL_ERROR,
+                        getIdentifier().intValue());
+            }
+            if (len > 0) {
+                if (inBuffer == null) {
+                    inBuffer = ByteBuffer.allocate(getBufferSize());
+                }
+                inBuffer.put(src, off, len);
+            }
+            // Padding is never seen by the application so treat it as
+            // consumed immediately
+            unacknowledged += padding;
+            if (endOfStream) {
+                inputClosed = true;
+            }
+            inputLock.notifyAll();
+        }
+    }
+
+
+    /**
+     * Called when the stream is closed remotely by a HEADERS frame, such as
+     * one containing trailers, with the END_STREAM flag set.
+     */
+    void receivedEndOfStream() {
+        synchronized (inputLock) {
+            inputClosed = true;
+            inputLock.notifyAll();
+        }
+    }
+
+
+    int available() {
+        synchronized (inputLock) {
+            return inBuffer == null ? 0 : inBuffer.position();
+        }
+    }
+
+
+    class StreamInputBuffer implements InputBuffer {
+
+        @Override
+        public int doRead(ByteChunk chunk, Request req) throws IOException {
+            int read;
+            int windowUpdate = 0;
+            synchronized (inputLock) {
+                long timeout = handler.getProtocol().getReadTimeout();
+                long deadline = System.currentTimeMillis() + timeout;
+                while (inBuffer == null || inBuffer.position() == 0) {
+                    if (resetError != null) {
+                        throw new IOException(sm.getString("stream.reset",
+                                getIdentifier(), resetError));
+                    }
+                    if (inputClosed) {
+                        return -1;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (timeout > 0 && wait <= 0) {
+                        throw new SocketTimeoutException(sm.getString(
+                                "stream.readTimeout", getIdentifier()));
+                    }
+                    try {
+                        inputLock.wait(timeout > 0 ? wait : 0);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (readBuffer == null) {
+                    readBuffer = new byte[READ_BUFFER_SIZE];
+                }
+                inBuffer.flip();
+                read = Math.min(inBuffer.remaining(), readBuffer.length);
+                inBuffer.get(readBuffer, 0, read);
+                inBuffer.compact();
+
+                // Return the consumed space to the client once a reasonable
+                // amount has built up to avoid lots of small WINDOW_UPDATE
+                // frames. There is no need to update a closed stream.
+                unacknowledged += read;
+                if (!inputClosed && unacknowledged >=
+                        handler.getProtocol().getInitialWindowSize() / 2) {
+                    windowUpdate = unacknowledged;
+                    receiveWindow += unacknowledged;
+                    unacknowledged = 0;
+                }
+            }
+            chunk.setBytes(readBuffer, 0, read);
+            if (windowUpdate > 0) {
+                handler.writeWindowUpdate(Stream.this, windowUpdate);
+            }
+            return read;
+        }
+    }
+}
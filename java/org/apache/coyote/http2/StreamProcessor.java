@@ -0,0 +1,400 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.ActionHook;
+import org.apache.coyote.Adapter;
+import org.apache.coyote.ErrorState;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.RequestInfo;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.SavedRequestInputFilter;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.parser.Host;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Processes a single request received on an HTTP/2 stream by passing it to
+ * the {@link Adapter} on a container thread. The request and response are the
+ * standard coyote objects so the mapping, the servlet API implementation and
+ * the applications are the same as for HTTP/1.1.
+ * <p>
+ * Asynchronous processing, Comet and HTTP upgrade are not supported for
+ * requests received over HTTP/2.
+ */
+class StreamProcessor implements ActionHook, OutputBuffer, Runnable {
+
+    private static final Log log = LogFactory.getLog(StreamProcessor.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private final Http2UpgradeHandler handler;
+    private final Stream stream;
+    private final Adapter adapter;
+    private final Request request;
+    private final Response response;
+
+    private ErrorState errorState = ErrorState.NONE;
+    // Committed by the application but the HEADERS frame has not been sent
+    private boolean headersPending = false;
+    private boolean entityBody = true;
+    private long bytesWritten = 0;
+
+
+    StreamProcessor(Http2UpgradeHandler handler, Stream stream,
+            Adapter adapter) {
+        this.handler = handler;
+        this.stream = stream;
+        this.adapter = adapter;
+        this.request = stream.getCoyoteRequest();
+        this.response = stream.getCoyoteResponse();
+        response.setHook(this);
+        response.setOutputBuffer(this);
+    }
+
+
+    @Override
+    public void run() {
+        RequestInfo rp = request.getRequestProcessor();
+        try {
+            rp.setStage(org.apache.coyote.Constants.STAGE_PREPARE);
+            if (prepareRequest()) {
+                rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+                adapter.service(request, response);
+            } else {
+                adapter.log(request, response, 0);
+            }
+            rp.setStage(org.apache.coyote.Constants.STAGE_ENDOUTPUT);
+            // The adapter normally finishes the response but make sure the
+            // client always sees the end of the stream
+            if (!stream.isOutputClosed() && !stream.isReset()) {
+                response.finish();
+            }
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            log.error(sm.getString("streamProcessor.service",
+                    handler.getConnectionId(), stream.getIdentifier()), t);
+            errorState = errorState.getMostSevere(ErrorState.CLOSE_NOW);
+            if (!response.isCommitted()) {
+                response.setStatus(500);
+                try {
+                    response.finish();
+                } catch (Throwable t2) {
+                    ExceptionUtils.handleThrowable(t2);
+                }
+            }
+        } finally {
+            if (errorState.isError()) {
+                response.setStatus(500);
+            }
+            request.updateCounters();
+            rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+            handler.streamFinished(stream);
+            request.recycle();
+            response.recycle();
+        }
+    }
+
+
+    /*
+     * Equivalent of the HTTP/1.1 processor's prepareRequest() for the parts
+     * that still apply to HTTP/2.
+     */
+    private boolean prepareRequest() {
+        request.remoteAddr().setString(handler.getRemoteAddr());
+        request.setRemotePort(handler.getRemotePort());
+        request.localAddr().setString(handler.getLocalAddr());
+        request.setLocalPort(handler.getLocalPort());
+
+        if (!request.serverName().isNull()) {
+            // Populated from the upgraded HTTP/1.1 request
+            return true;
+        }
+        MessageBytes hostMB = request.getMimeHeaders().getValue("host");
+        if (hostMB == null) {
+            request.serverName().setString(handler.getLocalAddr());
+            request.setServerPort(handler.getLocalPort());
+            return true;
+        }
+        String host = hostMB.toString();
+        try {
+            // The header was decoded to a String so the MessageBytes variant
+            // of the parser, which reads the byte chunk, cannot be used
+            int colonPos = Host.parse(host);
+            if (colonPos == -1) {
+                request.serverName().setString(host);
+            } else {
+                request.serverName().setString(host.substring(0, colonPos));
+                request.setServerPort(Integer.parseInt(host.substring(colonPos + 1)));
+            }
+        } catch (IllegalArgumentException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("streamProcessor.hostInvalid",
+                        handler.getConnectionId(), stream.getIdentifier(),
+                        host), e);
+            }
+            response.setStatus(400);
+            errorState = ErrorState.CLOSE_CLEAN;
+            return false;
+        }
+        return true;
+    }
+
+
+    /*
+     * Equivalent of the HTTP/1.1 processor's prepareResponse() for the
+     * headers that still apply to HTTP/2. Connection specific headers are
+     * removed when the headers are encoded.
+     */
+    private void prepareResponse() {
+        int statusCode = response.getStatus();
+        if (statusCode < 200 || statusCode == 204 || statusCode == 205 ||
+                statusCode == 304) {
+            entityBody = false;
+            if (statusCode == 205) {
+                response.setContentLength(0);
+            } else {
+                response.setContentLength(-1);
+            }
+        }
+        MimeHeaders headers = response.getMimeHeaders();
+        if (entityBody || statusCode == 204) {
+            String contentType = response.getContentType();
+            if (contentType != null) {
+                headers.setValue("Content-Type").setString(contentType);
+            }
+            String contentLanguage = response.getContentLanguage();
+            if (contentLanguage != null) {
+                headers.setValue("Content-Language").setString(contentLanguage);
+            }
+        }
+        long contentLength = response.getContentLengthLong();
+        if (contentLength != -1) {
+            headers.setValue("Content-Length").setLong(contentLength);
+        }
+        if (request.method().equals("HEAD")) {
+            entityBody = false;
+        }
+        if (headers.getValue("Date") == null) {
+            headers.setValue("Date").setString(
+                    FastHttpDateFormat.getCurrentDate());
+        }
+    }
+
+
+    // ---------------------------------------------------------- ActionHook
+
+    @Override
+    public void action(ActionCode actionCode, Object param) {
+        switch (actionCode) {
+        case COMMIT: {
+            if (!response.isCommitted()) {
+                prepareResponse();
+                headersPending = true;
+            }
+            break;
+        }
+        case CLOSE: {
+            if (!response.isCommitted()) {
+                response.sendHeaders();
+            }
+            try {
+                endOfStream();
+            } catch (IOException e) {
+                setError(ErrorState.CLOSE_NOW, e);
+            }
+            break;
+        }
+        case CLIENT_FLUSH: {
+            if (!response.isCommitted()) {
+                response.sendHeaders();
+            }
+            try {
+                writePendingHeaders(false);
+            } catch (IOException e) {
+                setError(ErrorState.CLOSE_NOW, e);
+                response.setErrorException(e);
+            }
+            break;
+        }
+        case ACK: {
+            // Send a 100 status back if it makes sense
+            if (response.isCommitted() || headersPending) {
+                break;
+            }
+            MessageBytes expect = request.getMimeHeaders().getValue("expect");
+            if (expect != null && expect.equalsIgnoreCase("100-continue")) {
+                try {
+                    handler.writeContinue(stream);
+                } catch (IOException e) {
+                    setError(ErrorState.CLOSE_NOW, e);
+                }
+            }
+            break;
+        }
+        case CLOSE_NOW: {
+            setError(ErrorState.CLOSE_NOW,
+                    param instanceof Throwable ? (Throwable) param : null);
+            break;
+        }
+        case IS_ERROR: {
+            ((AtomicBoolean) param).set(errorState.isError());
+            break;
+        }
+        case RESET: {
+            // Nothing has been written so there is nothing to do
+            break;
+        }
+        case DISABLE_SWALLOW_INPUT: {
+            // Any unread request body is discarded by resetting the stream
+            // once the response is complete
+            break;
+        }
+        case AVAILABLE: {
+            request.setAvailable(stream.available());
+            break;
+        }
+        case REQ_SET_BODY_REPLAY: {
+            ByteChunk body = (ByteChunk) param;
+            SavedRequestInputFilter savedBody = new SavedRequestInputFilter(body);
+            savedBody.setRequest(request);
+            request.setInputBuffer(savedBody);
+            break;
+        }
+        case REQ_HOST_ADDR_ATTRIBUTE: {
+            request.remoteAddr().setString(handler.getRemoteAddr());
+            break;
+        }
+        case REQ_HOST_ATTRIBUTE: {
+            request.remoteHost().setString(handler.getRemoteHost());
+            break;
+        }
+        case REQ_LOCAL_NAME_ATTRIBUTE: {
+            request.localName().setString(handler.getLocalName());
+            break;
+        }
+        case REQ_LOCAL_ADDR_ATTRIBUTE: {
+            request.localAddr().setString(handler.getLocalAddr());
+            break;
+        }
+        case REQ_REMOTEPORT_ATTRIBUTE: {
+            request.setRemotePort(handler.getRemotePort());
+            break;
+        }
+        case REQ_LOCALPORT_ATTRIBUTE: {
+            request.setLocalPort(handler.getLocalPort());
+            break;
+        }
+        case ASYNC_IS_ASYNC:
+        case ASYNC_IS_STARTED:
+        case ASYNC_IS_COMPLETING:
+        case ASYNC_IS_DISPATCHING:
+        case ASYNC_IS_TIMINGOUT:
+        case ASYNC_IS_ERROR: {
+            ((AtomicBoolean) param).set(false);
+            break;
+        }
+        case ASYNC_START:
+        case UPGRADE:
+        case UPGRADE_TOMCAT: {
+            throw new IllegalStateException(sm.getString(
+                    "streamProcessor.notSupported", actionCode));
+        }
+        default: {
+            // The remaining actions are either not relevant to HTTP/2 (e.g.
+            // SSL attributes for a clear text connection) or only apply to
+            // the unsupported asynchronous and Comet processing.
+            break;
+        }
+        }
+    }
+
+
+    private void setError(ErrorState errorState, Throwable t) {
+        this.errorState = this.errorState.getMostSevere(errorState);
+        if (t != null) {
+            log.debug(sm.getString("streamProcessor.error",
+                    handler.getConnectionId(), stream.getIdentifier()), t);
+        }
+        if (!errorState.isIoAllowed()) {
+            handler.resetStream(stream, Http2Error.CANCEL);
+        }
+    }
+
+
+    private void writePendingHeaders(boolean endOfStream) throws IOException {
+        if (headersPending) {
+            headersPending = false;
+            handler.writeHeaders(stream, response, endOfStream || !entityBody);
+        }
+    }
+
+
+    private void endOfStream() throws IOException {
+        if (stream.isOutputClosed() || stream.isReset()) {
+            return;
+        }
+        if (headersPending) {
+            writePendingHeaders(true);
+        } else {
+            handler.writeBody(stream, null, null, 0, 0, true);
+        }
+    }
+
+
+    // -------------------------------------------------------- OutputBuffer
+
+    @Override
+    public int doWrite(ByteChunk chunk, Response res) throws IOException {
+        if (!response.isCommitted()) {
+            response.sendHeaders();
+        }
+        int len = chunk.getLength();
+        if (!entityBody) {
+            writePendingHeaders(true);
+            return len;
+        }
+        if (stream.isOutputClosed()) {
+            // The declared content length has already been written
+            return len;
+        }
+        long contentLength = response.getContentLengthLong();
+        boolean last = contentLength != -1 && bytesWritten + len >= contentLength;
+        handler.writeBody(stream, headersPending ? response : null,
+                chunk.getBuffer(), chunk.getStart(), len, last);
+        headersPending = false;
+        bytesWritten += len;
+        return len;
+    }
+
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -132,6 +132,12 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheObjectMaxSize = 512; // 512 K
 
 
+    /**
+     * Max size of the cache for compressed variants of resources.
+     */
+    protected int cacheCompressedMaxSize = 2048; // 2 MB
+
+
     /**
      * Aliases allow content to be included from other locations.
      */
@@ -378,6 +384,22 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Return the maximum size of the compressed variants cache in KB.
+     */
+    public int getCacheCompressedMaxSize() {
+        return cacheCompressedMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size of the compressed variants cache in KB.
+     */
+    public void setCacheCompressedMaxSize(int cacheCompressedMaxSize) {
+        this.cacheCompressedMaxSize = cacheCompressedMaxSize;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
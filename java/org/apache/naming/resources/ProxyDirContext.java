@@ -19,10 +19,13 @@
 package org.apache.naming.resources;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Hashtable;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import javax.naming.Binding;
 import javax.naming.Context;
@@ -85,6 +88,8 @@ public class ProxyDirContext implements DirContext {
                             "resources.invalidCache", cacheClassName), e);
                 }
                 cache.setCacheMaxSize(baseDirContext.getCacheMaxSize());
+                cache.setCompressedMaxSize(
+                        baseDirContext.getCacheCompressedMaxSize());
                 cacheTTL = baseDirContext.getCacheTTL();
                 cacheObjectMaxSize = baseDirContext.getCacheObjectMaxSize();
                 // cacheObjectMaxSize must be less than cacheMaxSize
@@ -170,6 +175,18 @@ public class ProxyDirContext implements DirContext {
     protected ResourceCache cache = null;
 
 
+    /**
+     * Locks used to ensure that a resource is only compressed by one thread
+     * at a time.
+     */
+    private final Object[] compressLocks = new Object[16];
+    {
+        for (int i = 0; i < compressLocks.length; i++) {
+            compressLocks[i] = new Object();
+        }
+    }
+
+
     /**
      * Cache TTL.
      */
@@ -1484,9 +1501,152 @@ public class ProxyDirContext implements DirContext {
     }
 
 
+    /**
+     * Retrieves the gzip compressed variant of a resource that has been
+     * retrieved with {@link #lookupCache(String)}. The variant is compressed
+     * once per revision of the resource and then served from the cache until
+     * the resource changes. Its ETag is the ETag of the resource with a
+     * <code>-gzip</code> suffix.
+     *
+     * @param entry The cache entry of the resource
+     * @return the cache entry of the compressed variant or <code>null</code>
+     *         if compressed variants are not cached or the resource is too
+     *         large to be cached
+     */
+    public CacheEntry lookupCompressedCache(CacheEntry entry) {
+        if ((cache == null) || (cache.getCompressedMaxSize() <= 0)
+            || (!entry.exists) || (entry.resource == null)
+            || (entry.attributes == null))
+            return null;
+        long contentLength = entry.attributes.getContentLength();
+        if ((contentLength < 0) || (contentLength >= (cacheObjectMaxSize * 1024)))
+            return null;
+        String eTag = entry.attributes.getETag();
+        if (eTag == null)
+            return null;
+        String variantETag = variantETag(eTag, "gzip");
+
+        // Only one thread compresses a given resource. Others wait for the
+        // result rather than compressing it again.
+        synchronized (compressLocks[(entry.name.hashCode() & 0x7FFFFFFF) %
+                compressLocks.length]) {
+            CacheEntry variant;
+            int maxSize;
+            synchronized (cache) {
+                variant = cache.lookupCompressed(entry.name, variantETag);
+                maxSize = cache.getCompressedObjectMaxSize();
+            }
+            if (variant == null) {
+                if (maxSize <= 0) {
+                    return null;
+                }
+                byte[] compressed;
+                try {
+                    compressed = compress(entry.resource, (int) contentLength,
+                            maxSize * 1024);
+                } catch (IOException e) {
+                    return null;
+                }
+                variant = new CacheEntry();
+                variant.name = entry.name;
+                variant.timestamp = entry.timestamp;
+                variant.attributes = new ResourceAttributes();
+                variant.attributes.setETag(variantETag);
+                if (compressed != null) {
+                    variant.attributes.setName(entry.attributes.getName());
+                    variant.attributes.setMimeType(entry.attributes.getMimeType());
+                    variant.attributes.setLastModified(
+                            entry.attributes.getLastModified());
+                    variant.attributes.setContentLength(compressed.length);
+                    variant.resource = new Resource(compressed);
+                    variant.size += compressed.length / 1024;
+                }
+                // A variant too large to be cached is recorded without any
+                // content so that this revision is not compressed again
+                boolean loaded;
+                synchronized (cache) {
+                    loaded = cache.loadCompressed(variant);
+                }
+                if (!loaded) {
+                    return null;
+                }
+            }
+            if (variant.resource == null) {
+                return null;
+            }
+            return variant;
+        }
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
+    /**
+     * Derive the ETag of a variant of a resource by adding the name of the
+     * content coding inside the quotes of the ETag of the resource.
+     */
+    protected static String variantETag(String eTag, String encoding) {
+        if (eTag.endsWith("\"")) {
+            return eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+        }
+        return eTag + "-" + encoding;
+    }
+
+
+    /**
+     * Compress the content of a resource using gzip at the best compression
+     * level since it is only compressed once.
+     *
+     * @param resource  The resource to compress
+     * @param length    The length of the resource
+     * @param maxLength The maximum length of the compressed content
+     *
+     * @return the compressed content or <code>null</code> if it would be
+     *         longer than <code>maxLength</code>
+     */
+    protected byte[] compress(Resource resource, int length, int maxLength)
+        throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                Math.min(length / 4, maxLength) + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(baos) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+        try {
+            byte[] content = resource.getContent();
+            InputStream is;
+            if (content != null) {
+                is = new ByteArrayInputStream(content);
+            } else {
+                is = resource.streamContent();
+            }
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = is.read(buffer)) >= 0) {
+                    gzip.write(buffer, 0, n);
+                    if (baos.size() > maxLength) {
+                        // Stop as soon as the limit is exceeded
+                        return null;
+                    }
+                }
+            } finally {
+                is.close();
+            }
+            gzip.finish();
+        } finally {
+            gzip.close();
+        }
+        if (baos.size() > maxLength) {
+            return null;
+        }
+        return baos.toByteArray();
+    }
+
+
+
     /**
      * Parses a name.
      *
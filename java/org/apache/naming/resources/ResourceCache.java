@@ -18,6 +18,8 @@
 package org.apache.naming.resources;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Random;
 
 
@@ -103,6 +105,27 @@ public class ResourceCache {
     protected long hitsCount = 0;
 
 
+    /**
+     * Compressed variants of cached resources, in least recently used order.
+     * Path -> Cache entry holding the compressed content.
+     */
+    protected LinkedHashMap<String,CacheEntry> compressedCache =
+        new LinkedHashMap<String,CacheEntry>(16, 0.75f, true);
+
+
+    /**
+     * Max size of the compressed variants in KB. Zero disables caching of
+     * compressed variants.
+     */
+    protected int compressedMaxSize = 0;
+
+
+    /**
+     * Current size of the compressed variants in KB.
+     */
+    protected int compressedSize = 0;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -143,6 +166,38 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Return the maximum size of the compressed variants in KB.
+     */
+    public int getCompressedMaxSize() {
+        return compressedMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size of the compressed variants in KB.
+     */
+    public void setCompressedMaxSize(int compressedMaxSize) {
+        this.compressedMaxSize = compressedMaxSize;
+    }
+
+
+    /**
+     * Return the maximum size in KB of a single compressed variant.
+     */
+    public int getCompressedObjectMaxSize() {
+        return compressedMaxSize / 20;
+    }
+
+
+    /**
+     * Return the current size of the compressed variants in KB.
+     */
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+
     /**
      * Return desired entry access ratio.
      * @deprecated - unused
@@ -339,7 +394,63 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Find the compressed variant of a resource. The variant is only returned
+     * if it was created from the given revision of the resource, identified by
+     * its ETag, and is removed otherwise.
+     *
+     * @param name  The name of the resource
+     * @param eTag  The ETag of the variant for the current revision
+     *
+     * @return the variant or <code>null</code> if there is no current one
+     */
+    public CacheEntry lookupCompressed(String name, String eTag) {
+        CacheEntry variant = compressedCache.get(name);
+        if (variant == null) {
+            return null;
+        }
+        if (!eTag.equals(variant.attributes.getETag())) {
+            compressedCache.remove(name);
+            compressedSize -= variant.size;
+            return null;
+        }
+        return variant;
+    }
+
+
+    /**
+     * Add a compressed variant, removing the least recently used variants
+     * until it fits.
+     *
+     * @return <code>true</code> if the variant was added
+     */
+    public boolean loadCompressed(CacheEntry variant) {
+        if (variant.size > getCompressedObjectMaxSize()) {
+            // Don't allow a single variant to displace a large part of the
+            // cache
+            return false;
+        }
+        CacheEntry oldVariant = compressedCache.remove(variant.name);
+        if (oldVariant != null) {
+            compressedSize -= oldVariant.size;
+        }
+        Iterator<CacheEntry> iter = compressedCache.values().iterator();
+        while (compressedSize + variant.size > compressedMaxSize &&
+                iter.hasNext()) {
+            compressedSize -= iter.next().size;
+            iter.remove();
+        }
+        compressedCache.put(variant.name, variant);
+        compressedSize += variant.size;
+        return true;
+    }
+
+
     public boolean unload(String name) {
+        CacheEntry removedVariant = compressedCache.remove(name);
+        if (removedVariant != null) {
+            compressedSize -= removedVariant.size;
+        }
         CacheEntry removedEntry = removeCache(name);
         if (removedEntry != null) {
             cacheSize -= removedEntry.size;
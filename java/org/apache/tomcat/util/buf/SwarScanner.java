@@ -0,0 +1,90 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte scanning helpers that examine eight bytes at a time ("SIMD within a
+ * register"). The bytes are read as little endian longs through a
+ * {@link ByteBuffer} view of the array so that the first byte in memory is the
+ * least significant byte of the word. With that ordering the lowest flagged
+ * byte reported by the zero byte test is always exact.
+ */
+public final class SwarScanner {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long CRS = ONES * '\r';
+    private static final long LFS = ONES * '\n';
+
+    private SwarScanner() {
+        // Utility class
+    }
+
+
+    /**
+     * Create a view of the given array suitable for use with the scanning
+     * methods of this class.
+     *
+     * @param buf   The array to scan
+     * @return A little endian view of the whole array
+     */
+    public static ByteBuffer wrap(byte[] buf) {
+        return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Find the first CR or LF.
+     *
+     * @param view  View of the array created with {@link #wrap(byte[])}
+     * @param start First index to examine
+     * @param end   Index after the last byte to examine
+     * @return the index of the first CR or LF in the range or <code>end</code>
+     *         if there is none
+     */
+    public static int indexOfCrOrLf(ByteBuffer view, int start, int end) {
+        int i = start;
+        while (i + 8 <= end) {
+            long word = view.getLong(i);
+            long found = zeroBytes(word ^ CRS) | zeroBytes(word ^ LFS);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += 8;
+        }
+        for (; i < end; i++) {
+            byte b = view.get(i);
+            if (b == '\r' || b == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+
+    /*
+     * Sets the high bit of every zero byte. Bytes above (more significant
+     * than) the first zero byte may be falsely flagged but the lowest flagged
+     * byte is always exact.
+     */
+    private static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+}
@@ -135,6 +135,32 @@ public final class UDecoder {
         mb.setEnd( idx );
     }
 
+    /**
+     * Checks that a query string component could be URL decoded without
+     * decoding it. The same errors are reported as by
+     * {@link #convert(ByteChunk, boolean)} with <code>query</code> set to
+     * <code>true</code> but the bytes are not modified.
+     *
+     * @param buff  The URL encoded bytes
+     * @param start The index of the first byte to check
+     * @param end   The index after the last byte to check
+     * @throws IOException Invalid %xx URL encoding
+     */
+    public static void checkQuery( byte buff[], int start, int end )
+        throws IOException
+    {
+        int j= ByteChunk.findByte( buff, start, end, (byte) '%' );
+        while( j >= 0 ) {
+            if( j+2 >= end ) {
+                throw EXCEPTION_EOF;
+            }
+            if( !isHexDigit( buff[j+1] ) || ! isHexDigit( buff[j+2] )) {
+                throw EXCEPTION_NOT_HEX_DIGIT;
+            }
+            j= ByteChunk.findByte( buff, j+3, end, (byte) '%' );
+        }
+    }
+
     // -------------------- Additional methods --------------------
     // XXX What do we do about charset ????
 
@@ -0,0 +1,382 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pool of re-usable objects intended for objects that are obtained and
+ * returned at a high rate by many threads, such as the per connection and per
+ * event objects of the connectors.
+ * <p>
+ * Each thread first uses a small stack (a stripe) selected by its thread ID
+ * so that, unlike {@link SynchronizedStack} or a
+ * {@link java.util.concurrent.ConcurrentLinkedQueue}, threads do not all
+ * contend on the same lock or on the same head of a queue. A thread never
+ * waits for a stripe; if another thread is using it the shared overflow is
+ * used instead. Objects move between the stripes and the shared overflow in
+ * batches so that the lock on the overflow is only rarely taken. Stripes are
+ * used rather than thread locals so that objects are not stranded in threads
+ * that have finished and so that the pool can be cleared.
+ * <p>
+ * The pool never creates objects. {@link #poll()} returns <code>null</code>
+ * when the pool is empty and the caller is expected to create a new object.
+ *
+ * @param <T> The type of object managed by this pool
+ */
+public class RecyclingPool<T> {
+
+    public static final int DEFAULT_LOCAL_CAPACITY = 16;
+    private static final int MAX_STRIPES = 64;
+    private static final int INITIAL_OVERFLOW_SIZE = 32;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int maxLocalCapacity;
+
+    private volatile int limit = Integer.MIN_VALUE;
+    private volatile int localCapacity;
+    private volatile int overflowLimit;
+
+    private final Object overflowLock = new Object();
+    private Object[] overflow = new Object[INITIAL_OVERFLOW_SIZE];
+    private int overflowSize = 0;
+    private long overflowHits = 0;
+    private long overflowMisses = 0;
+
+
+    /**
+     * Create an unbounded pool.
+     */
+    public RecyclingPool() {
+        this(-1);
+    }
+
+
+    /**
+     * Create a pool with the default number of stripes.
+     *
+     * @param limit The maximum number of objects held by the pool, -1 for no
+     *              limit
+     */
+    public RecyclingPool(int limit) {
+        this(defaultStripeCount(), DEFAULT_LOCAL_CAPACITY, limit);
+    }
+
+
+    /**
+     * @param stripeCount       The number of stripes, rounded up to a power of
+     *                          two
+     * @param maxLocalCapacity  The maximum number of objects held by a stripe
+     * @param limit             The maximum number of objects held by the
+     *                          pool, -1 for no limit
+     */
+    public RecyclingPool(int stripeCount, int maxLocalCapacity, int limit) {
+        if (maxLocalCapacity < 1) {
+            maxLocalCapacity = 1;
+        }
+        int count = 1;
+        while (count < stripeCount && count < MAX_STRIPES) {
+            count <<= 1;
+        }
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(maxLocalCapacity);
+        }
+        mask = count - 1;
+        this.maxLocalCapacity = maxLocalCapacity;
+        setLimit(limit);
+    }
+
+
+    private static int defaultStripeCount() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+
+    /**
+     * Set the maximum number of objects held by the pool. It may be changed
+     * while the pool is in use in which case any excess objects are released
+     * as the pool is used.
+     *
+     * @param limit The maximum number of objects, -1 for no limit and 0 to
+     *              disable the pool
+     */
+    public void setLimit(int limit) {
+        if (limit == this.limit) {
+            return;
+        }
+        if (limit < 0) {
+            localCapacity = maxLocalCapacity;
+            overflowLimit = -1;
+        } else {
+            // Leave at least half of the limit for the overflow so that
+            // objects returned by one thread are available to the others
+            int local = Math.min(maxLocalCapacity, limit / (2 * stripes.length));
+            localCapacity = local;
+            overflowLimit = limit - local * stripes.length;
+        }
+        this.limit = limit;
+    }
+
+
+    public int getLimit() {
+        return limit;
+    }
+
+
+    /**
+     * Obtain an object from the pool.
+     *
+     * @return a pooled object or <code>null</code> if the pool is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        if (stripe.compareAndSet(false, true)) {
+            try {
+                if (stripe.count == 0) {
+                    refill(stripe);
+                }
+                if (stripe.count > 0) {
+                    stripe.hits++;
+                    int index = --stripe.count;
+                    Object result = stripe.items[index];
+                    stripe.items[index] = null;
+                    return (T) result;
+                }
+                stripe.misses++;
+                return null;
+            } finally {
+                stripe.lazySet(false);
+            }
+        }
+        synchronized (overflowLock) {
+            if (overflowSize > 0) {
+                overflowHits++;
+                int index = --overflowSize;
+                Object result = overflow[index];
+                overflow[index] = null;
+                return (T) result;
+            }
+            overflowMisses++;
+            return null;
+        }
+    }
+
+
+    /**
+     * Return an object to the pool.
+     *
+     * @param obj The object to return
+     *
+     * @return <code>true</code> if the object was added to the pool,
+     *         <code>false</code> if the pool is full
+     */
+    public boolean offer(T obj) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        int capacity = localCapacity;
+        if (capacity > 0 && stripe.compareAndSet(false, true)) {
+            try {
+                if (stripe.count >= capacity) {
+                    spill(stripe, capacity);
+                }
+                if (stripe.count < capacity) {
+                    stripe.items[stripe.count++] = obj;
+                    return true;
+                }
+            } finally {
+                stripe.lazySet(false);
+            }
+        }
+        synchronized (overflowLock) {
+            if (!hasOverflowSpace()) {
+                return false;
+            }
+            overflow[overflowSize++] = obj;
+            return true;
+        }
+    }
+
+
+    /**
+     * Remove all objects from the pool, passing each one to
+     * {@link #discard(Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    public void clear() {
+        List<Object> removed = new ArrayList<Object>();
+        for (Stripe stripe : stripes) {
+            while (!stripe.compareAndSet(false, true)) {
+                Thread.yield();
+            }
+            try {
+                for (int i = 0; i < stripe.count; i++) {
+                    removed.add(stripe.items[i]);
+                    stripe.items[i] = null;
+                }
+                stripe.count = 0;
+            } finally {
+                stripe.lazySet(false);
+            }
+        }
+        synchronized (overflowLock) {
+            for (int i = 0; i < overflowSize; i++) {
+                removed.add(overflow[i]);
+            }
+            overflow = new Object[INITIAL_OVERFLOW_SIZE];
+            overflowSize = 0;
+        }
+        for (Object obj : removed) {
+            discard((T) obj);
+        }
+    }
+
+
+    /**
+     * Called for each object removed by {@link #clear()}. The default
+     * implementation does nothing.
+     *
+     * @param obj The object removed from the pool
+     */
+    protected void discard(T obj) {
+        // NO-OP
+    }
+
+
+    /**
+     * @return the approximate number of objects held by the pool
+     */
+    public int size() {
+        int result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.count;
+        }
+        synchronized (overflowLock) {
+            result += overflowSize;
+        }
+        return result;
+    }
+
+
+    /**
+     * @return the number of calls to {@link #poll()} that returned a pooled
+     *         object
+     */
+    public long getHitCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.hits;
+        }
+        synchronized (overflowLock) {
+            result += overflowHits;
+        }
+        return result;
+    }
+
+
+    /**
+     * @return the number of calls to {@link #poll()} that returned
+     *         <code>null</code>
+     */
+    public long getMissCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.misses;
+        }
+        synchronized (overflowLock) {
+            result += overflowMisses;
+        }
+        return result;
+    }
+
+
+    /*
+     * Move up to half a stripe's worth of objects from the overflow to the
+     * given, empty, stripe.
+     */
+    private void refill(Stripe stripe) {
+        int batch = Math.max(1, localCapacity / 2);
+        synchronized (overflowLock) {
+            int n = Math.min(batch, overflowSize);
+            for (int i = 0; i < n; i++) {
+                int index = --overflowSize;
+                stripe.items[stripe.count++] = overflow[index];
+                overflow[index] = null;
+            }
+        }
+    }
+
+
+    /*
+     * Move objects from the given, full, stripe to the overflow until the
+     * stripe is half full or the overflow is full.
+     */
+    private void spill(Stripe stripe, int capacity) {
+        int keep = capacity / 2;
+        synchronized (overflowLock) {
+            while (stripe.count > keep && hasOverflowSpace()) {
+                int index = --stripe.count;
+                overflow[overflowSize++] = stripe.items[index];
+                stripe.items[index] = null;
+            }
+        }
+    }
+
+
+    /*
+     * Must be called holding overflowLock. Expands the overflow if required.
+     */
+    private boolean hasOverflowSpace() {
+        int max = overflowLimit;
+        if (max > -1 && overflowSize >= max) {
+            return false;
+        }
+        if (overflowSize == overflow.length) {
+            int newSize = overflow.length * 2;
+            if (max > -1 && newSize > max) {
+                newSize = max;
+            }
+            Object[] newOverflow = new Object[newSize];
+            System.arraycopy(overflow, 0, newOverflow, 0, overflowSize);
+            overflow = newOverflow;
+        }
+        return true;
+    }
+
+
+    /*
+     * The value of the AtomicBoolean indicates if a thread is using the
+     * stripe. The other fields are only accessed by the thread using the
+     * stripe apart from the statistics which are read without it.
+     */
+    private static final class Stripe extends AtomicBoolean {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] items;
+        private int count = 0;
+        private long hits = 0;
+        private long misses = 0;
+
+        Stripe(int capacity) {
+            items = new Object[capacity];
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.Collection;
+
+/**
+ * A hashed timing wheel for tracking large numbers of deadlines where only
+ * the ones that have expired need to be examined. Time is divided into ticks
+ * of a fixed duration and each tick hashes to one of a fixed number of
+ * buckets. Scheduling, re-scheduling and cancelling are constant time and
+ * {@link #expire(long, Collection)} only visits the buckets for the ticks that
+ * have elapsed since the previous call. Deadlines further in the future than
+ * one full rotation of the wheel stay in their bucket for the additional
+ * rotations so a wheel should be sized such that the common timeouts fit
+ * within a single rotation.
+ * <p>
+ * Deadlines are expired at most one tick late and never early.
+ * <p>
+ * This class is not thread safe. Instances are expected to be owned by a
+ * single thread, such as a poller.
+ *
+ * @param <T> The type of object associated with each deadline
+ */
+public class TimeoutWheel<T> {
+
+    private final long tickDuration;
+    private final int mask;
+    private final Entry<T>[] buckets;
+
+    /*
+     * The most recent tick for which the bucket has been processed
+     */
+    private long lastTick;
+    private int size = 0;
+
+
+    /**
+     * @param tickDuration The duration of a tick, in the same unit as the
+     *                     deadlines
+     * @param wheelSize    The number of buckets, rounded up to the next power
+     *                     of two
+     * @param now          The current time
+     */
+    public TimeoutWheel(long tickDuration, int wheelSize, long now) {
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException();
+        }
+        int n = 1;
+        while (n < wheelSize) {
+            n <<= 1;
+        }
+        this.tickDuration = tickDuration;
+        this.mask = n - 1;
+        this.buckets = newBuckets(n);
+        this.lastTick = now / tickDuration - 1;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newBuckets(int n) {
+        return (Entry<T>[]) new Entry<?>[n];
+    }
+
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+
+    /**
+     * @return the number of entries currently scheduled
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Schedule the entry to expire at the given deadline. If the entry is
+     * already scheduled on this wheel it is moved. Deadlines that have
+     * already passed expire on the next call to
+     * {@link #expire(long, Collection)}.
+     *
+     * @param entry     The entry to schedule
+     * @param deadline  The time at which the entry expires
+     */
+    public void schedule(Entry<T> entry, long deadline) {
+        if (entry.wheel != null) {
+            if (entry.wheel != this) {
+                throw new IllegalStateException();
+            }
+            unlink(entry);
+        }
+        long tick = deadline / tickDuration;
+        if (tick <= lastTick) {
+            tick = lastTick + 1;
+        }
+        entry.deadline = deadline;
+        entry.wheel = this;
+        int index = (int) (tick & mask);
+        Entry<T> head = buckets[index];
+        entry.bucket = index;
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        buckets[index] = entry;
+        size++;
+    }
+
+
+    /**
+     * Remove the entry from this wheel. Entries that are not scheduled on
+     * this wheel are ignored.
+     *
+     * @param entry The entry to remove
+     */
+    public void cancel(Entry<T> entry) {
+        if (entry.wheel == this) {
+            unlink(entry);
+        }
+    }
+
+
+    /**
+     * Remove all the entries whose deadline falls in a tick that has fully
+     * elapsed.
+     *
+     * @param now       The current time
+     * @param expired   The collection to which the expired entries are added
+     */
+    public void expire(long now, Collection<Entry<T>> expired) {
+        long currentTick = now / tickDuration;
+        long first = lastTick + 1;
+        long last = currentTick - 1;
+        if (last < first) {
+            return;
+        }
+        if (last - first > mask) {
+            // No point visiting a bucket more than once. Entries from the
+            // skipped ticks are in the same buckets and are all due.
+            first = last - mask;
+        }
+        for (long tick = first; tick <= last; tick++) {
+            // Entries for later rotations share the bucket and stay put.
+            // Everything else in the bucket is due.
+            long limit = (tick + 1) * tickDuration;
+            Entry<T> entry = buckets[(int) (tick & mask)];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.deadline < limit) {
+                    unlink(entry);
+                    expired.add(entry);
+                }
+                entry = next;
+            }
+        }
+        lastTick = last;
+    }
+
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            Entry<T> entry = buckets[i];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                entry.wheel = null;
+                entry.prev = null;
+                entry.next = null;
+                entry = next;
+            }
+            buckets[i] = null;
+        }
+        size = 0;
+    }
+
+
+    private void unlink(Entry<T> entry) {
+        if (entry.prev == null) {
+            buckets[entry.bucket] = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.wheel = null;
+        size--;
+    }
+
+
+    /**
+     * A deadline for an object. An entry may be scheduled on at most one
+     * wheel at a time and is re-used when the deadline changes.
+     *
+     * @param <T> The type of object associated with the deadline
+     */
+    public static final class Entry<T> {
+
+        private final T item;
+        private long deadline;
+
+        private TimeoutWheel<T> wheel;
+        private int bucket;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        public Entry(T item) {
+            this.item = item;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return <code>true</code> if the entry is currently scheduled on any
+         *         wheel
+         */
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /**
+         * @param wheel The wheel to test
+         * @return <code>true</code> if the entry is currently scheduled on the
+         *         given wheel
+         */
+        public boolean isScheduled(TimeoutWheel<T> wheel) {
+            return this.wheel == wheel;
+        }
+    }
+}
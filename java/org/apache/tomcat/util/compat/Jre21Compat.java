@@ -0,0 +1,91 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.compat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+class Jre21Compat extends Jre9Compat {
+
+    private static final Method ofVirtualMethod;
+    private static final Method nameMethod;
+    private static final Method factoryMethod;
+
+    static {
+        Method m1 = null;
+        Method m2 = null;
+        Method m3 = null;
+
+        try {
+            Class<?> builderClazz = Class.forName("java.lang.Thread$Builder");
+            m1 = Thread.class.getMethod("ofVirtual");
+            m2 = builderClazz.getMethod("name", String.class, long.class);
+            m3 = builderClazz.getMethod("factory");
+            // Java 19 and 20 only provide virtual threads as a preview
+            // feature and throw UnsupportedOperationException unless it is
+            // enabled
+            m1.invoke(null);
+        } catch (ClassNotFoundException e) {
+            // Must be Java 18 or earlier
+            m1 = null;
+        } catch (NoSuchMethodException e) {
+            // Must be Java 18 or earlier
+            m1 = null;
+        } catch (SecurityException e) {
+            // Should never happen
+            m1 = null;
+        } catch (IllegalAccessException e) {
+            // Should never happen
+            m1 = null;
+        } catch (InvocationTargetException e) {
+            // Preview feature not enabled
+            m1 = null;
+        }
+
+        ofVirtualMethod = m1;
+        nameMethod = m2;
+        factoryMethod = m3;
+    }
+
+
+    static boolean isSupported() {
+        return ofVirtualMethod != null;
+    }
+
+
+    @Override
+    public boolean isVirtualThreadSupported() {
+        return true;
+    }
+
+
+    @Override
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = ofVirtualMethod.invoke(null);
+            builder = nameMethod.invoke(builder, namePrefix, Long.valueOf(1));
+            return (ThreadFactory) factoryMethod.invoke(builder);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException(e.getCause());
+        }
+    }
+}
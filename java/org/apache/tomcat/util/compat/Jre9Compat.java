@@ -19,12 +19,15 @@ package org.apache.tomcat.util.compat;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Deque;
 import java.util.Set;
 import java.util.jar.JarFile;
@@ -50,6 +53,9 @@ class Jre9Compat extends Jre8Compat {
     private static final Method getMethod;
     private static final Constructor<JarFile> jarFileConstructor;
     private static final Method isMultiReleaseMethod;
+    private static final Object reusePortOption;
+    private static final Method setOptionMethod;
+    private static final Method supportedOptionsMethod;
 
     private static final Object RUNTIME_VERSION;
     private static final int RUNTIME_MAJOR_VERSION;
@@ -68,6 +74,9 @@ class Jre9Compat extends Jre8Compat {
         Method m13 = null;
         Object o14 = null;
         Object o15 = null;
+        Object o16 = null;
+        Method m17 = null;
+        Method m18 = null;
 
         try {
             Class<?> moduleLayerClazz = Class.forName("java.lang.ModuleLayer");
@@ -92,9 +101,16 @@ class Jre9Compat extends Jre8Compat {
             m13 = JarFile.class.getMethod("isMultiRelease");
             o14 = runtimeVersionMethod.invoke(null);
             o15 = majorMethod.invoke(o14);
+            Class<?> socketOptionClazz = Class.forName("java.net.SocketOption");
+            Class<?> networkChannelClazz = Class.forName("java.nio.channels.NetworkChannel");
+            o16 = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            m17 = networkChannelClazz.getMethod("setOption", socketOptionClazz, Object.class);
+            m18 = networkChannelClazz.getMethod("supportedOptions");
 
         } catch (SecurityException e) {
             // Should never happen
+        } catch (NoSuchFieldException e) {
+            // Should never happen
         } catch (NoSuchMethodException e) {
             // Should never happen
         } catch (ClassNotFoundException e) {
@@ -118,6 +134,9 @@ class Jre9Compat extends Jre8Compat {
         getMethod = m11;
         jarFileConstructor = c12;
         isMultiReleaseMethod = m13;
+        reusePortOption = o16;
+        setOptionMethod = m17;
+        supportedOptionsMethod = m18;
 
         RUNTIME_VERSION = o14;
         if (o15 != null) {
@@ -129,11 +148,58 @@ class Jre9Compat extends Jre8Compat {
     }
 
 
+    private static final Object unsafe;
+    private static final Method invokeCleanerMethod;
+
+    static {
+        // The cleaner of a buffer is no longer accessible from Java 9 but
+        // Unsafe provides a method to invoke it
+        Object o1 = null;
+        Method m2 = null;
+        try {
+            Class<?> unsafeClazz = Class.forName("sun.misc.Unsafe");
+            Field theUnsafeField = unsafeClazz.getDeclaredField("theUnsafe");
+            theUnsafeField.setAccessible(true);
+            o1 = theUnsafeField.get(null);
+            m2 = unsafeClazz.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ClassNotFoundException e) {
+            // Buffers are released when they are garbage collected
+        } catch (NoSuchFieldException e) {
+            // Buffers are released when they are garbage collected
+        } catch (NoSuchMethodException e) {
+            // Buffers are released when they are garbage collected
+        } catch (IllegalAccessException e) {
+            // Buffers are released when they are garbage collected
+        } catch (RuntimeException e) {
+            // Buffers are released when they are garbage collected
+        }
+        unsafe = o1;
+        invokeCleanerMethod = m2;
+    }
+
+
     static boolean isSupported() {
         return inaccessibleObjectExceptionClazz != null;
     }
 
 
+    @Override
+    public boolean cleanDirectBuffer(ByteBuffer buffer) {
+        if (invokeCleanerMethod == null || buffer == null || !buffer.isDirect()) {
+            return false;
+        }
+        try {
+            invokeCleanerMethod.invoke(unsafe, buffer);
+            return true;
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            // A slice or duplicate of another buffer
+            return false;
+        }
+    }
+
+
     @Override
     public boolean isInstanceOfInaccessibleObjectException(Throwable t) {
         if (t == null) {
@@ -223,4 +289,50 @@ class Jre9Compat extends Jre8Compat {
     public int jarFileRuntimeMajorVersion() {
         return RUNTIME_MAJOR_VERSION;
     }
+
+
+    @Override
+    public boolean isReusePortSupported() {
+        // Java 9 defines the option but the platform may still not support it
+        ServerSocketChannel channel = null;
+        try {
+            channel = ServerSocketChannel.open();
+            Set<?> options = (Set<?>) supportedOptionsMethod.invoke(channel);
+            return options.contains(reusePortOption);
+        } catch (IOException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            return false;
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void setReusePort(ServerSocketChannel channel) throws IOException {
+        try {
+            setOptionMethod.invoke(channel, reusePortOption, Boolean.TRUE);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new UnsupportedOperationException(cause);
+        }
+    }
 }
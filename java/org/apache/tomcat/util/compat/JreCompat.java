@@ -19,9 +19,12 @@ package org.apache.tomcat.util.compat;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -32,7 +35,9 @@ import java.sql.Statement;
 import java.util.Deque;
 import java.util.Locale;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarFile;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Resource;
@@ -53,6 +58,7 @@ public class JreCompat {
     private static final JreCompat instance;
     private static StringManager sm =
             StringManager.getManager(JreCompat.class.getPackage().getName());
+    private static final boolean jre21Available;
     private static final boolean jre9Available;
     private static final boolean jre8Available;
     private static final boolean jre7Available;
@@ -60,25 +66,35 @@ public class JreCompat {
 
     static {
         // This is Tomcat 7 with a minimum Java version of Java 6. The latest
-        // Java version the optional features require is Java 9.
+        // Java version the optional features require is Java 21.
         // Look for the highest supported JVM first
-        if (Jre9Compat.isSupported()) {
+        if (Jre21Compat.isSupported()) {
+            instance = new Jre21Compat();
+            jre21Available = true;
+            jre9Available = true;
+            jre8Available = true;
+            jre7Available = true;
+        } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
+            jre21Available = false;
             jre9Available = true;
             jre8Available = true;
             jre7Available = true;
         } else if (Jre8Compat.isSupported()) {
             instance = new Jre8Compat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = true;
             jre7Available = true;
         } else if (Jre7Compat.isSupported()) {
             instance = new Jre7Compat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = false;
             jre7Available = true;
         } else {
             instance = new JreCompat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = false;
             jre7Available = false;
@@ -146,6 +162,33 @@ public class JreCompat {
     }
 
 
+    /**
+     * Compresses data as {@link Deflater#deflate(byte[], int, int)} but, if
+     * <code>syncFlush</code> is set, ends with a sync flush so that all the
+     * input passed to the Deflater so far is written and the output ends on a
+     * byte boundary.
+     *
+     * @param deflater  The deflater to use
+     * @param b         The buffer for the compressed data
+     * @param off       The start offset in the buffer
+     * @param len       The maximum number of bytes to write to the buffer
+     * @param syncFlush Should a sync flush be performed?
+     *
+     * @return The number of bytes of compressed data written to the buffer
+     *
+     * @throws UnsupportedOperationException if sync flushing is not supported
+     *         by the JRE
+     */
+    public int deflate(Deflater deflater, byte[] b, int off, int len,
+            boolean syncFlush) {
+        if (syncFlush) {
+            throw new UnsupportedOperationException(
+                    sm.getString("jreCompat.noFlushableGzipOutputStream"));
+        }
+        return deflater.deflate(b, off, len);
+    }
+
+
     @SuppressWarnings("unused")
     public <T> T getObject(CallableStatement callableStatement, int parameterIndex, Class<T> type)
             throws SQLException {
@@ -330,6 +373,106 @@ public class JreCompat {
     }
 
 
+    /**
+     * Does the JRE and the platform support setting SO_REUSEPORT on server
+     * socket channels?
+     *
+     * @return {@code true} if {@link #setReusePort(ServerSocketChannel)} may
+     *         be called
+     */
+    public boolean isReusePortSupported() {
+        // SO_REUSEPORT is not exposed prior to Java 9
+        return false;
+    }
+
+
+    /**
+     * Enables SO_REUSEPORT on the given, not yet bound, server socket channel
+     * so that several channels may be bound to the same address and port with
+     * the kernel distributing new connections between them.
+     *
+     * @param channel   The channel to configure
+     *
+     * @throws IOException If the option can not be set on the channel
+     */
+    @SuppressWarnings("unused")
+    public void setReusePort(ServerSocketChannel channel) throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noReusePort"));
+    }
+
+
+    /**
+     * Releases the memory of a direct or memory-mapped buffer immediately
+     * rather than when the buffer is garbage collected. Neither the buffer
+     * nor any buffer derived from it may be used afterwards.
+     *
+     * @param buffer    The buffer to release
+     *
+     * @return {@code true} if the memory was released, {@code false} if it
+     *         will be released when the buffer is garbage collected
+     */
+    public boolean cleanDirectBuffer(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return false;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null) {
+                // A slice or duplicate of another buffer
+                return false;
+            }
+            Method cleanMethod = cleaner.getClass().getMethod("clean");
+            cleanMethod.setAccessible(true);
+            cleanMethod.invoke(cleaner);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            return false;
+        } catch (RuntimeException e) {
+            // SecurityException or IllegalArgumentException
+            return false;
+        }
+    }
+
+
+    // Java 6 implementation of Java 21 methods
+
+    public static boolean isJre21Available() {
+        return jre21Available;
+    }
+
+
+    /**
+     * Does the JRE support virtual threads?
+     *
+     * @return {@code true} if {@link #createVirtualThreadFactory(String)} may
+     *         be called
+     */
+    public boolean isVirtualThreadSupported() {
+        // Virtual threads were added in Java 21
+        return false;
+    }
+
+
+    /**
+     * Creates a factory for virtual threads. Thread names are formed from the
+     * given prefix followed by a counter that starts at 1.
+     *
+     * @param namePrefix    The prefix for the names of the created threads
+     *
+     * @return A thread factory that creates unstarted virtual threads
+     */
+    @SuppressWarnings("unused")
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
+
+
     public int jarFileRuntimeMajorVersion() {
         return RUNTIME_MAJOR_VERSION;
     }
@@ -18,6 +18,7 @@ package org.apache.tomcat.util.http;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -53,6 +54,21 @@ public final class Cookies {
 
     MimeHeaders headers;
 
+    /*
+     * Optional cache of parsed Cookie headers, most recently used first. This
+     * object is reused by every request handled by the same processor so
+     * consecutive requests on a keep-alive connection, which usually send an
+     * identical Cookie header, are only parsed once. The size only grows, so
+     * that a connection used for web applications with different sizes does
+     * not discard the cache each time, and is enabled per request.
+     */
+    private int cacheSize = 0;
+    private boolean cacheEnabled = false;
+    private CachedHeader[] cache = null;
+    private int cacheCount = 0;
+    // Set if the cookies for the current request were found in the cache
+    private ServerCookie[] cachedCookies = null;
+
     /**
      *  Construct a new cookie collection, that will extract
      *  the information from headers.
@@ -76,13 +92,51 @@ public final class Cookies {
     }
 
 
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+
+    /**
+     * Enable or disable the cache of parsed Cookie headers for the current
+     * request and ensure it can hold at least the given number of distinct
+     * headers. When a request contains a single Cookie header that is byte for
+     * byte identical to a cached header, the cached cookies are used rather
+     * than parsing the header again. Cached cookies are shared between
+     * requests and must not be modified.
+     * <p>
+     * A smaller size than the current one does not reduce the cache and zero
+     * or less does not discard it. The entries are kept for later requests
+     * that enable the cache again.
+     *
+     * @param cacheSize The number of headers to cache. Zero or less disables
+     *                  the cache.
+     */
+    public void setCacheSize(int cacheSize) {
+        cacheEnabled = cacheSize > 0;
+        if (cacheSize > this.cacheSize) {
+            CachedHeader[] newCache = new CachedHeader[cacheSize];
+            if (cache != null) {
+                System.arraycopy(cache, 0, newCache, 0, cacheCount);
+            }
+            cache = newCache;
+            this.cacheSize = cacheSize;
+        }
+    }
+
+
     /**
      * Recycle.
      */
     public void recycle() {
+        if (cachedCookies != null) {
+            // The cached cookies are not owned by this request
+            cachedCookies = null;
+        } else {
             for( int i=0; i< cookieCount; i++ ) {
-            if( scookies[i]!=null ) {
-                scookies[i].recycle();
+                if( scookies[i]!=null ) {
+                    scookies[i].recycle();
+                }
             }
         }
         cookieCount=0;
@@ -110,6 +164,9 @@ public final class Cookies {
         if( unprocessed ) {
             getCookieCount(); // will also update the cookies
         }
+        if (cachedCookies != null) {
+            return cachedCookies[idx];
+        }
         return scookies[idx];
     }
 
@@ -158,6 +215,9 @@ public final class Cookies {
         if( headers==null ) {
             return;// nothing to process
         }
+        if (cacheEnabled && processCachedCookies(headers)) {
+            return;
+        }
         // process each "cookie" header
         int pos=0;
         while( pos>=0 ) {
@@ -200,6 +260,89 @@ public final class Cookies {
         }
     }
 
+    /*
+     * Returns false if the headers can't use the cache and must be processed
+     * as normal.
+     */
+    private boolean processCachedCookies(MimeHeaders headers) {
+        int pos = headers.findHeader("Cookie", 0);
+        if (pos < 0) {
+            return true;
+        }
+        // Only the common case of a single Cookie header is cached
+        if (headers.findHeader("Cookie", pos + 1) >= 0) {
+            return false;
+        }
+        MessageBytes cookieValue = headers.getValue(pos);
+        if (cookieValue == null || cookieValue.isNull() ||
+                cookieValue.getType() != MessageBytes.T_BYTES) {
+            return false;
+        }
+        ByteChunk bc = cookieValue.getByteChunk();
+        byte[] bytes = bc.getBytes();
+        int off = bc.getOffset();
+        int len = bc.getLength();
+        if (len <= 0) {
+            return true;
+        }
+
+        // Most often the header is the same as for the previous request so
+        // check that before hashing the header
+        if (cacheCount > 0 && cache[0].matches(bytes, off, len)) {
+            return useCached(0);
+        }
+        int hash = 0;
+        for (int i = off; i < off + len; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        for (int i = 1; i < cacheCount; i++) {
+            if (cache[i].hash == hash && cache[i].matches(bytes, off, len)) {
+                return useCached(i);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Cookies: Parsing b[]: " + cookieValue.toString());
+        }
+        // Parse a copy of the header. The cached cookies will refer to it and
+        // the original header is preserved.
+        byte[] copy = new byte[len];
+        System.arraycopy(bytes, off, copy, 0, len);
+        byte[] key = copy;
+        if (ByteChunk.findByte(copy, 0, len, (byte) '"') >= 0) {
+            // Quoted values are unescaped in place
+            key = copy.clone();
+        }
+        processCookieHeader(copy, 0, len);
+
+        // Hand the parsed cookies over to the cache
+        ServerCookie[] parsed = new ServerCookie[cookieCount];
+        System.arraycopy(scookies, 0, parsed, 0, cookieCount);
+        Arrays.fill(scookies, 0, cookieCount, null);
+
+        if (cacheCount < cacheSize) {
+            cacheCount++;
+        }
+        System.arraycopy(cache, 0, cache, 1, cacheCount - 1);
+        cache[0] = new CachedHeader(key, hash, parsed);
+        cachedCookies = parsed;
+        return true;
+    }
+
+    private boolean useCached(int index) {
+        CachedHeader entry = cache[index];
+        if (limit > -1 && entry.cookies.length > limit) {
+            // Let normal processing report the problem
+            return false;
+        }
+        // Move to the front
+        System.arraycopy(cache, 0, cache, 1, index);
+        cache[0] = entry;
+        cachedCookies = entry.cookies;
+        cookieCount = entry.cookies.length;
+        return true;
+    }
+
     // XXX will be refactored soon!
     private static boolean equals( String s, byte b[], int start, int end) {
         int blen = end-start;
@@ -564,4 +707,29 @@ public final class Cookies {
         return end;
     }
 
+
+    private static final class CachedHeader {
+
+        private final byte[] header;
+        private final int hash;
+        private final ServerCookie[] cookies;
+
+        private CachedHeader(byte[] header, int hash, ServerCookie[] cookies) {
+            this.header = header;
+            this.hash = hash;
+            this.cookies = cookies;
+        }
+
+        private boolean matches(byte[] bytes, int off, int len) {
+            if (header.length != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (header[i] != bytes[off + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
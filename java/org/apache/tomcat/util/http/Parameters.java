@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
@@ -65,6 +66,13 @@ public final class Parameters {
     private int limit = -1;
     private int parameterCount = 0;
 
+    /**
+     * If <code>true</code>, parameters are not decoded when they are parsed.
+     * Only the position of each name and value is recorded and a value is
+     * decoded the first time it is requested.
+     */
+    private boolean lazyDecoding = false;
+
     /**
      * Set to the reason for the failure (the first failure if there is more
      * than one) if there were failures during parameter parsing.
@@ -101,6 +109,29 @@ public final class Parameters {
         }
     }
 
+    public boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
+    /**
+     * Controls when parameter names and values are URL and character decoded.
+     * If <code>false</code> (the default) every parameter is decoded as the
+     * query string or request body is parsed. If <code>true</code> parsing
+     * only records where each parameter starts and ends and a value is
+     * decoded the first time it is requested. This avoids creating Strings
+     * for parameters the application never reads. The bytes passed to
+     * {@link #processParameters(byte[], int, int)} must not be modified until
+     * this object is recycled.
+     *
+     * @param lazyDecoding  <code>true</code> to decode parameters on demand
+     */
+    public void setLazyDecoding(boolean lazyDecoding) {
+        if (!lazyDecoding) {
+            addPendingParameters();
+        }
+        this.lazyDecoding = lazyDecoding;
+    }
+
 
     public boolean isParseFailed() {
         return parseFailedReason != null;
@@ -122,6 +153,11 @@ public final class Parameters {
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
+        clearPending();
+        if (decodeBuffer.getBuffer() != null &&
+                decodeBuffer.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+            decodeBuffer = new ByteChunk();
+        }
         didQueryParameters=false;
         encoding=null;
         decodedQuery.recycle();
@@ -138,6 +174,7 @@ public final class Parameters {
         if (key == null) {
             return;
         }
+        addPendingParameters();
         ArrayList<String> values = paramHashValues.get(key);
         if (values == null) {
             values = new ArrayList<String>(newValues.length);
@@ -152,27 +189,47 @@ public final class Parameters {
 
     public String[] getParameterValues(String name) {
         handleQueryParameters();
+        // Must be called first as it may add the pending parameters
+        int pending = findPending(name);
         // no "facade"
         ArrayList<String> values = paramHashValues.get(name);
+        if (pending == -1) {
+            if (values == null) {
+                return null;
+            }
+            return values.toArray(new String[values.size()]);
+        }
+        ArrayList<String> result;
         if (values == null) {
-            return null;
+            result = new ArrayList<String>();
+        } else {
+            result = new ArrayList<String>(values);
         }
-        return values.toArray(new String[values.size()]);
+        while (pending != -1) {
+            result.add(getPendingValue(pending));
+            pending = nextPending(pending);
+        }
+        return result.toArray(new String[result.size()]);
     }
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        addPendingParameters();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
+        // Must be called first as it may add the pending parameters
+        int pending = findPending(name);
         ArrayList<String> values = paramHashValues.get(name);
         if (values != null) {
             if(values.size() == 0) {
                 return "";
             }
             return values.get(0);
+        } else if (pending != -1) {
+            return getPendingValue(pending);
         } else {
             return null;
         }
@@ -213,6 +270,18 @@ public final class Parameters {
             return;
         }
 
+        countParameter();
+        addPendingParameters();
+
+        ArrayList<String> values = paramHashValues.get(key);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            paramHashValues.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private void countParameter() throws IllegalStateException {
         parameterCount ++;
         if (limit > -1 && parameterCount > limit) {
             // Processing this parameter will push us over the limit. ISE is
@@ -221,13 +290,6 @@ public final class Parameters {
             throw new IllegalStateException(sm.getString(
                     "parameters.maxCountFail", Integer.valueOf(limit)));
         }
-
-        ArrayList<String> values = paramHashValues.get(key);
-        if (values == null) {
-            values = new ArrayList<String>(1);
-            paramHashValues.put(key, values);
-        }
-        values.add(value);
     }
 
     public void setURLDecoder( UDecoder u ) {
@@ -261,6 +323,12 @@ public final class Parameters {
 
         int decodeFailCount = 0;
 
+        if (lazyDecoding && !charset.equals(pendingCharset)) {
+            // Pending parameters are all decoded with the same charset
+            addPendingParameters();
+            pendingCharset = charset;
+        }
+
         int pos = start;
         int end = start + len;
 
@@ -393,27 +461,48 @@ public final class Parameters {
             }
 
             try {
-                String name;
-                String value;
-
-                if (decodeName) {
-                    urlDecode(tmpName);
-                }
-                tmpName.setCharset(charset);
-                name = tmpName.toString();
-
-                if (valueStart >= 0) {
-                    if (decodeValue) {
-                        urlDecode(tmpValue);
+                String name = null;
+                String value = null;
+
+                if (lazyDecoding) {
+                    // Names are short and are needed to look up values so
+                    // they are URL decoded now. Values are only checked.
+                    if (decodeName) {
+                        int offset = decodedNames.getEnd();
+                        decodedNames.append(bytes, nameStart, nameEnd - nameStart);
+                        tmpName.setBytes(decodedNames.getBuffer(), offset,
+                                nameEnd - nameStart);
+                        urlDecode(tmpName);
+                        decodedNames.setEnd(tmpName.getEnd());
+                    }
+                    if (valueStart >= 0 && decodeValue) {
+                        UDecoder.checkQuery(bytes, valueStart, valueEnd);
                     }
-                    tmpValue.setCharset(charset);
-                    value = tmpValue.toString();
                 } else {
-                    value = "";
+                    if (decodeName) {
+                        urlDecode(tmpName);
+                    }
+                    tmpName.setCharset(charset);
+                    name = tmpName.toString();
+
+                    if (valueStart >= 0) {
+                        if (decodeValue) {
+                            urlDecode(tmpValue);
+                        }
+                        tmpValue.setCharset(charset);
+                        value = tmpValue.toString();
+                    } else {
+                        value = "";
+                    }
                 }
 
                 try {
-                    addParameter(name, value);
+                    if (lazyDecoding) {
+                        addPending(bytes, decodeName, valueStart, valueEnd,
+                                decodeValue);
+                    } else {
+                        addParameter(name, value);
+                    }
                 } catch (IllegalStateException ise) {
                     // Hitting limit stops processing further params but does
                     // not cause request to fail.
@@ -527,6 +616,7 @@ public final class Parameters {
      * Debug purpose
      */
     public String paramsAsString() {
+        addPendingParameters();
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
@@ -540,6 +630,301 @@ public final class Parameters {
     }
 
 
+    // -------------------- Lazy decoding --------------------
+    // Parameters that have been parsed but not yet decoded. Each is described
+    // by the position of its name and value. Names that required URL decoding
+    // have been decoded into decodedNames. Values are decoded on demand and
+    // cached. An index, built on the first look up, hashes the name bytes so
+    // looking up a parameter does not require the names to be decoded to
+    // Strings.
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8 * 1024;
+
+    private int pendingCount = 0;
+    private Charset pendingCharset = null;
+    private byte[][] pendingBytes = new byte[16][];
+    private int[] pendingNameStart = new int[16];
+    private int[] pendingNameEnd = new int[16];
+    private boolean[] pendingNameDecoded = new boolean[16];
+    private int[] pendingValueStart = new int[16];
+    private int[] pendingValueEnd = new int[16];
+    private boolean[] pendingDecodeValue = new boolean[16];
+    private String[] pendingValues = new String[16];
+    private int[] pendingHash = new int[16];
+    private int[] pendingNext = new int[16];
+    private int[] pendingIndex = null;
+    private int indexedCount = 0;
+
+    private final ByteChunk decodedNames = new ByteChunk();
+    private ByteChunk decodeBuffer = new ByteChunk();
+    private byte[] lookupBytes = new byte[64];
+    private int lookupLength;
+    private int lookupHash;
+
+
+    /*
+     * Called with tmpName pointing at the (decoded) name.
+     */
+    private void addPending(byte[] bytes, boolean nameDecoded, int valueStart,
+            int valueEnd, boolean decodeValue) {
+
+        countParameter();
+
+        if (pendingCount == pendingBytes.length) {
+            int size = pendingCount * 2;
+            pendingBytes = Arrays.copyOf(pendingBytes, size);
+            pendingNameStart = Arrays.copyOf(pendingNameStart, size);
+            pendingNameEnd = Arrays.copyOf(pendingNameEnd, size);
+            pendingNameDecoded = Arrays.copyOf(pendingNameDecoded, size);
+            pendingValueStart = Arrays.copyOf(pendingValueStart, size);
+            pendingValueEnd = Arrays.copyOf(pendingValueEnd, size);
+            pendingDecodeValue = Arrays.copyOf(pendingDecodeValue, size);
+            pendingValues = Arrays.copyOf(pendingValues, size);
+            pendingHash = Arrays.copyOf(pendingHash, size);
+            pendingNext = Arrays.copyOf(pendingNext, size);
+        }
+
+        int i = pendingCount++;
+        pendingBytes[i] = bytes;
+        pendingNameStart[i] = tmpName.getStart();
+        pendingNameEnd[i] = tmpName.getEnd();
+        pendingNameDecoded[i] = nameDecoded;
+        pendingValueStart[i] = valueStart;
+        pendingValueEnd[i] = valueEnd;
+        pendingDecodeValue[i] = decodeValue;
+    }
+
+
+    /*
+     * Decode any pending parameters and add them to the map. Pending
+     * parameters always follow those already in the map so this preserves
+     * the order in which the parameters were received.
+     */
+    private void addPendingParameters() {
+        if (pendingCount == 0) {
+            return;
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            String name = getPendingName(i);
+            ArrayList<String> values = paramHashValues.get(name);
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                paramHashValues.put(name, values);
+            }
+            values.add(getPendingValue(i));
+        }
+        clearPending();
+    }
+
+
+    private void clearPending() {
+        // Don't retain references to the request data
+        Arrays.fill(pendingBytes, 0, pendingCount, null);
+        Arrays.fill(pendingValues, 0, pendingCount, null);
+        pendingCount = 0;
+        pendingCharset = null;
+        indexedCount = 0;
+        decodedNames.recycle();
+    }
+
+
+    private String getPendingName(int i) {
+        byte[] bytes = pendingNameDecoded[i] ?
+                decodedNames.getBuffer() : pendingBytes[i];
+        tmpName.setBytes(bytes, pendingNameStart[i],
+                pendingNameEnd[i] - pendingNameStart[i]);
+        tmpName.setCharset(pendingCharset);
+        String name = tmpName.toString();
+        tmpName.recycle();
+        return name;
+    }
+
+
+    private String getPendingValue(int i) {
+        String value = pendingValues[i];
+        if (value != null) {
+            return value;
+        }
+        int start = pendingValueStart[i];
+        if (start < 0) {
+            value = "";
+        } else {
+            int len = pendingValueEnd[i] - start;
+            ByteChunk bc;
+            if (pendingDecodeValue[i]) {
+                // Decode a copy as the original bytes may be needed again
+                bc = decodeBuffer;
+                bc.recycle();
+                try {
+                    bc.append(pendingBytes[i], start, len);
+                    urlDecode(bc);
+                } catch (IOException e) {
+                    // Can't happen. The buffer has no limit and the value was
+                    // checked when it was parsed.
+                }
+            } else {
+                bc = tmpValue;
+                bc.setBytes(pendingBytes[i], start, len);
+            }
+            bc.setCharset(pendingCharset);
+            value = bc.toString();
+            bc.recycle();
+        }
+        pendingValues[i] = value;
+        return value;
+    }
+
+
+    /*
+     * Returns the index of the first pending parameter with the given name or
+     * -1 if there is none. If the pending parameters can't be searched
+     * without decoding their names they are added to the map and -1 is
+     * returned.
+     */
+    private int findPending(String name) {
+        if (pendingCount == 0 || name == null) {
+            return -1;
+        }
+        if (!encodeLookup(name)) {
+            addPendingParameters();
+            return -1;
+        }
+        if (lookupLength == -1) {
+            // The name can't be represented in the charset so can't match
+            return -1;
+        }
+        if (indexedCount != pendingCount) {
+            indexPending();
+        }
+        return matchPending(pendingIndex[lookupHash & (pendingIndex.length - 1)]);
+    }
+
+
+    private int nextPending(int i) {
+        return matchPending(pendingNext[i]);
+    }
+
+
+    private int matchPending(int i) {
+        while (i != -1) {
+            if (pendingHash[i] == lookupHash &&
+                    pendingNameEnd[i] - pendingNameStart[i] == lookupLength) {
+                byte[] bytes = pendingNameDecoded[i] ?
+                        decodedNames.getBuffer() : pendingBytes[i];
+                int offset = pendingNameStart[i];
+                int j = 0;
+                while (j < lookupLength && bytes[offset + j] == lookupBytes[j]) {
+                    j++;
+                }
+                if (j == lookupLength) {
+                    return i;
+                }
+            }
+            i = pendingNext[i];
+        }
+        return -1;
+    }
+
+
+    private void indexPending() {
+        int size = 16;
+        while (size < pendingCount * 2) {
+            size <<= 1;
+        }
+        if (pendingIndex == null || pendingIndex.length < size) {
+            pendingIndex = new int[size];
+        }
+        Arrays.fill(pendingIndex, -1);
+        int mask = pendingIndex.length - 1;
+        // Work backwards so each chain is in the order the parameters were
+        // received
+        for (int i = pendingCount - 1; i >= 0; i--) {
+            byte[] bytes = pendingNameDecoded[i] ?
+                    decodedNames.getBuffer() : pendingBytes[i];
+            int h = hash(bytes, pendingNameStart[i], pendingNameEnd[i]);
+            pendingHash[i] = h;
+            pendingNext[i] = pendingIndex[h & mask];
+            pendingIndex[h & mask] = i;
+        }
+        indexedCount = pendingCount;
+    }
+
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+
+    /*
+     * Encodes the name to look up into lookupBytes using the charset of the
+     * pending parameters. Sets lookupLength to -1 if the name can't be
+     * encoded. Returns false if a byte comparison would not give the same
+     * result as comparing the decoded names.
+     */
+    private boolean encodeLookup(String name) {
+        boolean utf8 = B2CConverter.UTF_8.equals(pendingCharset);
+        int max = 0;
+        if (utf8) {
+            // Encoded below
+        } else if (DEFAULT_CHARSET.equals(pendingCharset)) {
+            max = 0xFF;
+        } else if (US_ASCII.equals(pendingCharset)) {
+            max = 0x7F;
+        } else {
+            return false;
+        }
+        int len = name.length();
+        if (name.indexOf('\uFFFD') != -1) {
+            // Could be the result of replacing invalid bytes
+            return false;
+        }
+        if (lookupBytes.length < len * 3) {
+            lookupBytes = new byte[len * 3];
+        }
+        byte[] b = lookupBytes;
+        int pos = 0;
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (!utf8) {
+                if (c > max) {
+                    lookupLength = -1;
+                    return true;
+                }
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE &&
+                    c <= Character.MAX_SURROGATE) {
+                if (!Character.isHighSurrogate(c) || i + 1 == len ||
+                        !Character.isLowSurrogate(name.charAt(i + 1))) {
+                    lookupLength = -1;
+                    return true;
+                }
+                int cp = Character.toCodePoint(c, name.charAt(++i));
+                b[pos++] = (byte) (0xF0 | (cp >> 18));
+                b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                b[pos++] = (byte) (0xE0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        lookupLength = pos;
+        lookupHash = hash(b, 0, pos);
+        return true;
+    }
+
+
     public enum FailReason {
         CLIENT_DISCONNECT,
         MULTIPART_CONFIG_INVALID,
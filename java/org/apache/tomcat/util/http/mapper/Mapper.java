@@ -55,6 +55,20 @@ public final class Mapper {
     Host[] hosts = new Host[0];
 
 
+    /**
+     * Index of the virtual hosts, and their aliases, by name ignoring case.
+     */
+    RadixTrie<Host> hostIndex = RadixTrie.empty(true);
+
+
+    /**
+     * Should requests be mapped with the radix trie indexes of hosts,
+     * contexts and wrappers rather than by binary searches of the sorted
+     * arrays. The indexes are maintained in either case.
+     */
+    private boolean indexed = false;
+
+
     /**
      * Default host name.
      */
@@ -84,6 +98,28 @@ public final class Mapper {
         this.defaultHostName = defaultHostName;
     }
 
+
+    /**
+     * Is mapping using the radix trie indexes rather than binary searches?
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+
+    /**
+     * Set if requests should be mapped using radix trie indexes of the hosts,
+     * contexts and wrappers. A look up in an index takes time proportional to
+     * the length of the host name or path rather than to the log of the
+     * number of mappings and does not allocate.
+     *
+     * @param indexed <code>true</code> to map using the indexes
+     */
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+
     /**
      * Add a new host to the mapper.
      *
@@ -96,7 +132,7 @@ public final class Mapper {
         Host[] newHosts = new Host[hosts.length + 1];
         Host newHost = new Host(name, host);
         if (insertMap(hosts, newHosts, newHost)) {
-            hosts = newHosts;
+            setHosts(newHosts);
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString("mapper.addHost.success", name));
             }
@@ -147,7 +183,7 @@ public final class Mapper {
                 newHosts[j++] = newHosts[i];
             }
         }
-        hosts = Arrays.copyOf(newHosts, j);
+        setHosts(Arrays.copyOf(newHosts, j));
     }
 
     /**
@@ -171,7 +207,7 @@ public final class Mapper {
     private boolean addHostAliasImpl(Host newAlias) {
         Host[] newHosts = new Host[hosts.length + 1];
         if (insertMap(hosts, newHosts, newAlias)) {
-            hosts = newHosts;
+            setHosts(newHosts);
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString("mapper.addHostAlias.success",
                         newAlias.name, newAlias.getRealHostName()));
@@ -207,12 +243,25 @@ public final class Mapper {
         }
         Host[] newHosts = new Host[hosts.length - 1];
         if (removeMap(hosts, newHosts, alias)) {
-            hosts = newHosts;
+            setHosts(newHosts);
             host.getRealHost().removeAlias(host);
         }
 
     }
 
+    /**
+     * Replace the hosts and rebuild their index. There are few hosts so the
+     * index is rebuilt rather than updated.
+     */
+    private void setHosts(Host[] newHosts) {
+        RadixTrie<Host> newHostIndex = RadixTrie.empty(true);
+        for (Host host : newHosts) {
+            newHostIndex = newHostIndex.put(host);
+        }
+        hosts = newHosts;
+        hostIndex = newHostIndex;
+    }
+
     /**
      * Replace {@link Host#contextList} field in <code>realHost</code> and
      * all its aliases with a new value.
@@ -512,6 +561,8 @@ public final class Mapper {
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.wildcardWrappers = newWrappers;
+                    context.wildcardWrapperIndex =
+                        context.wildcardWrapperIndex.put(newWrapper);
                     int slashCount = slashCount(newWrapper.name);
                     if (slashCount > context.nesting) {
                         context.nesting = slashCount;
@@ -527,6 +578,8 @@ public final class Mapper {
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.extensionWrappers = newWrappers;
+                    context.extensionWrapperIndex =
+                        context.extensionWrapperIndex.put(newWrapper);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -550,6 +603,8 @@ public final class Mapper {
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.exactWrappers = newWrappers;
+                    context.exactWrapperIndex =
+                        context.exactWrapperIndex.put(newWrapper);
                 }
             }
         }
@@ -609,6 +664,8 @@ public final class Mapper {
                         }
                     }
                     context.wildcardWrappers = newWrappers;
+                    context.wildcardWrapperIndex =
+                        context.wildcardWrapperIndex.remove(name);
                 }
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
@@ -621,6 +678,8 @@ public final class Mapper {
                     new Wrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
                     context.extensionWrappers = newWrappers;
+                    context.extensionWrapperIndex =
+                        context.extensionWrapperIndex.remove(name);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -643,6 +702,8 @@ public final class Mapper {
                     new Wrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
                     context.exactWrappers = newWrappers;
+                    context.exactWrapperIndex =
+                        context.exactWrapperIndex.remove(name);
                 }
             }
         }
@@ -785,7 +846,13 @@ public final class Mapper {
 
         // Virtual host mapping
         Host[] hosts = this.hosts;
-        Host mappedHost = exactFindIgnoreCase(hosts, host);
+        Host mappedHost;
+        if (indexed) {
+            mappedHost = hostIndex.find(
+                    host.getBuffer(), host.getStart(), host.getEnd());
+        } else {
+            mappedHost = exactFindIgnoreCase(hosts, host);
+        }
         if (mappedHost == null) {
             if (defaultHostName == null) {
                 return;
@@ -799,12 +866,60 @@ public final class Mapper {
 
         // Context mapping
         ContextList contextList = mappedHost.contextList;
+        Context context;
+        if (indexed) {
+            context = contextList.index.findLongestPrefix(
+                    uri.getBuffer(), uri.getStart(), uri.getEnd());
+        } else {
+            context = findContext(contextList, uri);
+        }
+        if (context == null) {
+            return;
+        }
+
+        mappingData.contextPath.setString(context.name);
+
+        ContextVersion contextVersion = null;
+        ContextVersion[] contextVersions = context.versions;
+        final int versionCount = contextVersions.length;
+        if (versionCount > 1) {
+            Object[] contextObjects = new Object[contextVersions.length];
+            for (int i = 0; i < contextObjects.length; i++) {
+                contextObjects[i] = contextVersions[i].object;
+            }
+            mappingData.contexts = contextObjects;
+            if (version != null) {
+                contextVersion = exactFind(contextVersions, version);
+            }
+        }
+        if (contextVersion == null) {
+            // Return the latest version
+            // The versions array is known to contain at least one element
+            contextVersion = contextVersions[versionCount - 1];
+        }
+
+        mappingData.context = contextVersion.object;
+        mappingData.contextSlashCount = contextVersion.slashCount;
+
+        // Wrapper mapping
+        if (!contextVersion.isPaused()) {
+            internalMapWrapper(contextVersion, uri, mappingData);
+        }
+
+    }
+
+
+    /**
+     * Find the context for the URI by binary searches of the sorted contexts.
+     */
+    private static final Context findContext(ContextList contextList,
+            CharChunk uri) {
         Context[] contexts = contextList.contexts;
         int nesting = contextList.nesting;
 
         int pos = find(contexts, uri);
         if (pos == -1) {
-            return;
+            return null;
         }
 
         int lastSlash = -1;
@@ -841,39 +956,7 @@ public final class Mapper {
                 context = null;
             }
         }
-        if (context == null) {
-            return;
-        }
-
-        mappingData.contextPath.setString(context.name);
-
-        ContextVersion contextVersion = null;
-        ContextVersion[] contextVersions = context.versions;
-        final int versionCount = contextVersions.length;
-        if (versionCount > 1) {
-            Object[] contextObjects = new Object[contextVersions.length];
-            for (int i = 0; i < contextObjects.length; i++) {
-                contextObjects[i] = contextVersions[i].object;
-            }
-            mappingData.contexts = contextObjects;
-            if (version != null) {
-                contextVersion = exactFind(contextVersions, version);
-            }
-        }
-        if (contextVersion == null) {
-            // Return the latest version
-            // The versions array is known to contain at least one element
-            contextVersion = contextVersions[versionCount - 1];
-        }
-
-        mappingData.context = contextVersion.object;
-        mappingData.contextSlashCount = contextVersion.slashCount;
-
-        // Wrapper mapping
-        if (!contextVersion.isPaused()) {
-            internalMapWrapper(contextVersion, uri, mappingData);
-        }
-
+        return context;
     }
 
 
@@ -897,15 +980,12 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        Wrapper[] exactWrappers = contextVersion.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        internalMapExactWrapper(contextVersion, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        Wrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
-                                       path, mappingData);
+            internalMapWildcardWrapper(contextVersion, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -940,9 +1020,8 @@ public final class Mapper {
         }
 
         // Rule 3 -- Extension Match
-        Wrapper[] extensionWrappers = contextVersion.extensionWrappers;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData,
+            internalMapExtensionWrapper(contextVersion, path, mappingData,
                     true);
         }
 
@@ -954,6 +1033,7 @@ public final class Mapper {
                 checkWelcomeFiles = (buf[pathEnd - 1] == '/');
             }
             if (checkWelcomeFiles) {
+                mappingData.resourceDependent = true;
                 for (int i = 0; (i < contextVersion.welcomeResources.length)
                          && (mappingData.wrapper == null); i++) {
                     path.setOffset(pathOffset);
@@ -963,13 +1043,12 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(contextVersion, path, mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
-                        internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
+                        internalMapWildcardWrapper(contextVersion, path,
+                                mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -984,7 +1063,7 @@ public final class Mapper {
                             // Swallow not found, since this is normal
                         }
                         if (file != null && !(file instanceof DirContext) ) {
-                            internalMapExtensionWrapper(extensionWrappers, path,
+                            internalMapExtensionWrapper(contextVersion, path,
                                                         mappingData, true);
                             if (mappingData.wrapper == null
                                 && contextVersion.defaultWrapper != null) {
@@ -1030,7 +1109,7 @@ public final class Mapper {
                     path.append(contextVersion.welcomeResources[i], 0,
                                 contextVersion.welcomeResources[i].length());
                     path.setOffset(servletPath);
-                    internalMapExtensionWrapper(extensionWrappers, path,
+                    internalMapExtensionWrapper(contextVersion, path,
                                                 mappingData, false);
                 }
 
@@ -1063,6 +1142,9 @@ public final class Mapper {
                 } catch(NamingException nex) {
                     // Swallow, since someone else handles the 404
                 }
+                if (file instanceof DirContext) {
+                    mappingData.resourceDependent = true;
+                }
                 if (file != null && file instanceof DirContext &&
                         contextVersion.mapperDirectoryRedirectEnabled) {
                     // Note: this mutates the path: do not do any processing
@@ -1087,9 +1169,15 @@ public final class Mapper {
     /**
      * Exact mapping.
      */
-    private final void internalMapExactWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        Wrapper wrapper = exactFind(wrappers, path);
+    private final void internalMapExactWrapper(ContextVersion contextVersion,
+            CharChunk path, MappingData mappingData) {
+        Wrapper wrapper;
+        if (indexed) {
+            wrapper = contextVersion.exactWrapperIndex.find(
+                    path.getBuffer(), path.getStart(), path.getEnd());
+        } else {
+            wrapper = exactFind(contextVersion.exactWrappers, path);
+        }
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1109,30 +1197,30 @@ public final class Mapper {
     /**
      * Wildcard mapping.
      */
-    private final void internalMapWildcardWrapper
-        (Wrapper[] wrappers, int nesting, CharChunk path,
-         MappingData mappingData) {
-
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
+    private final void internalMapWildcardWrapper(
+            ContextVersion contextVersion, CharChunk path,
+            MappingData mappingData) {
+
+        Wrapper wrapper = null;
+        if (indexed) {
+            wrapper = contextVersion.wildcardWrapperIndex.findLongestPrefix(
+                    path.getBuffer(), path.getStart(), path.getEnd());
+        } else {
+            Wrapper[] wrappers = contextVersion.wildcardWrappers;
+            int pathEnd = path.getEnd();
+            int lastSlash = -1;
+            int pos = find(wrappers, path);
             while (pos >= 0) {
                 if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
+                    int length = wrappers[pos].name.length();
+                    if (path.getLength() == length ||
+                            path.startsWithIgnoreCase("/", length)) {
+                        wrapper = wrappers[pos];
                         break;
                     }
                 }
                 if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
+                    lastSlash = nthSlash(path, contextVersion.nesting + 1);
                 } else {
                     lastSlash = lastSlash(path);
                 }
@@ -1140,19 +1228,20 @@ public final class Mapper {
                 pos = find(wrappers, path);
             }
             path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+        }
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
         }
     }
 
@@ -1160,13 +1249,15 @@ public final class Mapper {
     /**
      * Extension mappings.
      *
-     * @param wrappers          Set of wrappers to check for matches
+     * @param contextVersion    Context containing the wrappers to check for
+     *                          matches
      * @param path              Path to map
      * @param mappingData       Mapping data for result
      * @param resourceExpected  Is this mapping expecting to find a resource
      */
-    private final void internalMapExtensionWrapper(Wrapper[] wrappers,
-            CharChunk path, MappingData mappingData, boolean resourceExpected) {
+    private final void internalMapExtensionWrapper(
+            ContextVersion contextVersion, CharChunk path,
+            MappingData mappingData, boolean resourceExpected) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -1188,7 +1279,13 @@ public final class Mapper {
             if (period >= 0) {
                 path.setOffset(period + 1);
                 path.setEnd(pathEnd);
-                Wrapper wrapper = exactFind(wrappers, path);
+                Wrapper wrapper;
+                if (indexed) {
+                    wrapper = contextVersion.extensionWrapperIndex.find(
+                            buf, period + 1, pathEnd);
+                } else {
+                    wrapper = exactFind(contextVersion.extensionWrappers, path);
+                }
                 if (wrapper != null
                         && (resourceExpected || !wrapper.resourceOnly)) {
                     mappingData.wrapperPath.setChars(buf, servletPath, pathEnd
@@ -1659,21 +1756,24 @@ public final class Mapper {
 
         public final Context[] contexts;
         public final int nesting;
+        final RadixTrie<Context> index;
 
         public ContextList() {
-            this(new Context[0], 0);
+            this(new Context[0], 0, RadixTrie.<Context>empty(false));
         }
 
-        private ContextList(Context[] contexts, int nesting) {
+        private ContextList(Context[] contexts, int nesting,
+                RadixTrie<Context> index) {
             this.contexts = contexts;
             this.nesting = nesting;
+            this.index = index;
         }
 
         public ContextList addContext(Context mappedContext, int slashCount) {
             Context[] newContexts = new Context[contexts.length + 1];
             if (insertMap(contexts, newContexts, mappedContext)) {
                 return new ContextList(newContexts, Math.max(nesting,
-                        slashCount));
+                        slashCount), index.put(mappedContext));
             }
             return null;
         }
@@ -1685,7 +1785,8 @@ public final class Mapper {
                 for (Context context : newContexts) {
                     newNesting = Math.max(newNesting, slashCount(context.name));
                 }
-                return new ContextList(newContexts, newNesting);
+                return new ContextList(newContexts, newNesting,
+                        index.remove(path));
             }
             return null;
         }
@@ -1714,6 +1815,9 @@ public final class Mapper {
         public Wrapper[] exactWrappers = new Wrapper[0];
         public Wrapper[] wildcardWrappers = new Wrapper[0];
         public Wrapper[] extensionWrappers = new Wrapper[0];
+        RadixTrie<Wrapper> exactWrapperIndex = RadixTrie.empty(false);
+        RadixTrie<Wrapper> wildcardWrapperIndex = RadixTrie.empty(false);
+        RadixTrie<Wrapper> extensionWrapperIndex = RadixTrie.empty(false);
         public int nesting = 0;
         public boolean mapperContextRootRedirectEnabled = false;
         public boolean mapperDirectoryRedirectEnabled = false;
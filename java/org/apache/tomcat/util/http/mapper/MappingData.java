@@ -40,6 +40,13 @@ public class MappingData {
 
     public MessageBytes redirectPath = MessageBytes.newInstance();
 
+    /**
+     * Did the result depend on the static resources of the context, such as
+     * the presence of a welcome file or directory, rather than only on the
+     * mappings?
+     */
+    public boolean resourceDependent = false;
+
     public void recycle() {
         host = null;
         context = null;
@@ -52,6 +59,7 @@ public class MappingData {
         wrapperPath.recycle();
         pathInfo.recycle();
         redirectPath.recycle();
+        resourceDependent = false;
     }
 
 }
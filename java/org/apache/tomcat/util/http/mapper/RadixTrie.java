@@ -0,0 +1,341 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.http.mapper;
+
+import java.util.Arrays;
+
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * Immutable radix trie of map elements keyed by their names. Updates return a
+ * new trie that shares all the nodes not on the path to the changed key, so
+ * the mapper can replace its index copy-on-write while requests are being
+ * mapped against the previous one. Look ups work directly on the characters
+ * of the request and do not allocate.
+ *
+ * @param <E> The type of map element
+ */
+final class RadixTrie<E extends Mapper.MapElement> {
+
+    private static final char[] NO_CHARS = new char[0];
+
+    private static final RadixTrie<Mapper.MapElement> EMPTY =
+        new RadixTrie<Mapper.MapElement>(new Node<Mapper.MapElement>(
+                NO_CHARS, null, NO_CHARS, Node.<Mapper.MapElement>none()),
+                false);
+
+    private static final RadixTrie<Mapper.MapElement> EMPTY_IGNORE_CASE =
+        new RadixTrie<Mapper.MapElement>(EMPTY.root, true);
+
+
+    /**
+     * Return an empty trie.
+     *
+     * @param ignoreCase Should look ups ignore the case of ASCII characters
+     */
+    @SuppressWarnings("unchecked")
+    static <E extends Mapper.MapElement> RadixTrie<E> empty(
+            boolean ignoreCase) {
+        return (RadixTrie<E>) (ignoreCase ? EMPTY_IGNORE_CASE : EMPTY);
+    }
+
+
+    private final Node<E> root;
+    private final boolean ignoreCase;
+
+
+    private RadixTrie(Node<E> root, boolean ignoreCase) {
+        this.root = root;
+        this.ignoreCase = ignoreCase;
+    }
+
+
+    /**
+     * Return a trie that also contains the given element, replacing any
+     * element with the same name.
+     */
+    RadixTrie<E> put(E element) {
+        return new RadixTrie<E>(
+                put(root, toKey(element.name), 0, element), ignoreCase);
+    }
+
+
+    /**
+     * Return a trie without the element with the given name.
+     */
+    RadixTrie<E> remove(String name) {
+        Node<E> newRoot = remove(root, toKey(name), 0, true);
+        if (newRoot == root) {
+            return this;
+        }
+        return new RadixTrie<E>(newRoot, ignoreCase);
+    }
+
+
+    /**
+     * Find the element whose name is the given characters.
+     *
+     * @return the element or <code>null</code> if there is none
+     */
+    E find(char[] buf, int start, int end) {
+        Node<E> node = root;
+        int pos = start;
+        while (pos < end) {
+            Node<E> child = node.child(toKey(buf[pos]));
+            if (child == null || !matches(child.label, buf, pos, end)) {
+                return null;
+            }
+            pos += child.label.length;
+            node = child;
+        }
+        return node.value;
+    }
+
+
+    /**
+     * Find the element with the longest name that is a prefix of the given
+     * characters and is followed by either their end or a <code>/</code>.
+     * The element with an empty name, if there is one, always matches.
+     *
+     * @return the element or <code>null</code> if there is none
+     */
+    E findLongestPrefix(char[] buf, int start, int end) {
+        Node<E> node = root;
+        E result = node.value;
+        int pos = start;
+        while (pos < end) {
+            Node<E> child = node.child(toKey(buf[pos]));
+            if (child == null || !matches(child.label, buf, pos, end)) {
+                break;
+            }
+            pos += child.label.length;
+            node = child;
+            if (node.value != null && (pos == end || buf[pos] == '/')) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private char[] toKey(String name) {
+        char[] key = name.toCharArray();
+        if (ignoreCase) {
+            for (int i = 0; i < key.length; i++) {
+                key[i] = (char) Ascii.toLower(key[i]);
+            }
+        }
+        return key;
+    }
+
+
+    private char toKey(char c) {
+        return ignoreCase ? (char) Ascii.toLower(c) : c;
+    }
+
+
+    private boolean matches(char[] label, char[] buf, int pos, int end) {
+        if (end - pos < label.length) {
+            return false;
+        }
+        // The first character has already been matched to find the node
+        for (int i = 1; i < label.length; i++) {
+            if (label[i] != toKey(buf[pos + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /*
+     * Add the element below the given node, the label of which matches the
+     * key up to pos.
+     */
+    private static <E> Node<E> put(Node<E> node, char[] key, int pos,
+            E value) {
+        if (pos == key.length) {
+            return new Node<E>(node.label, value, node.first, node.children);
+        }
+        int index = Arrays.binarySearch(node.first, key[pos]);
+        if (index < 0) {
+            Node<E> leaf = new Node<E>(Arrays.copyOfRange(key, pos, key.length),
+                    value, NO_CHARS, Node.<E>none());
+            return node.insertChild(-index - 1, leaf);
+        }
+        Node<E> child = node.children[index];
+        int common = 1;
+        while (common < child.label.length && pos + common < key.length &&
+                child.label[common] == key[pos + common]) {
+            common++;
+        }
+        if (common < child.label.length) {
+            // Split the child where the key leaves its label
+            Node<E> tail = new Node<E>(
+                    Arrays.copyOfRange(child.label, common, child.label.length),
+                    child.value, child.first, child.children);
+            Node<E>[] children = Node.newArray(1);
+            children[0] = tail;
+            child = new Node<E>(Arrays.copyOf(child.label, common), null,
+                    new char[] { tail.label[0] }, children);
+        }
+        return node.replaceChild(index, put(child, key, pos + common, value));
+    }
+
+
+    /*
+     * Remove the key from below the given node, the label of which matches the
+     * key up to pos. Returns the same node if the key is not present and
+     * null if the node is no longer needed.
+     */
+    private static <E> Node<E> remove(Node<E> node, char[] key, int pos,
+            boolean isRoot) {
+        Node<E> result;
+        if (pos == key.length) {
+            if (node.value == null) {
+                return node;
+            }
+            result = new Node<E>(node.label, null, node.first, node.children);
+        } else {
+            int index = Arrays.binarySearch(node.first, key[pos]);
+            if (index < 0) {
+                return node;
+            }
+            Node<E> child = node.children[index];
+            if (key.length - pos < child.label.length) {
+                return node;
+            }
+            for (int i = 1; i < child.label.length; i++) {
+                if (child.label[i] != key[pos + i]) {
+                    return node;
+                }
+            }
+            Node<E> newChild =
+                remove(child, key, pos + child.label.length, false);
+            if (newChild == child) {
+                return node;
+            }
+            if (newChild == null) {
+                result = node.removeChild(index);
+            } else {
+                result = node.replaceChild(index, newChild);
+            }
+        }
+        if (isRoot || result.value != null) {
+            return result;
+        }
+        if (result.children.length == 0) {
+            return null;
+        }
+        if (result.children.length == 1) {
+            // Merge with the only child
+            Node<E> child = result.children[0];
+            char[] label = Arrays.copyOf(result.label,
+                    result.label.length + child.label.length);
+            System.arraycopy(child.label, 0, label, result.label.length,
+                    child.label.length);
+            return new Node<E>(label, child.value, child.first, child.children);
+        }
+        return result;
+    }
+
+
+    // ------------------------------------------------------ Node Inner Class
+
+    private static final class Node<E> {
+
+        private static final Node<?>[] NONE = new Node<?>[0];
+
+        /**
+         * The characters on the edge from the parent to this node.
+         */
+        final char[] label;
+        final E value;
+        /**
+         * The first character of the label of each child, in order.
+         */
+        final char[] first;
+        final Node<E>[] children;
+
+        Node(char[] label, E value, char[] first, Node<E>[] children) {
+            this.label = label;
+            this.value = value;
+            this.first = first;
+            this.children = children;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <E> Node<E>[] none() {
+            return (Node<E>[]) NONE;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <E> Node<E>[] newArray(int length) {
+            return (Node<E>[]) new Node<?>[length];
+        }
+
+        Node<E> child(char c) {
+            char[] first = this.first;
+            // Most nodes have few children
+            if (first.length < 8) {
+                for (int i = 0; i < first.length; i++) {
+                    if (first[i] == c) {
+                        return children[i];
+                    }
+                }
+                return null;
+            }
+            int index = Arrays.binarySearch(first, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node<E> insertChild(int index, Node<E> child) {
+            char[] newFirst = new char[first.length + 1];
+            Node<E>[] newChildren = newArray(children.length + 1);
+            System.arraycopy(first, 0, newFirst, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newFirst[index] = child.label[0];
+            newChildren[index] = child;
+            System.arraycopy(first, index, newFirst, index + 1,
+                    first.length - index);
+            System.arraycopy(children, index, newChildren, index + 1,
+                    children.length - index);
+            return new Node<E>(label, value, newFirst, newChildren);
+        }
+
+        Node<E> replaceChild(int index, Node<E> child) {
+            Node<E>[] newChildren = children.clone();
+            newChildren[index] = child;
+            return new Node<E>(label, value, first, newChildren);
+        }
+
+        Node<E> removeChild(int index) {
+            char[] newFirst = new char[first.length - 1];
+            Node<E>[] newChildren = newArray(children.length - 1);
+            System.arraycopy(first, 0, newFirst, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(first, index + 1, newFirst, index,
+                    newFirst.length - index);
+            System.arraycopy(children, index + 1, newChildren, index,
+                    newChildren.length - index);
+            return new Node<E>(label, value, newFirst, newChildren);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.tomcat.util.http.parser.HttpParser.SkipResult;
+
+public class AcceptEncoding {
+
+    private final String encoding;
+    private final double quality;
+
+    protected AcceptEncoding(String encoding, double quality) {
+        this.encoding = encoding;
+        this.quality = quality;
+    }
+
+    /**
+     * @return the content-coding in lower case
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public double getQuality() {
+        return quality;
+    }
+
+
+    /**
+     * Parse the value of an Accept-Encoding header. Codings with a quality of
+     * zero are retained since they explicitly exclude a coding that would
+     * otherwise be acceptable via <code>*</code>. A malformed weight is
+     * treated as a quality of zero.
+     *
+     * @param input The header value to parse
+     *
+     * @return the acceptable codings in the order they appear in the header
+     *
+     * @throws IOException If an I/O occurs reading the input
+     */
+    public static List<AcceptEncoding> parse(StringReader input) throws IOException {
+
+        List<AcceptEncoding> result = new ArrayList<AcceptEncoding>();
+
+        do {
+            String encoding = HttpParser.readToken(input);
+            if (encoding == null) {
+                // Invalid encoding, skip to the next one
+                HttpParser.skipUntil(input, 0, ',');
+                continue;
+            }
+
+            if (encoding.length() == 0) {
+                // No more data to read
+                break;
+            }
+
+            // See if a quality has been provided
+            double quality = 1;
+            SkipResult lookForSemiColon = HttpParser.skipConstant(input, ";");
+            if (lookForSemiColon == SkipResult.FOUND) {
+                quality = HttpParser.readWeight(input, ',');
+            }
+
+            result.add(new AcceptEncoding(
+                    encoding.toLowerCase(Locale.ENGLISH), quality));
+        } while (true);
+
+        return result;
+    }
+
+
+    /**
+     * Determine the quality with which a client accepts the given coding,
+     * taking account of any <code>*</code> entry and of the codings it
+     * explicitly excludes.
+     *
+     * @param acceptEncodings The codings parsed from the Accept-Encoding
+     *                        header
+     * @param encoding        The coding to look for in lower case
+     *
+     * @return the quality or zero if the coding is not acceptable
+     */
+    public static double getQuality(List<AcceptEncoding> acceptEncodings,
+            String encoding) {
+        double wildcard = 0;
+        for (AcceptEncoding acceptEncoding : acceptEncodings) {
+            if (acceptEncoding.getEncoding().equals(encoding)) {
+                return acceptEncoding.getQuality();
+            } else if ("*".equals(acceptEncoding.getEncoding())) {
+                wildcard = acceptEncoding.getQuality();
+            }
+        }
+        return wildcard;
+    }
+}
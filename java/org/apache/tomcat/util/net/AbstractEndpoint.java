@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.StringTokenizer;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLEngine;
@@ -284,6 +285,137 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    /**
+     * Overload detection. See {@link OverloadController}.
+     */
+    private final OverloadController overloadController = new OverloadController();
+    private final AtomicLong overloadRejectCount = new AtomicLong(0);
+
+    /**
+     * Number of queued tasks at which keep-alive timeouts are shortened to
+     * {@link #getOverloadKeepAliveTimeout()}. -1 disables this check.
+     */
+    public int getOverloadQueueSize() { return overloadController.getPressureQueueSize(); }
+    public void setOverloadQueueSize(int overloadQueueSize) {
+        overloadController.setPressureQueueSize(overloadQueueSize);
+    }
+
+    /**
+     * Average time in ms that tasks wait for a thread at which keep-alive
+     * timeouts are shortened to {@link #getOverloadKeepAliveTimeout()}. -1
+     * disables this check.
+     */
+    public long getOverloadWaitTime() { return overloadController.getPressureWaitTime(); }
+    public void setOverloadWaitTime(long overloadWaitTime) {
+        overloadController.setPressureWaitTime(overloadWaitTime);
+    }
+
+    /**
+     * Number of queued tasks at which connections are closed after the
+     * current response and new connections are rejected. -1 disables this
+     * check.
+     */
+    public int getOverloadShedQueueSize() { return overloadController.getShedQueueSize(); }
+    public void setOverloadShedQueueSize(int overloadShedQueueSize) {
+        overloadController.setShedQueueSize(overloadShedQueueSize);
+    }
+
+    /**
+     * Average time in ms that tasks wait for a thread at which connections are
+     * closed after the current response and new connections are rejected. -1
+     * disables this check.
+     */
+    public long getOverloadShedWaitTime() { return overloadController.getShedWaitTime(); }
+    public void setOverloadShedWaitTime(long overloadShedWaitTime) {
+        overloadController.setShedWaitTime(overloadShedWaitTime);
+    }
+
+    /**
+     * Keep-alive timeout used while the endpoint is overloaded, if shorter
+     * than the configured keep-alive timeout.
+     */
+    private int overloadKeepAliveTimeout = 1000;
+    public int getOverloadKeepAliveTimeout() { return overloadKeepAliveTimeout; }
+    public void setOverloadKeepAliveTimeout(int overloadKeepAliveTimeout) {
+        this.overloadKeepAliveTimeout = overloadKeepAliveTimeout;
+    }
+
+    /**
+     * Bytes written to a new connection before it is closed when it is
+     * rejected because the endpoint is shedding load. Set by the protocol. If
+     * <code>null</code>, the connection is closed without a response.
+     */
+    private byte[] overloadResponse = null;
+    public byte[] getOverloadResponse() { return overloadResponse; }
+    public void setOverloadResponse(byte[] overloadResponse) {
+        this.overloadResponse = overloadResponse;
+    }
+
+    /**
+     * @return the current overload state
+     */
+    public String getOverloadState() {
+        return updateOverloadState().name();
+    }
+
+    /**
+     * @return the smoothed average time in ms recent tasks waited for a thread
+     */
+    public long getOverloadAverageWaitTime() {
+        updateOverloadState();
+        return overloadController.getAverageWaitTime();
+    }
+
+    /*
+     * The state is otherwise only updated as connections are accepted and
+     * tasks start so it would not leave an overloaded state while the
+     * endpoint is idle.
+     */
+    private OverloadController.State updateOverloadState() {
+        if (overloadController.isEnabled()) {
+            return overloadController.update(getExecutorQueueSize());
+        }
+        return overloadController.getState();
+    }
+
+    /**
+     * @return the number of new connections rejected because the endpoint was
+     *         shedding load
+     */
+    public long getOverloadRejectCount() {
+        return overloadRejectCount.get();
+    }
+
+    /**
+     * Is the endpoint under pressure or shedding load?
+     */
+    public boolean isOverloaded() {
+        return overloadController.getState() != OverloadController.State.NORMAL;
+    }
+
+    /**
+     * Should the current response be the last on its connection because the
+     * endpoint is shedding load?
+     */
+    public boolean isShedding() {
+        return overloadController.getState() == OverloadController.State.SHEDDING;
+    }
+
+    /**
+     * The keep-alive timeout to use for a connection that is returning to the
+     * keep-alive state now. This is the configured keep-alive timeout unless
+     * the endpoint is overloaded.
+     */
+    public int getCurrentKeepAliveTimeout() {
+        int timeout = getKeepAliveTimeout();
+        if (isOverloaded() && overloadKeepAliveTimeout >= 0 &&
+                (timeout < 0 || overloadKeepAliveTimeout < timeout)) {
+            return overloadKeepAliveTimeout;
+        }
+        return timeout;
+    }
+
+
     /**
      * Socket TCP no delay.
      */
@@ -532,6 +664,60 @@ public abstract class AbstractEndpoint<S> {
         }
     }
 
+    /**
+     * Return the number of tasks waiting for a thread
+     *
+     * @return the number of queued tasks or -1 if the executor does not
+     *         expose its queue
+     */
+    public int getExecutorQueueSize() {
+        Executor executor = this.executor;
+        if (executor instanceof ThreadPoolExecutor &&
+                ((ThreadPoolExecutor) executor).getQueue() instanceof TaskQueue) {
+            // The internal executor. The TaskQueue starts a new thread rather
+            // than queuing a task until maxThreads is reached so any task in
+            // the queue is waiting for a thread.
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        } else if (executor instanceof ResizableExecutor) {
+            // A shared Executor
+            return ((ResizableExecutor) executor).getQueueSize();
+        } else if (executor instanceof java.util.concurrent.ThreadPoolExecutor) {
+            return ((java.util.concurrent.ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return -1;
+    }
+
+    /**
+     * Record that a socket processing task has started.
+     *
+     * @param queuedNanos The value of {@link System#nanoTime()} when the task
+     *                    was passed to the executor
+     */
+    protected void socketProcessingStarted(long queuedNanos) {
+        if (overloadController.isEnabled()) {
+            overloadController.recordWait(System.nanoTime() - queuedNanos);
+            overloadController.update(getExecutorQueueSize());
+        }
+    }
+
+    /**
+     * Called by acceptors for each new connection to determine whether it
+     * should be rejected because the endpoint is shedding load. If so, the
+     * acceptor should write the {@link #getOverloadResponse() overload
+     * response}, if any and if the connection is not secure, and then close
+     * the connection.
+     *
+     * @return <code>true</code> if the new connection should be rejected
+     */
+    protected boolean shedConnection() {
+        if (!overloadController.isEnabled() || overloadController.update(
+                getExecutorQueueSize()) != OverloadController.State.SHEDDING) {
+            return false;
+        }
+        overloadRejectCount.incrementAndGet();
+        return true;
+    }
+
     public boolean isRunning() {
         return running;
     }
@@ -741,6 +927,7 @@ public abstract class AbstractEndpoint<S> {
     }
 
     public final void start() throws Exception {
+        overloadController.reset();
         if (bindState == BindState.UNBOUND) {
             bind();
             bindState = BindState.BOUND_ON_START;
@@ -30,6 +30,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -47,6 +48,7 @@ import org.apache.tomcat.jni.Sockaddr;
 import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.jni.Status;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.TimeoutWheel;
 import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
@@ -1030,6 +1032,18 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
         }
     }
 
+    /*
+     * The socket is newly accepted, so still in blocking mode, and the send
+     * buffer is empty so this will not block in practice.
+     */
+    private void writeOverloadResponse(long socket) {
+        byte[] response = getOverloadResponse();
+        if (response != null && !isSSLEnabled()) {
+            // Ignore any error. The connection is being closed anyway.
+            Socket.send(socket, response, 0, response.length);
+        }
+    }
+
     /*
      * This method should only be called if there is no chance that the socket
      * is currently being used by the Poller. It is generally a bad idea to call
@@ -1121,7 +1135,11 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
                     // Successful accept, reset the error delay
                     errorDelay = 0;
 
-                    if (running && !paused) {
+                    if (running && !paused && shedConnection()) {
+                        writeOverloadResponse(socket);
+                        // Not yet known to the Poller
+                        destroySocket(socket);
+                    } else if (running && !paused) {
                         // Hand this socket off to an appropriate processor
                         if (!processSocketWithOptions(socket)) {
                             // Close socket right away
@@ -1247,23 +1265,41 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
 
     // ---------------------------------------------- SocketTimeouts Inner Class
 
+    /**
+     * Deadlines for the sockets in a poller. Adding, removing and expiring a
+     * socket are all constant time operations so the cost of timeout
+     * processing depends on the number of sockets that time out rather than
+     * the number of sockets in the poller.
+     */
     public static class SocketTimeouts {
-        protected int size;
 
-        protected long[] sockets;
-        protected long[] timeouts;
-        protected int pos = 0;
+        /*
+         * The poller only checks for timeouts every few seconds so there is
+         * no benefit in a finer resolution.
+         */
+        private static final long TICK_DURATION = 1000;
+        private static final int WHEEL_SIZE = 512;
+
+        private final Map<Long,TimeoutWheel.Entry<Long>> entries;
+        private final TimeoutWheel<Long> wheel;
+        private final ArrayList<TimeoutWheel.Entry<Long>> expired =
+                new ArrayList<TimeoutWheel.Entry<Long>>();
+        private int pos = 0;
 
         public SocketTimeouts(int size) {
-            this.size = 0;
-            sockets = new long[size];
-            timeouts = new long[size];
+            entries = new HashMap<Long,TimeoutWheel.Entry<Long>>(size);
+            wheel = new TimeoutWheel<Long>(TICK_DURATION, WHEEL_SIZE,
+                    System.currentTimeMillis());
         }
 
         public void add(long socket, long timeout) {
-            sockets[size] = socket;
-            timeouts[size] = timeout;
-            size++;
+            Long key = Long.valueOf(socket);
+            TimeoutWheel.Entry<Long> entry = entries.get(key);
+            if (entry == null) {
+                entry = new TimeoutWheel.Entry<Long>(key);
+                entries.put(key, entry);
+            }
+            wheel.schedule(entry, timeout);
         }
 
         /**
@@ -1273,30 +1309,38 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
          *         was not in the list of socket timeouts
          */
         public long remove(long socket) {
-            long result = 0;
-            for (int i = 0; i < size; i++) {
-                if (sockets[i] == socket) {
-                    result = timeouts[i];
-                    sockets[i] = sockets[size - 1];
-                    timeouts[i] = timeouts[size - 1];
-                    size--;
-                    break;
-                }
+            TimeoutWheel.Entry<Long> entry = entries.remove(Long.valueOf(socket));
+            if (entry == null) {
+                return 0;
             }
-            return result;
+            wheel.cancel(entry);
+            return entry.getDeadline();
         }
 
+        /**
+         * Returns the next socket that has timed out and removes it. Call
+         * repeatedly until zero is returned to obtain all the sockets that
+         * have timed out.
+         *
+         * @return The socket or zero if there are no more sockets that have
+         *         timed out
+         */
         public long check(long date) {
-            while (pos < size) {
-                if (date >= timeouts[pos]) {
-                    long result = sockets[pos];
-                    sockets[pos] = sockets[size - 1];
-                    timeouts[pos] = timeouts[size - 1];
-                    size--;
-                    return result;
+            if (pos == expired.size()) {
+                expired.clear();
+                pos = 0;
+                wheel.expire(date, expired);
+            }
+            while (pos < expired.size()) {
+                TimeoutWheel.Entry<Long> entry = expired.get(pos++);
+                // Skip sockets that have been removed or re-added since
+                if (!entry.isScheduled() &&
+                        entries.get(entry.getItem()) == entry) {
+                    entries.remove(entry.getItem());
+                    return entry.getItem().longValue();
                 }
-                pos++;
             }
+            expired.clear();
             pos = 0;
             return 0;
         }
@@ -2401,7 +2445,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
                                     Socket.timeoutSet(state.socket, getSoTimeout() * 1000);
                                     // Put the socket back in the poller for
                                     // processing of further requests
-                                    getPoller().add(state.socket, getKeepAliveTimeout(),
+                                    getPoller().add(state.socket, getCurrentKeepAliveTimeout(),
                                             true, false);
                                     break;
                                 }
@@ -2485,6 +2529,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
     protected class SocketWithOptionsProcessor implements Runnable {
 
         protected SocketWrapper<Long> socket = null;
+        protected final long queuedNanos = System.nanoTime();
 
 
         public SocketWithOptionsProcessor(SocketWrapper<Long> socket) {
@@ -2493,6 +2538,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
 
         @Override
         public void run() {
+            socketProcessingStarted(queuedNanos);
 
             synchronized (socket) {
                 if (!deferAccept) {
@@ -2542,6 +2588,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
 
         private final SocketWrapper<Long> socket;
         private final SocketStatus status;
+        private final long queuedNanos = System.nanoTime();
 
         public SocketProcessor(SocketWrapper<Long> socket,
                 SocketStatus status) {
@@ -2555,13 +2602,18 @@ public class AprEndpoint extends AbstractEndpoint<Long> {
 
         @Override
         public void run() {
+            socketProcessingStarted(queuedNanos);
 
             // Upgraded connections need to allow multiple threads to access the
             // connection at the same time to enable blocking IO to be used when
             // Servlet 3.1 NIO has been configured
             if (socket.isUpgraded() && SocketStatus.OPEN_WRITE == status) {
-                synchronized (socket.getWriteThreadLock()) {
+                Lock writeThreadLock = socket.getWriteThreadLock();
+                writeThreadLock.lock();
+                try {
                     doRun();
+                } finally {
+                    writeThreadLock.unlock();
                 }
             } else {
                 synchronized (socket) {
@@ -231,8 +231,12 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
                     // Successful accept, reset the error delay
                     errorDelay = 0;
 
-                    // Configure the socket
-                    if (running && !paused && setSocketOptions(socket)) {
+                    if (running && !paused && shedConnection()) {
+                        writeOverloadResponse(socket);
+                        countDownConnection();
+                        closeSocket(socket);
+                    } else if (running && !paused && setSocketOptions(socket)) {
+                        // Configure the socket
                         // Hand this socket off to an appropriate processor
                         if (!processSocket(socket)) {
                             countDownConnection();
@@ -262,6 +266,18 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
     }
 
 
+    private void writeOverloadResponse(Socket socket) {
+        byte[] response = getOverloadResponse();
+        if (response != null && !isSSLEnabled()) {
+            try {
+                socket.getOutputStream().write(response);
+            } catch (IOException ioe) {
+                // Ignore. The connection is being closed anyway.
+            }
+        }
+    }
+
+
     private void closeSocket(Socket socket) {
         try {
             socket.close();
@@ -282,6 +298,7 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
 
         protected SocketWrapper<Socket> socket = null;
         protected SocketStatus status = null;
+        protected final long queuedNanos = System.nanoTime();
 
         public SocketProcessor(SocketWrapper<Socket> socket) {
             if (socket==null) throw new NullPointerException();
@@ -295,6 +312,7 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
 
         @Override
         public void run() {
+            socketProcessingStarted(queuedNanos);
             boolean launch = false;
             synchronized (socket) {
                 try {
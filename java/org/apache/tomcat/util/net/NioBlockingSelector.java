@@ -31,6 +31,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -107,24 +108,78 @@ public class NioBlockingSelector {
                         continue; //we successfully wrote, try again without a selector
                     }
                 }
-                try {
-                    if ( att.getWriteLatch()==null || att.getWriteLatch().getCount()==0) att.startWriteLatch(1);
-                    poller.add(att,SelectionKey.OP_WRITE,reference);
-                    if (writeTimeout < 0) {
-                        att.awaitWriteLatch(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
-                    } else {
-                        att.awaitWriteLatch(writeTimeout,TimeUnit.MILLISECONDS);
+                Waiter waiter = att.getWriteWaiter();
+                waiter.prepare();
+                poller.add(att,SelectionKey.OP_WRITE,reference);
+                if (waiter.await(writeTimeout)) {
+                    //the poller has signalled the socket is ready
+                    keycount = 1;
+                } else {
+                    //timed out or interrupted without notification from the poller
+                    keycount = 0;
+                }
+
+                if (writeTimeout > 0 && (keycount == 0))
+                    timedout = (System.currentTimeMillis() - time) >= writeTimeout;
+            } //while
+            if (timedout)
+                throw new SocketTimeoutException();
+        } finally {
+            poller.remove(att,SelectionKey.OP_WRITE);
+            if (timedout && reference.key!=null) {
+                poller.cancelKey(reference.key);
+            }
+            reference.key = null;
+            keyReferenceQueue.add(reference);
+        }
+        return written;
+    }
+
+    /**
+     * Performs a blocking gathering write of the given buffers. See
+     * {@link #write(ByteBuffer, NioChannel, long)}.
+     * @param bufs ByteBuffer[] - the buffers containing the data, we will write as long as any of them has remaining bytes
+     * @param socket SocketChannel - the socket to write data to
+     * @param writeTimeout long - the timeout for this write operation in milliseconds, -1 means no timeout
+     * @return long - returns the number of bytes written
+     * @throws EOFException if write returns -1
+     * @throws SocketTimeoutException if the write times out
+     * @throws IOException if an IO Exception occurs in the underlying socket logic
+     */
+    public long write(ByteBuffer[] bufs, NioChannel socket, long writeTimeout)
+            throws IOException {
+        SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
+        if ( key == null ) throw new IOException("Key no longer registered");
+        KeyReference reference = keyReferenceQueue.poll();
+        if (reference == null) {
+            reference = new KeyReference();
+        }
+        KeyAttachment att = (KeyAttachment) key.attachment();
+        long written = 0;
+        boolean timedout = false;
+        int keycount = 1; //assume we can write
+        long time = System.currentTimeMillis(); //start the timeout timer
+        try {
+            while ( (!timedout) && hasRemaining(bufs)) {
+                if (keycount > 0) { //only write if we were registered for a write
+                    long cnt = socket.write(bufs); //write the data
+                    if (cnt == -1)
+                        throw new EOFException();
+                    written += cnt;
+                    if (cnt > 0) {
+                        time = System.currentTimeMillis(); //reset our timeout timer
+                        continue; //we successfully wrote, try again without a selector
                     }
-                }catch (InterruptedException ignore) {
-                    Thread.interrupted();
                 }
-                if ( att.getWriteLatch()!=null && att.getWriteLatch().getCount()> 0) {
-                    //we got interrupted, but we haven't received notification from the poller.
-                    keycount = 0;
-                }else {
-                    //latch countdown has happened
+                Waiter waiter = att.getWriteWaiter();
+                waiter.prepare();
+                poller.add(att,SelectionKey.OP_WRITE,reference);
+                if (waiter.await(writeTimeout)) {
+                    //the poller has signalled the socket is ready
                     keycount = 1;
-                    att.resetWriteLatch();
+                } else {
+                    //timed out or interrupted without notification from the poller
+                    keycount = 0;
                 }
 
                 if (writeTimeout > 0 && (keycount == 0))
@@ -143,6 +198,15 @@ public class NioBlockingSelector {
         return written;
     }
 
+    static boolean hasRemaining(ByteBuffer[] bufs) {
+        for (int i = 0; i < bufs.length; i++) {
+            if (bufs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Performs a blocking read using the bytebuffer for data to be read
      * If the <code>selector</code> parameter is null, then it will perform a busy read that could
@@ -176,24 +240,15 @@ public class NioBlockingSelector {
                     if (read > 0)
                         break;
                 }
-                try {
-                    if ( att.getReadLatch()==null || att.getReadLatch().getCount()==0) att.startReadLatch(1);
-                    poller.add(att,SelectionKey.OP_READ, reference);
-                    if (readTimeout < 0) {
-                        att.awaitReadLatch(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-                    } else {
-                        att.awaitReadLatch(readTimeout, TimeUnit.MILLISECONDS);
-                    }
-                }catch (InterruptedException ignore) {
-                    Thread.interrupted();
-                }
-                if ( att.getReadLatch()!=null && att.getReadLatch().getCount()> 0) {
-                    //we got interrupted, but we haven't received notification from the poller.
-                    keycount = 0;
-                }else {
-                    //latch countdown has happened
+                Waiter waiter = att.getReadWaiter();
+                waiter.prepare();
+                poller.add(att,SelectionKey.OP_READ,reference);
+                if (waiter.await(readTimeout)) {
+                    //the poller has signalled the socket is ready
                     keycount = 1;
-                    att.resetReadLatch();
+                } else {
+                    //timed out or interrupted without notification from the poller
+                    keycount = 0;
                 }
                 if (readTimeout >= 0 && (keycount == 0))
                     timedout = (System.currentTimeMillis() - time) >= readTimeout;
@@ -237,8 +292,8 @@ public class NioBlockingSelector {
             if (sk!=null) {
                 sk.cancel();
                 sk.attach(null);
-                if (SelectionKey.OP_WRITE==(ops&SelectionKey.OP_WRITE)) countDown(key.getWriteLatch());
-                if (SelectionKey.OP_READ==(ops&SelectionKey.OP_READ))countDown(key.getReadLatch());
+                if (SelectionKey.OP_WRITE==(ops&SelectionKey.OP_WRITE)) key.getWriteWaiter().signal();
+                if (SelectionKey.OP_READ==(ops&SelectionKey.OP_READ)) key.getReadWaiter().signal();
             }
         }
 
@@ -284,13 +339,13 @@ public class NioBlockingSelector {
                     SelectionKey sk = ch.keyFor(selector);
                     try {
                         if (sk == null) {
-                            if (SelectionKey.OP_WRITE==(ops&SelectionKey.OP_WRITE)) countDown(key.getWriteLatch());
-                            if (SelectionKey.OP_READ==(ops&SelectionKey.OP_READ))countDown(key.getReadLatch());
+                            if (SelectionKey.OP_WRITE==(ops&SelectionKey.OP_WRITE)) key.getWriteWaiter().signal();
+                            if (SelectionKey.OP_READ==(ops&SelectionKey.OP_READ)) key.getReadWaiter().signal();
                         } else {
                             if (sk.isValid()) {
                                 sk.interestOps(sk.interestOps() & (~ops));
-                                if (SelectionKey.OP_WRITE==(ops&SelectionKey.OP_WRITE)) countDown(key.getWriteLatch());
-                                if (SelectionKey.OP_READ==(ops&SelectionKey.OP_READ))countDown(key.getReadLatch());
+                                if (SelectionKey.OP_WRITE==(ops&SelectionKey.OP_WRITE)) key.getWriteWaiter().signal();
+                                if (SelectionKey.OP_READ==(ops&SelectionKey.OP_READ)) key.getReadWaiter().signal();
                                 if (sk.interestOps()==0) {
                                     sk.cancel();
                                     sk.attach(null);
@@ -380,15 +435,15 @@ public class NioBlockingSelector {
                             iterator.remove();
                             sk.interestOps(sk.interestOps() & (~sk.readyOps()));
                             if ( sk.isReadable() ) {
-                                countDown(attachment.getReadLatch());
+                                attachment.getReadWaiter().signal();
                             }
                             if (sk.isWritable()) {
-                                countDown(attachment.getWriteLatch());
+                                attachment.getWriteWaiter().signal();
                             }
                         }catch (CancelledKeyException ckx) {
                             sk.cancel();
-                            countDown(attachment.getReadLatch());
-                            countDown(attachment.getWriteLatch());
+                            attachment.getReadWaiter().signal();
+                            attachment.getWriteWaiter().signal();
                         }
                     }//while
                 }catch ( Throwable t ) {
@@ -415,12 +470,77 @@ public class NioBlockingSelector {
             }
         }
 
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void countDown(CountDownLatch latch) {
             if ( latch == null ) return;
             latch.countDown();
         }
     }
 
+
+    /**
+     * Allows a single thread to wait for the BlockPoller to report that a
+     * socket is ready. Unlike a latch it is reused for every wait on the
+     * socket and the waiting thread simply parks, which is cheap for both
+     * platform and virtual threads.
+     */
+    public static class Waiter {
+        private volatile Thread thread = null;
+        private volatile boolean signalled = false;
+
+        /**
+         * Must be called by the waiting thread before it registers interest
+         * with the poller.
+         */
+        public void prepare() {
+            signalled = false;
+            thread = Thread.currentThread();
+        }
+
+        /**
+         * Wait for {@link #signal()} to be called.
+         *
+         * @param timeout the maximum time to wait in milliseconds, -1 means no
+         *                timeout
+         * @return <code>true</code> if signalled, <code>false</code> if the
+         *         wait timed out or the thread was interrupted
+         */
+        public boolean await(long timeout) {
+            long deadline = System.nanoTime() +
+                    TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, 0));
+            try {
+                while (!signalled) {
+                    if (timeout < 0) {
+                        LockSupport.park(this);
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    if (Thread.interrupted()) {
+                        break;
+                    }
+                }
+            } finally {
+                thread = null;
+            }
+            return signalled;
+        }
+
+        public void signal() {
+            signalled = true;
+            Thread thread = this.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
     public static class KeyReference {
         SelectionKey key = null;
 
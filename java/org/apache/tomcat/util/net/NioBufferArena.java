@@ -0,0 +1,219 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Slab based pool of direct buffers shared by the channels of an endpoint.
+ * Buffers are carved out of larger direct slabs and grouped by capacity.
+ * Channels borrow buffers while they have data in flight and return them once
+ * the connection is idle so that idle keep-alive connections do not pin any
+ * buffer memory.
+ */
+public class NioBufferArena {
+
+    private final int slabSize;
+    private final long maxIdleSize;
+
+    private final ConcurrentHashMap<Integer,SizeClass> sizeClasses =
+            new ConcurrentHashMap<Integer,SizeClass>();
+
+    private final AtomicLong slabCount = new AtomicLong(0);
+    private final AtomicLong lentCount = new AtomicLong(0);
+    private final AtomicLong lentBytes = new AtomicLong(0);
+    private final AtomicLong idleBytes = new AtomicLong(0);
+
+
+    /**
+     * @param slabSize      The size of the direct buffers individual buffers
+     *                      are sliced from
+     * @param maxIdleSize   The maximum number of bytes of returned buffers to
+     *                      retain for reuse, -1 for unlimited
+     */
+    public NioBufferArena(int slabSize, long maxIdleSize) {
+        this.slabSize = slabSize;
+        this.maxIdleSize = maxIdleSize;
+    }
+
+
+    /**
+     * Borrow a cleared buffer of exactly the given capacity.
+     *
+     * @param capacity  The required capacity
+     * @return a buffer that must be passed to {@link #release(ByteBuffer)}
+     *         when no longer required
+     */
+    public ByteBuffer allocate(int capacity) {
+        SizeClass sizeClass = getSizeClass(capacity);
+        ByteBuffer result = sizeClass.free.poll();
+        if (result == null) {
+            result = sizeClass.carve();
+        } else {
+            idleBytes.addAndGet(-capacity);
+        }
+        lentCount.incrementAndGet();
+        lentBytes.addAndGet(capacity);
+        return result;
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #allocate(int)} to the arena. The
+     * caller must not use the buffer after this call.
+     *
+     * @param buffer    The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        SizeClass sizeClass = sizeClasses.get(Integer.valueOf(capacity));
+        if (sizeClass == null) {
+            // Not one of ours
+            return;
+        }
+        lentCount.decrementAndGet();
+        lentBytes.addAndGet(-capacity);
+        if (reserveIdle(capacity)) {
+            buffer.clear();
+            sizeClass.free.offer(buffer);
+        }
+        // else let the GC reclaim the slab once all its slices are dropped
+    }
+
+
+    /**
+     * Drop all the idle buffers. Buffers currently lent are unaffected.
+     */
+    public void clear() {
+        for (SizeClass sizeClass : sizeClasses.values()) {
+            ByteBuffer buffer;
+            while ((buffer = sizeClass.free.poll()) != null) {
+                idleBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public long getMaxIdleSize() {
+        return maxIdleSize;
+    }
+
+    /**
+     * @return the number of slabs allocated since the arena was created
+     */
+    public long getSlabCount() {
+        return slabCount.get();
+    }
+
+    /**
+     * @return the number of buffers currently lent to channels
+     */
+    public long getLentCount() {
+        return lentCount.get();
+    }
+
+    /**
+     * @return the number of bytes currently lent to channels
+     */
+    public long getLentBytes() {
+        return lentBytes.get();
+    }
+
+    /**
+     * @return the number of bytes held by the arena ready for reuse
+     */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+
+    /*
+     * Account for a buffer that is about to be made idle, unless doing so
+     * would exceed maxIdleSize. Concurrent callers cannot both take the last
+     * of the space.
+     */
+    private boolean reserveIdle(int capacity) {
+        if (maxIdleSize == -1) {
+            idleBytes.addAndGet(capacity);
+            return true;
+        }
+        while (true) {
+            long current = idleBytes.get();
+            if (current + capacity > maxIdleSize) {
+                return false;
+            }
+            if (idleBytes.compareAndSet(current, current + capacity)) {
+                return true;
+            }
+        }
+    }
+
+
+    private SizeClass getSizeClass(int capacity) {
+        Integer key = Integer.valueOf(capacity);
+        SizeClass result = sizeClasses.get(key);
+        if (result == null) {
+            result = new SizeClass(capacity);
+            SizeClass existing = sizeClasses.putIfAbsent(key, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+
+    private class SizeClass {
+
+        private final int capacity;
+        private final ConcurrentLinkedQueue<ByteBuffer> free =
+                new ConcurrentLinkedQueue<ByteBuffer>();
+
+        private SizeClass(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /*
+         * Allocates a new slab, returns its first slice and makes the others
+         * available to later callers.
+         */
+        private ByteBuffer carve() {
+            int count = Math.max(1, slabSize / capacity);
+            ByteBuffer slab = ByteBuffer.allocateDirect(count * capacity);
+            slabCount.incrementAndGet();
+            ByteBuffer result = null;
+            for (int i = 0; i < count; i++) {
+                slab.limit((i + 1) * capacity);
+                slab.position(i * capacity);
+                ByteBuffer slice = slab.slice();
+                if (result == null) {
+                    result = slice;
+                } else if (reserveIdle(capacity)) {
+                    free.offer(slice);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -21,9 +21,11 @@ package org.apache.tomcat.util.net;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.tomcat.util.net.NioEndpoint.Poller;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
@@ -38,7 +40,7 @@ import org.apache.tomcat.util.res.StringManager;
  * @author Filip Hanik
  * @version 1.0
  */
-public class NioChannel implements ByteChannel{
+public class NioChannel implements ByteChannel, GatheringByteChannel {
 
     protected static final StringManager sm =
             StringManager.getManager("org.apache.tomcat.util.net.res");
@@ -51,18 +53,53 @@ public class NioChannel implements ByteChannel{
 
     protected Poller poller;
 
+    /**
+     * Number of write calls made on the underlying socket channel.
+     */
+    protected long socketWriteCount = 0;
+
+    /**
+     * Held while a SocketProcessor processes this channel. A lock rather than
+     * the channel's monitor is used so that a virtual thread that blocks on
+     * I/O during processing does not pin its carrier thread.
+     */
+    private final ReentrantLock processLock = new ReentrantLock();
+
     public NioChannel(SocketChannel channel, ApplicationBufferHandler bufHandler) throws IOException {
         this.sc = channel;
         this.bufHandler = bufHandler;
     }
 
     public void reset() throws IOException {
-        bufHandler.getReadBuffer().clear();
-        bufHandler.getWriteBuffer().clear();
+        if (!releaseBuffers()) {
+            bufHandler.getReadBuffer().clear();
+            bufHandler.getWriteBuffer().clear();
+        }
+    }
+
+    /**
+     * Return the application buffers to the endpoint's buffer arena, if one is
+     * in use. They will be borrowed again the next time they are accessed.
+     * Must only be called when the buffers hold no data that is still needed.
+     *
+     * @return <code>true</code> if the buffers were returned to an arena
+     */
+    public boolean releaseBuffers() {
+        if (bufHandler instanceof NioEndpoint.NioBufferHandler) {
+            return ((NioEndpoint.NioBufferHandler) bufHandler).release();
+        }
+        return false;
+    }
+
+    public ReentrantLock getProcessLock() {
+        return processLock;
     }
 
     public int getBufferSize() {
         if ( bufHandler == null ) return 0;
+        // Pooled buffers belong to the arena rather than to this channel
+        if (bufHandler instanceof NioEndpoint.NioBufferHandler &&
+                ((NioEndpoint.NioBufferHandler) bufHandler).isPooled()) return 0;
         int size = 0;
         size += bufHandler.getReadBuffer()!=null?bufHandler.getReadBuffer().capacity():0;
         size += bufHandler.getWriteBuffer()!=null?bufHandler.getWriteBuffer().capacity():0;
@@ -122,9 +159,42 @@ public class NioChannel implements ByteChannel{
     @Override
     public int write(ByteBuffer src) throws IOException {
         checkInterruptStatus();
+        socketWriteCount++;
         return sc.write(src);
     }
 
+    /**
+     * Writes a sequence of bytes to this channel from a subsequence of the
+     * given buffers using a single write call on the underlying socket where
+     * possible.
+     *
+     * @param srcs      The buffers from which bytes are to be retrieved
+     * @param offset    The offset within the buffer array of the first buffer
+     * @param length    The maximum number of buffers to be accessed
+     * @return The number of bytes written, possibly zero
+     * @throws IOException If some other I/O error occurs
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        checkInterruptStatus();
+        socketWriteCount++;
+        return sc.write(srcs, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * @return the number of write calls made on the underlying socket channel
+     *         since this channel was created
+     */
+    public long getSocketWriteCount() {
+        return socketWriteCount;
+    }
+
     /**
      * Reads a sequence of bytes from this channel into the given buffer.
      *
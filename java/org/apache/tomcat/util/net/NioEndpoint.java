@@ -25,23 +25,30 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
@@ -53,9 +60,15 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.RecyclingPool;
+import org.apache.tomcat.util.collections.TimeoutWheel;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
+import org.apache.tomcat.util.threads.TaskQueue;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
 
 /**
  * NIO tailored thread pool, providing the following services:
@@ -84,6 +97,13 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public static final int OP_REGISTER = 0x100; //register interest op
     public static final int OP_CALLBACK = 0x200; //callback interest op
 
+    /**
+     * Number of buckets in each poller's timeout wheel. With the default
+     * timeout interval of one second this covers timeouts of up to 8.5
+     * minutes in a single rotation.
+     */
+    private static final int TIMEOUT_WHEEL_SIZE = 512;
+
     // ----------------------------------------------------------------- Fields
 
     protected NioSelectorPool selectorPool = new NioSelectorPool();
@@ -93,11 +113,35 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
      */
     protected ServerSocketChannel serverSock = null;
 
+    /**
+     * Server sockets, one per poller, used when {@link #getReusePort()} is
+     * enabled. The first element is the same channel as {@link #serverSock}.
+     */
+    protected ServerSocketChannel[] serverSocks = null;
+
+    /**
+     * Used to assign each acceptor created by {@link #createAcceptor()} to its
+     * own poller when the endpoint is sharded.
+     */
+    protected AtomicInteger acceptorShardRotater = new AtomicInteger(0);
+
     /**
      * use send file
      */
     protected boolean useSendfile = true;
 
+    /**
+     * The maximum size of the file region that is memory mapped at a time for
+     * sendfile over TLS. The mapped region is encrypted directly into the
+     * network buffer. Zero or less disables mapping and the file is copied
+     * into a temporary buffer before encryption.
+     */
+    protected int secureSendfileMapSize = 4 * 1024 * 1024;
+    public int getSecureSendfileMapSize() { return secureSendfileMapSize; }
+    public void setSecureSendfileMapSize(int secureSendfileMapSize) {
+        this.secureSendfileMapSize = secureSendfileMapSize;
+    }
+
     /**
      * The size of the OOM parachute.
      */
@@ -125,164 +169,100 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
      */
     protected volatile CountDownLatch stopLatch = null;
 
+    /**
+     * Shared pool of application buffers, if enabled via
+     * {@link SocketProperties#getBufferArena()}.
+     */
+    protected volatile NioBufferArena bufferArena = null;
+
     /**
      * Cache for SocketProcessor objects
      */
-    protected ConcurrentLinkedQueue<SocketProcessor> processorCache = new ConcurrentLinkedQueue<SocketProcessor>() {
-        private static final long serialVersionUID = 1L;
-        protected AtomicInteger size = new AtomicInteger(0);
+    protected RecyclingPool<SocketProcessor> processorCache = new RecyclingPool<SocketProcessor>() {
         @Override
         public boolean offer(SocketProcessor sc) {
             sc.reset(null,null);
-            boolean offer = socketProperties.getProcessorCache()==-1?true:size.get()<socketProperties.getProcessorCache();
-            //avoid over growing our cache or add after we have stopped
-            if ( running && (!paused) && (offer) ) {
-                boolean result = super.offer(sc);
-                if ( result ) {
-                    size.incrementAndGet();
-                }
-                return result;
+            //avoid adding after we have stopped
+            if ( running && (!paused) ) {
+                setLimit(socketProperties.getProcessorCache());
+                return super.offer(sc);
             }
             else return false;
         }
-
-        @Override
-        public SocketProcessor poll() {
-            SocketProcessor result = super.poll();
-            if ( result != null ) {
-                size.decrementAndGet();
-            }
-            return result;
-        }
-
-        @Override
-        public void clear() {
-            super.clear();
-            size.set(0);
-        }
     };
 
 
     /**
      * Cache for key attachment objects
      */
-    protected ConcurrentLinkedQueue<KeyAttachment> keyCache = new ConcurrentLinkedQueue<KeyAttachment>() {
-        private static final long serialVersionUID = 1L;
-        protected AtomicInteger size = new AtomicInteger(0);
+    protected RecyclingPool<KeyAttachment> keyCache = new RecyclingPool<KeyAttachment>() {
         @Override
         public boolean offer(KeyAttachment ka) {
             ka.reset();
-            boolean offer = socketProperties.getKeyCache()==-1?true:size.get()<socketProperties.getKeyCache();
-            //avoid over growing our cache or add after we have stopped
-            if ( running && (!paused) && (offer) ) {
-                boolean result = super.offer(ka);
-                if ( result ) {
-                    size.incrementAndGet();
-                }
-                return result;
+            //avoid adding after we have stopped
+            if ( running && (!paused) ) {
+                setLimit(socketProperties.getKeyCache());
+                return super.offer(ka);
             }
             else return false;
         }
-
-        @Override
-        public KeyAttachment poll() {
-            KeyAttachment result = super.poll();
-            if ( result != null ) {
-                size.decrementAndGet();
-            }
-            return result;
-        }
-
-        @Override
-        public void clear() {
-            super.clear();
-            size.set(0);
-        }
     };
 
 
     /**
      * Cache for poller events
      */
-    protected ConcurrentLinkedQueue<PollerEvent> eventCache = new ConcurrentLinkedQueue<PollerEvent>() {
-        private static final long serialVersionUID = 1L;
-        protected AtomicInteger size = new AtomicInteger(0);
+    protected RecyclingPool<PollerEvent> eventCache = new RecyclingPool<PollerEvent>() {
         @Override
         public boolean offer(PollerEvent pe) {
             pe.reset();
-            boolean offer = socketProperties.getEventCache()==-1?true:size.get()<socketProperties.getEventCache();
-            //avoid over growing our cache or add after we have stopped
-            if ( running && (!paused) && (offer) ) {
-                boolean result = super.offer(pe);
-                if ( result ) {
-                    size.incrementAndGet();
-                }
-                return result;
+            //avoid adding after we have stopped
+            if ( running && (!paused) ) {
+                setLimit(socketProperties.getEventCache());
+                return super.offer(pe);
             }
             else return false;
         }
-
-        @Override
-        public PollerEvent poll() {
-            PollerEvent result = super.poll();
-            if ( result != null ) {
-                size.decrementAndGet();
-            }
-            return result;
-        }
-
-        @Override
-        public void clear() {
-            super.clear();
-            size.set(0);
-        }
     };
 
 
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
      */
-    protected ConcurrentLinkedQueue<NioChannel> nioChannels = new ConcurrentLinkedQueue<NioChannel>() {
-        private static final long serialVersionUID = 1L;
-        protected AtomicInteger size = new AtomicInteger(0);
-        protected AtomicInteger bytes = new AtomicInteger(0);
+    protected RecyclingPool<NioChannel> nioChannels = new RecyclingPool<NioChannel>() {
         @Override
         public boolean offer(NioChannel socket) {
-            boolean offer = socketProperties.getBufferPool()==-1?true:size.get()<socketProperties.getBufferPool();
-            offer = offer && (socketProperties.getBufferPoolSize()==-1?true:(bytes.get()+socket.getBufferSize())<socketProperties.getBufferPoolSize());
-            //avoid over growing our cache or add after we have stopped
-            if ( running && (!paused) && (offer) ) {
-                boolean result = super.offer(socket);
-                if ( result ) {
-                    size.incrementAndGet();
-                    bytes.addAndGet(socket.getBufferSize());
+            //avoid adding after we have stopped
+            if ( running && (!paused) ) {
+                int limit = socketProperties.getBufferPool();
+                // Express the limit on the total size of the buffers as a
+                // number of channels
+                int bytes = socketProperties.getBufferPoolSize();
+                int channelBytes = socket.getBufferSize();
+                if (bytes != -1 && channelBytes > 0 &&
+                        (limit == -1 || bytes / channelBytes < limit)) {
+                    limit = bytes / channelBytes;
                 }
-                return result;
+                setLimit(limit);
+                return super.offer(socket);
             }
             else return false;
         }
-
-        @Override
-        public NioChannel poll() {
-            NioChannel result = super.poll();
-            if ( result != null ) {
-                size.decrementAndGet();
-                bytes.addAndGet(-result.getBufferSize());
-            }
-            return result;
-        }
-
-        @Override
-        public void clear() {
-            super.clear();
-            size.set(0);
-            bytes.set(0);
-        }
     };
 
 
     // ------------------------------------------------------------- Properties
 
+    // Hit and miss counts for the object caches
+    public long getProcessorCacheHitCount() { return processorCache.getHitCount(); }
+    public long getProcessorCacheMissCount() { return processorCache.getMissCount(); }
+    public long getKeyCacheHitCount() { return keyCache.getHitCount(); }
+    public long getKeyCacheMissCount() { return keyCache.getMissCount(); }
+    public long getEventCacheHitCount() { return eventCache.getHitCount(); }
+    public long getEventCacheMissCount() { return eventCache.getMissCount(); }
+    public long getBufferPoolHitCount() { return nioChannels.getHitCount(); }
+    public long getBufferPoolMissCount() { return nioChannels.getMissCount(); }
+
 
     /**
      * Generic properties, introspected
@@ -339,6 +319,22 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Use one SO_REUSEPORT listening socket, acceptor and worker pool per
+     * poller so that a connection is accepted, polled and processed by the
+     * same group of threads.
+     */
+    protected boolean reusePort = false;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
+    /**
+     * Is the endpoint currently running with one listening socket per poller?
+     */
+    public boolean isSharded() {
+        return serverSocks != null;
+    }
+
     protected long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -439,6 +435,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         this.keyCache.clear();
         this.nioChannels.clear();
         this.processorCache.clear();
+        NioBufferArena arena = bufferArena;
+        if (arena != null) arena.clear();
         if ( handler != null ) handler.recycle();
 
     }
@@ -460,6 +458,167 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     }
 
 
+    @Override
+    public int getCurrentThreadCount() {
+        int result = super.getCurrentThreadCount();
+        for (int i = 0; pollers != null && i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            if (poller != null && poller.getExecutor() instanceof ThreadPoolExecutor) {
+                result = Math.max(result, 0) +
+                        ((ThreadPoolExecutor) poller.getExecutor()).getPoolSize();
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public int getExecutorQueueSize() {
+        int result = super.getExecutorQueueSize();
+        for (int i = 0; pollers != null && i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            if (poller != null && poller.getExecutor() instanceof ThreadPoolExecutor) {
+                result = Math.max(result, 0) +
+                        ((ThreadPoolExecutor) poller.getExecutor()).getQueue().size();
+            }
+        }
+        return result;
+    }
+
+
+    /*
+     * The socket is newly accepted, so still in blocking mode, and the send
+     * buffer is empty so this will not block in practice.
+     */
+    private void writeOverloadResponse(SocketChannel socket) {
+        byte[] response = getOverloadResponse();
+        if (response != null && !isSSLEnabled()) {
+            try {
+                socket.write(ByteBuffer.wrap(response));
+            } catch (IOException ioe) {
+                // Ignore. The connection is being closed anyway.
+            }
+        }
+    }
+
+
+    @Override
+    public int getCurrentThreadsBusy() {
+        int result = super.getCurrentThreadsBusy();
+        for (int i = 0; pollers != null && i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            if (poller != null && poller.getExecutor() instanceof ThreadPoolExecutor) {
+                result = Math.max(result, 0) +
+                        ((ThreadPoolExecutor) poller.getExecutor()).getActiveCount();
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When the endpoint is sharded and no shared executor has been
+     * configured, each poller has its own worker pool and there is no
+     * endpoint wide pool. Tasks that are not tied to a connection, such as
+     * those started with <code>AsyncContext.start()</code>, are then shared
+     * between the poller pools.
+     */
+    @Override
+    public Executor getExecutor() {
+        Executor executor = super.getExecutor();
+        if (executor == null && isSharded() && internalExecutor) {
+            return shardExecutor;
+        }
+        return executor;
+    }
+
+
+    private final Executor shardExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            Poller[] pollers = NioEndpoint.this.pollers;
+            Poller poller = null;
+            if (pollers != null) {
+                poller = pollers[Math.abs(
+                        pollerRotater.incrementAndGet()) % pollers.length];
+            }
+            if (poller == null || poller.getExecutor() == null) {
+                throw new RejectedExecutionException();
+            }
+            poller.getExecutor().execute(command);
+        }
+    };
+
+
+    @Override
+    public void setMaxThreads(int maxThreads) {
+        super.setMaxThreads(maxThreads);
+        resizePollerExecutors();
+    }
+
+
+    @Override
+    public void setMinSpareThreads(int minSpareThreads) {
+        super.setMinSpareThreads(minSpareThreads);
+        resizePollerExecutors();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When the endpoint is sharded there is always one acceptor per
+     * listening socket.
+     */
+    @Override
+    public int getAcceptorThreadCount() {
+        ServerSocketChannel[] serverSocks = this.serverSocks;
+        if (serverSocks != null) {
+            return serverSocks.length;
+        }
+        return super.getAcceptorThreadCount();
+    }
+
+
+    /**
+     * Number of application buffers currently lent to connections by the
+     * buffer arena or -1 if the arena is not in use.
+     */
+    public long getBufferArenaLentCount() {
+        NioBufferArena arena = bufferArena;
+        return arena == null ? -1 : arena.getLentCount();
+    }
+
+    /**
+     * Bytes of application buffers currently lent to connections by the
+     * buffer arena or -1 if the arena is not in use.
+     */
+    public long getBufferArenaLentBytes() {
+        NioBufferArena arena = bufferArena;
+        return arena == null ? -1 : arena.getLentBytes();
+    }
+
+    /**
+     * Bytes of application buffers held by the buffer arena for reuse or -1
+     * if the arena is not in use.
+     */
+    public long getBufferArenaIdleBytes() {
+        NioBufferArena arena = bufferArena;
+        return arena == null ? -1 : arena.getIdleBytes();
+    }
+
+    /**
+     * Number of slabs allocated by the buffer arena or -1 if the arena is not
+     * in use.
+     */
+    public long getBufferArenaSlabCount() {
+        NioBufferArena arena = bufferArena;
+        return arena == null ? -1 : arena.getSlabCount();
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
 
@@ -469,22 +628,38 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     @Override
     public void bind() throws Exception {
 
-        serverSock = ServerSocketChannel.open();
-        socketProperties.setProperties(serverSock.socket());
+        if (pollerThreadCount <= 0) {
+            //minimum one poller thread
+            pollerThreadCount = 1;
+        }
+
+        boolean shard = false;
+        if (reusePort) {
+            if (JreCompat.getInstance().isReusePortSupported()) {
+                shard = true;
+            } else {
+                log.warn(sm.getString("endpoint.nio.reusePortUnavailable", getName()));
+            }
+        }
+
         InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-        serverSock.socket().bind(addr,getBacklog());
-        serverSock.configureBlocking(true); //mimic APR behavior
-        serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        serverSock = openServerSocket(addr, shard);
+        if (shard) {
+            serverSocks = new ServerSocketChannel[pollerThreadCount];
+            serverSocks[0] = serverSock;
+            // If an ephemeral port was requested, the other shards must bind
+            // to whichever port the first one was given
+            addr = new InetSocketAddress(addr.getAddress(), serverSock.socket().getLocalPort());
+            for (int i = 1; i < serverSocks.length; i++) {
+                serverSocks[i] = openServerSocket(addr, true);
+            }
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
             // FIXME: Doesn't seem to work that well with multiple accept threads
             acceptorThreadCount = 1;
         }
-        if (pollerThreadCount <= 0) {
-            //minimum one poller thread
-            pollerThreadCount = 1;
-        }
         stopLatch = new CountDownLatch(pollerThreadCount);
 
         // Initialize SSL if needed
@@ -505,10 +680,28 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             enabledProtocols = sslUtil.getEnableableProtocols(sslContext);
         }
 
+        if (socketProperties.getBufferArena()) {
+            bufferArena = new NioBufferArena(socketProperties.getBufferArenaSlabSize(),
+                    socketProperties.getBufferArenaIdleSize());
+        }
+
         if (oomParachute>0) reclaimParachute(true);
         selectorPool.open();
     }
 
+    private ServerSocketChannel openServerSocket(InetSocketAddress addr, boolean shard)
+            throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        socketProperties.setProperties(ssc.socket());
+        if (shard) {
+            JreCompat.getInstance().setReusePort(ssc);
+        }
+        ssc.socket().bind(addr,getBacklog());
+        ssc.configureBlocking(true); //mimic APR behavior
+        ssc.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        return ssc;
+    }
+
     public KeyManager[] wrap(KeyManager[] managers) {
         if (managers==null) return null;
         KeyManager[] result = new KeyManager[managers.length];
@@ -538,8 +731,9 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             running = true;
             paused = false;
 
-            // Create worker collection
-            if ( getExecutor() == null ) {
+            // Create worker collection. When sharded, each poller has its own
+            // unless a shared executor has been configured.
+            if ( !isSharded() && getExecutor() == null ) {
                 createExecutor();
             }
 
@@ -549,17 +743,99 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             pollers = new Poller[getPollerThreadCount()];
             for (int i=0; i<pollers.length; i++) {
                 pollers[i] = new Poller();
+                if (isSharded() && internalExecutor) {
+                    pollers[i].setExecutor(createPollerExecutor(i));
+                }
                 Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-"+i);
                 pollerThread.setPriority(threadPriority);
                 pollerThread.setDaemon(true);
                 pollerThread.start();
             }
 
+            acceptorShardRotater.set(0);
             startAcceptorThreads();
         }
     }
 
 
+    /**
+     * Create the worker pool dedicated to the given poller when the endpoint is
+     * sharded. The configured thread limits are split evenly between pollers.
+     */
+    protected Executor createPollerExecutor(int index) {
+        int maxThreads = getPollerMaxThreads();
+        TaskQueue taskqueue = new TaskQueue();
+        TaskThreadFactory tf = new TaskThreadFactory(
+                getName() + "-exec-" + index + "-", getDaemon(), getThreadPriority());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                getPollerMinSpareThreads(maxThreads), maxThreads, 60,
+                TimeUnit.SECONDS, taskqueue, tf);
+        taskqueue.setParent(executor);
+        return executor;
+    }
+
+
+    private int getPollerMaxThreads() {
+        int shards = getPollerThreadCount();
+        return Math.max(1, (getMaxThreads() + shards - 1) / shards);
+    }
+
+
+    private int getPollerMinSpareThreads(int pollerMaxThreads) {
+        int shards = getPollerThreadCount();
+        return Math.min(pollerMaxThreads,
+                Math.max(1, (getMinSpareThreads() + shards - 1) / shards));
+    }
+
+
+    /*
+     * Apply changes to the thread limits, such as those made through JMX, to
+     * the worker pools of the pollers.
+     */
+    private void resizePollerExecutors() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return;
+        }
+        int maxThreads = getPollerMaxThreads();
+        int minSpareThreads = getPollerMinSpareThreads(maxThreads);
+        for (Poller poller : pollers) {
+            if (poller == null || !(poller.getExecutor() instanceof ThreadPoolExecutor)) {
+                continue;
+            }
+            ThreadPoolExecutor tpe = (ThreadPoolExecutor) poller.getExecutor();
+            // The core size may never exceed the maximum size
+            if (maxThreads < tpe.getCorePoolSize()) {
+                tpe.setCorePoolSize(minSpareThreads);
+                tpe.setMaximumPoolSize(maxThreads);
+            } else {
+                tpe.setMaximumPoolSize(maxThreads);
+                tpe.setCorePoolSize(minSpareThreads);
+            }
+        }
+    }
+
+
+    protected void shutdownPollerExecutor(Executor executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor tpe = (ThreadPoolExecutor) executor;
+            tpe.shutdownNow();
+            long timeout = getExecutorTerminationTimeoutMillis();
+            if (timeout > 0) {
+                try {
+                    tpe.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                if (tpe.isTerminating()) {
+                    log.warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+                }
+            }
+            ((TaskQueue) tpe.getQueue()).setParent(null);
+        }
+    }
+
+
     /**
      * Stop the endpoint. This will cause all processing threads to stop.
      */
@@ -569,11 +845,18 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         if (!paused) {
             pause();
         }
+        Executor[] pollerExecutors = null;
         if (running) {
             running = false;
             unlockAccept();
             for (int i=0; pollers!=null && i<pollers.length; i++) {
                 if (pollers[i]==null) continue;
+                if (pollers[i].getExecutor() != null) {
+                    if (pollerExecutors == null) {
+                        pollerExecutors = new Executor[pollers.length];
+                    }
+                    pollerExecutors[i] = pollers[i].getExecutor();
+                }
                 pollers[i].destroy();
                 pollers[i] = null;
             }
@@ -589,6 +872,9 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         keyCache.clear();
         nioChannels.clear();
         processorCache.clear();
+        for (int i = 0; pollerExecutors != null && i < pollerExecutors.length; i++) {
+            shutdownPollerExecutor(pollerExecutors[i]);
+        }
         shutdownExecutor();
     }
 
@@ -604,12 +890,22 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         if (running) {
             stop();
         }
-        // Close server socket
+        // Close server socket(s)
+        if (serverSocks != null) {
+            for (int i = 1; i < serverSocks.length; i++) {
+                if (serverSocks[i] != null) {
+                    serverSocks[i].socket().close();
+                    serverSocks[i].close();
+                }
+            }
+            serverSocks = null;
+        }
         serverSock.socket().close();
         serverSock.close();
         serverSock = null;
         sslContext = null;
         releaseCaches();
+        bufferArena = null;
         selectorPool.close();
         if (log.isDebugEnabled()) {
             log.debug("Destroy completed for "+new InetSocketAddress(getAddress(),getPort()));
@@ -648,14 +944,60 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
+        if (isSharded()) {
+            int shard = acceptorShardRotater.getAndIncrement() % serverSocks.length;
+            return new Acceptor(serverSocks[shard], pollers[shard]);
+        }
         return new Acceptor();
     }
 
 
+    /**
+     * With one SO_REUSEPORT socket per acceptor the kernel picks which socket
+     * receives each unlock connection, so keep connecting until every acceptor
+     * has noticed the state change. Each attempt may wait for the acceptors so
+     * both the attempts and the total time are limited. Any acceptor still
+     * blocked afterwards ends when its socket is closed or receives its next
+     * connection.
+     */
+    @Override
+    protected void unlockAccept() {
+        if (!isSharded() || acceptors == null) {
+            super.unlockAccept();
+            return;
+        }
+        int attempts = acceptors.length + 2;
+        long deadline = System.currentTimeMillis() + 2000;
+        while (attempts-- > 0 && System.currentTimeMillis() < deadline &&
+                isAcceptorRunning()) {
+            super.unlockAccept();
+        }
+    }
+
+
+    private boolean isAcceptorRunning() {
+        for (AbstractEndpoint.Acceptor acceptor : acceptors) {
+            if (acceptor.getState() == AbstractEndpoint.Acceptor.AcceptorState.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     /**
      * Process the specified connection.
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, null);
+    }
+
+
+    /**
+     * Process the specified connection, registering it with the given poller
+     * or, if none is specified, the next poller in round robin order.
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -669,15 +1011,13 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 if (sslContext != null) {
                     SSLEngine engine = createSSLEngine();
                     int appbufsize = engine.getSession().getApplicationBufferSize();
-                    NioBufferHandler bufhandler = new NioBufferHandler(Math.max(appbufsize,socketProperties.getAppReadBufSize()),
-                                                                       Math.max(appbufsize,socketProperties.getAppWriteBufSize()),
-                                                                       socketProperties.getDirectBuffer());
+                    NioBufferHandler bufhandler = createBufferHandler(Math.max(appbufsize,socketProperties.getAppReadBufSize()),
+                                                                      Math.max(appbufsize,socketProperties.getAppWriteBufSize()));
                     channel = new SecureNioChannel(socket, engine, bufhandler, selectorPool);
                 } else {
                     // normal tcp setup
-                    NioBufferHandler bufhandler = new NioBufferHandler(socketProperties.getAppReadBufSize(),
-                                                                       socketProperties.getAppWriteBufSize(),
-                                                                       socketProperties.getDirectBuffer());
+                    NioBufferHandler bufhandler = createBufferHandler(socketProperties.getAppReadBufSize(),
+                                                                      socketProperties.getAppWriteBufSize());
 
                     channel = new NioChannel(socket, bufhandler);
                 }
@@ -690,7 +1030,10 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     channel.reset();
                 }
             }
-            getPoller0().register(channel);
+            if (poller == null) {
+                poller = getPoller0();
+            }
+            poller.register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -704,6 +1047,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         return true;
     }
 
+    protected NioBufferHandler createBufferHandler(int readsize, int writesize) {
+        NioBufferArena arena = bufferArena;
+        if (arena != null) {
+            return new NioBufferHandler(readsize, writesize, arena);
+        }
+        return new NioBufferHandler(readsize, writesize, socketProperties.getDirectBuffer());
+    }
+
     protected SSLEngine createSSLEngine() {
         SSLEngine engine = sslContext.createSSLEngine();
         if ("false".equals(getClientAuth())) {
@@ -758,8 +1109,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             SocketProcessor sc = processorCache.poll();
             if ( sc == null ) sc = new SocketProcessor(socket,status);
             else sc.reset(socket,status);
-            if ( dispatch && getExecutor()!=null ) getExecutor().execute(sc);
-            else sc.run();
+            Executor executor = socket.getPoller() != null ? socket.getPoller().getExecutor() : null;
+            if (executor == null) executor = getExecutor();
+            if ( dispatch && executor!=null ) {
+                sc.setQueued(System.nanoTime());
+                executor.execute(sc);
+            } else {
+                sc.run();
+            }
         } catch (RejectedExecutionException rx) {
             log.warn("Socket processing request was rejected for:"+socket,rx);
             return false;
@@ -793,6 +1150,24 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final ServerSocketChannel acceptSock;
+        private final Poller poller;
+
+        public Acceptor() {
+            this(null, null);
+        }
+
+        /**
+         * @param acceptSock    The server socket to accept from or
+         *                      <code>null</code> to use the endpoint's
+         * @param poller        The poller accepted sockets are registered with
+         *                      or <code>null</code> for round robin selection
+         */
+        public Acceptor(ServerSocketChannel acceptSock, Poller poller) {
+            this.acceptSock = acceptSock;
+            this.poller = poller;
+        }
+
         @Override
         public void run() {
 
@@ -824,7 +1199,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     try {
                         // Accept the next incoming connection from the server
                         // socket
-                        socket = serverSock.accept();
+                        socket = (acceptSock != null ? acceptSock : serverSock).accept();
                     } catch (IOException ioe) {
                         //we didn't get a socket
                         countDownConnection();
@@ -839,7 +1214,11 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     // setSocketOptions() will add channel to the poller
                     // if successful
                     if (running && !paused) {
-                        if (!setSocketOptions(socket)) {
+                        if (shedConnection()) {
+                            writeOverloadResponse(socket);
+                            countDownConnection();
+                            closeSocket(socket);
+                        } else if (!setSocketOptions(socket, poller)) {
                             countDownConnection();
                             closeSocket(socket);
                         }
@@ -928,6 +1307,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             if ( interestOps == OP_REGISTER ) {
                 try {
                     socket.getIOChannel().register(socket.getPoller().getSelector(), SelectionKey.OP_READ, key);
+                    socket.getPoller().scheduleTimeout(key, System.currentTimeMillis());
                 } catch (Exception x) {
                     log.error("", x);
                 }
@@ -956,6 +1336,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                             int ops = key.interestOps() | interestOps;
                             att.interestOps(ops);
                             key.interestOps(ops);
+                            socket.getPoller().scheduleTimeout(att, System.currentTimeMillis());
                         } else {
                             socket.getPoller().cancelledKey(key, SocketStatus.ERROR, false);
                         }
@@ -985,10 +1366,41 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         protected volatile boolean close = false;
         protected long nextExpiration = 0;//optimize expiration handling
 
+        /**
+         * The next time each registered key needs to be looked at for timeout
+         * processing. Only accessed by the poller thread.
+         */
+        protected final TimeoutWheel<KeyAttachment> timeoutWheel;
+
+        /**
+         * Keys whose timeout may now expire earlier than the time at which
+         * they are scheduled to be checked.
+         */
+        protected final ConcurrentLinkedQueue<KeyAttachment> timeoutUpdates =
+                new ConcurrentLinkedQueue<KeyAttachment>();
+
+        /**
+         * Timeout wheel entries of keys that have been cancelled, to be
+         * removed from the wheel by the poller thread. Without this the
+         * entries, and the connections they refer to, would stay on the wheel
+         * until their deadline.
+         */
+        protected final ConcurrentLinkedQueue<TimeoutWheel.Entry<KeyAttachment>> timeoutCancels =
+                new ConcurrentLinkedQueue<TimeoutWheel.Entry<KeyAttachment>>();
+
+        private final List<TimeoutWheel.Entry<KeyAttachment>> expiredTimeouts =
+                new ArrayList<TimeoutWheel.Entry<KeyAttachment>>();
+
         protected AtomicLong wakeupCounter = new AtomicLong(0l);
 
         protected volatile int keyCount = 0;
 
+        /**
+         * Worker pool dedicated to this poller, if any. When <code>null</code>
+         * the endpoint's executor is used.
+         */
+        protected volatile Executor executor = null;
+
         public Poller() throws IOException {
             synchronized (Selector.class) {
                 // Selector.open() isn't thread safe
@@ -996,10 +1408,16 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 // Affects 1.6.0_29, fixed in 1.7.0_01
                 this.selector = Selector.open();
             }
+            timeoutWheel = new TimeoutWheel<KeyAttachment>(
+                    Math.max(1, getSocketProperties().getTimeoutInterval()),
+                    TIMEOUT_WHEEL_SIZE, System.currentTimeMillis());
         }
 
         public int getKeyCount() { return keyCount; }
 
+        public Executor getExecutor() { return executor; }
+        public void setExecutor(Executor executor) { this.executor = executor; }
+
         public Selector getSelector() { return selector;}
 
         NioEndpoint getEndpoint() {
@@ -1160,6 +1578,11 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 } catch (Exception ignore) {
                 }
                 if (ka!=null) {
+                    TimeoutWheel.Entry<KeyAttachment> entry = ka.timeoutEntry;
+                    Poller poller = ka.getPoller();
+                    if (entry != null && poller != null) {
+                        poller.timeoutCancels.offer(entry);
+                    }
                     ka.reset();
                     countDownConnection();
                 }
@@ -1361,7 +1784,12 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                         attachment.access();
                     }
                 } else {
-                    long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
+                    long written;
+                    if (sc instanceof SecureNioChannel && secureSendfileMapSize > 0) {
+                        written = writeMapped(sd, sc);
+                    } else {
+                        written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
+                    }
                     if ( written > 0 ) {
                         sd.pos += written;
                         sd.length -= written;
@@ -1380,6 +1808,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
                     attachment.setSendfileData(null);
+                    sd.mapped = null;
                     try {
                         sd.fchannel.close();
                     } catch (Exception ignore) {
@@ -1441,6 +1870,32 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             }
         }
 
+        /*
+         * Passes the file to the TLS channel through a read-only mapping so
+         * that it is encrypted straight from the page cache into the network
+         * buffer. Writes until the file is complete or the socket stops
+         * accepting data. The mapping is kept between calls so each region is
+         * only mapped once.
+         */
+        private long writeMapped(SendfileData sd, NioChannel sc) throws IOException {
+            long written = 0;
+            while (written < sd.length) {
+                MappedByteBuffer mapped = sd.mapped;
+                if (mapped == null || !mapped.hasRemaining()) {
+                    long size = Math.min(sd.length - written, secureSendfileMapSize);
+                    mapped = sd.fchannel.map(MapMode.READ_ONLY, sd.pos + written, size);
+                    sd.mapped = mapped;
+                }
+                int n = sc.write(mapped);
+                written += n;
+                if (n == 0 || sc.getOutboundRemaining() > 0) {
+                    // Socket buffer is full
+                    break;
+                }
+            }
+            return written;
+        }
+
         protected void unreg(SelectionKey sk, KeyAttachment attachment, int readyOps) {
             //this is a must, so that we don't have multiple threads messing with the socket
             reg(sk,attachment,sk.interestOps()& (~readyOps));
@@ -1454,6 +1909,12 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
         protected void timeout(int keyCount, boolean hasEvents) {
             long now = System.currentTimeMillis();
+            // Keys may be cancelled by other threads so their entries are
+            // removed from the wheel here, on every loop of the Poller
+            TimeoutWheel.Entry<KeyAttachment> cancelled;
+            while ((cancelled = timeoutCancels.poll()) != null) {
+                timeoutWheel.cancel(cancelled);
+            }
             // This method is called on every loop of the Poller. Don't process
             // timeouts on every loop of the Poller since that would create too
             // much load and timeouts can afford to wait a few seconds.
@@ -1464,67 +1925,47 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             if ((keyCount > 0 || hasEvents) && (now < nextExpiration) && !close) {
                 return;
             }
-            //timeout
-            Set<SelectionKey> keys = selector.keys();
             int keycount = 0;
-            try {
-                for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
-                    SelectionKey key = iter.next();
-                    keycount++;
-                    try {
-                        KeyAttachment ka = (KeyAttachment) key.attachment();
-                        if ( ka == null ) {
-                            cancelledKey(key, SocketStatus.ERROR,false); //we don't support any keys without attachments
-                        } else if ( ka.getError() ) {
-                            cancelledKey(key, SocketStatus.ERROR,true);//TODO this is not yet being used
-                        } else if (ka.isComet() && ka.getCometNotify() ) {
-                            ka.setCometNotify(false);
-                            reg(key,ka,0);//avoid multiple calls, this gets reregistered after invocation
-                            //if (!processSocket(ka.getChannel(), SocketStatus.OPEN_CALLBACK)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
-                            if (!processSocket(ka.getChannel(), SocketStatus.OPEN_READ, true)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT, true);
-                        } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                                  (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                            //only timeout sockets that we are waiting for a read from
-                            long delta = now - ka.getLastAccess();
-                            long timeout = ka.getTimeout();
-                            boolean isTimedout = timeout > 0 && delta > timeout;
-                            if ( close ) {
-                                key.interestOps(0);
-                                ka.interestOps(0); //avoid duplicate stop calls
-                                processKey(key,ka);
-                            } else if (isTimedout) {
-                                key.interestOps(0);
-                                ka.interestOps(0); //avoid duplicate timeout calls
-                                cancelledKey(key, SocketStatus.TIMEOUT,true);
-                            }
-                        } else if (ka.isAsync() || ka.isComet()) {
-                            if (close) {
-                                key.interestOps(0);
-                                ka.interestOps(0); //avoid duplicate stop calls
-                                processKey(key,ka);
-                            } else if (!ka.isAsync() || ka.getTimeout() > 0) {
-                                // Async requests with a timeout of 0 or less never timeout
-                                long delta = now - ka.getLastAccess();
-                                long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
-                                boolean isTimedout = delta > timeout;
-                                if (isTimedout) {
-                                    // Prevent subsequent timeouts if the timeout event takes a while to process
-                                    ka.access(Long.MAX_VALUE);
-                                    processSocket(ka.getChannel(), SocketStatus.TIMEOUT, true);
-                                }
-                            } else if (ka.isAsync() && !handler.isAvailable(ka)) {
-                                // Prevent subsequent timeouts if the timeout event takes a while to process
-                                ka.access(Long.MAX_VALUE);
-                                processSocket(ka.getChannel(), SocketStatus.TIMEOUT, true);
-                            }
-                        }//end if
-                    }catch ( CancelledKeyException ckx ) {
-                        cancelledKey(key, SocketStatus.ERROR,false);
+            if (close) {
+                // Every key needs to be stopped
+                Set<SelectionKey> keys = selector.keys();
+                try {
+                    for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
+                        SelectionKey key = iter.next();
+                        keycount++;
+                        timeout(key, (KeyAttachment) key.attachment(), now);
+                    }//for
+                } catch (ConcurrentModificationException cme) {
+                    // See https://bz.apache.org/bugzilla/show_bug.cgi?id=57943
+                    log.warn(sm.getString("endpoint.nio.timeoutCme"), cme);
+                }
+                timeoutWheel.clear();
+                timeoutUpdates.clear();
+                timeoutCancels.clear();
+            } else {
+                // Only look at the keys that are due to be checked
+                KeyAttachment ka;
+                while ((ka = timeoutUpdates.poll()) != null) {
+                    if (ka.getPoller() == this) {
+                        scheduleTimeout(ka, now);
+                    }
+                }
+                timeoutWheel.expire(now, expiredTimeouts);
+                for (int i = 0; i < expiredTimeouts.size(); i++) {
+                    ka = expiredTimeouts.get(i).getItem();
+                    SelectionKey key = keyFor(ka);
+                    // Ignore keys that have been cancelled and attachments
+                    // that have been reused since they were scheduled
+                    if (key != null && key.attachment() == ka &&
+                            ka.timeoutEntry == expiredTimeouts.get(i)) {
+                        keycount++;
+                        timeout(key, ka, now);
+                        if (key.isValid() && key.attachment() == ka) {
+                            scheduleTimeout(ka, now);
+                        }
                     }
-                }//for
-            } catch (ConcurrentModificationException cme) {
-                // See https://bz.apache.org/bugzilla/show_bug.cgi?id=57943
-                log.warn(sm.getString("endpoint.nio.timeoutCme"), cme);
+                }
+                expiredTimeouts.clear();
             }
             long prevExp = nextExpiration; //for logging purposes only
             nextExpiration = System.currentTimeMillis() +
@@ -1537,6 +1978,129 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             }
 
         }
+
+        private void timeout(SelectionKey key, KeyAttachment ka, long now) {
+            try {
+                if ( ka == null ) {
+                    cancelledKey(key, SocketStatus.ERROR,false); //we don't support any keys without attachments
+                } else if ( ka.getError() ) {
+                    cancelledKey(key, SocketStatus.ERROR,true);//TODO this is not yet being used
+                } else if (ka.isComet() && ka.getCometNotify() ) {
+                    ka.setCometNotify(false);
+                    reg(key,ka,0);//avoid multiple calls, this gets reregistered after invocation
+                    //if (!processSocket(ka.getChannel(), SocketStatus.OPEN_CALLBACK)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
+                    if (!processSocket(ka.getChannel(), SocketStatus.OPEN_READ, true)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT, true);
+                } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
+                          (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                    //only timeout sockets that we are waiting for a read from
+                    long delta = now - ka.getLastAccess();
+                    long timeout = ka.getTimeout();
+                    boolean isTimedout = timeout > 0 && delta > timeout;
+                    if ( close ) {
+                        key.interestOps(0);
+                        ka.interestOps(0); //avoid duplicate stop calls
+                        processKey(key,ka);
+                    } else if (isTimedout) {
+                        key.interestOps(0);
+                        ka.interestOps(0); //avoid duplicate timeout calls
+                        cancelledKey(key, SocketStatus.TIMEOUT,true);
+                    }
+                } else if (ka.isAsync() || ka.isComet()) {
+                    if (close) {
+                        key.interestOps(0);
+                        ka.interestOps(0); //avoid duplicate stop calls
+                        processKey(key,ka);
+                    } else if (!ka.isAsync() || ka.getTimeout() > 0) {
+                        // Async requests with a timeout of 0 or less never timeout
+                        long delta = now - ka.getLastAccess();
+                        long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
+                        boolean isTimedout = delta > timeout;
+                        if (isTimedout) {
+                            // Prevent subsequent timeouts if the timeout event takes a while to process
+                            ka.access(Long.MAX_VALUE);
+                            processSocket(ka.getChannel(), SocketStatus.TIMEOUT, true);
+                        }
+                    } else if (ka.isAsync() && !handler.isAvailable(ka)) {
+                        // Prevent subsequent timeouts if the timeout event takes a while to process
+                        ka.access(Long.MAX_VALUE);
+                        processSocket(ka.getChannel(), SocketStatus.TIMEOUT, true);
+                    }
+                }//end if
+            }catch ( CancelledKeyException ckx ) {
+                cancelledKey(key, SocketStatus.ERROR,false);
+            }
+        }
+
+        /**
+         * Schedule the next timeout check for the given key. Must only be
+         * called by the poller thread.
+         */
+        protected void scheduleTimeout(KeyAttachment ka, long now) {
+            long next = nextTimeoutCheck(ka, now);
+            TimeoutWheel.Entry<KeyAttachment> entry = ka.timeoutEntry;
+            if (entry != null && entry.isScheduled() &&
+                    !entry.isScheduled(timeoutWheel)) {
+                // Left behind on the wheel of a previous poller
+                entry = null;
+            }
+            if (next == Long.MAX_VALUE) {
+                if (entry != null) {
+                    timeoutWheel.cancel(entry);
+                }
+                return;
+            }
+            if (entry == null) {
+                entry = new TimeoutWheel.Entry<KeyAttachment>(ka);
+                ka.timeoutEntry = entry;
+            }
+            timeoutWheel.schedule(entry, next);
+        }
+
+        /*
+         * Works out when timeout() next needs to look at the key. Keys that
+         * are waiting for I/O are checked when their timeout expires. Comet
+         * and async keys without a timeout may need action that is not based
+         * on a deadline and keys that are currently being processed may move
+         * to async at any time so those are checked on every pass.
+         */
+        private long nextTimeoutCheck(KeyAttachment ka, long now) {
+            if (ka.isComet()) {
+                return now;
+            }
+            long timeout = ka.getTimeout();
+            if ((ka.interestOps() & (SelectionKey.OP_READ | SelectionKey.OP_WRITE)) != 0) {
+                return timeout > 0 ? expiry(ka.getLastAccess(), timeout) : Long.MAX_VALUE;
+            }
+            if (ka.isAsync() && timeout > 0) {
+                return expiry(ka.getLastAccess(), timeout);
+            }
+            return now;
+        }
+
+        private long expiry(long lastAccess, long timeout) {
+            if (lastAccess > Long.MAX_VALUE - timeout - 1) {
+                // Suspended after a timeout. The key is re-scheduled when it
+                // is next accessed.
+                return Long.MAX_VALUE;
+            }
+            return lastAccess + timeout + 1;
+        }
+
+        /**
+         * Called when the timeout for the given key may now expire earlier
+         * than when it is currently scheduled to be checked.
+         */
+        protected void timeoutChanged(KeyAttachment ka) {
+            timeoutUpdates.offer(ka);
+        }
+
+        private SelectionKey keyFor(KeyAttachment ka) {
+            NioChannel channel = ka.getSocket();
+            if (channel == null) {
+                return null;
+            }
+            return channel.getIOChannel().keyFor(selector);
+        }
     }
 
 // ----------------------------------------------------- Key Attachment Class
@@ -1552,6 +2116,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             cometNotify = false;
             cometOps = SelectionKey.OP_READ;
             interestOps = 0;
+            timeoutEntry = null;
             this.poller = poller;
             lastRegistered = 0;
             sendfileData = null;
@@ -1574,6 +2139,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 }
             }
             writeLatch = null;
+            readWaiter.signal();
+            writeWaiter.signal();
             setWriteTimeout(soTimeout);
         }
 
@@ -1581,6 +2148,28 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             reset(null,null,-1);
         }
 
+        @Override
+        public void access(long access) {
+            boolean suspended = lastAccess == Long.MAX_VALUE;
+            super.access(access);
+            Poller poller = this.poller;
+            if (suspended && access != Long.MAX_VALUE && poller != null) {
+                poller.timeoutChanged(this);
+            }
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+            long previous = getTimeout();
+            super.setTimeout(timeout);
+            Poller poller = this.poller;
+            long current = getTimeout();
+            if (current > 0 && (previous <= 0 || current < previous) &&
+                    poller != null) {
+                poller.timeoutChanged(this);
+            }
+        }
+
         public Poller getPoller() { return poller;}
         public void setPoller(Poller poller){this.poller = poller;}
         public void setCometNotify(boolean notify) { this.cometNotify = notify; }
@@ -1602,29 +2191,76 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         protected int interestOps = 0;
         public int interestOps() { return interestOps;}
         public int interestOps(int ops) { this.interestOps  = ops; return ops; }
+        public NioBlockingSelector.Waiter getReadWaiter() { return readWaiter; }
+        public NioBlockingSelector.Waiter getWriteWaiter() { return writeWaiter; }
+
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public CountDownLatch getReadLatch() { return readLatch; }
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public CountDownLatch getWriteLatch() { return writeLatch; }
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         protected CountDownLatch resetLatch(CountDownLatch latch) {
             if ( latch==null || latch.getCount() == 0 ) return null;
             else throw new IllegalStateException("Latch must be at count 0");
         }
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void resetReadLatch() { readLatch = resetLatch(readLatch); }
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void resetWriteLatch() { writeLatch = resetLatch(writeLatch); }
 
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         protected CountDownLatch startLatch(CountDownLatch latch, int cnt) {
             if ( latch == null || latch.getCount() == 0 ) {
                 return new CountDownLatch(cnt);
             }
             else throw new IllegalStateException("Latch must be at count 0 or null.");
         }
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void startReadLatch(int cnt) { readLatch = startLatch(readLatch,cnt);}
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void startWriteLatch(int cnt) { writeLatch = startLatch(writeLatch,cnt);}
 
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         protected void awaitLatch(CountDownLatch latch, long timeout, TimeUnit unit) throws InterruptedException {
             if ( latch == null ) throw new IllegalStateException("Latch cannot be null");
             latch.await(timeout,unit);
         }
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void awaitReadLatch(long timeout, TimeUnit unit) throws InterruptedException { awaitLatch(readLatch,timeout,unit);}
+        /**
+         * @deprecated Unused - will be removed in Tomcat 8
+         */
+        @Deprecated
         public void awaitWriteLatch(long timeout, TimeUnit unit) throws InterruptedException { awaitLatch(writeLatch,timeout,unit);}
 
         /**
@@ -1651,8 +2287,13 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         protected boolean cometNotify = false;
         protected CountDownLatch readLatch = null;
         protected CountDownLatch writeLatch = null;
+        protected final NioBlockingSelector.Waiter readWaiter =
+                new NioBlockingSelector.Waiter();
+        protected final NioBlockingSelector.Waiter writeWaiter =
+                new NioBlockingSelector.Waiter();
         protected volatile SendfileData sendfileData = null;
         private long writeTimeout = -1;
+        protected volatile TimeoutWheel.Entry<KeyAttachment> timeoutEntry = null;
     }
 
     // ------------------------------------------------ Application Buffer Handler
@@ -1660,7 +2301,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         protected ByteBuffer readbuf = null;
         protected ByteBuffer writebuf = null;
 
+        protected final NioBufferArena arena;
+        protected final int readsize;
+        protected final int writesize;
+
         public NioBufferHandler(int readsize, int writesize, boolean direct) {
+            this.arena = null;
+            this.readsize = readsize;
+            this.writesize = writesize;
             if ( direct ) {
                 readbuf = ByteBuffer.allocateDirect(readsize);
                 writebuf = ByteBuffer.allocateDirect(writesize);
@@ -1670,13 +2318,51 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             }
         }
 
+        /**
+         * Create a handler that borrows its buffers from the given arena the
+         * first time they are used and returns them on {@link #release()}.
+         */
+        public NioBufferHandler(int readsize, int writesize, NioBufferArena arena) {
+            this.arena = arena;
+            this.readsize = readsize;
+            this.writesize = writesize;
+        }
+
         @Override
         public ByteBuffer expand(ByteBuffer buffer, int remaining) {return buffer;}
         @Override
-        public ByteBuffer getReadBuffer() {return readbuf;}
+        public ByteBuffer getReadBuffer() {
+            if (readbuf == null) readbuf = arena.allocate(readsize);
+            return readbuf;
+        }
         @Override
-        public ByteBuffer getWriteBuffer() {return writebuf;}
+        public ByteBuffer getWriteBuffer() {
+            if (writebuf == null) writebuf = arena.allocate(writesize);
+            return writebuf;
+        }
+
+        public boolean isPooled() { return arena != null; }
 
+        /**
+         * Return the buffers to the arena, if any. Any data still held in the
+         * buffers is discarded.
+         *
+         * @return <code>true</code> if the buffers are pooled
+         */
+        public boolean release() {
+            if (arena == null) {
+                return false;
+            }
+            if (readbuf != null) {
+                arena.release(readbuf);
+                readbuf = null;
+            }
+            if (writebuf != null) {
+                arena.release(writebuf);
+                writebuf = null;
+            }
+            return true;
+        }
     }
 
     // ------------------------------------------------ Handler Inner Interface
@@ -1706,6 +2392,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
         protected NioChannel socket = null;
         protected SocketStatus status = null;
+        protected boolean queued = false;
+        protected long queuedNanos;
 
         public SocketProcessor(NioChannel socket, SocketStatus status) {
             reset(socket,status);
@@ -1714,10 +2402,23 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         public void reset(NioChannel socket, SocketStatus status) {
             this.socket = socket;
             this.status = status;
+            this.queued = false;
+        }
+
+        /**
+         * Record the time this processor was passed to the executor.
+         */
+        public void setQueued(long queuedNanos) {
+            this.queued = true;
+            this.queuedNanos = queuedNanos;
         }
 
         @Override
         public void run() {
+            if (queued) {
+                queued = false;
+                socketProcessingStarted(queuedNanos);
+            }
             SelectionKey key = socket.getIOChannel().keyFor(
                     socket.getPoller().getSelector());
             KeyAttachment ka = null;
@@ -1731,12 +2432,20 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             // NIO has been configured
             if (ka != null && ka.isUpgraded() &&
                     SocketStatus.OPEN_WRITE == status) {
-                synchronized (ka.getWriteThreadLock()) {
+                Lock writeThreadLock = ka.getWriteThreadLock();
+                writeThreadLock.lock();
+                try {
                     doRun(key, ka);
+                } finally {
+                    writeThreadLock.unlock();
                 }
             } else {
-                synchronized (socket) {
+                ReentrantLock processLock = socket.getProcessLock();
+                processLock.lock();
+                try {
                     doRun(key, ka);
+                } finally {
+                    processLock.unlock();
                 }
             }
         }
@@ -1836,6 +2545,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     // whether or not to return socket and ka to
                     // their respective caches. We do NOT want to do
                     // this more than once - see BZ 57340 / 57943.
+                    socket.releaseBuffers();
                     if (running && !paused) {
                         nioChannels.offer(socket);
                     }
@@ -1857,6 +2567,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         // File
         public volatile String fileName;
         public volatile FileChannel fchannel;
+        // Region of the file currently mapped for TLS, if any
+        public volatile MappedByteBuffer mapped;
         public volatile long pos;
         public volatile long length;
         // KeepAlive flag
@@ -0,0 +1,181 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how far behind an endpoint's executor is and converts that into an
+ * overload state. Two signals are used: the number of tasks waiting in the
+ * executor queue and a smoothed average of the time socket processing tasks
+ * wait in that queue before they start. Each state has its own thresholds
+ * for both signals and either signal reaching its threshold is sufficient to
+ * enter the state. A threshold of -1 disables that check.
+ */
+public class OverloadController {
+
+    public static enum State {
+        /**
+         * No thresholds have been reached.
+         */
+        NORMAL,
+        /**
+         * Keep-alive timeouts are shortened so idle connections release
+         * their resources sooner.
+         */
+        PRESSURE,
+        /**
+         * Connections are closed at the end of the current response and new
+         * connections are rejected.
+         */
+        SHEDDING
+    }
+
+    /*
+     * If no task has started for this long and the queue is empty, the
+     * average wait is considered out of date.
+     */
+    private static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private int pressureQueueSize = -1;
+    private long pressureWaitTime = -1;
+    private int shedQueueSize = -1;
+    private long shedWaitTime = -1;
+
+    private volatile long averageWait = 0;
+    private volatile long lastSample = 0;
+    private volatile State state = State.NORMAL;
+
+
+    public int getPressureQueueSize() {
+        return pressureQueueSize;
+    }
+
+    public void setPressureQueueSize(int pressureQueueSize) {
+        this.pressureQueueSize = pressureQueueSize;
+    }
+
+    /**
+     * @return the average wait, in milliseconds, at which the endpoint is
+     *         considered to be under pressure
+     */
+    public long getPressureWaitTime() {
+        return pressureWaitTime;
+    }
+
+    public void setPressureWaitTime(long pressureWaitTime) {
+        this.pressureWaitTime = pressureWaitTime;
+    }
+
+    public int getShedQueueSize() {
+        return shedQueueSize;
+    }
+
+    public void setShedQueueSize(int shedQueueSize) {
+        this.shedQueueSize = shedQueueSize;
+    }
+
+    /**
+     * @return the average wait, in milliseconds, at which the endpoint starts
+     *         shedding connections
+     */
+    public long getShedWaitTime() {
+        return shedWaitTime;
+    }
+
+    public void setShedWaitTime(long shedWaitTime) {
+        this.shedWaitTime = shedWaitTime;
+    }
+
+    public boolean isEnabled() {
+        return pressureQueueSize > 0 || pressureWaitTime > 0 ||
+                shedQueueSize > 0 || shedWaitTime > 0;
+    }
+
+
+    /**
+     * Record the time a task waited in the executor queue before it started.
+     * Updates are not synchronized so concurrent samples may occasionally be
+     * lost which is acceptable for a smoothed average.
+     *
+     * @param waitNanos The time the task waited in nanoseconds
+     */
+    public void recordWait(long waitNanos) {
+        long average = averageWait;
+        averageWait = average + (waitNanos - average) / 8;
+        lastSample = System.nanoTime();
+    }
+
+
+    /**
+     * @return the smoothed average wait of recently started tasks in
+     *         milliseconds
+     */
+    public long getAverageWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(averageWait);
+    }
+
+
+    /**
+     * Re-evaluate the state.
+     *
+     * @param queueSize The current number of tasks waiting in the executor
+     *                  queue or -1 if not known
+     * @return the new state
+     */
+    public State update(int queueSize) {
+        long wait = averageWait;
+        if (queueSize <= 0 && System.nanoTime() - lastSample > STALE_NANOS) {
+            // Nothing waiting and nothing started recently
+            averageWait = 0;
+            wait = 0;
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(wait);
+
+        State newState;
+        if (exceeds(queueSize, shedQueueSize) || exceeds(waitMillis, shedWaitTime)) {
+            newState = State.SHEDDING;
+        } else if (exceeds(queueSize, pressureQueueSize) ||
+                exceeds(waitMillis, pressureWaitTime)) {
+            newState = State.PRESSURE;
+        } else {
+            newState = State.NORMAL;
+        }
+        state = newState;
+        return newState;
+    }
+
+
+    /**
+     * @return the state as of the last call to {@link #update(int)}
+     */
+    public State getState() {
+        return state;
+    }
+
+
+    public void reset() {
+        averageWait = 0;
+        lastSample = 0;
+        state = State.NORMAL;
+    }
+
+
+    private static boolean exceeds(long value, long threshold) {
+        return threshold > 0 && value >= threshold;
+    }
+}
@@ -138,6 +138,7 @@ public class SecureNioChannel extends NioChannel  {
     protected boolean flush(ByteBuffer buf) throws IOException {
         int remaining = buf.remaining();
         if ( remaining > 0 ) {
+            socketWriteCount++;
             int written = sc.write(buf);
             return written >= remaining;
         }else {
@@ -488,6 +489,7 @@ public class SecureNioChannel extends NioChannel  {
         if ( src == this.netOutBuffer ) {
             //we can get here through a recursive call
             //by using the NioBlockingSelector
+            socketWriteCount++;
             int written = sc.write(src);
             return written;
         } else {
@@ -524,6 +526,47 @@ public class SecureNioChannel extends NioChannel  {
         }
     }
 
+    /**
+     * Encrypts as much of the given buffers as fits in a single TLS record so
+     * that, for example, a response header and body share a record and a
+     * single network write.
+     *
+     * @param srcs      The buffers from which bytes are to be retrieved
+     * @param offset    The offset within the buffer array of the first buffer
+     * @param length    The maximum number of buffers to be accessed
+     * @return The number of bytes written, possibly zero
+     * @throws IOException If some other I/O error occurs
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        checkInterruptStatus();
+        //are we closing or closed?
+        if ( closing || closed) throw new IOException("Channel is in closing state.");
+
+        if (!flush(netOutBuffer)) {
+            //we haven't emptied out the buffer yet
+            return 0;
+        }
+
+        netOutBuffer.clear();
+
+        SSLEngineResult result = sslEngine.wrap(srcs, offset, length, netOutBuffer);
+        int written = result.bytesConsumed();
+        netOutBuffer.flip();
+
+        if (result.getStatus() == Status.OK) {
+            if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) tasks();
+        } else {
+            throw new IOException("Unable to wrap data, invalid engine state: " +result.getStatus());
+        }
+
+        //force a flush
+        flush(netOutBuffer);
+
+        return written;
+    }
+
     @Override
     public int getOutboundRemaining() {
         return netOutBuffer.remaining();
@@ -101,6 +101,28 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Enable/disable the shared buffer arena. When enabled, channels borrow
+     * their application read/write buffers from a slab based pool of direct
+     * buffers while data is in flight and return them when the connection is
+     * idle between requests.
+     * Default value is disabled
+     */
+    protected boolean bufferArena = false;
+
+    /**
+     * Size in bytes of the slabs the buffer arena carves buffers from
+     * Default value is 1MB (1024*1024 bytes)
+     */
+    protected int bufferArenaSlabSize = 1024*1024;
+
+    /**
+     * Maximum number of bytes of unused buffers the arena retains
+     * -1 means unlimited
+     * Default value is 100MB (1024*1024*100 bytes)
+     */
+    protected int bufferArenaIdleSize = 1024*1024*100;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -392,6 +414,30 @@ public class SocketProperties {
         this.bufferPool = directBufferPool;
     }
 
+    public boolean getBufferArena() {
+        return bufferArena;
+    }
+
+    public void setBufferArena(boolean bufferArena) {
+        this.bufferArena = bufferArena;
+    }
+
+    public int getBufferArenaSlabSize() {
+        return bufferArenaSlabSize;
+    }
+
+    public void setBufferArenaSlabSize(int bufferArenaSlabSize) {
+        this.bufferArenaSlabSize = bufferArenaSlabSize;
+    }
+
+    public int getBufferArenaIdleSize() {
+        return bufferArenaIdleSize;
+    }
+
+    public void setBufferArenaIdleSize(int bufferArenaIdleSize) {
+        this.bufferArenaIdleSize = bufferArenaIdleSize;
+    }
+
     public int getUnlockTimeout() {
         return unlockTimeout;
     }
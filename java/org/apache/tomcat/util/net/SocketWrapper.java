@@ -17,6 +17,7 @@
 package org.apache.tomcat.util.net;
 
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
@@ -52,9 +53,10 @@ public class SocketWrapper<E> {
      * read and writes). When HTTP upgrade is used, one read thread and one
      * write thread are allowed to access the socket concurrently. In this case
      * the lock on the socket is used for reads and the lock below is used for
-     * writes.
+     * writes. It is a Lock rather than a monitor so that a virtual thread that
+     * waits for it does not pin its carrier thread.
      */
-    private final Object writeThreadLock = new Object();
+    private final Lock writeThreadLock = new ReentrantLock();
 
     public SocketWrapper(E socket) {
         this.socket = socket;
@@ -108,7 +110,7 @@ public class SocketWrapper<E> {
     public WriteLock getBlockingStatusWriteLock() {
         return blockingStatusWriteLock;
     }
-    public Object getWriteThreadLock() { return writeThreadLock; }
+    public Lock getWriteThreadLock() { return writeThreadLock; }
 
     public void reset(E socket, long timeout) {
         async = false;
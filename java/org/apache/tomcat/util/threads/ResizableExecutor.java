@@ -37,6 +37,13 @@ public interface ResizableExecutor extends Executor {
      */
     public int getActiveCount();
 
+    /**
+     * Returns the number of tasks waiting for a thread.
+     *
+     * @return the number of tasks or -1 if the executor has not been started
+     */
+    public int getQueueSize();
+
     public boolean resizePool(int corePoolSize, int maximumPoolSize);
 
     public boolean resizeQueue(int capacity);
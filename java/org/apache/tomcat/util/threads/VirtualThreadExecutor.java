@@ -0,0 +1,167 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that runs each task on a new virtual thread. A task that blocks
+ * on I/O or a lock parks its virtual thread and releases the underlying
+ * carrier thread so the number of concurrent tasks is not limited by the
+ * number of platform threads. Requires Java 21 or later, see
+ * {@link JreCompat#isVirtualThreadSupported()}.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    protected static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    private final ThreadFactory threadFactory;
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+    private final Object terminationLock = new Object();
+    private volatile int largestActiveCount = 0;
+    private volatile boolean shutdown = false;
+
+
+    /**
+     * @param namePrefix    The prefix for the names of the virtual threads
+     *
+     * @throws UnsupportedOperationException if the JRE does not support
+     *         virtual threads
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        threadFactory =
+                JreCompat.getInstance().createVirtualThreadFactory(namePrefix);
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(
+                    sm.getString("virtualThreadExecutor.shutdown"));
+        }
+        int active = activeCount.incrementAndGet();
+        if (active > largestActiveCount) {
+            largestActiveCount = active;
+        }
+        try {
+            threadFactory.newThread(new Task(command)).start();
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            taskDone(false);
+            throw new RejectedExecutionException(t);
+        }
+    }
+
+
+    /**
+     * Stop accepting new tasks. Tasks already started run to completion.
+     */
+    public void shutdown() {
+        shutdown = true;
+        synchronized (terminationLock) {
+            terminationLock.notifyAll();
+        }
+    }
+
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (!shutdown || activeCount.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+
+    /**
+     * @return the largest number of tasks that have run at the same time
+     */
+    public int getLargestActiveCount() {
+        return largestActiveCount;
+    }
+
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+
+    private void taskDone(boolean completed) {
+        if (completed) {
+            completedTaskCount.incrementAndGet();
+        }
+        if (activeCount.decrementAndGet() == 0 && shutdown) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+
+    private class Task implements Runnable {
+
+        private final Runnable command;
+
+        Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                taskDone(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,662 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A thread pool that avoids the single shared queue of
+ * {@link ThreadPoolExecutor}. Tasks are handed directly to an idle worker
+ * where possible. Otherwise they are queued in one of several deques, chosen
+ * per submitting thread so that each poller tends to use its own deque. Idle
+ * workers take tasks from their home deque first and steal from the others
+ * when it is empty.
+ * <p>
+ * The pool follows the same policy as {@link ThreadPoolExecutor} combined with
+ * {@link TaskQueue}: a new thread is started, up to the maximum, before a
+ * task is queued if no thread is idle. Threads started before a context was
+ * stopped are renewed as described in {@link #contextStopping()}.
+ */
+public class WorkStealingExecutor implements Executor {
+
+    private static final Log log = LogFactory.getLog(WorkStealingExecutor.class);
+    protected static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    /*
+     * Values of a worker's slot other than a handed off task.
+     */
+    private static final Object IDLE = new Object();
+    private static final Object WAKE = new Object();
+    private static final Object EXITED = new Object();
+
+    private final WorkQueue[] queues;
+    private final ThreadFactory threadFactory;
+    private final ConcurrentLinkedQueue<Worker> idleWorkers =
+            new ConcurrentLinkedQueue<Worker>();
+    private final Set<Worker> workers = Collections.newSetFromMap(
+            new ConcurrentHashMap<Worker,Boolean>());
+    private final AtomicInteger poolSize = new AtomicInteger(0);
+    private final AtomicInteger queueRotation = new AtomicInteger(0);
+    private final ThreadLocal<WorkQueue> homeQueue = new ThreadLocal<WorkQueue>();
+
+    private volatile int corePoolSize;
+    private volatile int maximumPoolSize;
+    private volatile long keepAliveNanos;
+    private final int maxQueueSize;
+    private volatile boolean shutdown = false;
+
+    private volatile int largestPoolSize = 0;
+    // Tasks completed by workers that have exited
+    private final AtomicLong exitedCompletedTaskCount = new AtomicLong(0);
+
+    private final AtomicLong lastContextStoppedTime = new AtomicLong(0L);
+    private final AtomicLong lastTimeThreadKilledItself = new AtomicLong(0L);
+    private volatile long threadRenewalDelay = Constants.DEFAULT_THREAD_RENEWAL_DELAY;
+
+
+    /**
+     * Create a new executor.
+     *
+     * @param corePoolSize      The number of threads kept even when idle
+     * @param maximumPoolSize   The maximum number of threads
+     * @param keepAliveTime     The time an idle thread above the core size
+     *                          waits for work before exiting
+     * @param unit              The unit of keepAliveTime
+     * @param queueCount        The number of deques. Values of zero or less
+     *                          use the number of available processors.
+     * @param maxQueueSize      The maximum number of queued tasks
+     * @param threadFactory     The factory for worker threads
+     */
+    public WorkStealingExecutor(int corePoolSize, int maximumPoolSize,
+            long keepAliveTime, TimeUnit unit, int queueCount, int maxQueueSize,
+            ThreadFactory threadFactory) {
+        if (queueCount <= 0) {
+            queueCount = Runtime.getRuntime().availableProcessors();
+        }
+        queues = new WorkQueue[queueCount];
+        for (int i = 0; i < queueCount; i++) {
+            queues[i] = new WorkQueue();
+        }
+        this.corePoolSize = corePoolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.keepAliveNanos = unit.toNanos(keepAliveTime);
+        this.maxQueueSize = maxQueueSize;
+        this.threadFactory = threadFactory;
+    }
+
+
+    // ------------------------------------------------------------ Properties
+
+    public int getCorePoolSize() {
+        return corePoolSize;
+    }
+
+    /**
+     * Set the number of threads kept when idle. Idle threads above a reduced
+     * size exit when their keep alive time expires.
+     */
+    public void setCorePoolSize(int corePoolSize) {
+        this.corePoolSize = corePoolSize;
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    public long getKeepAliveTime(TimeUnit unit) {
+        return unit.convert(keepAliveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void setKeepAliveTime(long time, TimeUnit unit) {
+        this.keepAliveNanos = unit.toNanos(time);
+    }
+
+    public long getThreadRenewalDelay() {
+        return threadRenewalDelay;
+    }
+
+    public void setThreadRenewalDelay(long threadRenewalDelay) {
+        this.threadRenewalDelay = threadRenewalDelay;
+    }
+
+    public int getQueueCount() {
+        return queues.length;
+    }
+
+
+    // ------------------------------------------------------------ Statistics
+
+    public int getPoolSize() {
+        return poolSize.get();
+    }
+
+    public int getLargestPoolSize() {
+        return largestPoolSize;
+    }
+
+    public int getActiveCount() {
+        int result = 0;
+        for (Worker worker : workers) {
+            if (worker.running) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public long getCompletedTaskCount() {
+        long result = exitedCompletedTaskCount.get();
+        for (Worker worker : workers) {
+            result += worker.completedTasks;
+        }
+        return result;
+    }
+
+    public int getQueueSize() {
+        int result = 0;
+        for (WorkQueue queue : queues) {
+            result += queue.size;
+        }
+        return result;
+    }
+
+
+    // ------------------------------------------------------------- Execution
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Executes the given command at some time in the future. If no thread is
+     * idle and the maximum number of threads has been reached, the command is
+     * queued. If the queue is full, the system will wait for the specified
+     * time and throw a RejectedExecutionException if the queue is still full
+     * after that.
+     *
+     * @param command   the runnable task
+     * @param timeout   the time to wait for space in the queue
+     * @param unit      the unit of timeout
+     *
+     * @throws RejectedExecutionException if this task cannot be accepted for
+     *         execution - the executor has been shut down or the queue is full
+     * @throws NullPointerException if command or unit is null
+     */
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(
+                    sm.getString("workStealingExecutor.shutdown"));
+        }
+        if (handOff(command) || addWorker(command)) {
+            return;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getQueueSize() >= maxQueueSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || shutdown) {
+                throw new RejectedExecutionException(
+                        sm.getString("workStealingExecutor.queueFull"));
+            }
+            LockSupport.parkNanos(this, Math.min(remaining,
+                    TimeUnit.MILLISECONDS.toNanos(1)));
+            if (handOff(command)) {
+                return;
+            }
+        }
+        getHomeQueue().offer(command);
+        // A worker may have become idle after the hand off was attempted. It
+        // either sees the task when it checks the queues after registering as
+        // idle or is woken here.
+        signalIdleWorker();
+    }
+
+
+    /**
+     * Start all core threads so that they wait idle for work.
+     *
+     * @return the number of threads started
+     */
+    public int prestartAllCoreThreads() {
+        int started = 0;
+        while (poolSize.get() < corePoolSize && addWorker(null)) {
+            started++;
+        }
+        return started;
+    }
+
+
+    /**
+     * Wake idle threads so that those started before the context was stopped
+     * are renewed. Each thread is stopped once it has finished its current
+     * task, throttled by the thread renewal delay, and replaced if required.
+     */
+    public void contextStopping() {
+        lastContextStoppedTime.set(System.currentTimeMillis());
+        wakeIdleWorkers();
+    }
+
+
+    /**
+     * Stop accepting tasks and let the workers exit once the queued tasks
+     * have been completed.
+     */
+    public void shutdown() {
+        shutdown = true;
+        wakeIdleWorkers();
+    }
+
+
+    /**
+     * Stop accepting tasks, discard the queued tasks and interrupt the
+     * workers.
+     *
+     * @return the tasks that were discarded
+     */
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> result = new ArrayList<Runnable>();
+        for (WorkQueue queue : queues) {
+            queue.drainTo(result);
+        }
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        wakeIdleWorkers();
+        return result;
+    }
+
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (poolSize.get() > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, 10));
+        }
+        return true;
+    }
+
+
+    // -------------------------------------------------------- Implementation
+
+    private boolean handOff(Runnable command) {
+        return signalIdleWorker(command);
+    }
+
+
+    private void signalIdleWorker() {
+        signalIdleWorker(WAKE);
+    }
+
+
+    private void wakeIdleWorkers() {
+        while (signalIdleWorker(WAKE)) {
+            // Wake them all
+        }
+    }
+
+
+    /*
+     * Place the value in the slot of an idle worker and unpark it.
+     */
+    private boolean signalIdleWorker(Object value) {
+        Worker worker = idleWorkers.poll();
+        while (worker != null) {
+            worker.queued.set(false);
+            if (worker.slot.compareAndSet(IDLE, value)) {
+                LockSupport.unpark(worker.thread);
+                return true;
+            }
+            // The worker was busy. If it has become idle since, it may have
+            // seen that it was still queued so queue it again.
+            if (worker.slot.get() == IDLE &&
+                    worker.queued.compareAndSet(false, true)) {
+                idleWorkers.offer(worker);
+            }
+            worker = idleWorkers.poll();
+        }
+        return false;
+    }
+
+
+    private boolean addWorker(Runnable firstTask) {
+        int size;
+        do {
+            size = poolSize.get();
+            if (size >= maximumPoolSize) {
+                return false;
+            }
+        } while (!poolSize.compareAndSet(size, size + 1));
+        if (size + 1 > largestPoolSize) {
+            largestPoolSize = size + 1;
+        }
+
+        Worker worker = new Worker(firstTask);
+        Thread thread = threadFactory.newThread(worker);
+        worker.thread = thread;
+        workers.add(worker);
+        try {
+            thread.start();
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            workers.remove(worker);
+            poolSize.decrementAndGet();
+            if (firstTask == null) {
+                return false;
+            }
+            throw new RejectedExecutionException(t);
+        }
+        return true;
+    }
+
+
+    private WorkQueue getHomeQueue() {
+        WorkQueue queue = homeQueue.get();
+        if (queue == null) {
+            int index = (queueRotation.getAndIncrement() & Integer.MAX_VALUE) %
+                    queues.length;
+            queue = queues[index];
+            homeQueue.set(queue);
+        }
+        return queue;
+    }
+
+
+    /*
+     * Take a task from the home queue or, if that is empty, steal one from
+     * the other queues.
+     */
+    private Runnable scan(WorkQueue home) {
+        Runnable task = home.poll();
+        if (task != null) {
+            return task;
+        }
+        int start = 0;
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i] == home) {
+                start = i;
+                break;
+            }
+        }
+        for (int i = 1; i < queues.length; i++) {
+            task = queues[(start + i) % queues.length].poll();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+
+    private boolean currentThreadShouldBeStopped() {
+        if (threadRenewalDelay >= 0 &&
+                Thread.currentThread() instanceof TaskThread) {
+            TaskThread currentTaskThread = (TaskThread) Thread.currentThread();
+            if (currentTaskThread.getCreationTime() <
+                    lastContextStoppedTime.longValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /*
+     * Same throttling as ThreadPoolExecutor.stopCurrentThreadIfNeeded().
+     */
+    private boolean renewCurrentThread() {
+        if (currentThreadShouldBeStopped()) {
+            long lastTime = lastTimeThreadKilledItself.longValue();
+            if (lastTime + threadRenewalDelay < System.currentTimeMillis()) {
+                if (lastTimeThreadKilledItself.compareAndSet(lastTime,
+                        System.currentTimeMillis() + 1)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString(
+                                "threadPoolExecutor.threadStoppedToAvoidPotentialLeak",
+                                Thread.currentThread().getName()));
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /*
+     * An idle worker may exit if the pool is larger than the core size.
+     */
+    private boolean releaseIdleWorker() {
+        int size;
+        do {
+            size = poolSize.get();
+            if (size <= corePoolSize && !shutdown) {
+                return false;
+            }
+        } while (!poolSize.compareAndSet(size, size - 1));
+        return true;
+    }
+
+
+    private void workerExited(Worker worker, boolean counted) {
+        worker.slot.set(EXITED);
+        workers.remove(worker);
+        exitedCompletedTaskCount.addAndGet(worker.completedTasks);
+        if (!counted) {
+            poolSize.decrementAndGet();
+        }
+        if (!shutdown && (poolSize.get() < corePoolSize || getQueueSize() > 0)) {
+            // Replace the worker (typically when it was renewed)
+            addWorker(null);
+        }
+    }
+
+
+    private class Worker implements Runnable {
+
+        private final AtomicReference<Object> slot = new AtomicReference<Object>();
+        // Is there an entry for this worker in idleWorkers?
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+        private Runnable firstTask;
+        private volatile Thread thread;
+        private volatile boolean running = false;
+        private volatile long completedTasks = 0;
+        private WorkQueue home;
+
+        Worker(Runnable firstTask) {
+            this.firstTask = firstTask;
+        }
+
+        @Override
+        public void run() {
+            home = getHomeQueue();
+            boolean released = false;
+            Runnable task = firstTask;
+            firstTask = null;
+            try {
+                while (true) {
+                    if (task == null) {
+                        task = scan(home);
+                    }
+                    if (task == null) {
+                        if (shutdown) {
+                            break;
+                        }
+                        Object next = await();
+                        if (next == null) {
+                            // Timed out or woken to exit
+                            if (renewCurrentThread()) {
+                                break;
+                            }
+                            if (releaseIdleWorker()) {
+                                released = true;
+                                break;
+                            }
+                            continue;
+                        }
+                        if (next == WAKE) {
+                            if (renewCurrentThread()) {
+                                break;
+                            }
+                            continue;
+                        }
+                        task = (Runnable) next;
+                    }
+                    Runnable current = task;
+                    task = null;
+                    runTask(current);
+                    if (renewCurrentThread()) {
+                        break;
+                    }
+                }
+            } finally {
+                workerExited(this, released);
+            }
+        }
+
+        /*
+         * Wait for a task to be handed off or for a wake up.
+         *
+         * @return the task, WAKE, or null if the keep alive time expired
+         */
+        private Object await() {
+            slot.set(IDLE);
+            if (queued.compareAndSet(false, true)) {
+                idleWorkers.offer(this);
+            }
+            // Check again now that submitters can see this worker is idle
+            Runnable task = scan(home);
+            if (task != null) {
+                if (!slot.compareAndSet(IDLE, null)) {
+                    // Also received a hand off or wake up
+                    Object other = slot.getAndSet(null);
+                    if (other instanceof Runnable) {
+                        home.offerFirst((Runnable) other);
+                        signalIdleWorker();
+                    }
+                }
+                return task;
+            }
+            long deadline = System.nanoTime() + keepAliveNanos;
+            while (true) {
+                Object value = slot.get();
+                if (value != IDLE) {
+                    slot.set(null);
+                    return value;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || shutdown) {
+                    if (slot.compareAndSet(IDLE, null)) {
+                        return null;
+                    }
+                    continue;
+                }
+                LockSupport.parkNanos(WorkStealingExecutor.this, remaining);
+                // Interrupts are only used for shutdown
+                Thread.interrupted();
+            }
+        }
+
+        private void runTask(Runnable task) {
+            running = true;
+            try {
+                task.run();
+            } finally {
+                running = false;
+                completedTasks++;
+            }
+        }
+    }
+
+
+    /*
+     * A deque guarded by its own lock. Each lock is only shared by the
+     * submitters and workers that use the deque as their home and by the
+     * occasional thief.
+     */
+    private static class WorkQueue {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        private volatile int size = 0;
+
+        synchronized void offer(Runnable task) {
+            tasks.offerLast(task);
+            size = tasks.size();
+        }
+
+        synchronized void offerFirst(Runnable task) {
+            tasks.offerFirst(task);
+            size = tasks.size();
+        }
+
+        Runnable poll() {
+            if (size == 0) {
+                // Avoid taking the lock when there is nothing to do
+                return null;
+            }
+            synchronized (this) {
+                Runnable task = tasks.pollFirst();
+                size = tasks.size();
+                return task;
+            }
+        }
+
+        synchronized void drainTo(List<Runnable> target) {
+            target.addAll(tasks);
+            tasks.clear();
+            size = 0;
+        }
+    }
+}
@@ -16,9 +16,11 @@
  */
 package org.apache.catalina.connector;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.MalformedInputException;
 
 import javax.servlet.ServletException;
@@ -30,6 +32,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.B2CConverter;
@@ -84,6 +87,111 @@ public class TestInputBuffer extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testByteBufferIdentityBody() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        // No file system docBase required
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "Echo", new ByteBufferEcho());
+        root.addServletMapping("/test", "Echo");
+        tomcat.start();
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; body.length() < 100000; i++) {
+            body.append(i);
+            body.append(',');
+        }
+
+        ByteChunk bc = new ByteChunk();
+        int rc = postUrl(body.toString().getBytes(),
+                "http://localhost:" + getPort() + "/test", bc, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals(body.toString(), bc.toString());
+    }
+
+
+    @Test
+    public void testByteBufferChunkedBody() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        // No file system docBase required
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "Echo", new ByteBufferEcho());
+        root.addServletMapping("/test", "Echo");
+        tomcat.start();
+
+        String[] request = new String[] {
+            "POST /test HTTP/1.1" + SimpleHttpClient.CRLF +
+            "Host: any" + SimpleHttpClient.CRLF +
+            "Transfer-encoding: chunked" + SimpleHttpClient.CRLF +
+            "Connection: close" + SimpleHttpClient.CRLF +
+            SimpleHttpClient.CRLF +
+            "5" + SimpleHttpClient.CRLF +
+            "Hello" + SimpleHttpClient.CRLF,
+            "1" + SimpleHttpClient.CRLF +
+            " " + SimpleHttpClient.CRLF +
+            "6" + SimpleHttpClient.CRLF +
+            "World!" + SimpleHttpClient.CRLF +
+            "0" + SimpleHttpClient.CRLF +
+            SimpleHttpClient.CRLF };
+
+        EchoClient client = new EchoClient(getPort());
+        client.setRequest(request);
+        client.connect();
+        client.processRequest();
+
+        Assert.assertTrue(client.getResponseLine(), client.isResponse200());
+        Assert.assertEquals("Hello World!", client.getResponseBody());
+    }
+
+
+    private static class ByteBufferEcho extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            ByteBufferReadable in = (ByteBufferReadable) req.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            ByteBuffer buffer = in.acquireBuffer();
+            while (buffer != null) {
+                Assert.assertTrue(buffer.isReadOnly());
+                try {
+                    req.getInputStream().read();
+                    Assert.fail("Read while a buffer was acquired");
+                } catch (IllegalStateException expected) {
+                    // Expected
+                }
+                // Only consume half so the remainder is returned again
+                int len = (buffer.remaining() + 1) / 2;
+                byte[] bytes = new byte[len];
+                buffer.get(bytes);
+                body.write(bytes);
+                in.releaseBuffer(buffer);
+                buffer = in.acquireBuffer();
+            }
+            Assert.assertEquals(-1, req.getInputStream().read());
+
+            resp.setContentType("text/plain");
+            body.writeTo(resp.getOutputStream());
+        }
+    }
+
+
+    private static class EchoClient extends SimpleHttpClient {
+
+        public EchoClient(int port) {
+            setPort(port);
+        }
+
+        @Override
+        public boolean isResponseBodyOK() {
+            return true;
+        }
+    }
+
+
     private static class Utf8Echo extends HttpServlet {
 
         private static final long serialVersionUID = 1L;
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.mapper.MappingData;
+
+public class TestMappingCache extends TomcatBaseTest {
+
+    @Test
+    public void testHit() {
+        MappingCache cache = new MappingCache(16);
+        MappingData mappingData = new MappingData();
+
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/foo/bar"),
+                mappingData));
+        cache.put(cache.getGeneration(), mb("localhost"), mb("/foo/bar"),
+                createMappingData("/foo", "/bar", null));
+
+        Assert.assertTrue(cache.get(mb("localhost"), mb("/foo/bar"),
+                mappingData));
+        Assert.assertEquals("wrapper", mappingData.wrapper);
+        Assert.assertEquals("context", mappingData.context);
+        Assert.assertEquals("/foo", mappingData.contextPath.toString());
+        Assert.assertEquals("/bar", mappingData.wrapperPath.toString());
+        Assert.assertTrue(mappingData.pathInfo.isNull());
+
+        Assert.assertFalse(cache.get(mb("otherhost"), mb("/foo/bar"),
+                new MappingData()));
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/foo/baz"),
+                new MappingData()));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testNotCached() {
+        MappingCache cache = new MappingCache(16);
+
+        MappingData noWrapper = createMappingData("/foo", "/bar", null);
+        noWrapper.wrapper = null;
+        cache.put(cache.getGeneration(), mb("localhost"), mb("/a"), noWrapper);
+
+        MappingData redirect = createMappingData("/foo", "/bar", null);
+        redirect.redirectPath.setString("/foo/");
+        cache.put(cache.getGeneration(), mb("localhost"), mb("/b"), redirect);
+
+        MappingData welcome = createMappingData("/foo", "/bar", null);
+        welcome.resourceDependent = true;
+        cache.put(cache.getGeneration(), mb("localhost"), mb("/c"), welcome);
+
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/a"),
+                new MappingData()));
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/b"),
+                new MappingData()));
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/c"),
+                new MappingData()));
+    }
+
+
+    @Test
+    public void testInvalidate() {
+        MappingCache cache = new MappingCache(16);
+        int generation = cache.getGeneration();
+        cache.put(generation, mb("localhost"), mb("/foo/bar"),
+                createMappingData("/foo", "/bar", null));
+        cache.invalidate();
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/foo/bar"),
+                new MappingData()));
+
+        // A mapping that started before the invalidation is not added
+        cache.put(generation, mb("localhost"), mb("/foo/bar"),
+                createMappingData("/foo", "/bar", null));
+        Assert.assertFalse(cache.get(mb("localhost"), mb("/foo/bar"),
+                new MappingData()));
+        Assert.assertEquals(1, cache.getInvalidationCount());
+    }
+
+
+    @Test
+    public void testEviction() {
+        MappingCache cache = new MappingCache(4);
+        Assert.assertEquals(4, cache.getSize());
+        for (int i = 0; i < 100; i++) {
+            cache.put(cache.getGeneration(), mb("localhost"), mb("/" + i),
+                    createMappingData("", "/" + i, null));
+        }
+        Assert.assertTrue(cache.getEvictionCount() >= 96);
+
+        int hits = 0;
+        for (int i = 0; i < 100; i++) {
+            MappingData mappingData = new MappingData();
+            if (cache.get(mb("localhost"), mb("/" + i), mappingData)) {
+                Assert.assertEquals("/" + i,
+                        mappingData.wrapperPath.toString());
+                hits++;
+            }
+        }
+        Assert.assertTrue(hits > 0 && hits <= 4);
+    }
+
+
+    @Test
+    public void testRequests() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setMappingCacheSize(64);
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "path", new PathServlet());
+        ctx.addServletMapping("/foo/*", "path");
+
+        tomcat.start();
+
+        MappingCache cache = tomcat.getConnector().getMappingCache();
+        Assert.assertNotNull(cache);
+        long invalidations = cache.getInvalidationCount();
+
+        Assert.assertEquals("/foo:/bar",
+                getUrl("http://localhost:" + getPort() + "/foo/bar").toString());
+        Assert.assertEquals("/foo:/bar",
+                getUrl("http://localhost:" + getPort() + "/foo/bar").toString());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // Changing the mappings invalidates the cache
+        ctx.addServletMapping("/foo/bar", "path");
+        Assert.assertTrue(cache.getInvalidationCount() > invalidations);
+        Assert.assertEquals("/foo/bar:null",
+                getUrl("http://localhost:" + getPort() + "/foo/bar").toString());
+    }
+
+
+    private static MessageBytes mb(String value) {
+        MessageBytes mb = MessageBytes.newInstance();
+        mb.setString(value);
+        return mb;
+    }
+
+
+    private static MappingData createMappingData(String contextPath,
+            String wrapperPath, String pathInfo) {
+        MappingData mappingData = new MappingData();
+        mappingData.host = "host";
+        mappingData.context = "context";
+        mappingData.wrapper = "wrapper";
+        mappingData.contextPath.setString(contextPath);
+        mappingData.requestPath.setString(wrapperPath);
+        mappingData.wrapperPath.setString(wrapperPath);
+        if (pathInfo != null) {
+            mappingData.pathInfo.setString(pathInfo);
+        }
+        return mappingData;
+    }
+
+
+    private static final class PathServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            PrintWriter pw = resp.getWriter();
+            pw.print(req.getServletPath());
+            pw.print(':');
+            pw.print(req.getPathInfo());
+        }
+    }
+}
@@ -17,8 +17,22 @@
 package org.apache.catalina.connector;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -207,4 +221,209 @@ public class TestOutputBuffer extends TomcatBaseTest{
         }
     }
 
+
+    @Test
+    public void testByteBufferChunked() throws Exception {
+        doTestByteBuffer(false, false);
+    }
+
+
+    @Test
+    public void testByteBufferContentLength() throws Exception {
+        doTestByteBuffer(true, false);
+    }
+
+
+    @Test
+    public void testByteBufferCompressed() throws Exception {
+        doTestByteBuffer(false, true);
+    }
+
+
+    private void doTestByteBuffer(boolean setContentLength, boolean compress)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        if (compress) {
+            Assert.assertTrue(tomcat.getConnector().setProperty(
+                    "compression", "on"));
+        }
+
+        // No file system docBase required
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "ByteBuffer",
+                new ByteBufferServlet(setContentLength));
+        root.addServletMapping("/", "ByteBuffer");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHead = new HashMap<String,List<String>>();
+        if (compress) {
+            List<String> values = new ArrayList<String>();
+            values.add("gzip");
+            reqHead.put("Accept-Encoding", values);
+        }
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/", bc, reqHead,
+                null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        byte[] body = Arrays.copyOfRange(bc.getBuffer(), bc.getStart(),
+                bc.getEnd());
+        if (compress) {
+            body = gunzip(body);
+        }
+        Assert.assertArrayEquals(ByteBufferServlet.expected(), body);
+    }
+
+
+    @Test
+    public void testFileChannel() throws Exception {
+        File file = new File(getTemporaryDirectory(), "transfer.bin");
+        byte[] content = pattern(200000);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+        addDeleteOnTearDown(file);
+
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "FileChannel", new FileChannelServlet(file));
+        root.addServletMapping("/", "FileChannel");
+
+        tomcat.start();
+
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/", bc, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        byte[] expected = new byte[FileChannelServlet.COUNT + 2];
+        expected[0] = 'x';
+        System.arraycopy(content, FileChannelServlet.POSITION, expected, 1,
+                FileChannelServlet.COUNT);
+        expected[expected.length - 1] = 'y';
+        Assert.assertArrayEquals(expected, Arrays.copyOfRange(bc.getBuffer(),
+                bc.getStart(), bc.getEnd()));
+    }
+
+
+    private static byte[] pattern(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) (i * 31 % 251);
+        }
+        return result;
+    }
+
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream is =
+                new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) > 0) {
+            result.write(buf, 0, read);
+        }
+        return result.toByteArray();
+    }
+
+
+    private static class ByteBufferServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte[] HEAD = "head".getBytes();
+        private static final int LARGE = 100000;
+        private static final int SMALL = 10;
+        private static final int HEAP = 20000;
+
+        private final boolean setContentLength;
+
+        public ByteBufferServlet(boolean setContentLength) {
+            this.setContentLength = setContentLength;
+        }
+
+        static byte[] expected() {
+            byte[] large = pattern(LARGE);
+            byte[] small = pattern(SMALL);
+            byte[] heap = pattern(HEAP);
+            byte[] result = new byte[HEAD.length + LARGE + SMALL + HEAP];
+            int pos = 0;
+            System.arraycopy(HEAD, 0, result, pos, HEAD.length);
+            pos += HEAD.length;
+            System.arraycopy(large, 0, result, pos, LARGE);
+            pos += LARGE;
+            System.arraycopy(small, 0, result, pos, SMALL);
+            pos += SMALL;
+            System.arraycopy(heap, 0, result, pos, HEAP);
+            return result;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+
+            resp.setContentType("text/plain");
+            if (setContentLength) {
+                resp.setContentLength(HEAD.length + LARGE + SMALL + HEAP);
+            }
+
+            ByteBufferWritable out =
+                    (ByteBufferWritable) resp.getOutputStream();
+            resp.getOutputStream().write(HEAD);
+
+            ByteBuffer large = ByteBuffer.allocateDirect(LARGE);
+            large.put(pattern(LARGE)).flip();
+            out.write(large);
+            Assert.assertFalse(large.hasRemaining());
+
+            ByteBuffer small = ByteBuffer.allocateDirect(SMALL);
+            small.put(pattern(SMALL)).flip();
+            out.write(small);
+            Assert.assertFalse(small.hasRemaining());
+
+            ByteBuffer heap = ByteBuffer.wrap(pattern(HEAP));
+            out.write(heap);
+            Assert.assertFalse(heap.hasRemaining());
+        }
+    }
+
+
+    private static class FileChannelServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int POSITION = 1000;
+        private static final int COUNT = 150000;
+
+        private final File file;
+
+        public FileChannelServlet(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+
+            resp.setContentType("application/octet-stream");
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                resp.getOutputStream().write('x');
+                ((ByteBufferWritable) resp.getOutputStream()).transferFrom(
+                        channel, POSITION, COUNT);
+                Assert.assertEquals(0, channel.position());
+                resp.getOutputStream().write('y');
+            } finally {
+                raf.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestStandardVirtualThreadExecutor extends TomcatBaseTest {
+
+    @Test
+    public void testExecute() throws Exception {
+        StandardVirtualThreadExecutor executor =
+                new StandardVirtualThreadExecutor();
+        executor.setName("test");
+        executor.start();
+        try {
+            Assert.assertEquals(
+                    Boolean.valueOf(JreCompat.getInstance().isVirtualThreadSupported()),
+                    Boolean.valueOf(executor.isVirtualThreads()));
+
+            int count = 100;
+            final CountDownLatch latch = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                });
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.stop();
+        }
+    }
+
+
+    @Test
+    public void testConnectorUsesExecutor() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        StandardVirtualThreadExecutor executor =
+                new StandardVirtualThreadExecutor();
+        executor.setName("virtual");
+        tomcat.getService().addExecutor(executor);
+        ((AbstractProtocol<?>) tomcat.getConnector().getProtocolHandler())
+                .setExecutor(executor);
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "thread", new ThreadNameServlet());
+        ctx.addServletMapping("/", "thread");
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+        Assert.assertTrue(res.toString(), res.toString().startsWith("tomcat-virt-"));
+    }
+
+
+    private static class ThreadNameServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getWriter().print(Thread.currentThread().getName());
+        }
+    }
+}
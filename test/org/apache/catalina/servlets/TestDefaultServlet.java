@@ -16,18 +16,25 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -37,10 +44,12 @@ import org.junit.Test;
 import static org.apache.catalina.startup.SimpleHttpClient.CRLF;
 import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.deploy.ErrorPage;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.naming.resources.ProxyDirContext;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestDefaultServlet extends TomcatBaseTest {
@@ -302,6 +311,273 @@ public class TestDefaultServlet extends TomcatBaseTest {
         tomcat.stop();
     }
 
+    /*
+     * Pre-compressed siblings are served according to the Accept-Encoding
+     * header with the content type of the original resource.
+     */
+    @Test
+    public void testPrecompressed() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "precompressed");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] content = createContent(4096);
+        writeFile(new File(appDir, "app.js"), content);
+        writeFile(new File(appDir, "app.js.gz"), gzip(content));
+        writeFile(new File(appDir, "app.js.br"), "brotli".getBytes("ISO-8859-1"));
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("precompressed", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("js", "application/javascript");
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/app.js";
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<String,List<String>>();
+
+        // No Accept-Encoding
+        int rc = getResource(path, out, null, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+        Assert.assertEquals("accept-encoding", resHeaders.get("vary").get(0));
+        Assert.assertArrayEquals(content, toBytes(out));
+        String eTag = resHeaders.get("ETag").get(0);
+
+        // gzip
+        rc = getWithAcceptEncoding(path, "gzip", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+        Assert.assertEquals("application/javascript",
+                resHeaders.get("Content-Type").get(0));
+        Assert.assertEquals("accept-encoding", resHeaders.get("vary").get(0));
+        Assert.assertArrayEquals(content, gunzip(toBytes(out)));
+        Assert.assertFalse(eTag.equals(resHeaders.get("ETag").get(0)));
+
+        // br is preferred on a tie
+        rc = getWithAcceptEncoding(path, "gzip, deflate, br", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("br", resHeaders.get("Content-Encoding").get(0));
+        Assert.assertEquals("brotli", out.toString());
+
+        // unless the client prefers gzip
+        rc = getWithAcceptEncoding(path, "br;q=0.5, gzip", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+
+        // Neither is acceptable
+        rc = getWithAcceptEncoding(path, "deflate", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+        Assert.assertArrayEquals(content, toBytes(out));
+    }
+
+
+    /*
+     * Resources without pre-compressed siblings are compressed once per
+     * revision and the compressed copy is served from the cache.
+     */
+    @Test
+    public void testCompressedCache() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "compressedcache");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+        File file = new File(appDir, "style.css");
+        byte[] content = createContent(8192);
+        writeFile(file, content);
+        writeFile(new File(appDir, "small.css"), createContent(100));
+
+        Tomcat tomcat = getTomcatInstance();
+        StandardContext ctxt =
+                (StandardContext) tomcat.addContext("", appDir.getAbsolutePath());
+        // Revalidate the cache on every request
+        ctxt.setCacheTTL(0);
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("compressedCache", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("css", "text/css");
+        tomcat.start();
+
+        ProxyDirContext resources = (ProxyDirContext) ctxt.getResources();
+        String path = "http://localhost:" + getPort() + "/style.css";
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<String,List<String>>();
+
+        int rc = getWithAcceptEncoding(path, "gzip", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+        Assert.assertEquals("text/css", resHeaders.get("Content-Type").get(0));
+        Assert.assertEquals("accept-encoding", resHeaders.get("vary").get(0));
+        Assert.assertArrayEquals(content, gunzip(toBytes(out)));
+        String eTag = resHeaders.get("ETag").get(0);
+        Assert.assertTrue(eTag, eTag.endsWith("-gzip\""));
+        Assert.assertTrue(resources.getCache().getCompressedSize() > 0);
+
+        // Served from the cache
+        rc = getWithAcceptEncoding(path, "gzip", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals(eTag, resHeaders.get("ETag").get(0));
+        Assert.assertArrayEquals(content, gunzip(toBytes(out)));
+
+        // Conditional request for the compressed variant
+        Map<String,List<String>> reqHeaders = new HashMap<String,List<String>>();
+        reqHeaders.put("Accept-Encoding", Collections.singletonList("gzip"));
+        reqHeaders.put("If-None-Match", Collections.singletonList(eTag));
+        rc = getResource(path, out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+
+        // Identity requests are unaffected
+        rc = getResource(path, out, null, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+        Assert.assertFalse(eTag.equals(resHeaders.get("ETag").get(0)));
+        Assert.assertArrayEquals(content, toBytes(out));
+
+        // Small resources are not compressed
+        rc = getWithAcceptEncoding("http://localhost:" + getPort() +
+                "/small.css", "gzip", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+
+        // A new revision of the resource is compressed again
+        byte[] newContent = createContent(9000);
+        writeFile(file, newContent);
+        Assert.assertTrue(file.setLastModified(
+                file.lastModified() + 10000));
+        rc = getWithAcceptEncoding(path, "gzip", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+        Assert.assertFalse(eTag.equals(resHeaders.get("ETag").get(0)));
+        Assert.assertArrayEquals(newContent, gunzip(toBytes(out)));
+    }
+
+
+    /*
+     * Resources whose compressed form is too large to be cached are served
+     * without compression and are only compressed once per revision.
+     */
+    @Test
+    public void testCompressedCacheTooLarge() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "compressedcachelarge");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+        // Random content does not compress
+        byte[] content = new byte[64 * 1024];
+        new Random(1).nextBytes(content);
+        writeFile(new File(appDir, "data.css"), content);
+
+        Tomcat tomcat = getTomcatInstance();
+        StandardContext ctxt =
+                (StandardContext) tomcat.addContext("", appDir.getAbsolutePath());
+        // Compressed variants of up to 20KB may be cached
+        ctxt.setCacheCompressedMaxSize(400);
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("compressedCache", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("css", "text/css");
+        tomcat.start();
+
+        ProxyDirContext resources = (ProxyDirContext) ctxt.getResources();
+        String path = "http://localhost:" + getPort() + "/data.css";
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<String,List<String>>();
+
+        for (int i = 0; i < 2; i++) {
+            int rc = getWithAcceptEncoding(path, "gzip", out, resHeaders);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertNull(resHeaders.get("Content-Encoding"));
+            Assert.assertArrayEquals(content, toBytes(out));
+            // Only the record that the variant is too large is cached
+            Assert.assertEquals(1, resources.getCache().getCompressedSize());
+        }
+    }
+
+
+    private static int getWithAcceptEncoding(String path, String acceptEncoding,
+            ByteChunk out, Map<String,List<String>> resHeaders)
+            throws IOException {
+        Map<String,List<String>> reqHeaders = new HashMap<String,List<String>>();
+        List<String> values = new ArrayList<String>();
+        values.add(acceptEncoding);
+        reqHeaders.put("Accept-Encoding", values);
+        return getResource(path, out, reqHeaders, resHeaders);
+    }
+
+
+    private static int getResource(String path, ByteChunk out,
+            Map<String,List<String>> reqHeaders,
+            Map<String,List<String>> resHeaders) throws IOException {
+        out.recycle();
+        resHeaders.clear();
+        return TomcatBaseTest.getUrl(path, out, reqHeaders, resHeaders);
+    }
+
+
+    private static byte[] createContent(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (sb.length() < length) {
+            sb.append("body { margin: ").append(i++).append("px; }\n");
+        }
+        sb.setLength(length);
+        try {
+            return sb.toString().getBytes("ISO-8859-1");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+    }
+
+
+    private static byte[] toBytes(ByteChunk chunk) {
+        byte[] result = new byte[chunk.getLength()];
+        System.arraycopy(chunk.getBuffer(), chunk.getStart(), result, 0,
+                result.length);
+        return result;
+    }
+
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        gzip.write(content);
+        gzip.close();
+        return baos.toByteArray();
+    }
+
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        GZIPInputStream gzip =
+                new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = gzip.read(buffer)) > 0) {
+            baos.write(buffer, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+
     public static int getUrl(String path, ByteChunk out,
             Map<String, List<String>> resHead) throws IOException {
         out.recycle();
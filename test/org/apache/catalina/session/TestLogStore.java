@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Session;
+import org.apache.catalina.startup.ExpandWar;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestLogStore {
+
+    private File dir;
+    private PersistentManager manager;
+    private LogStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        File tempBase = new File(System.getProperty("tomcat.test.temp", "output/tmp"));
+        dir = new File(tempBase, "logstore").getAbsoluteFile();
+        ExpandWar.delete(dir, false);
+
+        store = new LogStore();
+        store.setDirectory(dir.getPath());
+        store.setSegmentSize(4096);
+
+        manager = new PersistentManager();
+        manager.setStore(store);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContainer(context);
+        manager.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop();
+        ExpandWar.delete(dir, false);
+    }
+
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Session session = createSession("value");
+        store.save(session);
+
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertArrayEquals(new String[] { session.getIdInternal() },
+                store.keys());
+        Session loaded = store.load(session.getIdInternal());
+        Assert.assertEquals(session.getIdInternal(), loaded.getIdInternal());
+        Assert.assertEquals("value", loaded.getSession().getAttribute("a"));
+        Assert.assertNull(store.load("missing"));
+    }
+
+
+    @Test
+    public void testReplaceAndRemove() throws Exception {
+        Session session = createSession("1");
+        store.save(session);
+        session.getSession().setAttribute("a", "2");
+        store.save(session);
+
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertEquals("2", attribute(session.getIdInternal()));
+
+        store.remove(session.getIdInternal());
+        Assert.assertEquals(0, store.getSize());
+        Assert.assertNull(store.load(session.getIdInternal()));
+        // Every record has been replaced or removed
+        Assert.assertEquals(store.getLogSize(), store.getGarbageSize());
+        // Only files for segments are created
+        Assert.assertEquals(1, dir.list().length);
+    }
+
+
+    @Test
+    public void testRestart() throws Exception {
+        Session removed = createSession("removed");
+        store.save(removed);
+        Session kept = createSession("1");
+        store.save(kept);
+        store.remove(removed.getIdInternal());
+        kept.getSession().setAttribute("a", "2");
+        store.save(kept);
+
+        store.stop();
+        store.start();
+
+        Assert.assertArrayEquals(new String[] { kept.getIdInternal() },
+                store.keys());
+        Assert.assertEquals("2", attribute(kept.getIdInternal()));
+        Assert.assertNull(store.load(removed.getIdInternal()));
+    }
+
+
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        Session session = createSession("1");
+        store.save(session);
+        session.getSession().setAttribute("a", "2");
+        store.save(session);
+        long end = store.getLogSize();
+        store.stop();
+
+        // Damage the last record as if it had only been partly written
+        RandomAccessFile raf =
+            new RandomAccessFile(new File(dir, "sessions-1.log"), "rw");
+        try {
+            raf.seek(end - 1);
+            int b = raf.read();
+            raf.seek(end - 1);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        store.start();
+        Assert.assertEquals("1", attribute(session.getIdInternal()));
+
+        // New records overwrite the damaged one
+        session.getSession().setAttribute("a", "3");
+        store.save(session);
+        store.stop();
+        store.start();
+        Assert.assertEquals("3", attribute(session.getIdInternal()));
+    }
+
+
+    @Test
+    public void testCompaction() throws Exception {
+        Session[] sessions = new Session[10];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = createSession("0");
+        }
+        for (int j = 0; j < 50; j++) {
+            for (int i = 0; i < sessions.length; i++) {
+                sessions[i].getSession().setAttribute("a", Integer.toString(j));
+                store.save(sessions[i]);
+            }
+        }
+        int before = store.getSegmentCount();
+        Assert.assertTrue(before > 10);
+        Assert.assertTrue(store.compact() > 0);
+        Assert.assertTrue(store.getSegmentCount() < 4);
+        Assert.assertEquals(store.getSegmentCount(), dir.list().length);
+
+        store.stop();
+        store.start();
+        Assert.assertEquals(sessions.length, store.getSize());
+        for (int i = 0; i < sessions.length; i++) {
+            Assert.assertEquals("49", attribute(sessions[i].getIdInternal()));
+        }
+    }
+
+
+    @Test
+    public void testRemovedStayRemovedAfterCompaction() throws Exception {
+        Session removed = createSession("removed");
+        store.save(removed);
+        store.remove(removed.getIdInternal());
+        // Fill enough segments for the removal to be compacted away
+        Session other = createSession("other");
+        for (int i = 0; i < 100; i++) {
+            store.save(other);
+        }
+        store.compact();
+        store.stop();
+        store.start();
+
+        Assert.assertArrayEquals(new String[] { other.getIdInternal() },
+                store.keys());
+    }
+
+
+    @Test
+    public void testEmptiedSegmentSkipped() throws Exception {
+        Session session = createSession("1");
+        store.save(session);
+        store.stop();
+
+        // A compacted segment that could only be emptied, not deleted
+        File emptied = new File(dir, "sessions-0.log");
+        Assert.assertTrue(emptied.createNewFile());
+
+        store.start();
+        Assert.assertFalse(emptied.exists());
+        Assert.assertEquals(1, store.getSegmentCount());
+        Assert.assertEquals("1", attribute(session.getIdInternal()));
+    }
+
+
+    @Test
+    public void testClear() throws Exception {
+        store.save(createSession("1"));
+        store.clear();
+        Assert.assertEquals(0, store.getSize());
+        Assert.assertArrayEquals(new String[] { "sessions-2.log" }, dir.list());
+
+        Session session = createSession("2");
+        store.save(session);
+        store.stop();
+        store.start();
+        Assert.assertArrayEquals(new String[] { session.getIdInternal() },
+                store.keys());
+    }
+
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        Session expired = createSession("expired");
+        expired.setMaxInactiveInterval(1);
+        ((StandardSession) expired).thisAccessedTime -= 10000;
+        store.save(expired);
+        Session valid = createSession("valid");
+        store.save(valid);
+
+        Assert.assertEquals(Arrays.asList(expired.getIdInternal()),
+                Arrays.asList(store.expiredKeys()));
+
+        store.processExpires();
+        Assert.assertArrayEquals(new String[] { valid.getIdInternal() },
+                store.keys());
+    }
+
+
+    private Session createSession(String value) {
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(1800);
+        session.getSession().setAttribute("a", value);
+        return session;
+    }
+
+
+    private Object attribute(String id) throws Exception {
+        return store.load(id).getSession().getAttribute("a");
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestOffHeapManager {
+
+    private OffHeapManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new OffHeapManager();
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContainer(context);
+        // Nothing to persist when the manager stops
+        manager.setPathname(null);
+        manager.setMinIdleOffHeap(0);
+        manager.setSlabSize(64 * 1024);
+        manager.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop();
+    }
+
+
+    @Test
+    public void testMoveAndRestore() {
+        OffHeapSession session = createSession();
+        List<String> list = new ArrayList<String>();
+        list.add("a");
+        list.add("b");
+        session.setAttribute("string", "value");
+        session.setAttribute("list", list);
+
+        manager.processOffHeapMoves();
+        Assert.assertTrue(session.isOffHeap());
+        Assert.assertEquals(1, manager.getOffHeapSessions());
+        Assert.assertTrue(manager.getOffHeapUsed() > 0);
+        Assert.assertEquals(64 * 1024, manager.getOffHeapCapacity());
+
+        Assert.assertEquals("value", session.getAttribute("string"));
+        Assert.assertFalse(session.isOffHeap());
+        Assert.assertEquals(list, session.getAttribute("list"));
+        Assert.assertEquals(0, manager.getOffHeapSessions());
+        Assert.assertEquals(0, manager.getOffHeapUsed());
+    }
+
+
+    @Test
+    public void testAttributeNames() {
+        OffHeapSession session = createSession();
+        session.setAttribute("a", "1");
+        session.setAttribute("b", "2");
+        manager.processOffHeapMoves();
+
+        List<String> names = Collections.list(session.getAttributeNames());
+        Collections.sort(names);
+        Assert.assertEquals("[a, b]", names.toString());
+    }
+
+
+    @Test
+    public void testSetWhileOffHeap() {
+        OffHeapSession session = createSession();
+        session.setAttribute("a", "1");
+        manager.processOffHeapMoves();
+        Assert.assertTrue(session.isOffHeap());
+
+        session.setAttribute("b", "2");
+        session.removeAttribute("a");
+        Assert.assertNull(session.getAttribute("a"));
+        Assert.assertEquals("2", session.getAttribute("b"));
+
+        // Moves again with the new attributes
+        manager.processOffHeapMoves();
+        Assert.assertTrue(session.isOffHeap());
+        Assert.assertNull(session.getAttribute("a"));
+        Assert.assertEquals("2", session.getAttribute("b"));
+    }
+
+
+    @Test
+    public void testNotMoved() {
+        OffHeapSession empty = createSession();
+        OffHeapSession notSerializable = createSession();
+        notSerializable.setAttribute("a", new Object());
+        OffHeapSession activationListener = createSession();
+        activationListener.setAttribute("a", new ActivationListener());
+
+        manager.processOffHeapMoves();
+        Assert.assertFalse(empty.isOffHeap());
+        Assert.assertFalse(notSerializable.isOffHeap());
+        Assert.assertFalse(activationListener.isOffHeap());
+        Assert.assertEquals(0, manager.getOffHeapSessions());
+    }
+
+
+    @Test
+    public void testNotIdle() {
+        OffHeapSession session = createSession();
+        session.setAttribute("a", "1");
+        manager.setMinIdleOffHeap(60);
+        manager.processOffHeapMoves();
+        Assert.assertFalse(session.isOffHeap());
+
+        manager.setMinIdleOffHeap(-1);
+        session.thisAccessedTime -= 3600 * 1000L;
+        manager.processOffHeapMoves();
+        Assert.assertFalse(session.isOffHeap());
+    }
+
+
+    @Test
+    public void testInUse() {
+        OffHeapSession session = createSession();
+        session.setAttribute("a", "1");
+        // Counted whether or not ACTIVITY_CHECK is set
+        session.access();
+        manager.processOffHeapMoves();
+        Assert.assertFalse(session.isOffHeap());
+
+        session.endAccess();
+        manager.processOffHeapMoves();
+        Assert.assertTrue(session.isOffHeap());
+    }
+
+
+    @Test
+    public void testInUseDuringMove() throws Exception {
+        final OffHeapSession session = createSession();
+        session.setAttribute("a", "1");
+        final OffHeapArena arena = new OffHeapArena(1024, -1);
+        final AtomicInteger moved = new AtomicInteger();
+        Thread mover = new Thread() {
+            @Override
+            public void run() {
+                if (session.moveOffHeap(arena)) {
+                    moved.incrementAndGet();
+                }
+            }
+        };
+        // The move checks that the session is not in use and then waits for
+        // the session lock while a request starts to use the session
+        synchronized (session) {
+            mover.start();
+            while (mover.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(10);
+                Assert.assertTrue(mover.isAlive());
+            }
+            session.access();
+        }
+        mover.join();
+        Assert.assertEquals(0, moved.get());
+        Assert.assertFalse(session.isOffHeap());
+        session.endAccess();
+        arena.clear();
+    }
+
+
+    @Test
+    public void testLoadFailure() {
+        OffHeapSession session = createSession();
+        session.setAttribute("a", new Unreadable());
+        session.setAttribute("b", "2");
+        manager.processOffHeapMoves();
+        Assert.assertTrue(session.isOffHeap());
+
+        Assert.assertNull(session.getAttribute("b"));
+        Assert.assertFalse(session.isValid());
+        Assert.assertEquals(0, manager.getActiveSessions());
+        Assert.assertEquals(0, manager.getOffHeapSessions());
+    }
+
+
+    @Test
+    public void testExpire() {
+        BindingListener.unbound.set(0);
+        OffHeapSession session = createSession();
+        session.setAttribute("a", new BindingListener());
+        manager.processOffHeapMoves();
+        Assert.assertTrue(session.isOffHeap());
+
+        // Listeners are notified using the restored value
+        session.expire();
+        Assert.assertEquals(1, BindingListener.unbound.get());
+        Assert.assertEquals(0, manager.getOffHeapSessions());
+        Assert.assertEquals(0, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testMaxOffHeapSize() throws Exception {
+        manager.stop();
+        manager.setSlabSize(1024);
+        manager.setMaxOffHeapSize(1024);
+        manager.start();
+
+        // About 250 bytes each, so four fit in the only slab
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 200) {
+            value.append("value");
+        }
+        OffHeapSession[] sessions = new OffHeapSession[10];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = createSession();
+            sessions[i].setAttribute("a", value.toString() + i);
+        }
+        manager.processOffHeapMoves();
+        int moved = manager.getOffHeapSessions();
+        Assert.assertEquals(4, moved);
+        Assert.assertEquals(1024, manager.getOffHeapCapacity());
+        for (int i = 0; i < sessions.length; i++) {
+            Assert.assertEquals(value.toString() + i,
+                    sessions[i].getAttribute("a"));
+        }
+    }
+
+
+    @Test
+    public void testArena() {
+        OffHeapArena arena = new OffHeapArena(1024, 2048);
+        long a = arena.allocate(10);
+        long b = arena.allocate(100);
+        Assert.assertEquals(OffHeapArena.MIN_BLOCK_SIZE + 128, arena.getUsed());
+        // Each size class uses its own slab
+        Assert.assertEquals(2048, arena.getCapacity());
+        Assert.assertEquals(-1, arena.allocate(1000));
+        Assert.assertEquals(-1, arena.allocate(1025));
+
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        arena.write(b, data, 0, data.length);
+        byte[] read = new byte[100];
+        arena.read(b, read, 0, read.length);
+        Assert.assertArrayEquals(data, read);
+
+        arena.free(a);
+        Assert.assertEquals(a, arena.allocate(64));
+        arena.free(b);
+        Assert.assertEquals(b, arena.allocate(65));
+        Assert.assertEquals(2, arena.getBlockCount());
+    }
+
+
+    @Test
+    public void testArenaReleasesSlabs() {
+        OffHeapArena arena = new OffHeapArena(1024, -1);
+        long[] blocks = new long[48];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = arena.allocate(64);
+        }
+        Assert.assertEquals(3 * 1024, arena.getCapacity());
+
+        // Emptying the first slab keeps it as the spare for the size class
+        for (int i = 0; i < 16; i++) {
+            arena.free(blocks[i]);
+        }
+        Assert.assertEquals(3 * 1024, arena.getCapacity());
+        // Emptying the others releases them
+        for (int i = 16; i < blocks.length; i++) {
+            arena.free(blocks[i]);
+        }
+        Assert.assertEquals(1024, arena.getCapacity());
+        Assert.assertEquals(0, arena.getUsed());
+
+        // The spare is used before a new slab is allocated
+        for (int i = 0; i < 17; i++) {
+            blocks[i] = arena.allocate(64);
+        }
+        Assert.assertEquals(2 * 1024, arena.getCapacity());
+        for (int i = 0; i < 17; i++) {
+            arena.write(blocks[i], new byte[] { (byte) i }, 0, 1);
+        }
+        for (int i = 0; i < 17; i++) {
+            byte[] read = new byte[1];
+            arena.read(blocks[i], read, 0, 1);
+            Assert.assertEquals(i, read[0]);
+        }
+
+        arena.clear();
+        Assert.assertEquals(0, arena.getCapacity());
+        Assert.assertEquals(-1, arena.allocate(64));
+    }
+
+
+    private OffHeapSession createSession() {
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.setMaxInactiveInterval(1800);
+        return session;
+    }
+
+
+    private static class Unreadable implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private void readObject(ObjectInputStream in) throws IOException {
+            throw new IOException();
+        }
+    }
+
+
+    private static class ActivationListener
+            implements HttpSessionActivationListener, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void sessionWillPassivate(HttpSessionEvent se) {
+            // NO-OP
+        }
+
+        @Override
+        public void sessionDidActivate(HttpSessionEvent se) {
+            // NO-OP
+        }
+    }
+
+
+    private static class BindingListener
+            implements HttpSessionBindingListener, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final AtomicInteger unbound = new AtomicInteger();
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event) {
+            // NO-OP
+        }
+
+        @Override
+        public void valueUnbound(HttpSessionBindingEvent event) {
+            unbound.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestSessionExpiration {
+
+    private CountingManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new CountingManager();
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContainer(context);
+        // Nothing to persist when the manager stops
+        manager.setPathname(null);
+        manager.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop();
+    }
+
+
+    @Test
+    public void testIdleSessionExpires() {
+        StandardSession session = createSession(60);
+        long timeNow = System.currentTimeMillis();
+
+        Assert.assertEquals(0, manager.expireSessions(timeNow));
+        Assert.assertTrue(session.isValidInternal());
+
+        setIdle(session, 61);
+        Assert.assertEquals(1, manager.expireSessions(timeNow + 2000));
+        Assert.assertFalse(session.isValidInternal());
+        Assert.assertEquals(0, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testAccessedSessionIsKept() {
+        StandardSession session = createSession(1);
+        long timeNow = System.currentTimeMillis();
+        manager.expireSessions(timeNow);
+
+        // Accessed without updating the index: it is still checked when
+        // the index reports it due but it is not expired
+        session.thisAccessedTime = timeNow + 5000;
+        session.lastAccessedTime = timeNow + 5000;
+        Assert.assertEquals(0, manager.expireSessions(timeNow + 3000));
+        Assert.assertTrue(session.isValidInternal());
+        Assert.assertEquals(1, manager.checked.get());
+    }
+
+
+    @Test
+    public void testShorterInterval() {
+        StandardSession session = createSession(3600);
+        setIdle(session, 120);
+        Assert.assertEquals(0, manager.expireSessions(
+                System.currentTimeMillis() + 2000));
+
+        session.setMaxInactiveInterval(60);
+        Assert.assertEquals(1, manager.expireSessions(
+                System.currentTimeMillis() + 4000));
+        Assert.assertFalse(session.isValidInternal());
+    }
+
+
+    @Test
+    public void testNoTimeout() {
+        StandardSession session = createSession(0);
+        setIdle(session, 3600);
+        Assert.assertEquals(0, manager.expireSessions(
+                System.currentTimeMillis() + 2000));
+        Assert.assertTrue(session.isValidInternal());
+        Assert.assertEquals(0, manager.checked.get());
+    }
+
+
+    @Test
+    public void testRemovedSessionNotChecked() {
+        StandardSession session = createSession(60);
+        manager.expireSessions(System.currentTimeMillis());
+        manager.remove(session);
+        setIdle(session, 120);
+        Assert.assertEquals(0, manager.expireSessions(
+                System.currentTimeMillis() + 2000));
+        Assert.assertEquals(0, manager.checked.get());
+    }
+
+
+    @Test
+    public void testOnlyDueSessionsChecked() {
+        int count = 20000;
+        StandardSession[] sessions = new StandardSession[count];
+        for (int i = 0; i < count; i++) {
+            sessions[i] = createSession(1800);
+        }
+        for (int i = 0; i < count; i += 100) {
+            setIdle(sessions[i], 1801);
+        }
+        int expired = manager.expireSessions(System.currentTimeMillis() + 2000);
+        Assert.assertEquals(count / 100, expired);
+        Assert.assertEquals(count / 100, manager.checked.get());
+        Assert.assertEquals(count - count / 100, manager.getActiveSessions());
+    }
+
+
+    private StandardSession createSession(int maxInactiveInterval) {
+        StandardSession session =
+            (StandardSession) manager.createSession(null);
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        return session;
+    }
+
+
+    /*
+     * Move the access times of the session into the past and let the manager
+     * know.
+     */
+    private static void setIdle(StandardSession session, int seconds) {
+        long time = System.currentTimeMillis() - seconds * 1000L;
+        session.thisAccessedTime = time;
+        session.lastAccessedTime = time;
+        session.expirationChanged();
+    }
+
+
+    private static class CountingManager extends StandardManager {
+
+        private final AtomicInteger checked = new AtomicInteger();
+
+        @Override
+        protected StandardSession getNewSession() {
+            return new StandardSession(this) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean isValid() {
+                    checked.incrementAndGet();
+                    return super.isValid();
+                }
+            };
+        }
+    }
+}
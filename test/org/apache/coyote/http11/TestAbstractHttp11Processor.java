@@ -33,7 +33,12 @@ import java.nio.CharBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
@@ -48,14 +53,17 @@ import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardThreadExecutor;
 import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.TesterServlet;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.modeler.Registry;
 
 public class TestAbstractHttp11Processor extends TomcatBaseTest {
 
@@ -1078,4 +1086,409 @@ public class TestAbstractHttp11Processor extends TomcatBaseTest {
             resp.setStatus(205);
         }
     }
+
+
+    @Test
+    public void testCacheResponseHeaders() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Assert.assertTrue(tomcat.getConnector().setProperty(
+                "cacheResponseHeaders", "true"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "Test", new HeaderValueServlet());
+        ctx.addServletMapping("/test", "Test");
+
+        tomcat.start();
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=GlobalRequestProcessor,*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        Client client = new Client(tomcat.getConnector().getLocalPort());
+        client.setUseContentLength(true);
+        client.connect();
+
+        // A hit needs the same status and headers as the previous response
+        String[] values = new String[] { "a", "a", "b", "b", "b", "a" };
+        int[] statuses = new int[] { 200, 200, 200, 404, 404, 404 };
+        long[] hits = new long[] { 0, 1, 1, 1, 2, 2 };
+        for (int i = 0; i < values.length; i++) {
+            client.setRequest(new String[] {
+                    "GET /test?v=" + values[i] + "&s=" + statuses[i] +
+                    " HTTP/1.1" + SimpleHttpClient.CRLF +
+                    "Host: any" + SimpleHttpClient.CRLF +
+                    SimpleHttpClient.CRLF });
+            client.processRequest(true);
+
+            Assert.assertTrue(client.getResponseLine(),
+                    client.getResponseLine().startsWith(
+                            "HTTP/1.1 " + statuses[i] + " "));
+            Assert.assertTrue(client.getResponseHeaders().contains(
+                    "X-Value: " + values[i]));
+            Assert.assertEquals(values[i], client.getResponseBody());
+            client.resetResponse();
+
+            // The counters are updated after the response has been written
+            int count = 0;
+            while (((Integer) mbeanServer.getAttribute(
+                    name, "requestCount")).intValue() < i + 1 && count < 50) {
+                Thread.sleep(100);
+                count++;
+            }
+            Assert.assertEquals("Request " + i, hits[i], ((Long) mbeanServer.getAttribute(
+                    name, "headerCacheHitCount")).longValue());
+        }
+    }
+
+    private static final class HeaderValueServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setStatus(Integer.parseInt(req.getParameter("s")));
+            resp.setContentType("text/plain");
+            // Fixed so the default Date header can't change between requests
+            resp.setDateHeader("Date", 0);
+            resp.setHeader("X-Value", req.getParameter("v"));
+            resp.getWriter().print(req.getParameter("v"));
+        }
+    }
+
+
+    @Test
+    public void testLargeBodySocketWrites() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "Test", new LargeBodyServlet());
+        ctx.addServletMapping("/test", "Test");
+
+        tomcat.start();
+
+        for (String length : new String[] { "true", "false" }) {
+            ByteChunk body = getUrl("http://localhost:" + getPort() +
+                    "/test?length=" + length);
+            Assert.assertEquals(LargeBodyServlet.SIZE, body.getLength());
+            byte[] bytes = body.getBytes();
+            for (int i = 0; i < LargeBodyServlet.SIZE; i++) {
+                Assert.assertEquals((byte) ('a' + i % 26), bytes[body.getStart() + i]);
+            }
+        }
+
+        if (tomcat.getConnector().getProtocolHandlerClassName().contains("Nio")) {
+            MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+            Set<ObjectName> names = mbeanServer.queryNames(
+                    new ObjectName("Tomcat:type=GlobalRequestProcessor,*"), null);
+            Assert.assertEquals(1, names.size());
+            ObjectName name = names.iterator().next();
+            long writes = ((Long) mbeanServer.getAttribute(
+                    name, "socketWriteCount")).longValue();
+            int requests = ((Integer) mbeanServer.getAttribute(
+                    name, "requestCount")).intValue();
+            Assert.assertEquals(2, requests);
+            Assert.assertTrue(writes > 0);
+        }
+    }
+
+    private static final class LargeBodyServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int SIZE = 256 * 1024;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            if (Boolean.parseBoolean(req.getParameter("length"))) {
+                resp.setContentLength(SIZE);
+            }
+            byte[] data = new byte[SIZE];
+            for (int i = 0; i < SIZE; i++) {
+                data[i] = (byte) ('a' + i % 26);
+            }
+            resp.getOutputStream().write(data);
+        }
+    }
+
+
+    @Test
+    public void testOverloadShedding() throws Exception {
+        doTestOverloadShedding(false);
+    }
+
+
+    @Test
+    public void testOverloadSheddingSharedExecutor() throws Exception {
+        doTestOverloadShedding(true);
+    }
+
+
+    private void doTestOverloadShedding(boolean sharedExecutor)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        if (sharedExecutor) {
+            StandardThreadExecutor executor = new StandardThreadExecutor();
+            executor.setName("shared");
+            executor.setMaxThreads(1);
+            executor.setMinSpareThreads(1);
+            tomcat.getService().addExecutor(executor);
+            ((AbstractProtocol<?>) tomcat.getConnector().getProtocolHandler())
+                    .setExecutor(executor);
+        } else {
+            tomcat.getConnector().setAttribute("maxThreads", "1");
+        }
+        tomcat.getConnector().setAttribute("maxConnections", "10");
+        tomcat.getConnector().setAttribute("overloadShedQueueSize", "1");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        BlockingServlet servlet = new BlockingServlet();
+        Tomcat.addServlet(ctx, "Test", servlet);
+        ctx.addServletMapping("/test", "Test");
+
+        tomcat.start();
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=ThreadPool,*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        // Occupy the only processing thread
+        Socket first = sendGet();
+        Assert.assertTrue(servlet.entered.await(10, TimeUnit.SECONDS));
+
+        // Queue a second request behind it
+        Socket second = sendGet();
+        int count = 0;
+        while (((Integer) mbeanServer.getAttribute(
+                name, "executorQueueSize")).intValue() < 1 && count < 100) {
+            Thread.sleep(50);
+            count++;
+        }
+        Assert.assertEquals(Integer.valueOf(1),
+                mbeanServer.getAttribute(name, "executorQueueSize"));
+
+        // New connections are now rejected
+        Socket third = sendGet();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                third.getInputStream(), "ISO-8859-1"));
+        Assert.assertEquals("HTTP/1.1 503 Service Unavailable", reader.readLine());
+        third.close();
+        Assert.assertEquals(Long.valueOf(1),
+                mbeanServer.getAttribute(name, "overloadRejectCount"));
+        Assert.assertEquals("SHEDDING",
+                mbeanServer.getAttribute(name, "overloadState"));
+
+        servlet.release.countDown();
+        for (Socket socket : new Socket[] { first, second }) {
+            reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "ISO-8859-1"));
+            Assert.assertEquals("HTTP/1.1 200 OK", reader.readLine());
+            socket.close();
+        }
+
+        // Recovers while idle
+        Assert.assertEquals("NORMAL",
+                mbeanServer.getAttribute(name, "overloadState"));
+    }
+
+
+    private Socket sendGet() throws IOException {
+        Socket socket = new Socket("localhost", getPort());
+        socket.setSoTimeout(30000);
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+        writer.write("GET /test HTTP/1.1\r\n");
+        writer.write("Host: localhost\r\n");
+        writer.write("\r\n");
+        writer.flush();
+        return socket;
+    }
+
+
+    private static final class BlockingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            entered.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
+
+
+    @Test
+    public void testKeepAliveTimeout() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("connectionTimeout", "1000");
+        tomcat.getConnector().setAttribute("keepAliveTimeout", "1000");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "Test", new TesterServlet());
+        ctx.addServletMapping("/test", "Test");
+
+        tomcat.start();
+
+        // Connection that never sends a request
+        Socket idle = new Socket("localhost", getPort());
+        idle.setSoTimeout(10000);
+
+        // Connection that goes into keep-alive after one request
+        Socket keptAlive = sendGet();
+        InputStream is = keptAlive.getInputStream();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "ISO-8859-1"));
+        Assert.assertEquals("HTTP/1.1 200 OK", reader.readLine());
+        String line = reader.readLine();
+        while (!"OK".equals(line)) {
+            line = reader.readLine();
+        }
+
+        // Both should be closed by the server well before the client gives up
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(-1, idle.getInputStream().read());
+        while (line != null) {
+            line = reader.readLine();
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 9000);
+        idle.close();
+        keptAlive.close();
+    }
+
+
+    @Test
+    public void testPipelineBatching() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("maxPipelineBatchSize", "8");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "Test", new TesterServlet());
+        ctx.addServletMapping("/test", "Test");
+
+        tomcat.start();
+
+        int requests = 5;
+        StringBuilder pipeline = new StringBuilder();
+        for (int i = 0; i < requests; i++) {
+            pipeline.append("GET /test HTTP/1.1\r\n");
+            pipeline.append("Host: localhost\r\n");
+            if (i == requests - 1) {
+                pipeline.append("Connection: close\r\n");
+            }
+            pipeline.append("\r\n");
+        }
+
+        Socket socket = new Socket("localhost", getPort());
+        socket.setSoTimeout(30000);
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+        writer.write(pipeline.toString());
+        writer.flush();
+
+        // The body of each response is not followed by a line terminator so
+        // count the status lines in the complete output
+        Reader reader = new InputStreamReader(socket.getInputStream(), "ISO-8859-1");
+        StringBuilder output = new StringBuilder();
+        char[] buf = new char[1024];
+        int read = reader.read(buf);
+        while (read > 0) {
+            output.append(buf, 0, read);
+            read = reader.read(buf);
+        }
+        socket.close();
+        int responses = 0;
+        int index = output.indexOf("HTTP/1.1 200 OK");
+        while (index != -1) {
+            responses++;
+            index = output.indexOf("HTTP/1.1 200 OK", index + 1);
+        }
+        Assert.assertEquals(requests, responses);
+
+        if (tomcat.getConnector().getProtocolHandlerClassName().contains("Nio")) {
+            // The responses share socket writes
+            MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+            Set<ObjectName> names = mbeanServer.queryNames(
+                    new ObjectName("Tomcat:type=GlobalRequestProcessor,*"), null);
+            Assert.assertEquals(1, names.size());
+            long writes = ((Long) mbeanServer.getAttribute(
+                    names.iterator().next(), "socketWriteCount")).longValue();
+            Assert.assertTrue(writes < requests);
+        }
+    }
+
+
+    @Test
+    public void testPipelineBatchingBodyNotBuffered() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("maxPipelineBatchSize", "8");
+        tomcat.getConnector().setAttribute("maxPipelineBatchLatency", "60000");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "Test", new TesterServlet());
+        ctx.addServletMapping("/test", "Test");
+        BlockingServlet servlet = new BlockingServlet();
+        Tomcat.addServlet(ctx, "Block", servlet);
+        ctx.addServletMapping("/block", "Block");
+
+        tomcat.start();
+
+        Socket socket = new Socket("localhost", getPort());
+        socket.setSoTimeout(10000);
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+        writer.write("GET /test HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n" +
+                "GET /block HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Content-Length: 5\r\n" +
+                "Connection: close\r\n" +
+                "\r\n");
+        writer.flush();
+
+        // The body of the second request has not been sent so the first
+        // response must not wait for the second request to complete
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), "ISO-8859-1"));
+        Assert.assertEquals("HTTP/1.1 200 OK", reader.readLine());
+        Assert.assertTrue(servlet.entered.await(10, TimeUnit.SECONDS));
+
+        servlet.release.countDown();
+        writer.write("hello");
+        writer.flush();
+        int responses = 1;
+        String line = reader.readLine();
+        while (line != null) {
+            // The body of the first response has no line terminator
+            if (line.contains("HTTP/1.1 200 OK")) {
+                responses++;
+            }
+            line = reader.readLine();
+        }
+        socket.close();
+        Assert.assertEquals(2, responses);
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestContentEncoding extends TomcatBaseTest {
+
+    private static final String CONTENT_ENCODINGS = "gzip,deflate,br,zstd";
+
+    @Test
+    public void testNoAcceptEncoding() throws Exception {
+        doTest(CONTENT_ENCODINGS, null, null);
+    }
+
+
+    @Test
+    public void testGzip() throws Exception {
+        doTest(CONTENT_ENCODINGS, "gzip", "gzip");
+    }
+
+
+    @Test
+    public void testDeflate() throws Exception {
+        doTest(CONTENT_ENCODINGS, "deflate", "deflate");
+    }
+
+
+    @Test
+    public void testBrotli() throws Exception {
+        doTest(CONTENT_ENCODINGS, "br", "br");
+    }
+
+
+    @Test
+    public void testZstd() throws Exception {
+        doTest(CONTENT_ENCODINGS, "zstd", "zstd");
+    }
+
+
+    @Test
+    public void testTieUsesConfiguredOrder() throws Exception {
+        doTest(CONTENT_ENCODINGS, "zstd, br, gzip", "gzip");
+    }
+
+
+    @Test
+    public void testTieUsesConfiguredOrder02() throws Exception {
+        doTest("br,gzip", "gzip, deflate, br", "br");
+    }
+
+
+    @Test
+    public void testQuality() throws Exception {
+        doTest(CONTENT_ENCODINGS, "gzip;q=0.5, br;q=0.8, zstd;q=0.1", "br");
+    }
+
+
+    @Test
+    public void testRefused() throws Exception {
+        doTest(CONTENT_ENCODINGS, "gzip;q=0, identity", null);
+    }
+
+
+    @Test
+    public void testIdentityPreferred() throws Exception {
+        doTest(CONTENT_ENCODINGS, "gzip;q=0.5, identity", null);
+    }
+
+
+    @Test
+    public void testWildcard() throws Exception {
+        doTest(CONTENT_ENCODINGS, "*;q=0.5, br", "br");
+    }
+
+
+    @Test
+    public void testWildcardExclusion() throws Exception {
+        doTest(CONTENT_ENCODINGS, "*, gzip;q=0", "deflate");
+    }
+
+
+    @Test
+    public void testNotConfigured() throws Exception {
+        // The default only offers gzip
+        doTest(null, "br", null);
+    }
+
+
+    @Test
+    public void testNotConfigured02() throws Exception {
+        doTest(null, "br, gzip;q=0.1", "gzip");
+    }
+
+
+    private void doTest(String contentEncodings, String acceptEncoding,
+            String expectedEncoding) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        if (contentEncodings != null) {
+            tomcat.getConnector().setProperty(
+                    "contentEncodings", contentEncodings);
+        }
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "text", new TextServlet());
+        ctx.addServletMapping("/", "text");
+
+        tomcat.start();
+
+        ByteChunk responseBody = new ByteChunk();
+        Map<String,List<String>> requestHeaders =
+                new HashMap<String,List<String>>();
+        if (acceptEncoding != null) {
+            List<String> values = new ArrayList<String>();
+            values.add(acceptEncoding);
+            requestHeaders.put("Accept-Encoding", values);
+        }
+        Map<String,List<String>> responseHeaders =
+                new HashMap<String,List<String>>();
+        int rc = getUrl("http://localhost:" + getPort() + "/", responseBody,
+                requestHeaders, responseHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        List<String> values = responseHeaders.get("Content-Encoding");
+        byte[] body = Arrays.copyOfRange(responseBody.getBuffer(),
+                responseBody.getStart(), responseBody.getEnd());
+        if (expectedEncoding == null) {
+            Assert.assertNull(values);
+            Assert.assertArrayEquals(TextServlet.BODY, body);
+            return;
+        }
+        Assert.assertNotNull(values);
+        Assert.assertEquals(expectedEncoding, values.get(0));
+        Assert.assertTrue(body.length < TextServlet.BODY.length / 2);
+        if ("gzip".equals(expectedEncoding)) {
+            Assert.assertArrayEquals(TextServlet.BODY,
+                    readFully(new GZIPInputStream(new ByteArrayInputStream(body))));
+        } else if ("deflate".equals(expectedEncoding)) {
+            Assert.assertArrayEquals(TextServlet.BODY, readFully(
+                    new InflaterInputStream(new ByteArrayInputStream(body))));
+        }
+    }
+
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) > 0) {
+            result.write(buf, 0, read);
+        }
+        return result.toByteArray();
+    }
+
+
+    private static final class TextServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte[] BODY;
+
+        static {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                sb.append("Line ").append(i).append(" of the response body\n");
+            }
+            BODY = sb.toString().getBytes();
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getOutputStream().write(BODY, 0, BODY.length / 2);
+            resp.flushBuffer();
+            resp.getOutputStream().write(BODY, BODY.length / 2,
+                    BODY.length - BODY.length / 2);
+        }
+    }
+}
@@ -17,14 +17,22 @@
 
 package org.apache.coyote.http11;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.GzipCompressionPool;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
+import org.apache.coyote.http11.filters.IdentityOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 /**
@@ -85,4 +93,174 @@ public class TestGzipOutputFilter {
         // most of the data should have been flushed out
         Assert.assertTrue(dataFound.length >= (dataExpected.length - 20));
     }
+
+
+    @Test
+    public void testPooled() throws Exception {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        try {
+            doTestCompression(pool, 300 * 1024);
+            // Again, with a re-used Deflater
+            doTestCompression(pool, 300 * 1024);
+            // Nothing written
+            doTestCompression(pool, 0);
+        } finally {
+            pool.destroy();
+        }
+    }
+
+
+    @Test
+    public void testPooledBestSpeed() throws Exception {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        pool.setCompressionLevel(1);
+        try {
+            doTestCompression(pool, 300 * 1024);
+        } finally {
+            pool.destroy();
+        }
+    }
+
+
+    @Test
+    public void testParallel() throws Exception {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        pool.setParallelThreshold(10000);
+        pool.setParallelThreads(2);
+        try {
+            doTestCompression(pool, 1024 * 1024);
+            doTestCompression(pool, 5000);
+            doTestCompression(pool, 10001);
+        } finally {
+            pool.destroy();
+        }
+    }
+
+
+    @Test
+    public void testParallelCompressionRatio() throws Exception {
+        byte[] data = createData(1024 * 1024);
+
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        int serialLength;
+        int parallelLength;
+        try {
+            serialLength = compress(pool, data, null).length;
+            pool.setParallelThreshold(0);
+            parallelLength = compress(pool, data, null).length;
+        } finally {
+            pool.destroy();
+        }
+        // Priming each block with the end of the previous one should keep
+        // the output close to that of a single Deflater
+        Assert.assertTrue("Serial " + serialLength + ", parallel " +
+                parallelLength, parallelLength < serialLength * 1.05);
+    }
+
+
+    private void doTestCompression(GzipCompressionPool pool, int length)
+            throws Exception {
+        byte[] data = createData(length);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] compressed = compress(pool, data, bos);
+        Assert.assertArrayEquals(data, gunzip(compressed));
+    }
+
+
+    /*
+     * Writes the data in chunks of varying size, checking that what has been
+     * written so far can be decompressed after each flush.
+     */
+    private static byte[] compress(GzipCompressionPool pool, byte[] data,
+            ByteArrayOutputStream bos) throws Exception {
+        if (bos == null) {
+            bos = new ByteArrayOutputStream();
+        }
+        Response res = new Response();
+        InternalOutputBuffer iob = new InternalOutputBuffer(res, 8 * 1024);
+        iob.outputStream = bos;
+        res.setOutputBuffer(iob);
+
+        // The gzip filter is always above a filter that delimits the body
+        IdentityOutputFilter idf = new IdentityOutputFilter();
+        GzipOutputFilter gf = new GzipOutputFilter();
+        gf.setCompressionPool(pool);
+        iob.addFilter(idf);
+        iob.addFilter(gf);
+        iob.addActiveFilter(idf);
+        iob.addActiveFilter(gf);
+
+        int pos = 0;
+        int size = 1;
+        int writes = 0;
+        while (pos < data.length) {
+            int len = Math.min(size, data.length - pos);
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(data, pos, len);
+            iob.doWrite(chunk, res);
+            pos += len;
+            size = size * 3 + 1;
+            if (size > 70000) {
+                size = 1;
+            }
+            if (++writes % 7 == 0) {
+                iob.flush();
+                Assert.assertArrayEquals(Arrays.copyOf(data, pos),
+                        inflatePartial(bos.toByteArray(), pos));
+            }
+        }
+        iob.endRequest();
+        byte[] result = bos.toByteArray();
+        gf.recycle();
+        return result;
+    }
+
+
+    private static byte[] createData(int length) {
+        StringBuilder sb = new StringBuilder(length + 100);
+        int i = 0;
+        sb.append('[');
+        while (sb.length() < length) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item");
+            sb.append(i * 7919 % 1000).append("\",\"price\":");
+            sb.append(i * 31 % 997).append('.').append(i % 100);
+            sb.append(",\"tags\":[\"a").append(i % 13).append("\"]},");
+            i++;
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), length);
+    }
+
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream is =
+                new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) > 0) {
+            result.write(buf, 0, read);
+        }
+        return result.toByteArray();
+    }
+
+
+    /*
+     * Decompress an incomplete gzip stream, skipping the 10 byte header.
+     */
+    private static byte[] inflatePartial(byte[] compressed, int expected)
+            throws Exception {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed, 10, compressed.length - 10);
+        byte[] result = new byte[expected];
+        int pos = 0;
+        while (pos < expected) {
+            int n = inflater.inflate(result, pos, expected - pos);
+            if (n == 0) {
+                break;
+            }
+            pos += n;
+        }
+        inflater.end();
+        return Arrays.copyOf(result, pos);
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.GzipCompressionPool;
+import org.apache.coyote.http11.filters.GzipOutputFilter;
+import org.apache.coyote.http11.filters.IdentityOutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Compares compressing responses with a new compression stream per response
+ * (no pool), with pooled Deflaters at several levels and with parallel
+ * compression of large responses.
+ */
+public class TesterGzipOutputFilterPerformance {
+
+    private static final int WRITE_SIZE = 8 * 1024;
+
+
+    @Test
+    public void testSmallResponses() throws Exception {
+        // Typical JSON API response
+        doTest(createData(4 * 1024), 20000);
+    }
+
+
+    @Test
+    public void testMediumResponses() throws Exception {
+        doTest(createData(64 * 1024), 2000);
+    }
+
+
+    @Test
+    public void testLargeResponses() throws Exception {
+        doTest(createData(8 * 1024 * 1024), 10);
+    }
+
+
+    private void doTest(byte[] data, int responses) throws Exception {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        GzipCompressionPool fastPool = new GzipCompressionPool(-1);
+        fastPool.setCompressionLevel(1);
+        GzipCompressionPool parallelPool = new GzipCompressionPool(-1);
+        parallelPool.setParallelThreshold(256 * 1024);
+        try {
+            for (int i = 0; i < 3; i++) {
+                report("No pool", data, responses, run(null, data, responses));
+                report("Pooled", data, responses, run(pool, data, responses));
+                report("Pooled, level 1", data, responses,
+                        run(fastPool, data, responses));
+                report("Parallel (" + parallelPool.getParallelThreads() +
+                        " threads)", data, responses,
+                        run(parallelPool, data, responses));
+            }
+        } finally {
+            pool.destroy();
+            fastPool.destroy();
+            parallelPool.destroy();
+        }
+    }
+
+
+    private static long[] run(GzipCompressionPool pool, byte[] data,
+            int responses) throws Exception {
+        Response res = new Response();
+        InternalOutputBuffer iob = new InternalOutputBuffer(res, 8 * 1024);
+        CountingOutputStream out = new CountingOutputStream();
+        iob.outputStream = out;
+        res.setOutputBuffer(iob);
+
+        IdentityOutputFilter idf = new IdentityOutputFilter();
+        GzipOutputFilter gf = new GzipOutputFilter();
+        gf.setCompressionPool(pool);
+        iob.addFilter(idf);
+        iob.addFilter(gf);
+
+        ByteChunk chunk = new ByteChunk();
+        long start = System.nanoTime();
+        for (int i = 0; i < responses; i++) {
+            iob.addActiveFilter(idf);
+            iob.addActiveFilter(gf);
+            for (int pos = 0; pos < data.length; pos += WRITE_SIZE) {
+                chunk.setBytes(data, pos, Math.min(WRITE_SIZE, data.length - pos));
+                iob.doWrite(chunk, res);
+            }
+            iob.endRequest();
+            iob.nextRequest();
+            res.recycle();
+        }
+        return new long[] { System.nanoTime() - start, out.count / responses };
+    }
+
+
+    private static void report(String name, byte[] data, int responses,
+            long[] result) {
+        System.out.println(name + ": " + responses + " x " + data.length +
+                " bytes in " + result[0] / 1000000 + "ms, " +
+                (data.length * (long) responses * 1000 / result[0]) +
+                "MB/s, compressed to " + result[1] + " bytes");
+    }
+
+
+    private static byte[] createData(int length) {
+        StringBuilder sb = new StringBuilder(length + 100);
+        int i = 0;
+        sb.append('[');
+        while (sb.length() < length) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item");
+            sb.append(i * 7919 % 1000).append("\",\"price\":");
+            sb.append(i * 31 % 997).append('.').append(i % 100);
+            sb.append(",\"tags\":[\"a").append(i % 13).append("\"]},");
+            i++;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(sb.toString().getBytes(), 0, result, 0, length);
+        return result;
+    }
+
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+
+public class TestBlockEncoder {
+
+    @Test
+    public void testMatchFinderLevel1() {
+        doTestMatchFinder(1);
+    }
+
+
+    @Test
+    public void testMatchFinderDefaultLevel() {
+        doTestMatchFinder(-1);
+    }
+
+
+    @Test
+    public void testMatchFinderLevel9() {
+        doTestMatchFinder(9);
+    }
+
+
+    /*
+     * Rebuild the input from the commands of each block, which may only copy
+     * from the current block and the window before it.
+     */
+    private void doTestMatchFinder(int level) {
+        byte[] data = createData(300 * 1024);
+        MatchFinder matchFinder = new MatchFinder();
+        matchFinder.reset(level);
+        ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        int pos = 0;
+        while (pos < data.length) {
+            pos += matchFinder.append(data, pos, data.length - pos);
+            matchFinder.parse();
+            byte[] buffer = matchFinder.buffer;
+            byte[] block = new byte[matchFinder.blockEnd];
+            System.arraycopy(buffer, 0, block, 0, matchFinder.blockStart);
+            int out = matchFinder.blockStart;
+            for (int i = 0; i < matchFinder.commandCount; i++) {
+                int literals = matchFinder.literalLengths[i];
+                System.arraycopy(buffer, out, block, out, literals);
+                out += literals;
+                int distance = matchFinder.distances[i];
+                Assert.assertTrue(distance > 0 && distance <= out);
+                Assert.assertTrue(
+                        distance <= MatchFinder.WINDOW_SIZE + out -
+                        matchFinder.blockStart);
+                Assert.assertTrue(
+                        matchFinder.copyLengths[i] >= MatchFinder.MIN_MATCH);
+                for (int j = 0; j < matchFinder.copyLengths[i]; j++) {
+                    block[out] = block[out - distance];
+                    out++;
+                }
+            }
+            System.arraycopy(buffer, out, block, out,
+                    matchFinder.trailingLiterals);
+            out += matchFinder.trailingLiterals;
+            Assert.assertEquals(matchFinder.blockEnd, out);
+            rebuilt.write(block, matchFinder.blockStart,
+                    matchFinder.getBlockLength());
+            matchFinder.nextBlock();
+        }
+        Assert.assertArrayEquals(data, rebuilt.toByteArray());
+    }
+
+
+    @Test
+    public void testCodeLengths() {
+        int[] counts = new int[256];
+        Random random = new Random(42);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = random.nextInt(1000);
+        }
+        doTestCodeLengths(counts, 15);
+    }
+
+
+    @Test
+    public void testCodeLengthsLimited() {
+        // Fibonacci counts give the deepest possible tree
+        int[] counts = new int[30];
+        counts[0] = 1;
+        counts[1] = 1;
+        for (int i = 2; i < counts.length; i++) {
+            counts[i] = counts[i - 1] + counts[i - 2];
+        }
+        doTestCodeLengths(counts, 11);
+    }
+
+
+    @Test
+    public void testCodeLengthsSingleSymbol() {
+        int[] counts = new int[10];
+        counts[7] = 5;
+        int[] lengths = new int[counts.length];
+        Assert.assertEquals(1, BlockEncoder.buildCodeLengths(
+                counts, counts.length, 15, lengths));
+        Assert.assertEquals(1, lengths[7]);
+    }
+
+
+    private void doTestCodeLengths(int[] counts, int maxLength) {
+        int[] lengths = new int[counts.length];
+        int used = BlockEncoder.buildCodeLengths(counts, counts.length,
+                maxLength, lengths);
+        // The code must be complete: the Kraft sum is exactly one
+        long kraft = 0;
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                Assert.assertEquals(0, lengths[i]);
+            } else {
+                Assert.assertTrue(lengths[i] > 0 && lengths[i] <= maxLength);
+                kraft += 1L << (maxLength - lengths[i]);
+                n++;
+            }
+        }
+        Assert.assertEquals(n, used);
+        Assert.assertEquals(1L << maxLength, kraft);
+    }
+
+
+    @Test
+    public void testBrotliEmpty() {
+        // WBITS of 16 then an empty last meta-block
+        Assert.assertArrayEquals(new byte[] { 0x06 },
+                encode(new BrotliEncoder(), new byte[0]));
+    }
+
+
+    @Test
+    public void testZstdEmpty() {
+        // Frame header then an empty last raw block
+        Assert.assertArrayEquals(new byte[] { 0x28, (byte) 0xB5, 0x2F,
+                (byte) 0xFD, 0x00, 0x30, 0x01, 0x00, 0x00 },
+                encode(new ZstdEncoder(), new byte[0]));
+    }
+
+
+    @Test
+    public void testBrotliRatio() {
+        doTestRatio(new BrotliEncoder());
+    }
+
+
+    @Test
+    public void testZstdRatio() {
+        doTestRatio(new ZstdEncoder());
+    }
+
+
+    private void doTestRatio(BlockEncoder encoder) {
+        byte[] data = createData(200 * 1024);
+        int length = encode(encoder, data).length;
+        Assert.assertTrue("Encoded to " + length, length < data.length / 4);
+
+        // Incompressible data is stored with little overhead
+        new Random(42).nextBytes(data);
+        length = encode(encoder, data).length;
+        Assert.assertTrue("Encoded to " + length,
+                length < data.length + data.length / 1000);
+    }
+
+
+    /*
+     * Streams written by the reference encoder, which check the decoder used
+     * by the round trip tests: an uncompressed meta-block, a short distance
+     * code and complex prefix codes.
+     */
+    @Test
+    public void testBrotliReferenceStreams() throws IOException {
+        Assert.assertEquals("Hello, World!", string(TesterBrotliDecoder.decode(
+                hex("03068048656c6c6f2c20576f726c642103"))));
+        Assert.assertEquals("abcabcabcabcabcabcabcabc",
+                string(TesterBrotliDecoder.decode(
+                        hex("e20200806498d8586c13c41a"))));
+        Assert.assertEquals(repeat("Hello Hello Hello Hello Hello! ", 4),
+                string(TesterBrotliDecoder.decode(hex(
+                        "833d000080aaaaaaeaff7425beddf874e11b01306cc0393ce3" +
+                        "104eb8d8b031e6d8924da7c7348946daf532"))));
+        Assert.assertEquals(0, TesterBrotliDecoder.decode(
+                new byte[] { 0x06 }).length);
+    }
+
+
+    /*
+     * Frames written by the reference encoder, which check the decoder used
+     * by the round trip tests: a raw block, a sequence and repeat offsets.
+     */
+    @Test
+    public void testZstdReferenceFrames() throws IOException {
+        Assert.assertEquals("Hello, World!", string(TesterZstdDecoder.decode(
+                hex("28b52ffd200d69000048656c6c6f2c20576f726c6421"))));
+        Assert.assertEquals("abcabcabcabcabcabcabcabc",
+                string(TesterZstdDecoder.decode(
+                        hex("28b52ffd20184d00001861626301007e6e08"))));
+        Assert.assertEquals(repeat("Hello Hello Hello Hello Hello! ", 4),
+                string(TesterZstdDecoder.decode(hex(
+                        "28b52ffd207ca500003848656c6c6f20210400154a02188027" +
+                        "78539722"))));
+        Assert.assertEquals(0, TesterZstdDecoder.decode(
+                hex("28b52ffd2000010000")).length);
+    }
+
+
+    @Test
+    public void testBrotliRoundTrip() throws IOException {
+        doTestRoundTrip(new BrotliEncoder(), 0);
+    }
+
+
+    @Test
+    public void testBrotliRoundTripFlush() throws IOException {
+        doTestRoundTrip(new BrotliEncoder(), 1000);
+    }
+
+
+    @Test
+    public void testZstdRoundTrip() throws IOException {
+        doTestRoundTrip(new ZstdEncoder(), 0);
+    }
+
+
+    @Test
+    public void testZstdRoundTripFlush() throws IOException {
+        doTestRoundTrip(new ZstdEncoder(), 1000);
+    }
+
+
+    private void doTestRoundTrip(BlockEncoder encoder, int flushInterval)
+            throws IOException {
+        List<byte[]> inputs = new ArrayList<byte[]>();
+        // Either side of the thresholds for the lengths in the headers and
+        // of the size of a block
+        for (int length : new int[] { 0, 1, 5, 64, 1000, 4096, 65535, 65536,
+                65537, 300 * 1024 }) {
+            inputs.add(createData(length));
+        }
+        // Raw blocks, RLE literals and literals too large for the Huffman
+        // codes of Zstd
+        byte[] data = new byte[150000];
+        new Random(42).nextBytes(data);
+        inputs.add(data);
+        inputs.add(new byte[100000]);
+        data = createData(100000);
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] |= 0x80;
+        }
+        inputs.add(data);
+
+        for (byte[] input : inputs) {
+            for (int level : new int[] { 1, -1, 9 }) {
+                byte[] encoded = encode(encoder, input, level, flushInterval);
+                byte[] decoded;
+                if (encoder instanceof BrotliEncoder) {
+                    decoded = TesterBrotliDecoder.decode(encoded);
+                } else {
+                    decoded = TesterZstdDecoder.decode(encoded);
+                }
+                Assert.assertArrayEquals("Length " + input.length +
+                        ", level " + level, input, decoded);
+            }
+        }
+    }
+
+
+    /*
+     * Encode the same data with the Deflater used for gzip and deflate. The
+     * encoders here do less to compress but Brotli should still beat Deflate
+     * and Zstd, with its predefined distributions, should not be far behind.
+     */
+    @Test
+    public void testCompareDeflate() throws Exception {
+        byte[] data = createData(200 * 1024);
+        for (int level : new int[] { 1, -1, 9 }) {
+            Deflater deflater = new Deflater(level, true);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] deflated = new byte[data.length];
+            int deflateLength = deflater.deflate(deflated);
+            Assert.assertTrue(deflater.finished());
+            deflater.end();
+
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(deflated, 0, deflateLength);
+            byte[] inflated = new byte[data.length];
+            Assert.assertEquals(data.length, inflater.inflate(inflated));
+            inflater.end();
+            Assert.assertArrayEquals(data, inflated);
+
+            byte[] brotli = encode(new BrotliEncoder(), data, level, 0);
+            Assert.assertArrayEquals(inflated,
+                    TesterBrotliDecoder.decode(brotli));
+            Assert.assertTrue("Brotli " + brotli.length + ", deflate " +
+                    deflateLength, brotli.length < deflateLength);
+
+            byte[] zstd = encode(new ZstdEncoder(), data, level, 0);
+            Assert.assertArrayEquals(inflated, TesterZstdDecoder.decode(zstd));
+            Assert.assertTrue("Zstd " + zstd.length + ", deflate " +
+                    deflateLength, zstd.length < deflateLength * 3 / 2);
+        }
+    }
+
+
+    private static byte[] encode(BlockEncoder encoder, byte[] data) {
+        return encode(encoder, data, 6, 0);
+    }
+
+
+    /*
+     * Encode the data, flushing as the filter does after every
+     * flushInterval bytes if that is greater than zero.
+     */
+    private static byte[] encode(BlockEncoder encoder, byte[] data, int level,
+            int flushInterval) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        encoder.start(level);
+        int pos = 0;
+        int unflushed = 0;
+        while (pos < data.length) {
+            int len = data.length - pos;
+            if (flushInterval > 0) {
+                len = Math.min(len, flushInterval - unflushed);
+            }
+            len = encoder.append(data, pos, len);
+            pos += len;
+            unflushed += len;
+            if (encoder.isBlockFull()) {
+                encoder.encodeBlock(false);
+                result.write(encoder.output, 0, encoder.outputLength);
+                encoder.outputLength = 0;
+            }
+            if (unflushed == flushInterval) {
+                encoder.encodeBlock(false);
+                encoder.flush();
+                result.write(encoder.output, 0, encoder.outputLength);
+                encoder.outputLength = 0;
+                unflushed = 0;
+            }
+        }
+        encoder.encodeBlock(true);
+        result.write(encoder.output, 0, encoder.outputLength);
+        return result.toByteArray();
+    }
+
+
+    private static byte[] hex(String s) {
+        byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(
+                    s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+
+    private static String string(byte[] b) {
+        return new String(b, B2CConverter.ISO_8859_1);
+    }
+
+
+    private static byte[] createData(int length) {
+        StringBuilder sb = new StringBuilder(length + 100);
+        int i = 0;
+        sb.append('[');
+        while (sb.length() < length) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item");
+            sb.append(i * 7919 % 1000).append("\",\"price\":");
+            sb.append(i * 31 % 997).append('.').append(i % 100);
+            sb.append(",\"tags\":[\"a").append(i % 13).append("\"]},");
+            i++;
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), length);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestGzipCompressionPool {
+
+    @Test
+    public void testLevelForLoad() {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        // Load not available
+        Assert.assertEquals(-1, pool.levelForLoad(-1));
+        Assert.assertEquals(-1, pool.levelForLoad(0.2));
+        Assert.assertEquals(3, pool.levelForLoad(0.7));
+        Assert.assertEquals(1, pool.levelForLoad(1.5));
+
+        pool.setCompressionLevel(2);
+        Assert.assertEquals(2, pool.levelForLoad(0.2));
+        Assert.assertEquals(2, pool.levelForLoad(0.7));
+        Assert.assertEquals(1, pool.levelForLoad(1.5));
+    }
+
+
+    @Test
+    public void testAdaptive() {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        pool.setCompressionLevel(9);
+        Assert.assertEquals(9, pool.getCurrentLevel());
+        pool.setAdaptive(true);
+        int level = pool.getCurrentLevel();
+        Assert.assertTrue(level == 9 || level == 3 || level == 1);
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new GzipCompressionPool(-1).setCompressionLevel(10);
+    }
+
+
+    @Test
+    public void testDeflaterReused() {
+        GzipCompressionPool pool = new GzipCompressionPool(-1);
+        Deflater deflater = pool.getDeflater(1);
+        deflater.setInput(new byte[100]);
+        pool.returnDeflater(deflater);
+        Deflater reused = pool.getDeflater(6);
+        Assert.assertSame(deflater, reused);
+        Assert.assertEquals(0, reused.getTotalIn());
+        pool.destroy();
+    }
+}
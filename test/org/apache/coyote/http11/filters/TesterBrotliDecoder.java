@@ -0,0 +1,465 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decoder for the Brotli format of RFC 7932, written from the RFC rather than
+ * from {@link BrotliEncoder} so that the two can be checked against each
+ * other. Only the features needed to decode simple streams are implemented:
+ * one block type per category, one prefix code for literals and distances and
+ * no static dictionary references. Anything else is reported as an
+ * {@link IOException}, as is any data that is not valid.
+ */
+public class TesterBrotliDecoder {
+
+    private static final int[] INSERT_BASE = { 0, 1, 2, 3, 4, 5, 6, 8, 10,
+            14, 18, 26, 34, 50, 66, 98, 130, 194, 322, 578, 1090, 2114, 6210,
+            22594 };
+    private static final int[] INSERT_EXTRA = { 0, 0, 0, 0, 0, 0, 1, 1, 2, 2,
+            3, 3, 4, 4, 5, 5, 6, 7, 8, 9, 10, 12, 14, 24 };
+    private static final int[] COPY_BASE = { 2, 3, 4, 5, 6, 7, 8, 9, 10, 12,
+            14, 18, 22, 30, 38, 54, 70, 102, 134, 198, 326, 582, 1094, 2118 };
+    private static final int[] COPY_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 2,
+            2, 3, 3, 4, 4, 5, 5, 6, 7, 8, 9, 10, 24 };
+
+    // Insert and copy length code ranges of each group of 64 commands
+    private static final int[] INSERT_RANGE = { 0, 0, 0, 0, 8, 8, 0, 16, 8,
+            16, 16 };
+    private static final int[] COPY_RANGE = { 0, 8, 0, 8, 0, 8, 16, 0, 16, 8,
+            16 };
+
+    private static final int[] CODE_LENGTH_ORDER = { 1, 2, 3, 4, 0, 5, 17, 6,
+            16, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
+
+    // Static code for the code lengths of the code length alphabet, indexed
+    // by the next four bits
+    private static final int[] CODE_LENGTH_CODE_BITS = { 2, 2, 2, 3, 2, 2, 2,
+            4, 2, 2, 2, 3, 2, 2, 2, 4 };
+    private static final int[] CODE_LENGTH_CODE_VALUE = { 0, 4, 3, 2, 0, 4, 3,
+            1, 0, 4, 3, 2, 0, 4, 3, 5 };
+
+    // Short distance codes: the last distance to use and the change to it
+    private static final int[] SHORT_INDEX = { 0, 1, 2, 3, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 1, 1 };
+    private static final int[] SHORT_DELTA = { 0, 0, 0, 0, -1, 1, -2, 2, -3,
+            3, -1, 1, -2, 2, -3, 3 };
+
+
+    private final byte[] input;
+    private int pos;
+    private long bits;
+    private int bitCount;
+
+    private byte[] decoded = new byte[1024];
+    private int decodedLength;
+    private final int[] lastDistances = { 4, 11, 15, 16 };
+    private int maxDistance;
+
+
+    private TesterBrotliDecoder(byte[] input) {
+        this.input = input;
+    }
+
+
+    public static byte[] decode(byte[] input) throws IOException {
+        return new TesterBrotliDecoder(input).decode();
+    }
+
+
+    private byte[] decode() throws IOException {
+        int windowBits = readWindowBits();
+        maxDistance = (1 << windowBits) - 16;
+        while (true) {
+            boolean last = readBits(1) == 1;
+            if (last && readBits(1) == 1) {
+                break;
+            }
+            int nibbles = readBits(2);
+            if (nibbles == 3) {
+                if (readBits(1) != 0) {
+                    throw new IOException("Non-zero reserved bit");
+                }
+                int skipBytes = readBits(2);
+                int skip = 0;
+                for (int i = 0; i < skipBytes; i++) {
+                    skip |= readBits(8) << (8 * i);
+                }
+                if (skipBytes > 0) {
+                    skip++;
+                }
+                alignToByte();
+                pos += skip;
+                if (last) {
+                    break;
+                }
+                continue;
+            }
+            int length = readBits((nibbles + 4) * 4) + 1;
+            if (!last && readBits(1) == 1) {
+                alignToByte();
+                if (pos + length > input.length) {
+                    throw new IOException("Truncated uncompressed meta-block");
+                }
+                for (int i = 0; i < length; i++) {
+                    write(input[pos++]);
+                }
+            } else {
+                decodeCompressed(length);
+            }
+            if (last) {
+                break;
+            }
+        }
+        alignToByte();
+        if (pos != input.length) {
+            throw new IOException("Data after the last meta-block");
+        }
+        return Arrays.copyOf(decoded, decodedLength);
+    }
+
+
+    private int readWindowBits() throws IOException {
+        if (readBits(1) == 0) {
+            return 16;
+        }
+        int n = readBits(3);
+        if (n != 0) {
+            return 17 + n;
+        }
+        n = readBits(3);
+        if (n == 1) {
+            throw new IOException("Invalid WBITS");
+        }
+        return n == 0 ? 17 : 8 + n;
+    }
+
+
+    private void decodeCompressed(int length) throws IOException {
+        for (int i = 0; i < 3; i++) {
+            if (readBits(1) != 0) {
+                throw new IOException("Block switching is not supported");
+            }
+        }
+        int postfix = readBits(2);
+        int direct = readBits(4) << postfix;
+        // Context mode is irrelevant with a single literal prefix code
+        readBits(2);
+        if (readBits(1) != 0 || readBits(1) != 0) {
+            throw new IOException("Context maps are not supported");
+        }
+        PrefixCode literals = readPrefixCode(256);
+        PrefixCode commands = readPrefixCode(704);
+        PrefixCode distances = readPrefixCode(16 + direct + (48 << postfix));
+
+        int end = decodedLength + length;
+        while (true) {
+            int command = commands.read();
+            int range = command >> 6;
+            int insertCode = INSERT_RANGE[range] + ((command >> 3) & 7);
+            int copyCode = COPY_RANGE[range] + (command & 7);
+            // The first two ranges use the last distance
+            boolean implicitDistance = range < 2;
+            int insert = INSERT_BASE[insertCode] +
+                    readBits(INSERT_EXTRA[insertCode]);
+            int copy = COPY_BASE[copyCode] + readBits(COPY_EXTRA[copyCode]);
+            for (int i = 0; i < insert; i++) {
+                write((byte) literals.read());
+            }
+            if (decodedLength >= end) {
+                break;
+            }
+            int distance;
+            if (implicitDistance) {
+                distance = lastDistances[0];
+            } else {
+                distance = readDistance(distances.read(), postfix, direct);
+            }
+            int available = Math.min(decodedLength, maxDistance);
+            if (distance > available) {
+                throw new IOException(
+                        "Dictionary references are not supported");
+            }
+            for (int i = 0; i < copy; i++) {
+                write(decoded[decodedLength - distance]);
+            }
+            if (decodedLength >= end) {
+                break;
+            }
+        }
+        if (decodedLength != end) {
+            throw new IOException("Meta-block length mismatch");
+        }
+    }
+
+
+    private int readDistance(int code, int postfix, int direct)
+            throws IOException {
+        int distance;
+        if (code < 16) {
+            distance = lastDistances[SHORT_INDEX[code]] + SHORT_DELTA[code];
+            if (distance <= 0) {
+                throw new IOException("Invalid distance");
+            }
+            if (code == 0) {
+                // The last distance is not pushed again
+                return distance;
+            }
+        } else if (code < 16 + direct) {
+            distance = code - 15;
+        } else {
+            int postfixMask = (1 << postfix) - 1;
+            int hcode = (code - direct - 16) >> postfix;
+            int lcode = (code - direct - 16) & postfixMask;
+            int extraBits = 1 + (hcode >> 1);
+            int offset = ((2 + (hcode & 1)) << extraBits) - 4;
+            distance = ((offset + readBits(extraBits)) << postfix) + lcode +
+                    direct + 1;
+        }
+        lastDistances[3] = lastDistances[2];
+        lastDistances[2] = lastDistances[1];
+        lastDistances[1] = lastDistances[0];
+        lastDistances[0] = distance;
+        return distance;
+    }
+
+
+    private void write(byte b) {
+        if (decodedLength == decoded.length) {
+            decoded = Arrays.copyOf(decoded, decoded.length * 2);
+        }
+        decoded[decodedLength++] = b;
+    }
+
+
+    // ------------------------------------------------------- Prefix codes
+
+    private PrefixCode readPrefixCode(int size) throws IOException {
+        int[] lengths = new int[size];
+        int type = readBits(2);
+        if (type == 1) {
+            int alphabetBits = 32 - Integer.numberOfLeadingZeros(size - 1);
+            int count = readBits(2) + 1;
+            int[] symbols = new int[count];
+            for (int i = 0; i < count; i++) {
+                symbols[i] = readBits(alphabetBits);
+                if (symbols[i] >= size) {
+                    throw new IOException("Invalid symbol");
+                }
+            }
+            switch (count) {
+                case 1:
+                    return new PrefixCode(symbols[0]);
+                case 2:
+                    lengths[symbols[0]] = 1;
+                    lengths[symbols[1]] = 1;
+                    break;
+                case 3:
+                    lengths[symbols[0]] = 1;
+                    lengths[symbols[1]] = 2;
+                    lengths[symbols[2]] = 2;
+                    break;
+                default:
+                    if (readBits(1) == 0) {
+                        for (int i = 0; i < 4; i++) {
+                            lengths[symbols[i]] = 2;
+                        }
+                    } else {
+                        lengths[symbols[0]] = 1;
+                        lengths[symbols[1]] = 2;
+                        lengths[symbols[2]] = 3;
+                        lengths[symbols[3]] = 3;
+                    }
+            }
+            return new PrefixCode(lengths);
+        }
+
+        // Complex prefix code with the skipped code lengths in the type
+        int[] lengthLengths = new int[18];
+        int space = 32;
+        int used = 0;
+        for (int i = type; i < 18 && space > 0; i++) {
+            int peek = peekBits(4);
+            readBits(CODE_LENGTH_CODE_BITS[peek]);
+            int length = CODE_LENGTH_CODE_VALUE[peek];
+            lengthLengths[CODE_LENGTH_ORDER[i]] = length;
+            if (length > 0) {
+                space -= 32 >> length;
+                used++;
+            }
+        }
+        if (used != 1 && space != 0) {
+            throw new IOException("Incomplete code length code");
+        }
+        PrefixCode lengthCode = used == 1 ?
+                new PrefixCode(singleSymbol(lengthLengths)) :
+                new PrefixCode(lengthLengths);
+
+        space = 32768;
+        int previous = 8;
+        int repeat = 0;
+        int repeatLength = 0;
+        int symbol = 0;
+        while (symbol < size && space > 0) {
+            int length = lengthCode.read();
+            if (length < 16) {
+                repeat = 0;
+                lengths[symbol++] = length;
+                if (length > 0) {
+                    previous = length;
+                    space -= 32768 >> length;
+                }
+                continue;
+            }
+            int extraBits = length == 16 ? 2 : 3;
+            int newLength = length == 16 ? previous : 0;
+            if (repeatLength != newLength) {
+                repeat = 0;
+                repeatLength = newLength;
+            }
+            int oldRepeat = repeat;
+            if (repeat > 0) {
+                repeat = (repeat - 2) << extraBits;
+            }
+            repeat += readBits(extraBits) + 3;
+            int delta = repeat - oldRepeat;
+            if (symbol + delta > size) {
+                throw new IOException("Too many code lengths");
+            }
+            for (int i = 0; i < delta; i++) {
+                lengths[symbol++] = newLength;
+            }
+            if (newLength > 0) {
+                space -= delta * (32768 >> newLength);
+            }
+        }
+        if (space != 0) {
+            throw new IOException("Incomplete prefix code");
+        }
+        return new PrefixCode(lengths);
+    }
+
+
+    private static int singleSymbol(int[] lengths) {
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Canonical prefix code decoded a bit at a time.
+     */
+    private final class PrefixCode {
+
+        private final int[] count = new int[16];
+        private final int[] symbols;
+        private final boolean single;
+
+        PrefixCode(int symbol) {
+            symbols = new int[] { symbol };
+            single = true;
+        }
+
+        PrefixCode(int[] lengths) {
+            int n = 0;
+            for (int i = 0; i < lengths.length; i++) {
+                count[lengths[i]]++;
+                if (lengths[i] > 0) {
+                    n++;
+                }
+            }
+            count[0] = 0;
+            int[] offsets = new int[16];
+            for (int length = 1; length < 15; length++) {
+                offsets[length + 1] = offsets[length] + count[length];
+            }
+            symbols = new int[n];
+            single = false;
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] > 0) {
+                    symbols[offsets[lengths[i]]++] = i;
+                }
+            }
+        }
+
+        int read() throws IOException {
+            if (single) {
+                return symbols[0];
+            }
+            int code = 0;
+            int first = 0;
+            int index = 0;
+            for (int length = 1; length < 16; length++) {
+                code |= readBits(1);
+                int n = count[length];
+                if (code - first < n) {
+                    return symbols[index + code - first];
+                }
+                index += n;
+                first = (first + n) << 1;
+                code <<= 1;
+            }
+            throw new IOException("Invalid prefix code");
+        }
+    }
+
+
+    // --------------------------------------------------------------- Bits
+
+    private int peekBits(int count) {
+        while (bitCount < count) {
+            // Past the end of the input reads as zero bits
+            long b = pos < input.length ? input[pos] & 0xFF : 0;
+            pos++;
+            bits |= b << bitCount;
+            bitCount += 8;
+        }
+        return (int) (bits & ((1L << count) - 1));
+    }
+
+
+    private int readBits(int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        int value = peekBits(count);
+        bits >>>= count;
+        bitCount -= count;
+        if (pos - bitCount / 8 > input.length) {
+            throw new IOException("Truncated input");
+        }
+        return value;
+    }
+
+
+    private void alignToByte() throws IOException {
+        int padding = bitCount & 7;
+        if (readBits(padding) != 0) {
+            throw new IOException("Non-zero padding");
+        }
+        // Return whole bytes that were read ahead
+        pos -= bitCount / 8;
+        bits = 0;
+        bitCount = 0;
+    }
+}
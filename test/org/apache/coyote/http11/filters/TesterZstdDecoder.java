@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decoder for a single frame of the Zstandard format of RFC 8878, written
+ * from the RFC rather than from {@link ZstdEncoder} so that the two can be
+ * checked against each other. Only the features needed to decode simple
+ * frames are implemented: Huffman codes with directly stored weights and the
+ * predefined FSE distributions. Anything else is reported as an
+ * {@link IOException}, as is any data that is not valid. The checksum, if
+ * any, is not verified.
+ */
+public class TesterZstdDecoder {
+
+    private static final int MAGIC = 0xFD2FB528;
+
+    private static final int[] LITERAL_LENGTH_BASE = { 0, 1, 2, 3, 4, 5, 6, 7,
+            8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 20, 22, 24, 28, 32, 40, 48,
+            64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+    private static final int[] LITERAL_LENGTH_BITS = { 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10,
+            11, 12, 13, 14, 15, 16 };
+    private static final int[] MATCH_LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10,
+            11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27,
+            28, 29, 30, 31, 32, 33, 34, 35, 37, 39, 41, 43, 47, 51, 59, 67, 83,
+            99, 131, 259, 515, 1027, 2051, 4099, 8195, 16387, 32771, 65539 };
+    private static final int[] MATCH_LENGTH_BITS = { 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+            16 };
+
+    private static final FseTable LITERAL_LENGTH_TABLE = new FseTable(6,
+            new int[] { 4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1, 2, 2,
+                    2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1, -1, -1, -1, -1 });
+    private static final FseTable MATCH_LENGTH_TABLE = new FseTable(6,
+            new int[] { 1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                    1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                    1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, -1, -1 });
+    private static final FseTable OFFSET_TABLE = new FseTable(5,
+            new int[] { 1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                    1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1 });
+
+
+    private final byte[] input;
+    private int pos;
+
+    private byte[] decoded = new byte[1024];
+    private int decodedLength;
+    private final int[] repeatOffsets = { 1, 4, 8 };
+    private byte[] literals;
+    private int literalCount;
+
+
+    private TesterZstdDecoder(byte[] input) {
+        this.input = input;
+    }
+
+
+    public static byte[] decode(byte[] input) throws IOException {
+        return new TesterZstdDecoder(input).decode();
+    }
+
+
+    private byte[] decode() throws IOException {
+        if (readLittleEndian(4) != MAGIC) {
+            throw new IOException("Invalid magic number");
+        }
+        int descriptor = readLittleEndian(1);
+        int contentSizeFlag = descriptor >> 6;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        boolean checksum = (descriptor & 0x04) != 0;
+        if ((descriptor & 0x08) != 0) {
+            throw new IOException("Non-zero reserved bit");
+        }
+        if ((descriptor & 0x03) != 0) {
+            throw new IOException("Dictionaries are not supported");
+        }
+        if (!singleSegment) {
+            // Window descriptor, not needed as all output is retained
+            pos++;
+        }
+        long contentSize = -1;
+        if (contentSizeFlag == 1) {
+            contentSize = readLittleEndian(2) + 256;
+        } else if (contentSizeFlag == 2) {
+            contentSize = readLittleEndian(4) & 0xFFFFFFFFL;
+        } else if (contentSizeFlag == 3) {
+            contentSize = (readLittleEndian(4) & 0xFFFFFFFFL) |
+                    (long) readLittleEndian(4) << 32;
+        } else if (singleSegment) {
+            contentSize = readLittleEndian(1);
+        }
+
+        boolean last = false;
+        while (!last) {
+            int header = readLittleEndian(3);
+            last = (header & 1) != 0;
+            int type = (header >> 1) & 3;
+            int size = header >>> 3;
+            switch (type) {
+                case 0:
+                    check(pos + size <= input.length, "Truncated raw block");
+                    for (int i = 0; i < size; i++) {
+                        write(input[pos++]);
+                    }
+                    break;
+                case 1:
+                    byte b = input[pos++];
+                    for (int i = 0; i < size; i++) {
+                        write(b);
+                    }
+                    break;
+                case 2:
+                    check(pos + size <= input.length,
+                            "Truncated compressed block");
+                    int end = pos + size;
+                    decodeCompressed(end);
+                    pos = end;
+                    break;
+                default:
+                    throw new IOException("Reserved block type");
+            }
+        }
+        if (checksum) {
+            pos += 4;
+        }
+        check(pos == input.length, "Data after the frame");
+        check(contentSize == -1 || contentSize == decodedLength,
+                "Content size mismatch");
+        return Arrays.copyOf(decoded, decodedLength);
+    }
+
+
+    private void decodeCompressed(int end) throws IOException {
+        readLiterals();
+        int count = readLittleEndian(1);
+        if (count >= 128) {
+            if (count == 255) {
+                count = readLittleEndian(2) + 0x7F00;
+            } else {
+                count = ((count - 128) << 8) + readLittleEndian(1);
+            }
+        }
+        int literalPos = 0;
+        if (count > 0) {
+            if (readLittleEndian(1) != 0) {
+                throw new IOException(
+                        "Only predefined distributions are supported");
+            }
+            BackwardBitStream stream = new BackwardBitStream(pos, end);
+            int literalLengthState = stream.read(LITERAL_LENGTH_TABLE.tableLog);
+            int offsetState = stream.read(OFFSET_TABLE.tableLog);
+            int matchLengthState = stream.read(MATCH_LENGTH_TABLE.tableLog);
+            for (int i = 0; i < count; i++) {
+                int offsetCode = OFFSET_TABLE.symbols[offsetState];
+                int offsetValue = (1 << offsetCode) + stream.read(offsetCode);
+                int matchLengthCode =
+                        MATCH_LENGTH_TABLE.symbols[matchLengthState];
+                int matchLength = MATCH_LENGTH_BASE[matchLengthCode] +
+                        stream.read(MATCH_LENGTH_BITS[matchLengthCode]);
+                int literalLengthCode =
+                        LITERAL_LENGTH_TABLE.symbols[literalLengthState];
+                int literalLength = LITERAL_LENGTH_BASE[literalLengthCode] +
+                        stream.read(LITERAL_LENGTH_BITS[literalLengthCode]);
+                if (i < count - 1) {
+                    literalLengthState = LITERAL_LENGTH_TABLE.next(
+                            literalLengthState, stream);
+                    matchLengthState = MATCH_LENGTH_TABLE.next(
+                            matchLengthState, stream);
+                    offsetState = OFFSET_TABLE.next(offsetState, stream);
+                }
+
+                int offset = offset(offsetValue, literalLength);
+                check(literalPos + literalLength <= literalCount,
+                        "Too few literals");
+                for (int j = 0; j < literalLength; j++) {
+                    write(literals[literalPos++]);
+                }
+                check(offset <= decodedLength, "Invalid offset");
+                for (int j = 0; j < matchLength; j++) {
+                    write(decoded[decodedLength - offset]);
+                }
+            }
+            check(stream.isEmpty(), "Data after the sequences");
+        } else {
+            check(pos == end, "Data after the literals");
+        }
+        while (literalPos < literalCount) {
+            write(literals[literalPos++]);
+        }
+    }
+
+
+    private int offset(int offsetValue, int literalLength) {
+        if (offsetValue > 3) {
+            int offset = offsetValue - 3;
+            repeatOffsets[2] = repeatOffsets[1];
+            repeatOffsets[1] = repeatOffsets[0];
+            repeatOffsets[0] = offset;
+            return offset;
+        }
+        int index = literalLength == 0 ? offsetValue : offsetValue - 1;
+        if (index == 0) {
+            return repeatOffsets[0];
+        }
+        int offset = index == 3 ? repeatOffsets[0] - 1 : repeatOffsets[index];
+        if (index != 1) {
+            repeatOffsets[2] = repeatOffsets[1];
+        }
+        repeatOffsets[1] = repeatOffsets[0];
+        repeatOffsets[0] = offset;
+        return offset;
+    }
+
+
+    // ----------------------------------------------------------- Literals
+
+    private void readLiterals() throws IOException {
+        int header = readLittleEndian(1);
+        int type = header & 3;
+        int sizeFormat = (header >> 2) & 3;
+        if (type < 2) {
+            int size;
+            if ((sizeFormat & 1) == 0) {
+                size = header >> 3;
+            } else if (sizeFormat == 1) {
+                size = (header >> 4) + (readLittleEndian(1) << 4);
+            } else {
+                size = (header >> 4) + (readLittleEndian(2) << 4);
+            }
+            literals = new byte[size];
+            literalCount = size;
+            if (type == 0) {
+                check(pos + size <= input.length, "Truncated literals");
+                System.arraycopy(input, pos, literals, 0, size);
+                pos += size;
+            } else {
+                Arrays.fill(literals, input[pos++]);
+            }
+            return;
+        }
+        if (type == 3) {
+            throw new IOException("Treeless literals are not supported");
+        }
+        int sizeBits = sizeFormat < 2 ? 10 : (sizeFormat == 2 ? 14 : 18);
+        int headerLength = sizeFormat < 2 ? 3 : (sizeFormat == 2 ? 4 : 5);
+        pos--;
+        long value = 0;
+        for (int i = 0; i < headerLength; i++) {
+            value |= (long) (input[pos++] & 0xFF) << (8 * i);
+        }
+        int regenerated = (int) ((value >> 4) & ((1 << sizeBits) - 1));
+        int compressed = (int) (value >> (4 + sizeBits));
+        int end = pos + compressed;
+        literals = new byte[regenerated];
+        literalCount = regenerated;
+
+        HuffmanTable table = readHuffmanTable();
+        if (sizeFormat == 0) {
+            decodeStream(table, pos, end, 0, regenerated);
+        } else {
+            int size1 = readLittleEndian(2);
+            int size2 = readLittleEndian(2);
+            int size3 = readLittleEndian(2);
+            int segment = (regenerated + 3) / 4;
+            int start = pos;
+            decodeStream(table, start, start + size1, 0, segment);
+            start += size1;
+            decodeStream(table, start, start + size2, segment, 2 * segment);
+            start += size2;
+            decodeStream(table, start, start + size3, 2 * segment,
+                    3 * segment);
+            start += size3;
+            decodeStream(table, start, end, 3 * segment, regenerated);
+        }
+        pos = end;
+    }
+
+
+    private HuffmanTable readHuffmanTable() throws IOException {
+        int header = readLittleEndian(1);
+        if (header < 128) {
+            throw new IOException("FSE compressed weights are not supported");
+        }
+        int count = header - 127;
+        int[] weights = new int[count + 1];
+        for (int i = 0; i < count; i += 2) {
+            int b = readLittleEndian(1);
+            weights[i] = b >> 4;
+            if (i + 1 < count) {
+                weights[i + 1] = b & 0xF;
+            }
+        }
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            check(weights[i] <= 11, "Weight too large");
+            if (weights[i] > 0) {
+                sum += 1 << (weights[i] - 1);
+            }
+        }
+        check(sum > 0, "No weights");
+        int maxBits = 32 - Integer.numberOfLeadingZeros(sum);
+        int rest = (1 << maxBits) - sum;
+        check(Integer.bitCount(rest) == 1, "Weights do not complete the code");
+        weights[count] = Integer.numberOfTrailingZeros(rest) + 1;
+        return new HuffmanTable(weights, maxBits);
+    }
+
+
+    private void decodeStream(HuffmanTable table, int start, int end,
+            int from, int to) throws IOException {
+        BackwardBitStream stream = new BackwardBitStream(start, end);
+        for (int i = from; i < to; i++) {
+            int index = stream.peek(table.maxBits);
+            literals[i] = (byte) table.symbols[index];
+            stream.skip(table.bits[index]);
+        }
+        check(stream.isEmpty(), "Data after the literals");
+    }
+
+
+    private void write(byte b) {
+        if (decodedLength == decoded.length) {
+            decoded = Arrays.copyOf(decoded, decoded.length * 2);
+        }
+        decoded[decodedLength++] = b;
+    }
+
+
+    private int readLittleEndian(int length) throws IOException {
+        check(pos + length <= input.length, "Truncated input");
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value |= (input[pos++] & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+
+
+    private static void check(boolean condition, String message)
+            throws IOException {
+        if (!condition) {
+            throw new IOException(message);
+        }
+    }
+
+
+    // --------------------------------------------------- BackwardBitStream
+
+    /**
+     * Bit stream that is read from the end, starting below the highest set
+     * bit of the last byte.
+     */
+    private final class BackwardBitStream {
+
+        private final int start;
+        private int position;
+
+        BackwardBitStream(int start, int end) throws IOException {
+            check(end > start && end <= input.length, "Invalid bit stream");
+            int last = input[end - 1] & 0xFF;
+            check(last != 0, "No end marker");
+            this.start = start;
+            position = (end - 1 - start) * 8 + 31 -
+                    Integer.numberOfLeadingZeros(last);
+        }
+
+        /**
+         * Bits before the start of the stream read as zero, as they may when
+         * peeking at the last code.
+         */
+        int peek(int count) {
+            int value = 0;
+            for (int i = 1; i <= count; i++) {
+                int bit = position - i;
+                value <<= 1;
+                if (bit >= 0) {
+                    value |= (input[start + (bit >> 3)] >> (bit & 7)) & 1;
+                }
+            }
+            return value;
+        }
+
+        void skip(int count) throws IOException {
+            position -= count;
+            check(position >= 0, "Bit stream overrun");
+        }
+
+        int read(int count) throws IOException {
+            int value = peek(count);
+            skip(count);
+            return value;
+        }
+
+        boolean isEmpty() {
+            return position == 0;
+        }
+    }
+
+
+    // -------------------------------------------------------- HuffmanTable
+
+    private static final class HuffmanTable {
+
+        private final int maxBits;
+        private final int[] symbols;
+        private final int[] bits;
+
+        HuffmanTable(int[] weights, int maxBits) {
+            this.maxBits = maxBits;
+            symbols = new int[1 << maxBits];
+            bits = new int[1 << maxBits];
+            // Codes are assigned in order of weight then symbol, lowest first
+            int index = 0;
+            for (int weight = 1; weight <= maxBits; weight++) {
+                for (int symbol = 0; symbol < weights.length; symbol++) {
+                    if (weights[symbol] == weight) {
+                        int entries = 1 << (weight - 1);
+                        for (int i = 0; i < entries; i++) {
+                            symbols[index] = symbol;
+                            bits[index] = maxBits + 1 - weight;
+                            index++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------------ FseTable
+
+    private static final class FseTable {
+
+        private final int tableLog;
+        private final int[] symbols;
+        private final int[] bits;
+        private final int[] baselines;
+
+        FseTable(int tableLog, int[] counts) {
+            this.tableLog = tableLog;
+            int size = 1 << tableLog;
+            symbols = new int[size];
+            bits = new int[size];
+            baselines = new int[size];
+
+            int highThreshold = size - 1;
+            int[] next = new int[counts.length];
+            for (int s = 0; s < counts.length; s++) {
+                if (counts[s] == -1) {
+                    symbols[highThreshold--] = s;
+                    next[s] = 1;
+                } else {
+                    next[s] = counts[s];
+                }
+            }
+            int step = (size >> 1) + (size >> 3) + 3;
+            int position = 0;
+            for (int s = 0; s < counts.length; s++) {
+                for (int i = 0; i < counts[s]; i++) {
+                    symbols[position] = s;
+                    do {
+                        position = (position + step) & (size - 1);
+                    } while (position > highThreshold);
+                }
+            }
+            for (int state = 0; state < size; state++) {
+                int nextState = next[symbols[state]]++;
+                bits[state] = tableLog -
+                        (31 - Integer.numberOfLeadingZeros(nextState));
+                baselines[state] = (nextState << bits[state]) - size;
+            }
+        }
+
+        int next(int state, BackwardBitStream stream) throws IOException {
+            return baselines[state] + stream.read(bits[state]);
+        }
+    }
+}
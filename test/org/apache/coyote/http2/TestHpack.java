@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
+
+public class TestHpack {
+
+    @Test
+    public void testDecodeRfcExample() throws Exception {
+        // RFC 7541, C.4.1 - first request using Huffman encoding
+        byte[] block = hex("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        HpackDecoder decoder = new HpackDecoder();
+        Collector collector = new Collector();
+        decoder.decode(block, 0, block.length, collector);
+
+        Assert.assertEquals(4, collector.fields.size());
+        Assert.assertEquals(":method=GET", collector.fields.get(0));
+        Assert.assertEquals(":scheme=http", collector.fields.get(1));
+        Assert.assertEquals(":path=/", collector.fields.get(2));
+        Assert.assertEquals(":authority=www.example.com", collector.fields.get(3));
+        Assert.assertEquals(57, decoder.getCurrentSize());
+    }
+
+
+    @Test
+    public void testRoundTripUsesDynamicTable() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+
+        byte[] first = encode(encoder, "x-custom", "a-fairly-long-value");
+        byte[] second = encode(encoder, "x-custom", "a-fairly-long-value");
+
+        Assert.assertEquals("x-custom=a-fairly-long-value", decode(decoder, first));
+        Assert.assertEquals("x-custom=a-fairly-long-value", decode(decoder, second));
+        // The repeated field is sent as a single index
+        Assert.assertEquals(1, second.length);
+        Assert.assertEquals(encoder.getCurrentSize(), decoder.getCurrentSize());
+    }
+
+
+    @Test
+    public void testTableSizeUpdateEvicts() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+
+        decode(decoder, encode(encoder, "x-one", "1"));
+        Assert.assertEquals(1, decoder.getEntryCount());
+
+        encoder.setMaxTableSize(0);
+        decode(decoder, encode(encoder, "x-two", "2"));
+        Assert.assertEquals(0, decoder.getEntryCount());
+        Assert.assertEquals(0, decoder.getCurrentSize());
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testTableSizeUpdateTooLarge() throws Exception {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        Hpack.encodeInteger(block, 0x20, 5, 8192);
+        byte[] bytes = block.toByteArray();
+        new HpackDecoder(4096).decode(bytes, 0, bytes.length, new Collector());
+    }
+
+
+    private static byte[] encode(HpackEncoder encoder, String name,
+            String value) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.startHeaderBlock(block);
+        encoder.encodeHeader(name, value, block);
+        return block.toByteArray();
+    }
+
+
+    private static String decode(HpackDecoder decoder, byte[] block)
+            throws HpackException {
+        Collector collector = new Collector();
+        decoder.decode(block, 0, block.length, collector);
+        Assert.assertEquals(1, collector.fields.size());
+        return collector.fields.get(0);
+    }
+
+
+    private static byte[] hex(String input) {
+        byte[] result = new byte[input.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(
+                    input.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+
+
+    private static class Collector implements HeaderEmitter {
+
+        private final List<String> fields = new ArrayList<String>();
+
+        @Override
+        public void emitHeader(String name, String value) {
+            fields.add(name + "=" + value);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestHttp2UpgradeHandler extends TomcatBaseTest {
+
+    private static final int LARGE_SIZE = 256 * 1024;
+
+
+    @Override
+    protected String getProtocol() {
+        return Http2NioProtocol.class.getName();
+    }
+
+
+    @Test
+    public void testPriorKnowledgeGet() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            client.sendRequest(1, "GET", "/simple", null, true);
+            TesterHttp2Client.Response response = client.readResponse(1);
+            Assert.assertNotNull(response);
+            Assert.assertEquals(response.getBodyAsString(), 200, response.getStatus());
+            Assert.assertEquals("OK", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testUpgrade() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            String headers = client.sendUpgrade("/simple");
+            Assert.assertTrue(headers, headers.startsWith("HTTP/1.1 101"));
+            client.completeUpgrade();
+            TesterHttp2Client.Response response = client.readResponse(1);
+            Assert.assertNotNull(response);
+            Assert.assertEquals(response.getBodyAsString(), 200, response.getStatus());
+            Assert.assertEquals("OK", response.getBodyAsString());
+
+            // The connection can then be used for further requests
+            client.sendRequest(3, "GET", "/simple", null, true);
+            response = client.readResponse(3);
+            Assert.assertEquals("OK", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testPost() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            client.sendRequest(1, "POST", "/echo", null, false);
+            byte[] data = new byte[10000];
+            Arrays.fill(data, (byte) 'x');
+            client.sendData(1, data, false);
+            client.sendData(1, data, true);
+            TesterHttp2Client.Response response = client.readResponse(1);
+            Assert.assertNotNull(response);
+            Assert.assertEquals(response.getBodyAsString(), 200, response.getStatus());
+            Assert.assertEquals("20000", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testLargeResponse() throws Exception {
+        // Larger than the default window so the client has to open it
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            client.sendRequest(1, "GET", "/large", null, true);
+            TesterHttp2Client.Response response = client.readResponse(1);
+            Assert.assertNotNull(response);
+            Assert.assertEquals(LARGE_SIZE, response.getBody().length);
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testConcurrentStreams() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            for (int i = 1; i < 20; i += 2) {
+                client.sendRequest(i, "GET", "/large", null, true);
+            }
+            for (int i = 1; i < 20; i += 2) {
+                TesterHttp2Client.Response response = client.readResponse(i);
+                Assert.assertNotNull(response);
+                Assert.assertEquals(LARGE_SIZE, response.getBody().length);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testPing() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            byte[] data = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+            client.sendPing(data);
+            TesterHttp2Client.Frame frame = client.readFrame();
+            while (frame.getType() == FrameType.SETTINGS) {
+                // ACK of our settings
+                frame = client.readFrame();
+            }
+            Assert.assertEquals(FrameType.PING, frame.getType());
+            Assert.assertEquals(Constants.FLAG_ACK, frame.getFlags());
+            Assert.assertArrayEquals(data, frame.getPayload());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testPushPromiseFromClient() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            client.sendFrame(FrameType.PUSH_PROMISE, Constants.FLAG_END_HEADERS,
+                    1, new byte[4]);
+            TesterHttp2Client.Frame frame = client.readFrame();
+            while (frame.getType() == FrameType.SETTINGS) {
+                frame = client.readFrame();
+            }
+            Assert.assertEquals(FrameType.GOAWAY, frame.getType());
+            Assert.assertEquals(Http2Error.PROTOCOL_ERROR.getCode(),
+                    ByteUtil.getFourBytes(frame.getPayload(), 4));
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testInvalidStreamId() throws Exception {
+        TesterHttp2Client client = startAndConnect();
+        try {
+            client.sendPreface();
+            // Streams opened by the client must use odd identifiers
+            client.sendRequest(2, "GET", "/simple", null, true);
+            TesterHttp2Client.Frame frame = client.readFrame();
+            while (frame.getType() == FrameType.SETTINGS) {
+                frame = client.readFrame();
+            }
+            Assert.assertEquals(FrameType.GOAWAY, frame.getType());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    private TesterHttp2Client startAndConnect() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "simple", new SimpleServlet());
+        ctx.addServletMapping("/simple", "simple");
+        Tomcat.addServlet(ctx, "echo", new EchoLengthServlet());
+        ctx.addServletMapping("/echo", "echo");
+        Tomcat.addServlet(ctx, "large", new LargeServlet());
+        ctx.addServletMapping("/large", "large");
+
+        tomcat.start();
+
+        return new TesterHttp2Client(getPort());
+    }
+
+
+    private static class SimpleServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.setCharacterEncoding("UTF-8");
+            resp.getWriter().print("OK");
+        }
+    }
+
+
+    private static class EchoLengthServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            InputStream is = req.getInputStream();
+            byte[] buf = new byte[4096];
+            long total = 0;
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                total += read;
+            }
+            resp.setContentType("text/plain");
+            PrintWriter pw = resp.getWriter();
+            pw.print(total);
+        }
+    }
+
+
+    private static class LargeServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("application/octet-stream");
+            resp.setContentLength(LARGE_SIZE);
+            byte[] data = new byte[8192];
+            for (int i = 0; i < LARGE_SIZE; i += data.length) {
+                resp.getOutputStream().write(data);
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.codec.binary.Base64;
+
+/**
+ * A minimal HTTP/2 client for testing. Frames are written and read directly
+ * so tests can control exactly what is sent and examine everything that is
+ * received.
+ */
+public class TesterHttp2Client {
+
+    private final Socket socket;
+    private final InputStream is;
+    private final OutputStream os;
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final HpackDecoder decoder = new HpackDecoder();
+    private final Map<Integer,Response> responses = new HashMap<Integer,Response>();
+
+    /*
+     * Send WINDOW_UPDATE frames as response data is received?
+     */
+    private boolean autoWindowUpdate = true;
+
+
+    public TesterHttp2Client(int port) throws IOException {
+        socket = new Socket("localhost", port);
+        socket.setSoTimeout(10000);
+        is = socket.getInputStream();
+        os = socket.getOutputStream();
+    }
+
+
+    public void setAutoWindowUpdate(boolean autoWindowUpdate) {
+        this.autoWindowUpdate = autoWindowUpdate;
+    }
+
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+
+    /**
+     * Send the connection preface followed by an empty SETTINGS frame and
+     * read the server's SETTINGS frame.
+     */
+    public Frame sendPreface() throws IOException {
+        os.write(Constants.CLIENT_PREFACE);
+        sendFrame(FrameType.SETTINGS, 0, 0, new byte[0]);
+        return readSettings();
+    }
+
+
+    /**
+     * Send an HTTP/1.1 request asking to upgrade to h2c.
+     *
+     * @return the HTTP/1.1 response headers
+     */
+    public String sendUpgrade(String path) throws IOException {
+        // INITIAL_WINDOW_SIZE 65535
+        byte[] settings = new byte[6];
+        ByteUtil.setTwoBytes(settings, 0, Constants.SETTING_INITIAL_WINDOW_SIZE);
+        ByteUtil.setFourBytes(settings, 2, 65535);
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: Upgrade, HTTP2-Settings\r\n" +
+                "Upgrade: h2c\r\n" +
+                "HTTP2-Settings: " + Base64.encodeBase64URLSafeString(settings) + "\r\n" +
+                "\r\n";
+        os.write(request.getBytes(B2CConverter.ISO_8859_1));
+        os.flush();
+
+        StringBuilder headers = new StringBuilder();
+        while (headers.indexOf("\r\n\r\n") == -1) {
+            int b = is.read();
+            if (b == -1) {
+                break;
+            }
+            headers.append((char) b);
+        }
+        return headers.toString();
+    }
+
+
+    /**
+     * Complete the upgrade by sending the connection preface and reading the
+     * server's SETTINGS.
+     */
+    public Frame completeUpgrade() throws IOException {
+        return sendPreface();
+    }
+
+
+    private Frame readSettings() throws IOException {
+        Frame frame = readFrame();
+        if (frame.getType() != FrameType.SETTINGS) {
+            throw new IOException("Expected SETTINGS but got " + frame.getType());
+        }
+        return frame;
+    }
+
+
+    public void sendRequest(int streamId, String method, String path,
+            Map<String,String> headers, boolean endOfStream) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.startHeaderBlock(block);
+        encoder.encodeHeader(":method", method, block);
+        encoder.encodeHeader(":scheme", "http", block);
+        encoder.encodeHeader(":path", path, block);
+        encoder.encodeHeader(":authority", "localhost", block);
+        if (headers != null) {
+            for (Map.Entry<String,String> header : headers.entrySet()) {
+                encoder.encodeHeader(header.getKey(), header.getValue(), block);
+            }
+        }
+        int flags = Constants.FLAG_END_HEADERS;
+        if (endOfStream) {
+            flags |= Constants.FLAG_END_STREAM;
+        }
+        sendFrame(FrameType.HEADERS, flags, streamId, block.toByteArray());
+    }
+
+
+    public void sendData(int streamId, byte[] data, boolean endOfStream)
+            throws IOException {
+        sendFrame(FrameType.DATA, endOfStream ? Constants.FLAG_END_STREAM : 0,
+                streamId, data);
+    }
+
+
+    public void sendWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        ByteUtil.set31Bits(payload, 0, increment);
+        sendFrame(FrameType.WINDOW_UPDATE, 0, streamId, payload);
+    }
+
+
+    public void sendPing(byte[] data) throws IOException {
+        sendFrame(FrameType.PING, 0, 0, data);
+    }
+
+
+    public void sendFrame(FrameType type, int flags, int streamId,
+            byte[] payload) throws IOException {
+        byte[] header = new byte[Constants.FRAME_HEADER_LENGTH];
+        ByteUtil.setThreeBytes(header, 0, payload.length);
+        header[3] = (byte) type.getId();
+        header[4] = (byte) flags;
+        ByteUtil.set31Bits(header, 5, streamId);
+        os.write(header);
+        os.write(payload);
+        os.flush();
+    }
+
+
+    public Frame readFrame() throws IOException {
+        byte[] header = new byte[Constants.FRAME_HEADER_LENGTH];
+        readFully(header);
+        int length = ByteUtil.getThreeBytes(header, 0);
+        byte[] payload = new byte[length];
+        readFully(payload);
+        return new Frame(FrameType.valueOf(ByteUtil.getOneByte(header, 3)),
+                ByteUtil.getOneByte(header, 4), ByteUtil.get31Bits(header, 5),
+                payload);
+    }
+
+
+    private void readFully(byte[] b) throws IOException {
+        int pos = 0;
+        while (pos < b.length) {
+            int read = is.read(b, pos, b.length - pos);
+            if (read == -1) {
+                throw new IOException("Connection closed after " + pos +
+                        " of " + b.length + " bytes");
+            }
+            pos += read;
+        }
+    }
+
+
+    /**
+     * Read frames until the response for the given stream is complete.
+     * Frames for other streams are processed and their responses retained.
+     *
+     * @return the response or <code>null</code> if the stream was reset
+     */
+    public Response readResponse(int streamId) throws IOException {
+        while (true) {
+            Response response = responses.get(Integer.valueOf(streamId));
+            if (response != null && response.isComplete()) {
+                responses.remove(Integer.valueOf(streamId));
+                return response.getResetError() == null ? response : null;
+            }
+            processFrame(readFrame());
+        }
+    }
+
+
+    private void processFrame(Frame frame) throws IOException {
+        switch (frame.getType()) {
+        case HEADERS:
+        case CONTINUATION: {
+            final Response response = getResponse(frame.getStreamId());
+            try {
+                decoder.decode(frame.getPayload(), 0, frame.getPayload().length,
+                        new HpackDecoder.HeaderEmitter() {
+                            @Override
+                            public void emitHeader(String name, String value) {
+                                response.addHeader(name, value);
+                            }
+                        });
+            } catch (HpackException e) {
+                throw new IOException(e);
+            }
+            if ((frame.getFlags() & Constants.FLAG_END_STREAM) != 0) {
+                response.setComplete();
+            }
+            break;
+        }
+        case DATA: {
+            Response response = getResponse(frame.getStreamId());
+            response.addData(frame.getPayload());
+            if ((frame.getFlags() & Constants.FLAG_END_STREAM) != 0) {
+                response.setComplete();
+            } else if (autoWindowUpdate && frame.getPayload().length > 0) {
+                sendWindowUpdate(frame.getStreamId(), frame.getPayload().length);
+            }
+            if (autoWindowUpdate && frame.getPayload().length > 0) {
+                sendWindowUpdate(0, frame.getPayload().length);
+            }
+            break;
+        }
+        case RST_STREAM: {
+            Response response = getResponse(frame.getStreamId());
+            response.setResetError(Http2Error.valueOf(
+                    (int) ByteUtil.getFourBytes(frame.getPayload(), 0)));
+            response.setComplete();
+            break;
+        }
+        case SETTINGS: {
+            if ((frame.getFlags() & Constants.FLAG_ACK) == 0) {
+                sendFrame(FrameType.SETTINGS, Constants.FLAG_ACK, 0, new byte[0]);
+            }
+            break;
+        }
+        case GOAWAY:
+            throw new IOException("GOAWAY received with error " +
+                    Http2Error.valueOf((int) ByteUtil.getFourBytes(frame.getPayload(), 4)));
+        default:
+            // Ignore
+        }
+    }
+
+
+    private Response getResponse(int streamId) {
+        Response response = responses.get(Integer.valueOf(streamId));
+        if (response == null) {
+            response = new Response();
+            responses.put(Integer.valueOf(streamId), response);
+        }
+        return response;
+    }
+
+
+    public static class Frame {
+        private final FrameType type;
+        private final int flags;
+        private final int streamId;
+        private final byte[] payload;
+
+        Frame(FrameType type, int flags, int streamId, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+
+        public FrameType getType() {
+            return type;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getStreamId() {
+            return streamId;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+
+    public static class Response {
+        private final Map<String,String> headers = new HashMap<String,String>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private boolean complete = false;
+        private Http2Error resetError = null;
+
+        void addHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        void addData(byte[] data) {
+            body.write(data, 0, data.length);
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+
+        void setComplete() {
+            complete = true;
+        }
+
+        Http2Error getResetError() {
+            return resetError;
+        }
+
+        void setResetError(Http2Error resetError) {
+            this.resetError = resetError;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public int getStatus() {
+            return Integer.parseInt(headers.get(":status"));
+        }
+
+        public byte[] getBody() {
+            return body.toByteArray();
+        }
+
+        public String getBodyAsString() {
+            return new String(body.toByteArray(), B2CConverter.UTF_8);
+        }
+    }
+}
@@ -1278,4 +1278,9 @@ public class TesterContext implements Context {
     public void setCreateUploadTargets(boolean createUploadTargets) { /* NO-OP */}
     @Override
     public boolean getCreateUploadTargets() { return false; }
+
+    @Override
+    public void setCookieParseCacheSize(int cookieParseCacheSize) { /* NO-OP */ }
+    @Override
+    public int getCookieParseCacheSize() { return 0; }
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSwarScanner {
+
+    @Test
+    public void testEveryPosition() {
+        byte[] buf = new byte[40];
+        ByteBuffer view = SwarScanner.wrap(buf);
+        for (byte target : new byte[] { '\r', '\n' }) {
+            for (int start = 0; start < 9; start++) {
+                for (int found = start; found < buf.length; found++) {
+                    Arrays.fill(buf, (byte) 'a');
+                    buf[found] = target;
+                    Assert.assertEquals(found,
+                            SwarScanner.indexOfCrOrLf(view, start, buf.length));
+                    // Not found when the match is outside the range
+                    Assert.assertEquals(found,
+                            SwarScanner.indexOfCrOrLf(view, start, found));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testFirstMatchWins() {
+        byte[] buf = "abcdefgh\n\rabcdefgh\r\n".getBytes(B2CConverter.ISO_8859_1);
+        ByteBuffer view = SwarScanner.wrap(buf);
+        Assert.assertEquals(8, SwarScanner.indexOfCrOrLf(view, 0, buf.length));
+        Assert.assertEquals(9, SwarScanner.indexOfCrOrLf(view, 9, buf.length));
+        Assert.assertEquals(18, SwarScanner.indexOfCrOrLf(view, 10, buf.length));
+    }
+
+
+    @Test
+    public void testNearMisses() {
+        // Bytes that differ from CR or LF by a single bit and bytes with the
+        // high bit set must not be reported
+        byte[] buf = new byte[] { 0x0c, 0x0b, 0x0e, 0x0f, (byte) 0x8d,
+                (byte) 0x8a, 0x00, (byte) 0xff, 0x2d, 0x1a, 0x01, 0x09 };
+        ByteBuffer view = SwarScanner.wrap(buf);
+        Assert.assertEquals(buf.length,
+                SwarScanner.indexOfCrOrLf(view, 0, buf.length));
+    }
+
+
+    @Test
+    public void testEmptyRange() {
+        byte[] buf = new byte[] { '\r' };
+        ByteBuffer view = SwarScanner.wrap(buf);
+        Assert.assertEquals(1, SwarScanner.indexOfCrOrLf(view, 1, 1));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares finding the end of every line of a typical browser request header
+ * block one byte at a time with {@link SwarScanner}.
+ */
+public class TesterSwarScannerPerformance {
+
+    private static final int ITERATIONS = 2000000;
+
+    private static final byte[] HEADERS = ("GET /app/static/js/main.3f2a9c1b.js HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "Connection: keep-alive\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+            "(KHTML, like Gecko) Chrome/77.0.3865.90 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9," +
+            "image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3\r\n" +
+            "Referer: https://www.example.com/app/index.html?lang=en&ref=home\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-GB,en-US;q=0.9,en;q=0.8\r\n" +
+            "Cookie: JSESSIONID=9A2F1C7B3E5D4A6B8C0D1E2F3A4B5C6D; " +
+            "_ga=GA1.2.1234567890.1569312345; _gid=GA1.2.987654321.1569398765\r\n" +
+            "If-None-Match: \"5d8b3c2a-1f4e\"\r\n" +
+            "If-Modified-Since: Wed, 25 Sep 2019 09:12:42 GMT\r\n" +
+            "\r\n").getBytes(B2CConverter.ISO_8859_1);
+
+
+    @Test
+    public void testScan() {
+        ByteBuffer view = SwarScanner.wrap(HEADERS);
+        byte[] dest = new byte[HEADERS.length];
+
+        // Warm up
+        Assert.assertEquals(scanBytewise(dest), scanSwar(view));
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            scanBytewise(dest);
+            scanSwar(view);
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            count += scanBytewise(dest);
+        }
+        long bytewise = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            count -= scanSwar(view);
+        }
+        long swar = System.nanoTime() - start;
+
+        Assert.assertEquals(0, count);
+        System.out.println("Byte at a time: " + (bytewise / 1000000) + "ms, " +
+                (bytewise / ITERATIONS) + "ns per header block");
+        System.out.println("SWAR:           " + (swar / 1000000) + "ms, " +
+                (swar / ITERATIONS) + "ns per header block");
+    }
+
+
+    /*
+     * Mirrors the value loop of the NIO header parser: every byte is examined
+     * and copied to the current write position while tracking the last non
+     * whitespace byte. Returns the sum of the trimmed line lengths.
+     */
+    private static int scanBytewise(byte[] dest) {
+        int result = 0;
+        int lineStart = 0;
+        int realPos = 0;
+        int lastSignificantChar = 0;
+        for (int pos = 0; pos < HEADERS.length; pos++) {
+            byte chr = HEADERS[pos];
+            if (chr == '\r') {
+                // Skip
+            } else if (chr == '\n') {
+                result += lastSignificantChar - lineStart;
+                realPos = pos + 1;
+                lineStart = realPos;
+                lastSignificantChar = realPos;
+            } else if (chr == ' ' || chr == '\t') {
+                dest[realPos++] = chr;
+            } else {
+                dest[realPos++] = chr;
+                lastSignificantChar = realPos;
+            }
+        }
+        return result;
+    }
+
+
+    /*
+     * Mirrors the in place path of the NIO header parser: jump to the end of
+     * the line and then trim trailing whitespace.
+     */
+    private static int scanSwar(ByteBuffer view) {
+        int result = 0;
+        int pos = 0;
+        int end = HEADERS.length;
+        while (pos < end) {
+            int eol = SwarScanner.indexOfCrOrLf(view, pos, end);
+            int last = eol - 1;
+            while (last >= pos && (HEADERS[last] == ' ' || HEADERS[last] == '\t')) {
+                last--;
+            }
+            result += last + 1 - pos;
+            if (eol < end && HEADERS[eol] == '\r') {
+                eol++;
+            }
+            pos = eol + 1;
+        }
+        return result;
+    }
+}
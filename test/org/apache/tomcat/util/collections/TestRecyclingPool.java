@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRecyclingPool {
+
+    @Test
+    public void testHitAndMiss() {
+        RecyclingPool<Object> pool = new RecyclingPool<Object>();
+        Assert.assertNull(pool.poll());
+        Object o = new Object();
+        Assert.assertTrue(pool.offer(o));
+        Assert.assertSame(o, pool.poll());
+        Assert.assertNull(pool.poll());
+        Assert.assertEquals(1, pool.getHitCount());
+        Assert.assertEquals(2, pool.getMissCount());
+    }
+
+
+    @Test
+    public void testLimit() {
+        RecyclingPool<Object> pool = new RecyclingPool<Object>(8, 4, 20);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (pool.offer(new Object())) {
+                accepted++;
+            }
+        }
+        Assert.assertTrue(accepted <= 20);
+        Assert.assertEquals(accepted, pool.size());
+        int polled = 0;
+        while (pool.poll() != null) {
+            polled++;
+        }
+        Assert.assertEquals(accepted, polled);
+    }
+
+
+    @Test
+    public void testDisabled() {
+        RecyclingPool<Object> pool = new RecyclingPool<Object>(0);
+        Assert.assertFalse(pool.offer(new Object()));
+        Assert.assertNull(pool.poll());
+    }
+
+
+    @Test
+    public void testReduceLimit() {
+        RecyclingPool<Object> pool = new RecyclingPool<Object>(1, 4, -1);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(pool.offer(new Object()));
+        }
+        pool.setLimit(0);
+        Assert.assertFalse(pool.offer(new Object()));
+        // Objects already in the pool may still be used
+        Assert.assertNotNull(pool.poll());
+    }
+
+
+    @Test
+    public void testClear() {
+        final List<Object> discarded = new ArrayList<Object>();
+        RecyclingPool<Object> pool = new RecyclingPool<Object>() {
+            @Override
+            protected void discard(Object obj) {
+                discarded.add(obj);
+            }
+        };
+        for (int i = 0; i < 50; i++) {
+            pool.offer(new Object());
+        }
+        pool.clear();
+        Assert.assertEquals(50, discarded.size());
+        Assert.assertEquals(0, pool.size());
+        Assert.assertNull(pool.poll());
+    }
+
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final RecyclingPool<Item> pool = new RecyclingPool<Item>(4, 4, 64);
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger created = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        Item item = pool.poll();
+                        if (item == null) {
+                            item = new Item();
+                            created.incrementAndGet();
+                        }
+                        // No other thread may be using the same object
+                        if (!item.inUse.compareAndSet(false, true)) {
+                            errors.incrementAndGet();
+                        }
+                        item.inUse.set(false);
+                        pool.offer(item);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, errors.get());
+        Assert.assertEquals(created.get(),
+                pool.getMissCount());
+        Assert.assertEquals(8 * 100000 - created.get(), pool.getHitCount());
+    }
+
+
+    private static class Item {
+        private final AtomicBoolean inUse = new AtomicBoolean(false);
+    }
+}
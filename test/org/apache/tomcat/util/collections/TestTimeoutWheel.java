@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimeoutWheel {
+
+    @Test
+    public void testExpire() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(100, 8, 1000);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<String>("a");
+        TimeoutWheel.Entry<String> b = new TimeoutWheel.Entry<String>("b");
+        wheel.schedule(a, 1250);
+        wheel.schedule(b, 1450);
+        Assert.assertEquals(2, wheel.size());
+
+        List<TimeoutWheel.Entry<String>> expired = new ArrayList<TimeoutWheel.Entry<String>>();
+
+        // Never early
+        wheel.expire(1260, expired);
+        Assert.assertEquals(0, expired.size());
+
+        // At most one tick late
+        wheel.expire(1300, expired);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(a, expired.get(0));
+        Assert.assertFalse(a.isScheduled());
+        expired.clear();
+
+        wheel.expire(1550, expired);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(b, expired.get(0));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void testReschedule() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(100, 8, 0);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<String>("a");
+        wheel.schedule(a, 150);
+        wheel.schedule(a, 550);
+        Assert.assertEquals(1, wheel.size());
+
+        List<TimeoutWheel.Entry<String>> expired = new ArrayList<TimeoutWheel.Entry<String>>();
+        wheel.expire(300, expired);
+        Assert.assertEquals(0, expired.size());
+        wheel.expire(600, expired);
+        Assert.assertEquals(1, expired.size());
+
+        // Deadlines in the past are due on the next expiry
+        wheel.schedule(a, 10);
+        wheel.expire(600, expired);
+        Assert.assertEquals(1, expired.size());
+        wheel.expire(700, expired);
+        Assert.assertEquals(2, expired.size());
+    }
+
+
+    @Test
+    public void testCancel() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(100, 8, 0);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<String>("a");
+        TimeoutWheel.Entry<String> b = new TimeoutWheel.Entry<String>("b");
+        TimeoutWheel.Entry<String> c = new TimeoutWheel.Entry<String>("c");
+        // Same bucket
+        wheel.schedule(a, 150);
+        wheel.schedule(b, 160);
+        wheel.schedule(c, 170);
+        wheel.cancel(b);
+        Assert.assertEquals(2, wheel.size());
+        Assert.assertFalse(b.isScheduled());
+
+        List<TimeoutWheel.Entry<String>> expired = new ArrayList<TimeoutWheel.Entry<String>>();
+        wheel.expire(1000, expired);
+        Assert.assertEquals(2, expired.size());
+        Assert.assertFalse(expired.contains(b));
+
+        // Cancelling an entry that is not scheduled is a NO-OP
+        wheel.cancel(b);
+        Assert.assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void testMultipleRotations() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(100, 8, 0);
+        TimeoutWheel.Entry<String> near = new TimeoutWheel.Entry<String>("near");
+        TimeoutWheel.Entry<String> far = new TimeoutWheel.Entry<String>("far");
+        // Both hash to the same bucket but far is two rotations later
+        wheel.schedule(near, 250);
+        wheel.schedule(far, 1850);
+
+        List<TimeoutWheel.Entry<String>> expired = new ArrayList<TimeoutWheel.Entry<String>>();
+        wheel.expire(300, expired);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(near, expired.get(0));
+
+        for (long now = 400; now < 1900; now += 100) {
+            wheel.expire(now, expired);
+            Assert.assertEquals(1, expired.size());
+        }
+        wheel.expire(1900, expired);
+        Assert.assertEquals(2, expired.size());
+        Assert.assertSame(far, expired.get(1));
+    }
+
+
+    @Test
+    public void testLongGap() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(100, 8, 0);
+        List<TimeoutWheel.Entry<String>> entries = new ArrayList<TimeoutWheel.Entry<String>>();
+        for (int i = 0; i < 50; i++) {
+            TimeoutWheel.Entry<String> entry = new TimeoutWheel.Entry<String>(Integer.toString(i));
+            wheel.schedule(entry, i * 100 + 50);
+            entries.add(entry);
+        }
+
+        // Many rotations have passed since the last expiry
+        List<TimeoutWheel.Entry<String>> expired = new ArrayList<TimeoutWheel.Entry<String>>();
+        wheel.expire(3000, expired);
+        Assert.assertEquals(30, expired.size());
+        wheel.expire(10000, expired);
+        Assert.assertEquals(50, expired.size());
+        Assert.assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void testClear() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(100, 8, 0);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<String>("a");
+        wheel.schedule(a, 150);
+        wheel.clear();
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertFalse(a.isScheduled());
+        wheel.schedule(a, 150);
+        Assert.assertTrue(a.isScheduled(wheel));
+    }
+}
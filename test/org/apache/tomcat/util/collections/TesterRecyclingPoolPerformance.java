@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Compares the cost of obtaining and returning pooled objects from many
+ * threads using {@link RecyclingPool}, {@link SynchronizedStack} and the
+ * size limited {@link ConcurrentLinkedQueue} previously used by the
+ * connectors. Each thread obtains a few objects and then returns them,
+ * mirroring the processors, events and channels used per connection. The
+ * number of threads may be set with the <code>tester.threads</code> system
+ * property.
+ */
+public class TesterRecyclingPoolPerformance {
+
+    private static final int THREADS =
+            Integer.getInteger("tester.threads", 32).intValue();
+    private static final int ITERATIONS = 2000000;
+    private static final int HELD = 3;
+    private static final int LIMIT = 500;
+
+
+    @Test
+    public void testPools() throws Exception {
+        // Warm up
+        for (int i = 0; i < 3; i++) {
+            run(new RecyclingPoolAdapter(), THREADS, ITERATIONS / 10);
+            run(new SynchronizedStackAdapter(), THREADS, ITERATIONS / 10);
+            run(new QueueAdapter(), THREADS, ITERATIONS / 10);
+        }
+
+        for (int threads = 1; threads <= THREADS; threads *= 2) {
+            long pool = run(new RecyclingPoolAdapter(), threads, ITERATIONS);
+            long stack = run(new SynchronizedStackAdapter(), threads, ITERATIONS);
+            long queue = run(new QueueAdapter(), threads, ITERATIONS);
+            System.out.println(threads + " threads: RecyclingPool " +
+                    (pool / 1000000) + "ms, SynchronizedStack " +
+                    (stack / 1000000) + "ms, ConcurrentLinkedQueue " +
+                    (queue / 1000000) + "ms");
+        }
+    }
+
+
+    private long run(final Adapter adapter, int threadCount,
+            final int iterations) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    Object[] held = new Object[HELD];
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < iterations; j++) {
+                        for (int k = 0; k < HELD; k++) {
+                            Object o = adapter.poll();
+                            if (o == null) {
+                                o = new Object();
+                            }
+                            held[k] = o;
+                        }
+                        for (int k = 0; k < HELD; k++) {
+                            adapter.offer(held[k]);
+                            held[k] = null;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+
+    private interface Adapter {
+        Object poll();
+        void offer(Object o);
+    }
+
+
+    private static class RecyclingPoolAdapter implements Adapter {
+        private final RecyclingPool<Object> pool = new RecyclingPool<Object>(LIMIT);
+
+        @Override
+        public Object poll() {
+            return pool.poll();
+        }
+
+        @Override
+        public void offer(Object o) {
+            pool.offer(o);
+        }
+    }
+
+
+    private static class SynchronizedStackAdapter implements Adapter {
+        private final SynchronizedStack<Object> stack =
+                new SynchronizedStack<Object>(SynchronizedStack.DEFAULT_SIZE, LIMIT);
+
+        @Override
+        public Object poll() {
+            return stack.pop();
+        }
+
+        @Override
+        public void offer(Object o) {
+            stack.push(o);
+        }
+    }
+
+
+    /*
+     * The cache implementation used by NioEndpoint before RecyclingPool.
+     */
+    private static class QueueAdapter implements Adapter {
+        private final ConcurrentLinkedQueue<Object> queue =
+                new ConcurrentLinkedQueue<Object>();
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        @Override
+        public Object poll() {
+            Object result = queue.poll();
+            if (result != null) {
+                size.decrementAndGet();
+            }
+            return result;
+        }
+
+        @Override
+        public void offer(Object o) {
+            if (size.get() < LIMIT && queue.offer(o)) {
+                size.incrementAndGet();
+            }
+        }
+    }
+}
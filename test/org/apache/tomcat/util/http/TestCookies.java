@@ -17,6 +17,7 @@
 
 package org.apache.tomcat.util.http;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class TestCookies {
@@ -112,6 +113,126 @@ public class TestCookies {
     }
 
 
+    @Test
+    public void testCacheHit() {
+        MimeHeaders headers = new MimeHeaders();
+        Cookies cs = new Cookies(headers);
+        cs.setCacheSize(2);
+
+        setCookieHeader(headers, "foo=bar; a=\"b\\\"c\"");
+        Assert.assertEquals(2, cs.getCookieCount());
+        ServerCookie first = cs.getCookie(0);
+        Assert.assertEquals("foo", first.getName().toString());
+        Assert.assertEquals("bar", first.getValue().toString());
+        Assert.assertEquals("b\"c", cs.getCookie(1).getValue().toString());
+        cs.recycle();
+
+        // The same header is not parsed again
+        setCookieHeader(headers, "foo=bar; a=\"b\\\"c\"");
+        Assert.assertEquals(2, cs.getCookieCount());
+        Assert.assertSame(first, cs.getCookie(0));
+        Assert.assertEquals("bar", cs.getCookie(0).getValue().toString());
+        Assert.assertEquals("b\"c", cs.getCookie(1).getValue().toString());
+        cs.recycle();
+
+        // Recycling must not have affected the cached cookies
+        setCookieHeader(headers, "foo=bar; a=\"b\\\"c\"");
+        Assert.assertEquals(2, cs.getCookieCount());
+        Assert.assertSame(first, cs.getCookie(0));
+        Assert.assertEquals("foo", cs.getCookie(0).getName().toString());
+        cs.recycle();
+    }
+
+
+    @Test
+    public void testCacheEviction() {
+        MimeHeaders headers = new MimeHeaders();
+        Cookies cs = new Cookies(headers);
+        cs.setCacheSize(2);
+
+        ServerCookie a = parseFirst(cs, headers, "a=1");
+        ServerCookie b = parseFirst(cs, headers, "b=2");
+        Assert.assertSame(a, parseFirst(cs, headers, "a=1"));
+        // Evicts b as a was used more recently
+        ServerCookie c = parseFirst(cs, headers, "c=3");
+        Assert.assertSame(a, parseFirst(cs, headers, "a=1"));
+        Assert.assertSame(c, parseFirst(cs, headers, "c=3"));
+        ServerCookie b2 = parseFirst(cs, headers, "b=2");
+        Assert.assertNotSame(b, b2);
+        Assert.assertEquals("2", b2.getValue().toString());
+
+        // A request to a web application with a smaller size does not
+        // discard entries, as the next request may use a larger one
+        cs.setCacheSize(1);
+        Assert.assertSame(b2, parseFirst(cs, headers, "b=2"));
+        Assert.assertSame(c, parseFirst(cs, headers, "c=3"));
+        Assert.assertEquals(2, cs.getCacheSize());
+
+        // Nor does one with the cache disabled
+        cs.setCacheSize(0);
+        Assert.assertNotSame(c, parseFirst(cs, headers, "c=3"));
+        cs.setCacheSize(2);
+        Assert.assertSame(c, parseFirst(cs, headers, "c=3"));
+        Assert.assertSame(b2, parseFirst(cs, headers, "b=2"));
+    }
+
+
+    @Test
+    public void testCacheMultipleHeaders() {
+        MimeHeaders headers = new MimeHeaders();
+        Cookies cs = new Cookies(headers);
+        cs.setCacheSize(2);
+
+        headers.addValue("Cookie").setString("a=1");
+        headers.addValue("Cookie").setString("b=2");
+        // Convert to bytes as a connector would provide
+        headers.getValue(0).toBytes();
+        headers.getValue(1).toBytes();
+        Assert.assertEquals(2, cs.getCookieCount());
+        Assert.assertEquals("a", cs.getCookie(0).getName().toString());
+        Assert.assertEquals("b", cs.getCookie(1).getName().toString());
+        cs.recycle();
+        headers.recycle();
+
+        // Not cached
+        ServerCookie a = parseFirst(cs, headers, "a=1");
+        Assert.assertNotSame(a, parseFirst(cs, headers, "a=1;"));
+    }
+
+
+    @Test
+    public void testCacheDisabled() {
+        MimeHeaders headers = new MimeHeaders();
+        Cookies cs = new Cookies(headers);
+
+        setCookieHeader(headers, "a=1");
+        Assert.assertEquals(1, cs.getCookieCount());
+        ServerCookie first = cs.getCookie(0);
+        cs.recycle();
+        setCookieHeader(headers, "b=2");
+        Assert.assertEquals(1, cs.getCookieCount());
+        // Recycled and reused
+        Assert.assertSame(first, cs.getCookie(0));
+        Assert.assertEquals("b", first.getName().toString());
+    }
+
+
+    private static ServerCookie parseFirst(Cookies cs, MimeHeaders headers,
+            String header) {
+        cs.recycle();
+        setCookieHeader(headers, header);
+        Assert.assertEquals(1, cs.getCookieCount());
+        return cs.getCookie(0);
+    }
+
+
+    private static void setCookieHeader(MimeHeaders headers, String header) {
+        headers.recycle();
+        byte[] bytes = header.getBytes();
+        headers.addValue("Cookie").setBytes(bytes, 0, bytes.length);
+    }
+
+
     public static void test( String s, int val ) throws Exception {
         System.out.println("Processing [" + s + "]");
         Cookies cs=new Cookies(null);
@@ -18,13 +18,20 @@ package org.apache.tomcat.util.http;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.tomcat.util.buf.MessageBytes;
+
 public class TestParameters {
 
+    private boolean lazy = false;
+
     private static final Parameter SIMPLE =
         new Parameter("foo1", "bar1");
     private static final Parameter SIMPLE_MULTIPLE =
@@ -40,6 +47,16 @@ public class TestParameters {
 
     @Test
     public void testProcessParametersByteArrayIntInt() {
+        doTestProcessParametersByteArrayIntInt(false);
+    }
+
+    @Test
+    public void testProcessParametersByteArrayIntIntLazy() {
+        doTestProcessParametersByteArrayIntInt(true);
+    }
+
+    private void doTestProcessParametersByteArrayIntInt(boolean lazy) {
+        this.lazy = lazy;
         doTestProcessParametersByteArrayIntInt(-1, SIMPLE);
         doTestProcessParametersByteArrayIntInt(-1, SIMPLE_MULTIPLE);
         doTestProcessParametersByteArrayIntInt(-1, NO_VALUE);
@@ -69,6 +86,90 @@ public class TestParameters {
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
     }
 
+    @Test
+    public void testLazyMatchesEager() {
+        String input = "a=1&b=%41%42&a=2&c&%63=3&=x&&d=%zz&e=%4&f+g=h+i&" +
+                "%C3%A9=%C3%A9&b=&h=a=b&%ZZ=1&i=%&j=%2B%25";
+        doTestLazyMatchesEager(input, "ISO-8859-1", -1);
+        doTestLazyMatchesEager(input, "UTF-8", -1);
+        doTestLazyMatchesEager(input, "US-ASCII", -1);
+        doTestLazyMatchesEager(input, "UTF-16BE", -1);
+        doTestLazyMatchesEager(input, "UTF-8", 4);
+        doTestLazyMatchesEager("%FF=1&%C3=2&%C3%A9=3", "UTF-8", -1);
+    }
+
+    private void doTestLazyMatchesEager(String input, String encoding,
+            int limit) {
+        byte[] data = input.getBytes();
+        // Eager decoding modifies the bytes
+        byte[] lazyData = input.getBytes();
+
+        Parameters eager = new Parameters();
+        eager.setEncoding(encoding);
+        eager.setLimit(limit);
+        eager.processParameters(data, 0, data.length);
+
+        Parameters lazy = new Parameters();
+        lazy.setLazyDecoding(true);
+        lazy.setEncoding(encoding);
+        lazy.setLimit(limit);
+        lazy.processParameters(lazyData, 0, lazyData.length);
+
+        Assert.assertEquals(eager.getParseFailedReason(),
+                lazy.getParseFailedReason());
+
+        List<String> names = Collections.list(eager.getParameterNames());
+        names.add("missing");
+        names.add("\u0100");
+        names.add("\ufffd");
+        names.add("\ud800");
+        for (String name : names) {
+            Assert.assertEquals(name, eager.getParameter(name),
+                    lazy.getParameter(name));
+            Assert.assertArrayEquals(name, eager.getParameterValues(name),
+                    lazy.getParameterValues(name));
+        }
+        Assert.assertEquals(Collections.list(eager.getParameterNames()),
+                Collections.list(lazy.getParameterNames()));
+    }
+
+    @Test
+    public void testLazyQueryAndBody() {
+        Parameters p = new Parameters();
+        p.setLazyDecoding(true);
+        p.setQueryStringEncoding("UTF-8");
+        p.setEncoding("ISO-8859-1");
+
+        byte[] query = "a=%C3%A9&b=1".getBytes();
+        MessageBytes queryMB = MessageBytes.newInstance();
+        queryMB.setBytes(query, 0, query.length);
+        p.setQuery(queryMB);
+        p.handleQueryParameters();
+
+        byte[] body = "a=%C3%A9&c=2".getBytes();
+        p.processParameters(body, 0, body.length);
+
+        Assert.assertArrayEquals(new String[] {"\u00e9", "\u00c3\u00a9"},
+                p.getParameterValues("a"));
+
+        p.addParameter("b", "3");
+        Assert.assertArrayEquals(new String[] {"1", "3"},
+                p.getParameterValues("b"));
+        Assert.assertEquals("2", p.getParameter("c"));
+
+        List<String> names = Collections.list(p.getParameterNames());
+        List<String> expected = new ArrayList<String>();
+        expected.add("a");
+        expected.add("b");
+        expected.add("c");
+        Assert.assertEquals(expected, names);
+
+        p.recycle();
+        queryMB.recycle();
+        Assert.assertNull(p.getParameter("a"));
+        Assert.assertFalse(p.getParameterNames().hasMoreElements());
+    }
+
     // Make sure the inner Parameter class behaves correctly
     @Test
     public void testInternal() {
@@ -99,6 +200,7 @@ public class TestParameters {
         byte[] data = input.toString().getBytes();
 
         Parameters p = new Parameters();
+        p.setLazyDecoding(lazy);
         p.setEncoding("UTF-8");
         p.setLimit(limit);
 
@@ -240,6 +342,22 @@ public class TestParameters {
     }
 
     private void validateParameters(Parameter[] parameters, Parameters p) {
+        if (lazy) {
+            // Look up by name before the names are enumerated
+            for (Parameter parameter : parameters) {
+                if (parameter.getName().length() == 0) {
+                    // Ignored by the parser
+                    continue;
+                }
+                String[] values = p.getParameterValues(parameter.getName());
+                if (parameter.values.length == 0) {
+                    Assert.assertArrayEquals(new String[] {""}, values);
+                } else {
+                    Assert.assertArrayEquals(parameter.getValues(), values);
+                }
+            }
+        }
+
         Enumeration<String> names = p.getParameterNames();
 
         int i = 0;
@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TesterCookiesPerformance {
+
+    private static final int LOOPS = 100000;
+
+    /*
+     * Compares parsing a large Cookie header on every request with using the
+     * parse cache when the same header is received repeatedly.
+     */
+    @Test
+    public void testCachedCookieHeader() {
+        byte[] header = createHeader(4096);
+        int expected = doTestCookieHeader(header, 0, 1000);
+        Assert.assertEquals(expected, doTestCookieHeader(header, 4, 1000));
+
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            doTestCookieHeader(header, 0, LOOPS);
+            long uncached = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            doTestCookieHeader(header, 4, LOOPS);
+            long cached = System.nanoTime() - start;
+
+            System.out.println("Uncached: " + uncached / 1000000 +
+                    "ms, cached: " + cached / 1000000 + "ms");
+        }
+    }
+
+
+    private int doTestCookieHeader(byte[] header, int cacheSize, int loops) {
+        MimeHeaders headers = new MimeHeaders();
+        Cookies cookies = new Cookies(headers);
+        cookies.setCacheSize(cacheSize);
+        // Simulate the header being read into the same input buffer for each
+        // request
+        byte[] buffer = new byte[header.length];
+        int count = 0;
+        for (int i = 0; i < loops; i++) {
+            System.arraycopy(header, 0, buffer, 0, header.length);
+            headers.addValue("Cookie").setBytes(buffer, 0, buffer.length);
+            count = cookies.getCookieCount();
+            // Read the cookies as the container would
+            for (int j = 0; j < count; j++) {
+                cookies.getCookie(j).getValue().toString();
+            }
+            cookies.recycle();
+            headers.recycle();
+        }
+        return count;
+    }
+
+
+    private static byte[] createHeader(int size) {
+        StringBuilder header = new StringBuilder();
+        int i = 0;
+        while (header.length() < size) {
+            if (i > 0) {
+                header.append("; ");
+            }
+            header.append("_tracking_cookie_");
+            header.append(i);
+            header.append("=GA1.2.1234567890.");
+            header.append(1000000000 + i);
+            i++;
+        }
+        return header.toString().getBytes();
+    }
+}
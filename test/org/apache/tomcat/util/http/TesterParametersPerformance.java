@@ -72,6 +72,53 @@ public class TesterParametersPerformance {
         return result;
     }
 
+    /*
+     * Compares eager and lazy decoding of a large form when the application
+     * only reads a single parameter.
+     */
+    @Test
+    public void testLazyDecodingSingleLookup() {
+        LogManager.getLogManager().getLogger("").setLevel(Level.OFF);
+        byte[] form = createForm(10000);
+        // Warm up
+        doTestSingleLookup(form, false, 200);
+        doTestSingleLookup(form, true, 200);
+
+        System.out.println("Eager: " + doTestSingleLookup(form, false, 1000));
+        System.out.println("Lazy:  " + doTestSingleLookup(form, true, 1000));
+    }
+
+    private long doTestSingleLookup(byte[] form, boolean lazy, int loops) {
+        Parameters p = new Parameters();
+        p.setLazyDecoding(lazy);
+        p.setEncoding("UTF-8");
+        byte[] bytes = new byte[form.length];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            // Eager decoding modifies the bytes
+            System.arraycopy(form, 0, bytes, 0, form.length);
+            p.processParameters(bytes, 0, bytes.length);
+            Assert.assertEquals("value 5000", p.getParameter("param5000"));
+            p.recycle();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private byte[] createForm(int count) {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                form.append('&');
+            }
+            form.append("param");
+            form.append(i);
+            form.append("=value+");
+            form.append(i);
+        }
+        return form.toString().getBytes();
+    }
+
     @Test
     public void testCreateString() throws UnsupportedEncodingException {
         B2CConverter.getCharset("ISO-8859-1");
@@ -16,8 +16,10 @@
  */
 package org.apache.tomcat.util.http.mapper;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
@@ -29,9 +31,9 @@ import org.apache.tomcat.util.buf.MessageBytes;
 
 public class TestMapper extends LoggingBaseTest {
 
-    private Mapper mapper;
-    private Mapper mapperForContext1;
-    private Mapper mapperForContext2;
+    protected Mapper mapper;
+    protected Mapper mapperForContext1;
+    protected Mapper mapperForContext2;
 
     @Before
     @Override
@@ -545,4 +547,114 @@ public class TestMapper extends LoggingBaseTest {
         long time = System.currentTimeMillis() - start;
         return time;
     }
+
+    @Test
+    public void testIndexedPerformance() throws Exception {
+        // 50 contexts with 40 wrappers each
+        Mapper largeMapper = new Mapper();
+        largeMapper.addHost("localhost", new String[] { "alias" }, "host");
+        largeMapper.setDefaultHostName("localhost");
+        List<String> uris = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            String contextPath = "/app" + i;
+            if (i % 5 == 0) {
+                contextPath = "/group" + (i / 5) + contextPath;
+            }
+            List<WrapperMappingInfo> wrappers =
+                    new ArrayList<WrapperMappingInfo>();
+            for (int j = 0; j < 20; j++) {
+                wrappers.add(new WrapperMappingInfo("/servlet" + j,
+                        "exact" + i + "-" + j, false, false));
+                uris.add(contextPath + "/servlet" + j);
+            }
+            for (int j = 0; j < 15; j++) {
+                wrappers.add(new WrapperMappingInfo("/api/v" + j + "/*",
+                        "wildcard" + i + "-" + j, false, false));
+                uris.add(contextPath + "/api/v" + j + "/items/" + j);
+            }
+            for (int j = 0; j < 4; j++) {
+                wrappers.add(new WrapperMappingInfo("*.ext" + j,
+                        "extension" + i + "-" + j, false, false));
+                uris.add(contextPath + "/files/page" + j + ".ext" + j);
+            }
+            wrappers.add(new WrapperMappingInfo("/",
+                    "default" + i, false, false));
+            uris.add(contextPath + "/missing");
+            largeMapper.addContextVersion("localhost", "host", contextPath,
+                    "0", "context" + i, new String[0], null, wrappers,
+                    false, false);
+        }
+        largeMapper.addContextVersion("localhost", "host", "", "0", "ROOT",
+                new String[0], null, Arrays.asList(new WrapperMappingInfo[] {
+                        new WrapperMappingInfo("/", "ROOT-default", false,
+                                false) }), false, false);
+        uris.add("/unknown/path");
+        uris.add("/group1/app6/servlet1");
+
+        // Both ways of mapping must give the same results
+        for (String uri : uris) {
+            for (String host : new String[] { "localhost", "ALIAS", "other" }) {
+                MappingData expected = map(largeMapper, false, host, uri);
+                MappingData actual = map(largeMapper, true, host, uri);
+                Assert.assertNotNull(uri, expected.wrapper);
+                Assert.assertSame(uri, expected.host, actual.host);
+                Assert.assertSame(uri, expected.context, actual.context);
+                Assert.assertSame(uri, expected.wrapper, actual.wrapper);
+                Assert.assertEquals(uri, expected.contextPath.toString(),
+                        actual.contextPath.toString());
+                Assert.assertEquals(uri, expected.wrapperPath.toString(),
+                        actual.wrapperPath.toString());
+                Assert.assertEquals(uri, expected.pathInfo.toString(),
+                        actual.pathInfo.toString());
+            }
+        }
+
+        String[] uriArray = uris.toArray(new String[uris.size()]);
+        // Warm up
+        testIndexedPerformanceImpl(largeMapper, false, uriArray);
+        testIndexedPerformanceImpl(largeMapper, true, uriArray);
+        long binarySearchTime =
+                testIndexedPerformanceImpl(largeMapper, false, uriArray);
+        long indexedTime =
+                testIndexedPerformanceImpl(largeMapper, true, uriArray);
+        log.info("Mapping " + uriArray.length + " URIs 500 times took " +
+                binarySearchTime + "ms with binary searches and " +
+                indexedTime + "ms with the indexes");
+    }
+
+    private MappingData map(Mapper mapper, boolean indexed, String host,
+            String uri) throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes hostMB = MessageBytes.newInstance();
+        hostMB.setString(host);
+        MessageBytes uriMB = MessageBytes.newInstance();
+        uriMB.setString(uri);
+        mapper.setIndexed(indexed);
+        mapper.map(hostMB, uriMB, null, mappingData);
+        return mappingData;
+    }
+
+    private long testIndexedPerformanceImpl(Mapper mapper, boolean indexed,
+            String[] uris) throws Exception {
+        mapper.setIndexed(indexed);
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("localhost");
+        MessageBytes[] uriMBs = new MessageBytes[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            uriMBs[i] = MessageBytes.newInstance();
+            uriMBs[i].setString(uris[i]);
+            uriMBs[i].toChars();
+            uriMBs[i].getCharChunk().setLimit(-1);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 500; i++) {
+            for (MessageBytes uri : uriMBs) {
+                mappingData.recycle();
+                mapper.map(host, uri, null, mappingData);
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
 }
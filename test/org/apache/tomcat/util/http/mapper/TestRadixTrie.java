@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http.mapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRadixTrie {
+
+    private static final String[] NAMES = { "", "/a", "/ab", "/abc/d",
+            "/abd", "/b", "/ba/c", "/bad" };
+
+    @Test
+    public void testPutFindRemove() {
+        RadixTrie<Mapper.Wrapper> trie = RadixTrie.empty(false);
+        for (String name : NAMES) {
+            trie = trie.put(wrapper(name));
+        }
+        for (String name : NAMES) {
+            Assert.assertEquals(name, find(trie, name));
+        }
+        Assert.assertNull(find(trie, "/ac"));
+        Assert.assertNull(find(trie, "/abc"));
+        Assert.assertNull(find(trie, "/ba"));
+
+        RadixTrie<Mapper.Wrapper> previous = trie;
+        trie = trie.remove("/ab");
+        Assert.assertNull(find(trie, "/ab"));
+        // Earlier versions are not changed
+        Assert.assertEquals("/ab", find(previous, "/ab"));
+        // Removing an unknown name changes nothing
+        Assert.assertSame(trie, trie.remove("/ab"));
+        Assert.assertSame(trie, trie.remove("/abc"));
+
+        for (String name : NAMES) {
+            if (!name.equals("/ab")) {
+                Assert.assertEquals(name, find(trie, name));
+                trie = trie.remove(name);
+                Assert.assertNull(find(trie, name));
+            }
+        }
+        for (String name : NAMES) {
+            Assert.assertNull(find(trie, name));
+        }
+    }
+
+
+    @Test
+    public void testFindLongestPrefix() {
+        RadixTrie<Mapper.Wrapper> trie = RadixTrie.empty(false);
+        for (String name : NAMES) {
+            trie = trie.put(wrapper(name));
+        }
+        Assert.assertEquals("/ab", findLongestPrefix(trie, "/ab"));
+        Assert.assertEquals("/ab", findLongestPrefix(trie, "/ab/c"));
+        Assert.assertEquals("/abc/d", findLongestPrefix(trie, "/abc/d/e"));
+        Assert.assertEquals("", findLongestPrefix(trie, "/abc/e"));
+        Assert.assertEquals("", findLongestPrefix(trie, "/abcd"));
+        Assert.assertEquals("/b", findLongestPrefix(trie, "/b/ad"));
+        Assert.assertEquals("", findLongestPrefix(trie, "/c"));
+
+        trie = trie.remove("");
+        Assert.assertNull(findLongestPrefix(trie, "/c"));
+    }
+
+
+    @Test
+    public void testIgnoreCase() {
+        RadixTrie<Mapper.Wrapper> trie = RadixTrie.empty(true);
+        trie = trie.put(wrapper("www.Example.com"));
+        trie = trie.put(wrapper("www.example.org"));
+        Assert.assertEquals("www.Example.com", find(trie, "WWW.EXAMPLE.COM"));
+        Assert.assertEquals("www.example.org", find(trie, "www.Example.ORG"));
+        Assert.assertNull(find(trie, "www.example.net"));
+    }
+
+
+    private static Mapper.Wrapper wrapper(String name) {
+        return new Mapper.Wrapper(name, name, false, false);
+    }
+
+
+    private static String find(RadixTrie<Mapper.Wrapper> trie, String name) {
+        char[] buf = ("x" + name + "x").toCharArray();
+        Mapper.Wrapper wrapper = trie.find(buf, 1, buf.length - 1);
+        return wrapper == null ? null : wrapper.name;
+    }
+
+
+    private static String findLongestPrefix(RadixTrie<Mapper.Wrapper> trie,
+            String name) {
+        char[] buf = name.toCharArray();
+        Mapper.Wrapper wrapper = trie.findLongestPrefix(buf, 0, buf.length);
+        return wrapper == null ? null : wrapper.name;
+    }
+}
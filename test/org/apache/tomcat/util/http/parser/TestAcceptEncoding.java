@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAcceptEncoding {
+
+    @Test
+    public void testSingle() throws IOException {
+        List<AcceptEncoding> result = parse("gzip");
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("gzip", result.get(0).getEncoding());
+        Assert.assertEquals(1, result.get(0).getQuality(), 0);
+    }
+
+
+    @Test
+    public void testMultipleWithQuality() throws IOException {
+        List<AcceptEncoding> result = parse("br;q=0.5, GZIP ; q=0.8,deflate");
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals("br", result.get(0).getEncoding());
+        Assert.assertEquals(0.5, result.get(0).getQuality(), 0);
+        Assert.assertEquals("gzip", result.get(1).getEncoding());
+        Assert.assertEquals(0.8, result.get(1).getQuality(), 0);
+        Assert.assertEquals("deflate", result.get(2).getEncoding());
+        Assert.assertEquals(1, result.get(2).getQuality(), 0);
+    }
+
+
+    @Test
+    public void testMalformedQuality() throws IOException {
+        List<AcceptEncoding> result = parse("br;q=2, gzip;x=1, deflate");
+        Assert.assertEquals(0, AcceptEncoding.getQuality(result, "br"), 0);
+        Assert.assertEquals(0, AcceptEncoding.getQuality(result, "gzip"), 0);
+        Assert.assertEquals(1, AcceptEncoding.getQuality(result, "deflate"), 0);
+    }
+
+
+    @Test
+    public void testWildcard() throws IOException {
+        List<AcceptEncoding> result = parse("*;q=0.3");
+        Assert.assertEquals(0.3, AcceptEncoding.getQuality(result, "gzip"), 0);
+    }
+
+
+    @Test
+    public void testWildcardWithExclusion() throws IOException {
+        List<AcceptEncoding> result = parse("*, br;q=0");
+        Assert.assertEquals(1, AcceptEncoding.getQuality(result, "gzip"), 0);
+        Assert.assertEquals(0, AcceptEncoding.getQuality(result, "br"), 0);
+    }
+
+
+    @Test
+    public void testEmpty() throws IOException {
+        List<AcceptEncoding> result = parse("");
+        Assert.assertEquals(0, result.size());
+        Assert.assertEquals(0, AcceptEncoding.getQuality(result, "gzip"), 0);
+    }
+
+
+    private static List<AcceptEncoding> parse(String header) throws IOException {
+        return AcceptEncoding.parse(new StringReader(header));
+    }
+}
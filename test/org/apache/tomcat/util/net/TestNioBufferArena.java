@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestNioBufferArena extends TomcatBaseTest {
+
+    @Test
+    public void testAllocateRelease() {
+        NioBufferArena arena = new NioBufferArena(4 * 1024, -1);
+
+        ByteBuffer b1 = arena.allocate(1024);
+        Assert.assertTrue(b1.isDirect());
+        Assert.assertEquals(1024, b1.capacity());
+        Assert.assertEquals(1, arena.getSlabCount());
+        Assert.assertEquals(1, arena.getLentCount());
+        Assert.assertEquals(1024, arena.getLentBytes());
+        Assert.assertEquals(3 * 1024, arena.getIdleBytes());
+
+        ByteBuffer b2 = arena.allocate(1024);
+        Assert.assertNotSame(b1, b2);
+        Assert.assertEquals(1, arena.getSlabCount());
+
+        b1.put((byte) 1);
+        arena.release(b1);
+        Assert.assertEquals(1, arena.getLentCount());
+        Assert.assertEquals(3 * 1024, arena.getIdleBytes());
+
+        // Returned buffers are cleared
+        ByteBuffer b3 = arena.allocate(1024);
+        Assert.assertEquals(0, b3.position());
+        Assert.assertEquals(1024, b3.limit());
+
+        arena.release(b2);
+        arena.release(b3);
+        Assert.assertEquals(0, arena.getLentCount());
+        Assert.assertEquals(0, arena.getLentBytes());
+        Assert.assertEquals(4 * 1024, arena.getIdleBytes());
+
+        arena.clear();
+        Assert.assertEquals(0, arena.getIdleBytes());
+    }
+
+
+    @Test
+    public void testSlicesDoNotOverlap() {
+        NioBufferArena arena = new NioBufferArena(1024, -1);
+        ByteBuffer b1 = arena.allocate(512);
+        ByteBuffer b2 = arena.allocate(512);
+        while (b1.hasRemaining()) {
+            b1.put((byte) 1);
+        }
+        while (b2.hasRemaining()) {
+            b2.put((byte) 2);
+        }
+        b1.flip();
+        while (b1.hasRemaining()) {
+            Assert.assertEquals(1, b1.get());
+        }
+    }
+
+
+    @Test
+    public void testMaxIdleSize() {
+        NioBufferArena arena = new NioBufferArena(1024, 1024);
+        ByteBuffer b1 = arena.allocate(1024);
+        ByteBuffer b2 = arena.allocate(1024);
+        Assert.assertEquals(2, arena.getSlabCount());
+        arena.release(b1);
+        arena.release(b2);
+        Assert.assertEquals(0, arena.getLentCount());
+        Assert.assertEquals(1024, arena.getIdleBytes());
+    }
+
+
+    @Test
+    public void testMaxIdleSizeCarve() {
+        NioBufferArena arena = new NioBufferArena(4 * 1024, 1024);
+        // Only the slices of the new slab that fit are kept
+        arena.allocate(512);
+        Assert.assertEquals(1024, arena.getIdleBytes());
+        arena.allocate(512);
+        arena.allocate(512);
+        Assert.assertEquals(0, arena.getIdleBytes());
+        Assert.assertEquals(1, arena.getSlabCount());
+    }
+
+
+    @Test
+    public void testMaxIdleSizeConcurrentRelease() throws Exception {
+        final NioBufferArena arena = new NioBufferArena(1024, 16 * 1024);
+        final int threadCount = 8;
+        final ByteBuffer[][] buffers = new ByteBuffer[threadCount][64];
+        for (int i = 0; i < threadCount; i++) {
+            for (int j = 0; j < buffers[i].length; j++) {
+                buffers[i][j] = arena.allocate(1024);
+            }
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final ByteBuffer[] released = buffers[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (ByteBuffer buffer : released) {
+                        arena.release(buffer);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, arena.getLentCount());
+        Assert.assertEquals(16 * 1024, arena.getIdleBytes());
+        // The idle count matches the buffers that were actually kept
+        int kept = 0;
+        while (arena.getIdleBytes() > 0) {
+            arena.allocate(1024);
+            kept++;
+        }
+        Assert.assertEquals(16, kept);
+    }
+
+
+    @Test
+    public void testIdleKeepAliveConnectionHoldsNoBuffers() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        connector.setPort(0);
+        connector.setProperty("socket.bufferArena", "true");
+        tomcat.getService().addConnector(connector);
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        tomcat.start();
+
+        NioEndpoint endpoint =
+                ((Http11NioProtocol) connector.getProtocolHandler()).getEndpoint();
+
+        for (int i = 0; i < 3; i++) {
+            ByteChunk res = getUrl("http://localhost:" + connector.getLocalPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        // Buffers are returned by the worker thread once the response has
+        // been written
+        int count = 0;
+        while (endpoint.getBufferArenaLentCount() > 0 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(0, endpoint.getBufferArenaLentCount());
+        Assert.assertTrue(endpoint.getBufferArenaSlabCount() > 0);
+    }
+}
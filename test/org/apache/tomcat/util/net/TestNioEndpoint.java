@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.Socket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.TesterServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
+
+public class TestNioEndpoint extends TomcatBaseTest {
+
+    @Test
+    public void testTimeoutRemovedOnClose() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        connector.setPort(0);
+        // Long enough that no entry would expire during the test
+        connector.setProperty("connectionTimeout", "60000");
+        connector.setProperty("keepAliveTimeout", "60000");
+        tomcat.getService().addConnector(connector);
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "Test", new TesterServlet());
+        ctx.addServletMapping("/", "Test");
+
+        tomcat.start();
+
+        NioEndpoint endpoint = getEndpoint(connector);
+        Socket[] sockets = new Socket[5];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = new Socket("localhost", connector.getLocalPort());
+            sockets[i].setSoTimeout(10000);
+            OutputStream os = sockets[i].getOutputStream();
+            os.write(("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("ISO-8859-1"));
+            os.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    sockets[i].getInputStream(), "ISO-8859-1"));
+            Assert.assertEquals("HTTP/1.1 200 OK", reader.readLine());
+        }
+        waitForTimeoutCount(endpoint, sockets.length);
+
+        // The server notices the clients closing and removes their entries
+        // rather than leaving them until the deadline
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        waitForTimeoutCount(endpoint, 0);
+    }
+
+
+    private static void waitForTimeoutCount(NioEndpoint endpoint, int expected)
+            throws InterruptedException {
+        int count = -1;
+        for (int i = 0; i < 100 && count != expected; i++) {
+            Thread.sleep(50);
+            count = 0;
+            for (NioEndpoint.Poller poller : endpoint.pollers) {
+                // Not thread safe but the count settles
+                count += poller.timeoutWheel.size();
+            }
+        }
+        Assert.assertEquals(expected, count);
+    }
+
+
+    private static NioEndpoint getEndpoint(Connector connector) throws Exception {
+        Field field = AbstractProtocol.class.getDeclaredField("endpoint");
+        field.setAccessible(true);
+        return (NioEndpoint) field.get(connector.getProtocolHandler());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+
+public class TestNioEndpointReusePort extends TomcatBaseTest {
+
+    @Test
+    public void testSharded() throws Exception {
+        Assume.assumeTrue("SO_REUSEPORT not supported",
+                JreCompat.getInstance().isReusePortSupported());
+
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        connector.setPort(0);
+        connector.setProperty("reusePort", "true");
+        connector.setProperty("pollerThreadCount", "2");
+        connector.setProperty("acceptorThreadCount", "1");
+        connector.setProperty("maxThreads", "8");
+        connector.setProperty("minSpareThreads", "2");
+        tomcat.getService().addConnector(connector);
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Wrapper wrapper = Tomcat.addServlet(ctx, "async", new AsyncStartServlet());
+        wrapper.setAsyncSupported(true);
+        ctx.addServletMapping("/", "async");
+
+        tomcat.start();
+
+        NioEndpoint endpoint = getEndpoint(connector);
+        Assert.assertTrue(endpoint.isSharded());
+        // One acceptor per listening socket without changing the setting
+        Assert.assertEquals(2, endpoint.getAcceptorThreadCount());
+        Assert.assertEquals(1, endpoint.acceptorThreadCount);
+        // No endpoint wide pool alongside the pools of the pollers
+        Assert.assertFalse(endpoint.getExecutor() instanceof
+                java.util.concurrent.ThreadPoolExecutor);
+
+        // AsyncContext.start() uses the pools of the pollers
+        ByteChunk body = getUrl("http://localhost:" + connector.getLocalPort() + "/");
+        Assert.assertEquals("OK", body.toString());
+
+        // Thread limits set at runtime, such as through JMX, are split
+        // between the pollers
+        connector.setProperty("maxThreads", "4");
+        for (NioEndpoint.Poller poller : endpoint.pollers) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) poller.getExecutor();
+            Assert.assertEquals(2, executor.getMaximumPoolSize());
+            Assert.assertEquals(1, executor.getCorePoolSize());
+        }
+    }
+
+
+    private static NioEndpoint getEndpoint(Connector connector) throws Exception {
+        Field field = AbstractProtocol.class.getDeclaredField("endpoint");
+        field.setAccessible(true);
+        return (NioEndpoint) field.get(connector.getProtocolHandler());
+    }
+
+
+    private static final class AsyncStartServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            final AsyncContext ac = req.startAsync();
+            ac.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ac.getResponse().setContentType("text/plain");
+                        ac.getResponse().getWriter().print("OK");
+                    } catch (IOException e) {
+                        // Ignore. The test will fail.
+                    }
+                    ac.complete();
+                }
+            });
+        }
+    }
+}
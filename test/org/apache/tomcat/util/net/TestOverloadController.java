@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.net.OverloadController.State;
+
+public class TestOverloadController {
+
+    @Test
+    public void testDisabled() {
+        OverloadController controller = new OverloadController();
+        Assert.assertFalse(controller.isEnabled());
+        Assert.assertEquals(State.NORMAL, controller.update(10000));
+    }
+
+
+    @Test
+    public void testQueueSize() {
+        OverloadController controller = new OverloadController();
+        controller.setPressureQueueSize(10);
+        controller.setShedQueueSize(100);
+        Assert.assertTrue(controller.isEnabled());
+
+        Assert.assertEquals(State.NORMAL, controller.update(9));
+        Assert.assertEquals(State.PRESSURE, controller.update(10));
+        Assert.assertEquals(State.SHEDDING, controller.update(100));
+        Assert.assertEquals(State.SHEDDING, controller.getState());
+        Assert.assertEquals(State.NORMAL, controller.update(0));
+    }
+
+
+    @Test
+    public void testWaitTime() {
+        OverloadController controller = new OverloadController();
+        controller.setPressureWaitTime(50);
+        controller.setShedWaitTime(500);
+
+        long wait = TimeUnit.MILLISECONDS.toNanos(1000);
+        // The average needs several samples to catch up
+        controller.recordWait(wait);
+        Assert.assertEquals(State.PRESSURE, controller.update(1));
+        for (int i = 0; i < 20; i++) {
+            controller.recordWait(wait);
+        }
+        Assert.assertEquals(State.SHEDDING, controller.update(1));
+        Assert.assertTrue(controller.getAverageWaitTime() >= 500);
+
+        for (int i = 0; i < 50; i++) {
+            controller.recordWait(0);
+        }
+        Assert.assertEquals(State.NORMAL, controller.update(1));
+    }
+
+
+    @Test
+    public void testStaleWaitTime() throws Exception {
+        OverloadController controller = new OverloadController();
+        controller.setShedWaitTime(500);
+
+        for (int i = 0; i < 50; i++) {
+            controller.recordWait(TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+        Assert.assertEquals(State.SHEDDING, controller.update(0));
+
+        // With nothing queued and nothing started recently the endpoint must
+        // recover rather than stay stuck on the last average
+        Thread.sleep(1500);
+        Assert.assertEquals(State.SHEDDING, controller.update(1));
+        Assert.assertEquals(State.NORMAL, controller.update(0));
+        Assert.assertEquals(0, controller.getAverageWaitTime());
+    }
+}
@@ -18,11 +18,13 @@ package org.apache.tomcat.util.net;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.util.Arrays;
 
 import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.HandshakeCompletedListener;
@@ -34,6 +36,9 @@ import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Test;
 
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.servlets.DefaultServlet;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -81,6 +86,47 @@ public class TestSsl extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testSendfileSsl() throws Exception {
+        TesterSupport.configureClientSsl();
+
+        Tomcat tomcat = getTomcatInstance();
+
+        File docBase = new File(getTemporaryDirectory(), "sendfile");
+        Assert.assertTrue(docBase.mkdirs());
+        addDeleteOnTearDown(docBase);
+
+        // Several map windows, not aligned to a window boundary
+        int size = 3 * 1024 * 1024 + 12345;
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        FileOutputStream fos = new FileOutputStream(new File(docBase, "large.bin"));
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+
+        Context ctx = tomcat.addContext("", docBase.getAbsolutePath());
+        Wrapper w = Tomcat.addServlet(ctx, "default", new DefaultServlet());
+        w.addInitParameter("sendfileSize", "1");
+        ctx.addServletMapping("/", "default");
+
+        TesterSupport.initSsl(tomcat);
+        tomcat.getConnector().setAttribute("secureSendfileMapSize",
+                Integer.toString(1024 * 1024));
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("https://localhost:" + getPort() + "/large.bin");
+        Assert.assertEquals(size, res.getLength());
+        Assert.assertArrayEquals(content, Arrays.copyOfRange(
+                res.getBytes(), res.getStart(), res.getEnd()));
+    }
+
+
     boolean handshakeDone = false;
 
     @Test
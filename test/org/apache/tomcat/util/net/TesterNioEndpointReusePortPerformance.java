@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * Compares connection accept throughput and latency of the NIO connector with
+ * a single shared listening socket against one SO_REUSEPORT listening socket
+ * per poller. Every request uses a new connection so the accept path dominates.
+ */
+public class TesterNioEndpointReusePortPerformance extends TomcatBaseTest {
+
+    private static final int CLIENT_THREADS = 16;
+    private static final int CONNECTIONS_PER_THREAD = 2000;
+    private static final int POLLERS = 4;
+
+    private static final byte[] REQUEST = ("GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Connection: close\r\n" +
+            "\r\n").getBytes();
+
+
+    @Test
+    public void testAcceptThroughput() throws Exception {
+        Assume.assumeTrue("SO_REUSEPORT not supported",
+                JreCompat.getInstance().isReusePortSupported());
+
+        Tomcat tomcat = getTomcatInstance();
+
+        Connector single = createConnector(false);
+        Connector sharded = createConnector(true);
+        tomcat.getService().addConnector(single);
+        tomcat.getService().addConnector(sharded);
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        tomcat.start();
+
+        // Warm up both connectors
+        runLoad(single.getLocalPort(), CONNECTIONS_PER_THREAD / 10);
+        runLoad(sharded.getLocalPort(), CONNECTIONS_PER_THREAD / 10);
+
+        long[] singleResult = runLoad(single.getLocalPort(), CONNECTIONS_PER_THREAD);
+        long[] shardedResult = runLoad(sharded.getLocalPort(), CONNECTIONS_PER_THREAD);
+
+        report("Shared listening socket", singleResult);
+        report("SO_REUSEPORT per poller", shardedResult);
+    }
+
+
+    private Connector createConnector(boolean reusePort) {
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        connector.setPort(0);
+        connector.setProperty("pollerThreadCount", Integer.toString(POLLERS));
+        connector.setProperty("maxThreads", Integer.toString(POLLERS * 16));
+        connector.setProperty("reusePort", Boolean.toString(reusePort));
+        return connector;
+    }
+
+
+    /*
+     * Returns the elapsed time in ns followed by the per connection latencies
+     * in ns.
+     */
+    private long[] runLoad(final int port, final int connectionsPerThread)
+            throws Exception {
+        final long[] latencies = new long[CLIENT_THREADS * connectionsPerThread];
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[CLIENT_THREADS];
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            final int offset = i * connectionsPerThread;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[1024];
+                    for (int j = 0; j < connectionsPerThread; j++) {
+                        long start = System.nanoTime();
+                        try {
+                            Socket s = new Socket("localhost", port);
+                            try {
+                                OutputStream os = s.getOutputStream();
+                                os.write(REQUEST);
+                                os.flush();
+                                InputStream is = s.getInputStream();
+                                int total = 0;
+                                int read;
+                                while ((read = is.read(buf, total, buf.length - total)) > 0) {
+                                    total += read;
+                                    if (total == buf.length) {
+                                        total = 12;
+                                    }
+                                }
+                                if (total < 12 || buf[9] != '2') {
+                                    failures.incrementAndGet();
+                                }
+                            } finally {
+                                s.close();
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                        latencies[offset + j] = System.nanoTime() - start;
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertEquals(0, failures.get());
+
+        long[] result = new long[latencies.length + 1];
+        result[0] = elapsed;
+        System.arraycopy(latencies, 0, result, 1, latencies.length);
+        return result;
+    }
+
+
+    private static void report(String name, long[] result) {
+        long elapsed = result[0];
+        long[] latencies = Arrays.copyOfRange(result, 1, result.length);
+        Arrays.sort(latencies);
+        long p50 = latencies[latencies.length / 2];
+        long p99 = latencies[(int) (latencies.length * 0.99)];
+        double connectionsPerSecond = latencies.length * 1000000000.0 / elapsed;
+        System.out.println(name + ": " + latencies.length + " connections in " +
+                (elapsed / 1000000) + "ms, " + (long) connectionsPerSecond +
+                " connections/s, p50 " + (p50 / 1000) + "us, p99 " +
+                (p99 / 1000) + "us");
+    }
+}
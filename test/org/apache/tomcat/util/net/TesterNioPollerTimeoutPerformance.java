@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.collections.TimeoutWheel;
+
+/**
+ * Measures the cost of poller timeout processing with a large number of idle
+ * connections. The first test compares scanning every connection on each pass
+ * (the approach used before the timeout wheel) with expiring the wheel, using
+ * 100,000 simulated idle connections with a five minute timeout. The second
+ * test holds real idle connections open against the NIO connector and reports
+ * the CPU time used by the poller threads. The number of real connections is limited by the file descriptor
+ * limit of the process and may be set with the
+ * <code>tester.connections</code> system property.
+ */
+public class TesterNioPollerTimeoutPerformance extends TomcatBaseTest {
+
+    private static final int SIMULATED_CONNECTIONS = 100000;
+    private static final int PASSES = 600;
+    private static final long TIMEOUT = 300000;
+    private static final long INTERVAL = 1000;
+
+    private static final int CONNECTIONS =
+            Integer.getInteger("tester.connections", 100000).intValue();
+    private static final long IDLE_PERIOD = 20000;
+
+
+    @Test
+    public void testSimulatedTimeoutPass() {
+        // Mirrors Selector.keys()
+        Set<SimulatedKey> keys = new HashSet<SimulatedKey>();
+        TimeoutWheel<SimulatedKey> wheel = new TimeoutWheel<SimulatedKey>(INTERVAL, 512, 0);
+        for (int i = 0; i < SIMULATED_CONNECTIONS; i++) {
+            // Spread the connections out so some time out on each pass
+            SimulatedKey key = new SimulatedKey(-(i * TIMEOUT / SIMULATED_CONNECTIONS));
+            keys.add(key);
+            wheel.schedule(key.entry, key.lastAccess + TIMEOUT + 1);
+        }
+
+        long scanTime = 0;
+        long scanTimedOut = 0;
+        for (int pass = 1; pass <= PASSES; pass++) {
+            long start = System.nanoTime();
+            scanTimedOut += scan(keys, pass * INTERVAL);
+            scanTime += System.nanoTime() - start;
+        }
+
+        for (SimulatedKey key : keys) {
+            key.lastAccess = key.initialAccess;
+        }
+
+        long wheelTime = 0;
+        long wheelTimedOut = 0;
+        for (int pass = 1; pass <= PASSES; pass++) {
+            long start = System.nanoTime();
+            wheelTimedOut += expire(wheel, pass * INTERVAL);
+            wheelTime += System.nanoTime() - start;
+        }
+
+        // The wheel may be up to a tick later
+        Assert.assertTrue(scanTimedOut - wheelTimedOut <=
+                SIMULATED_CONNECTIONS * INTERVAL / TIMEOUT);
+        System.out.println(SIMULATED_CONNECTIONS + " connections, " + PASSES +
+                " timeout passes");
+        System.out.println("Scan all keys: " + (scanTime / 1000000) + "ms, " +
+                (scanTime / PASSES / 1000) + "us per pass, " + scanTimedOut +
+                " timed out");
+        System.out.println("Timeout wheel: " + (wheelTime / 1000000) + "ms, " +
+                (wheelTime / PASSES / 1000) + "us per pass, " + wheelTimedOut +
+                " timed out");
+    }
+
+
+    /*
+     * Mirrors the per key check of the original Poller.timeout() loop.
+     * Connections that time out are replaced by new ones.
+     */
+    private static int scan(Set<SimulatedKey> keys, long now) {
+        int timedOut = 0;
+        for (Iterator<SimulatedKey> iter = keys.iterator(); iter.hasNext();) {
+            SimulatedKey key = iter.next();
+            if ((key.interestOps & 1) == 1) {
+                long delta = now - key.lastAccess;
+                long timeout = key.timeout;
+                if (timeout > 0 && delta > timeout) {
+                    key.lastAccess = now;
+                    timedOut++;
+                }
+            }
+        }
+        return timedOut;
+    }
+
+
+    private final List<TimeoutWheel.Entry<SimulatedKey>> expired =
+            new ArrayList<TimeoutWheel.Entry<SimulatedKey>>();
+
+    private int expire(TimeoutWheel<SimulatedKey> wheel, long now) {
+        wheel.expire(now, expired);
+        int timedOut = 0;
+        for (int i = 0; i < expired.size(); i++) {
+            SimulatedKey key = expired.get(i).getItem();
+            if (now - key.lastAccess > key.timeout) {
+                key.lastAccess = now;
+                timedOut++;
+            }
+            wheel.schedule(key.entry, key.lastAccess + key.timeout + 1);
+        }
+        expired.clear();
+        return timedOut;
+    }
+
+
+    private static class SimulatedKey {
+        private final long initialAccess;
+        private volatile long lastAccess;
+        private volatile long timeout = TIMEOUT;
+        private volatile int interestOps = 1;
+        private final TimeoutWheel.Entry<SimulatedKey> entry =
+                new TimeoutWheel.Entry<SimulatedKey>(this);
+
+        SimulatedKey(long initialAccess) {
+            this.initialAccess = initialAccess;
+            this.lastAccess = initialAccess;
+        }
+    }
+
+
+    @Test
+    public void testIdleConnectionsPollerCpu() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        connector.setPort(0);
+        connector.setAttribute("connectionTimeout", "300000");
+        connector.setAttribute("maxConnections", Integer.toString(CONNECTIONS + 100));
+        connector.setAttribute("acceptCount", "1000");
+        tomcat.getService().addConnector(connector);
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        tomcat.start();
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            try {
+                for (int i = 0; i < CONNECTIONS; i++) {
+                    sockets.add(new Socket("localhost", connector.getLocalPort()));
+                }
+            } catch (IOException ioe) {
+                // Most likely out of file descriptors. Carry on with what we
+                // have.
+            }
+
+            // Let the pollers register everything
+            Thread.sleep(5000);
+
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            long[] pollerIds = findPollerThreads(threadBean);
+            Assert.assertTrue(pollerIds.length > 0);
+
+            long startCpu = cpuTime(threadBean, pollerIds);
+            Thread.sleep(IDLE_PERIOD);
+            long cpu = cpuTime(threadBean, pollerIds) - startCpu;
+
+            System.out.println(sockets.size() + " idle connections, " +
+                    pollerIds.length + " pollers: " + (cpu / 1000000) +
+                    "ms poller CPU over " + (IDLE_PERIOD / 1000) + "s");
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+
+    private static long[] findPollerThreads(ThreadMXBean threadBean) {
+        List<Long> ids = new ArrayList<Long>();
+        for (ThreadInfo info : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+            if (info != null && info.getThreadName().contains("ClientPoller")) {
+                ids.add(Long.valueOf(info.getThreadId()));
+            }
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i).longValue();
+        }
+        return result;
+    }
+
+
+    private static long cpuTime(ThreadMXBean threadBean, long[] ids) {
+        long total = 0;
+        for (long id : ids) {
+            total += threadBean.getThreadCpuTime(id);
+        }
+        return total;
+    }
+}
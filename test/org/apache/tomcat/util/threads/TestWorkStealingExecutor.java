@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWorkStealingExecutor {
+
+    @Test
+    public void testThreadsGrowBeforeQueueing() throws Exception {
+        WorkStealingExecutor executor = createExecutor(0, 4, 100);
+        CountDownLatch block = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 4; i++) {
+                executor.execute(new BlockingTask(block));
+            }
+            Assert.assertEquals(4, executor.getPoolSize());
+            Assert.assertEquals(0, executor.getQueueSize());
+
+            executor.execute(new BlockingTask(block));
+            Assert.assertEquals(4, executor.getPoolSize());
+            Assert.assertEquals(1, executor.getQueueSize());
+        } finally {
+            block.countDown();
+            executor.shutdown();
+        }
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(5, executor.getCompletedTaskCount());
+    }
+
+
+    @Test
+    public void testQueueFullRejects() throws Exception {
+        WorkStealingExecutor executor = createExecutor(0, 1, 2);
+        CountDownLatch block = new CountDownLatch(1);
+        try {
+            executor.execute(new BlockingTask(block));
+            executor.execute(new BlockingTask(block));
+            executor.execute(new BlockingTask(block));
+            try {
+                executor.execute(new BlockingTask(block), 50,
+                        TimeUnit.MILLISECONDS);
+                Assert.fail("Task should have been rejected");
+            } catch (RejectedExecutionException expected) {
+                // Expected
+            }
+        } finally {
+            block.countDown();
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testAllTasksComplete() throws Exception {
+        final WorkStealingExecutor executor = createExecutor(2, 8, 10000);
+        final int submitters = 4;
+        final int tasksPerSubmitter = 5000;
+        final CountDownLatch done =
+                new CountDownLatch(submitters * tasksPerSubmitter);
+        final AtomicInteger count = new AtomicInteger();
+        Thread[] threads = new Thread[submitters];
+        for (int i = 0; i < submitters; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < tasksPerSubmitter; j++) {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                count.incrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(submitters * tasksPerSubmitter, count.get());
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+
+    @Test
+    public void testIdleThreadsExit() throws Exception {
+        WorkStealingExecutor executor = new WorkStealingExecutor(1, 4, 50,
+                TimeUnit.MILLISECONDS, 2, 100,
+                new TaskThreadFactory("test-", true, Thread.NORM_PRIORITY));
+        CountDownLatch block = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(new BlockingTask(block));
+        }
+        Assert.assertEquals(4, executor.getPoolSize());
+        block.countDown();
+
+        int count = 0;
+        while (executor.getPoolSize() > 1 && count < 100) {
+            Thread.sleep(20);
+            count++;
+        }
+        Assert.assertEquals(1, executor.getPoolSize());
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testThreadsRenewedAfterContextStopping() throws Exception {
+        WorkStealingExecutor executor = new WorkStealingExecutor(2, 2, 50,
+                TimeUnit.MILLISECONDS, 2, 100,
+                new TaskThreadFactory("test-", true, Thread.NORM_PRIORITY));
+        executor.setThreadRenewalDelay(0);
+        Assert.assertEquals(2, executor.prestartAllCoreThreads());
+
+        final Thread[] before = new Thread[1];
+        CountDownLatch first = new CountDownLatch(1);
+        executor.execute(new RecordThreadTask(before, first));
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        // Ensure the new threads have a later creation time
+        Thread.sleep(10);
+        executor.contextStopping();
+
+        int count = 0;
+        while (before[0].isAlive() && count < 100) {
+            Thread.sleep(20);
+            count++;
+        }
+        Assert.assertFalse(before[0].isAlive());
+
+        final Thread[] after = new Thread[1];
+        CountDownLatch second = new CountDownLatch(1);
+        executor.execute(new RecordThreadTask(after, second));
+        Assert.assertTrue(second.await(5, TimeUnit.SECONDS));
+        Assert.assertNotSame(before[0], after[0]);
+        Assert.assertEquals(2, executor.getPoolSize());
+        executor.shutdown();
+    }
+
+
+    private static WorkStealingExecutor createExecutor(int core, int max,
+            int maxQueueSize) {
+        return new WorkStealingExecutor(core, max, 60, TimeUnit.SECONDS, 2,
+                maxQueueSize,
+                new TaskThreadFactory("test-", true, Thread.NORM_PRIORITY));
+    }
+
+
+    private static class BlockingTask implements Runnable {
+
+        private final CountDownLatch latch;
+
+        BlockingTask(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+    }
+
+
+    private static class RecordThreadTask implements Runnable {
+
+        private final Thread[] holder;
+        private final CountDownLatch latch;
+
+        RecordThreadTask(Thread[] holder, CountDownLatch latch) {
+            this.holder = holder;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            holder[0] = Thread.currentThread();
+            latch.countDown();
+        }
+    }
+}